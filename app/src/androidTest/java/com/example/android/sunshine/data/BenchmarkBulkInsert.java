@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Random;
+
+import static junit.framework.Assert.assertEquals;
+
+/**
+ * Measures what each row costs to insert through bulkInsert, from 10 rows up to 100,000, with
+ * the loop bulkInsert used to have (SQLiteDatabase#insert, which compiles an INSERT for every
+ * row) against the one it has now
+ * ({@link WeatherProvider#insertValues(SQLiteDatabase, SQLiteStatement, ContentValues[],
+ * boolean)}, which compiles one and binds each row into it). Both insert the same rows into an
+ * empty weather table in a single transaction.
+ * <p>
+ * Results are written to logcat under the "BulkInsert" tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BenchmarkBulkInsert {
+
+    private static final String LOG_TAG = "BulkInsert";
+
+    private static final int[] ROW_COUNTS = {10, 100, 1000, 10000, 100000};
+
+    /* Small inserts are repeated until about this many rows have been timed */
+    private static final int MIN_ROWS_MEASURED = 20000;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    private SQLiteDatabase mDatabase;
+
+    @Before
+    public void setUp() {
+        mDatabase = new WeatherDbHelper(mContext).getWritableDatabase();
+        mDatabase.delete(WeatherEntry.TABLE_NAME, null, null);
+    }
+
+    @After
+    public void tearDown() {
+        mDatabase.delete(WeatherEntry.TABLE_NAME, null, null);
+        mDatabase.close();
+    }
+
+    @Test
+    public void benchmarkBulkInsertPerRowCost() {
+        /* One warm up round of each, so neither pays for loading SQLite's code */
+        measure(createRows(ROW_COUNTS[2]), false);
+        measure(createRows(ROW_COUNTS[2]), true);
+
+        for (int rowCount : ROW_COUNTS) {
+            ContentValues[] rows = createRows(rowCount);
+
+            double loopMicros = measure(rows, false);
+            double compiledMicros = measure(rows, true);
+
+            Log.i(LOG_TAG, String.format("%6d rows: SQLiteDatabase#insert %6.2f us/row"
+                            + " | compiled statement %6.2f us/row (%.2fx)",
+                    rowCount, loopMicros, compiledMicros, loopMicros / compiledMicros));
+        }
+    }
+
+    /**
+     * @return The average time, in microseconds, each row took to insert
+     */
+    private double measure(ContentValues[] rows, boolean compiled) {
+        int repetitions = Math.max(1, MIN_ROWS_MEASURED / rows.length);
+
+        long totalNanos = 0;
+        for (int i = 0; i < repetitions; i++) {
+            mDatabase.delete(WeatherEntry.TABLE_NAME, null, null);
+
+            long start = SystemClock.elapsedRealtimeNanos();
+            int inserted = compiled ? insertCompiled(rows) : insertLoop(rows);
+            totalNanos += SystemClock.elapsedRealtimeNanos() - start;
+
+            assertEquals(rows.length, inserted);
+        }
+        return totalNanos / 1e3 / repetitions / rows.length;
+    }
+
+    /* What bulkInsert used to do */
+    private int insertLoop(ContentValues[] rows) {
+        int rowsInserted = 0;
+        mDatabase.beginTransaction();
+        try {
+            for (ContentValues row : rows) {
+                if (mDatabase.insert(WeatherEntry.TABLE_NAME, null, row) != -1) {
+                    rowsInserted++;
+                }
+            }
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mDatabase.endTransaction();
+        }
+        return rowsInserted;
+    }
+
+    /* What bulkInsert does now */
+    private int insertCompiled(ContentValues[] rows) {
+        int rowsInserted;
+        mDatabase.beginTransaction();
+        SQLiteStatement insert = WeatherProvider.compileInsert(mDatabase);
+        try {
+            rowsInserted = WeatherProvider.insertValues(mDatabase, insert, rows, false);
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            insert.close();
+            mDatabase.endTransaction();
+        }
+        return rowsInserted;
+    }
+
+    /* One row per day, as the sync would insert them */
+    private static ContentValues[] createRows(int count) {
+        return TestUtilities.createRandomForecast(
+                SunshineDateUtils.getNormalizedUtcDateForToday(),
+                SunshineDateUtils.DAY_IN_MILLIS,
+                count,
+                new Random(count)).toContentValues();
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.sunshine.DetailActivity;
+import com.example.android.sunshine.MainActivity;
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Runs the queries MainActivity's and DetailActivity's loaders make, at a steady 60 a second,
+ * while another thread stores one large forecast after another, and reports how long the
+ * queries took (median and 99th percentile) with write-ahead logging and with SQLite's default
+ * rollback journal. With the rollback journal, a query that arrives while a forecast is being
+ * written has to wait for the whole transaction.
+ * <p>
+ * Each mode uses a database of its own, so the app's data is left alone. Results are written to
+ * logcat under the "ConcurrentReads" tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BenchmarkConcurrentReads {
+
+    private static final String LOG_TAG = "ConcurrentReads";
+
+    private static final String WAL_DATABASE_NAME = "benchmark_wal.db";
+    private static final String ROLLBACK_DATABASE_NAME = "benchmark_rollback.db";
+
+    /* A forecast big enough that writing it holds the transaction for a while */
+    private static final int SYNC_DAYS = 5000;
+    private static final long PAUSE_BETWEEN_SYNCS_MILLIS = 20;
+
+    /* One query a frame, for long enough to see a good few syncs */
+    private static final long QUERY_INTERVAL_MILLIS = 16;
+    private static final int WARMUP_QUERIES = 30;
+    private static final int MEASURED_QUERIES = 600;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    @After
+    public void tearDown() {
+        mContext.deleteDatabase(WAL_DATABASE_NAME);
+        mContext.deleteDatabase(ROLLBACK_DATABASE_NAME);
+    }
+
+    @Test
+    public void benchmarkQueriesDuringSyncs() throws Exception {
+        long[] rollbackMicros = measure(ROLLBACK_DATABASE_NAME, false);
+        long[] walMicros = measure(WAL_DATABASE_NAME, true);
+
+        Log.i(LOG_TAG, String.format("Rollback journal: p50 %7d us | p99 %7d us | max %7d us",
+                percentile(rollbackMicros, 50), percentile(rollbackMicros, 99),
+                percentile(rollbackMicros, 100)));
+        Log.i(LOG_TAG, String.format("Write-ahead log:  p50 %7d us | p99 %7d us | max %7d us",
+                percentile(walMicros, 50), percentile(walMicros, 99),
+                percentile(walMicros, 100)));
+    }
+
+    /**
+     * @return How long each measured query took, in microseconds, sorted
+     */
+    private long[] measure(String databaseName, boolean writeAheadLogging) throws Exception {
+        mContext.deleteDatabase(databaseName);
+        final WeatherDbHelper dbHelper =
+                new WeatherDbHelper(mContext, databaseName, writeAheadLogging);
+        final SQLiteDatabase db = dbHelper.getWritableDatabase();
+
+        final long today = SunshineDateUtils.getNormalizedUtcDateForToday();
+        storeForecast(db, createForecast(today, new Random(0)));
+
+        final AtomicBoolean stop = new AtomicBoolean();
+        final AtomicInteger syncs = new AtomicInteger();
+        Thread syncThread = new Thread("BenchmarkSync") {
+            @Override
+            public void run() {
+                Random random = new Random(1);
+                while (!stop.get()) {
+                    storeForecast(db, createForecast(today, random));
+                    syncs.incrementAndGet();
+                    SystemClock.sleep(PAUSE_BETWEEN_SYNCS_MILLIS);
+                }
+            }
+        };
+        syncThread.start();
+
+        long[] micros = new long[MEASURED_QUERIES];
+        try {
+            long nextQuery = SystemClock.elapsedRealtime();
+            for (int i = 0; i < WARMUP_QUERIES + MEASURED_QUERIES; i++) {
+                long wait = nextQuery - SystemClock.elapsedRealtime();
+                if (wait > 0) {
+                    SystemClock.sleep(wait);
+                }
+                nextQuery += QUERY_INTERVAL_MILLIS;
+
+                long start = SystemClock.elapsedRealtimeNanos();
+                queryLikeTheUi(dbHelper, today);
+                long elapsed = SystemClock.elapsedRealtimeNanos() - start;
+
+                if (i >= WARMUP_QUERIES) {
+                    micros[i - WARMUP_QUERIES] = elapsed / 1000;
+                }
+            }
+        } finally {
+            stop.set(true);
+            syncThread.join();
+            dbHelper.close();
+        }
+
+        assertTrue("No syncs ran while the queries did", syncs.get() > 0);
+        Arrays.sort(micros);
+        return micros;
+    }
+
+    /* The forecast list, then the detail of today, as the two activities load them */
+    private static void queryLikeTheUi(WeatherDbHelper dbHelper, long today) {
+        SQLiteDatabase db = dbHelper.getReadableDatabase();
+
+        Cursor forecast = db.query(WeatherEntry.TABLE_NAME,
+                MainActivity.MAIN_FORECAST_PROJECTION,
+                WeatherEntry.getSqlSelectForTodayOnwards(),
+                null,
+                null,
+                null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+        /* getCount fills the cursor's window, which is where the rows are actually read */
+        forecast.getCount();
+        forecast.close();
+
+        Cursor detail = db.query(WeatherEntry.TABLE_NAME,
+                DetailActivity.WEATHER_DETAIL_PROJECTION,
+                WeatherEntry.COLUMN_DATE + " = ? ",
+                new String[]{Long.toString(today)},
+                null,
+                null,
+                null);
+        detail.getCount();
+        detail.close();
+    }
+
+    /* Replaces the stored forecast in one transaction, as a full sync does */
+    private static void storeForecast(SQLiteDatabase db, ForecastBatch forecast) {
+        db.beginTransaction();
+        SQLiteStatement insert = WeatherProvider.compileInsert(db);
+        try {
+            db.delete(WeatherEntry.TABLE_NAME, "1", null);
+            WeatherProvider.insertForecast(insert, forecast);
+            db.setTransactionSuccessful();
+        } finally {
+            insert.close();
+            db.endTransaction();
+        }
+    }
+
+    /* A sync's worth of days from today */
+    private static ForecastBatch createForecast(long today, Random random) {
+        return TestUtilities.createRandomForecast(today, SunshineDateUtils.DAY_IN_MILLIS,
+                SYNC_DAYS, random);
+    }
+
+    /* The value below which the given percentage of the sorted values fall */
+    private static long percentile(long[] sorted, int percent) {
+        int index = (int) Math.ceil(sorted.length * percent / 100.0) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.sunshine.data.WeatherContract.HourlyEntry;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Random;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Measures how the hourly table copes as it grows: the cost of inserting each thousand rows
+ * through {@link WeatherContract#METHOD_BULK_INSERT_BATCH}, and the cost of reading a day's
+ * hours back through {@link HourlyEntry#buildHourlyUriWithRange(long, long)}, at sizes from
+ * a daily forecast's worth of hours up to about 40 times that. For comparison the same range is
+ * also read with the index on the time column switched off (SQLite's NOT INDEXED).
+ * <p>
+ * Results are written to logcat under the "HourlyForecast" tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BenchmarkHourlyForecast {
+
+    private static final String LOG_TAG = "HourlyForecast";
+
+    /* From two weeks of 3-hourly periods up to 40 times the 1000 row table */
+    private static final int[] TABLE_ROWS = {112, 1000, 5000, 10000, 40000};
+
+    private static final int INSERT_CHUNK_ROWS = 1000;
+    private static final int HOURS_PER_DAY = 24;
+
+    private static final int WARMUP_QUERIES = 20;
+    private static final int MEASURED_QUERIES = 200;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    private SQLiteDatabase mDatabase;
+
+    @Before
+    public void setUp() {
+        mDatabase = new WeatherDbHelper(mContext).getWritableDatabase();
+        mDatabase.delete(HourlyEntry.TABLE_NAME, null, null);
+    }
+
+    @After
+    public void tearDown() {
+        mDatabase.delete(HourlyEntry.TABLE_NAME, null, null);
+        mDatabase.close();
+    }
+
+    @Test
+    public void benchmarkInsertAndRangeQueryAsTableGrows() {
+        Random random = new Random(42);
+        long firstHour = SunshineDateUtils.getNormalizedUtcDateForToday();
+
+        double smallestQueryMicros = 0;
+        double largestQueryMicros = 0;
+        int rowsStored = 0;
+
+        for (int tableRows : TABLE_ROWS) {
+            /* Grow the table to the next size, timing each thousand rows we add */
+            long insertNanos = 0;
+            int rowsInserted = 0;
+            while (rowsStored < tableRows) {
+                int chunk = Math.min(INSERT_CHUNK_ROWS, tableRows - rowsStored);
+                ForecastBatch batch = TestUtilities.createRandomForecast(
+                        firstHour + rowsStored * SunshineDateUtils.HOUR_IN_MILLIS,
+                        SunshineDateUtils.HOUR_IN_MILLIS,
+                        chunk,
+                        random);
+
+                long start = SystemClock.elapsedRealtimeNanos();
+                int inserted = insert(batch);
+                insertNanos += SystemClock.elapsedRealtimeNanos() - start;
+
+                assertEquals(chunk, inserted);
+                rowsStored += chunk;
+                rowsInserted += chunk;
+            }
+
+            double indexedMicros = measureDayQueries(firstHour, tableRows, random, true);
+            double scanMicros = measureDayQueries(firstHour, tableRows, random, false);
+
+            Log.i(LOG_TAG, String.format("%6d rows: insert %7.2f ms/1000 rows"
+                            + " | day query %8.1f us (%8.1f us/1000 rows)"
+                            + " | without index %8.1f us",
+                    tableRows,
+                    insertNanos / 1e6 / rowsInserted * 1000,
+                    indexedMicros,
+                    indexedMicros / HOURS_PER_DAY * 1000,
+                    scanMicros));
+
+            if (smallestQueryMicros == 0) {
+                smallestQueryMicros = indexedMicros;
+            }
+            largestQueryMicros = indexedMicros;
+        }
+
+        /*
+         * With the index, reading a day costs about the same however big the table is. Leave
+         * plenty of room for noise; a full scan of the largest table is hundreds of times slower.
+         */
+        assertTrue("Reading a day's hours got much slower as the table grew",
+                largestQueryMicros < smallestQueryMicros * 4);
+    }
+
+    private int insert(ForecastBatch batch) {
+        Bundle result = mContext.getContentResolver().call(
+                HourlyEntry.CONTENT_URI,
+                WeatherContract.METHOD_BULK_INSERT_BATCH,
+                HourlyEntry.CONTENT_URI.toString(),
+                batch.toBundle());
+        return result.getInt(WeatherContract.EXTRA_ROWS_INSERTED);
+    }
+
+    /**
+     * @return The average time, in microseconds, to read all the columns of a random day's hours
+     */
+    private double measureDayQueries(long firstHour, int tableRows, Random random,
+            boolean indexed) {
+        int tableDays = Math.max(1, tableRows / HOURS_PER_DAY);
+
+        long totalNanos = 0;
+        for (int i = 0; i < WARMUP_QUERIES + MEASURED_QUERIES; i++) {
+            long dayStart = firstHour + random.nextInt(tableDays) * SunshineDateUtils.DAY_IN_MILLIS;
+            long dayEnd = dayStart + SunshineDateUtils.DAY_IN_MILLIS;
+
+            long start = SystemClock.elapsedRealtimeNanos();
+            Cursor cursor = indexed
+                    ? queryProvider(dayStart, dayEnd)
+                    : queryNotIndexed(dayStart, dayEnd);
+            /* getCount fills the cursor's window, which is where the rows are actually read */
+            int count = cursor.getCount();
+            cursor.close();
+            long elapsed = SystemClock.elapsedRealtimeNanos() - start;
+
+            assertTrue(count > 0);
+            if (i >= WARMUP_QUERIES) {
+                totalNanos += elapsed;
+            }
+        }
+        return totalNanos / 1e3 / MEASURED_QUERIES;
+    }
+
+    private Cursor queryProvider(long startTime, long endTime) {
+        ContentResolver contentResolver = mContext.getContentResolver();
+        return contentResolver.query(HourlyEntry.buildHourlyUriWithRange(startTime, endTime),
+                null, null, null, HourlyEntry.COLUMN_TIME + " ASC");
+    }
+
+    private Cursor queryNotIndexed(long startTime, long endTime) {
+        return mDatabase.rawQuery("SELECT * FROM " + HourlyEntry.TABLE_NAME + " NOT INDEXED"
+                        + " WHERE " + HourlyEntry.COLUMN_TIME + " >= ?"
+                        + " AND " + HourlyEntry.COLUMN_TIME + " < ?"
+                        + " ORDER BY " + HourlyEntry.COLUMN_TIME + " ASC",
+                new String[]{Long.toString(startTime), Long.toString(endTime)});
+    }
+}
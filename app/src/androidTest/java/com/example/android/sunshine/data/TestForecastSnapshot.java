@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.MainActivity;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+
+/**
+ * Tests that {@link ForecastSnapshot} reads back what it wrote, and that any damage to the file
+ * makes it fall back to the ContentProvider rather than show the wrong forecast.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestForecastSnapshot {
+
+    private static final int DAYS = 14;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    private File mFile;
+    private long mToday;
+
+    @Before
+    public void setUp() {
+        mFile = ForecastSnapshot.getSnapshotFile(mContext);
+        mFile.delete();
+        mToday = SunshineDateUtils.getNormalizedUtcDateForToday();
+    }
+
+    @After
+    public void tearDown() {
+        ForecastSnapshot.delete(mContext);
+    }
+
+    @Test
+    public void testSnapshotRoundTrip() throws IOException {
+        ForecastBatch forecast = createForecast(mToday);
+        ForecastSnapshot.write(mFile, forecast, System.currentTimeMillis());
+
+        ForecastBatch read = ForecastSnapshot.read(mFile);
+        assertNotNull("A snapshot we just wrote should be readable", read);
+        assertEquals(DAYS, read.size());
+        for (int day = 0; day < DAYS; day++) {
+            assertEquals(forecast.getDate(day), read.getDate(day));
+            assertEquals(forecast.getWeatherId(day), read.getWeatherId(day));
+            assertEquals(forecast.getMinTemp(day), read.getMinTemp(day));
+            assertEquals(forecast.getMaxTemp(day), read.getMaxTemp(day));
+            /* These are stored as floats */
+            assertEquals(forecast.getHumidity(day), read.getHumidity(day), 1e-4);
+            assertEquals(forecast.getPressure(day), read.getPressure(day), 1e-3);
+            assertEquals(forecast.getWindSpeed(day), read.getWindSpeed(day), 1e-4);
+            assertEquals(forecast.getDegrees(day), read.getDegrees(day), 1e-4);
+        }
+    }
+
+    @Test
+    public void testQueryReturnsOnlyRequestedDaysAndColumns() throws IOException {
+        /* Start yesterday, so there is a day the first frame should leave out */
+        long yesterday = mToday - SunshineDateUtils.DAY_IN_MILLIS;
+        ForecastSnapshot.write(mFile, createForecast(yesterday), System.currentTimeMillis());
+
+        Cursor cursor = ForecastSnapshot.queryFromToday(mContext,
+                MainActivity.MAIN_FORECAST_PROJECTION);
+        assertNotNull(cursor);
+        try {
+            assertEquals(DAYS - 1, cursor.getCount());
+            assertEquals(MainActivity.MAIN_FORECAST_PROJECTION.length, cursor.getColumnCount());
+
+            cursor.moveToFirst();
+            assertEquals(mToday, cursor.getLong(MainActivity.INDEX_WEATHER_DATE));
+            assertEquals(801, cursor.getInt(MainActivity.INDEX_WEATHER_CONDITION_ID));
+            assertEquals(11.0, cursor.getDouble(MainActivity.INDEX_WEATHER_MIN_TEMP));
+            assertEquals(21.5, cursor.getDouble(MainActivity.INDEX_WEATHER_MAX_TEMP));
+        } finally {
+            cursor.close();
+        }
+
+        long pastTheEnd = mToday + DAYS * SunshineDateUtils.DAY_IN_MILLIS;
+        assertNull("Days the snapshot doesn't have should be read from the provider",
+                ForecastSnapshot.query(mContext, MainActivity.MAIN_FORECAST_PROJECTION,
+                        pastTheEnd, pastTheEnd));
+    }
+
+    @Test
+    public void testCorruptSnapshotIsIgnored() throws IOException {
+        ForecastSnapshot.write(mFile, createForecast(mToday), System.currentTimeMillis());
+
+        /* Flip one bit in the middle of the records */
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        try {
+            long offset = file.length() / 2;
+            file.seek(offset);
+            int value = file.read();
+            file.seek(offset);
+            file.write(value ^ 0x10);
+        } finally {
+            file.close();
+        }
+
+        assertNull("A snapshot that fails its checksum should be ignored",
+                ForecastSnapshot.read(mFile));
+        assertNull(ForecastSnapshot.queryFromToday(mContext,
+                MainActivity.MAIN_FORECAST_PROJECTION));
+    }
+
+    @Test
+    public void testTruncatedSnapshotIsIgnored() throws IOException {
+        ForecastSnapshot.write(mFile, createForecast(mToday), System.currentTimeMillis());
+
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        try {
+            file.setLength(file.length() - 10);
+        } finally {
+            file.close();
+        }
+
+        assertNull("A snapshot that was cut short should be ignored",
+                ForecastSnapshot.read(mFile));
+    }
+
+    @Test
+    public void testOversizedSnapshotIsIgnored() throws IOException {
+        ForecastSnapshot.write(mFile, createForecast(mToday), System.currentTimeMillis());
+
+        /* MainActivity reads the snapshot on the main thread, so a huge file must be refused */
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        try {
+            file.setLength(64 * 1024);
+        } finally {
+            file.close();
+        }
+
+        assertNull(ForecastSnapshot.read(mFile));
+    }
+
+    @Test
+    public void testSnapshotFromAnotherVersionIsIgnored() throws IOException {
+        ForecastSnapshot.write(mFile, createForecast(mToday), System.currentTimeMillis());
+
+        /* The version is the little-endian short right after the magic number */
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        try {
+            file.seek(4);
+            file.write(2);
+        } finally {
+            file.close();
+        }
+
+        assertNull(ForecastSnapshot.read(mFile));
+    }
+
+    @Test
+    public void testMissingSnapshotIsIgnored() {
+        assertNull(ForecastSnapshot.read(mFile));
+        assertNull(ForecastSnapshot.queryFromToday(mContext,
+                MainActivity.MAIN_FORECAST_PROJECTION));
+    }
+
+    private static ForecastBatch createForecast(long firstDate) {
+        ForecastBatch forecast = new ForecastBatch(DAYS);
+        for (int day = 0; day < DAYS; day++) {
+            forecast.add(firstDate + day * SunshineDateUtils.DAY_IN_MILLIS,
+                    800 + day % 5,
+                    10.0 + day,
+                    20.5 + day,
+                    60.25 + day,
+                    1013.5 + day,
+                    3.75 + day,
+                    90.5 + day);
+        }
+        return forecast;
+    }
+}
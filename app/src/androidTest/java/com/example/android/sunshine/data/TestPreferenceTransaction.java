@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+/**
+ * Tests that a {@link PreferenceTransaction} holds back the writes made while it is open and
+ * that, once committed, the preferences end up exactly as if each write had been made directly.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestPreferenceTransaction {
+
+    private static final String FIRST_PREFS_NAME = "test_transaction_first";
+    private static final String SECOND_PREFS_NAME = "test_transaction_second";
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    private SharedPreferences mFirst;
+    private SharedPreferences mSecond;
+
+    @Before
+    public void setUp() {
+        mFirst = mContext.getSharedPreferences(FIRST_PREFS_NAME, Context.MODE_PRIVATE);
+        mSecond = mContext.getSharedPreferences(SECOND_PREFS_NAME, Context.MODE_PRIVATE);
+        mFirst.edit().clear().commit();
+        mSecond.edit().clear().commit();
+    }
+
+    @After
+    public void tearDown() {
+        setUp();
+    }
+
+    @Test
+    public void testWritesAreHeldUntilCommit() {
+        mFirst.edit().putString("removed", "old").commit();
+
+        PreferenceTransaction transaction = PreferenceTransaction.begin();
+        PreferenceTransaction.edit(mFirst).putLong("long", 1).apply();
+        PreferenceTransaction.edit(mFirst).putLong("long", 2).remove("removed").apply();
+        PreferenceTransaction.edit(mSecond).putString("string", "value").putBoolean("bool", true)
+                .apply();
+        /* Never applied, so never written */
+        PreferenceTransaction.edit(mSecond).putInt("int", 3);
+
+        assertFalse(mFirst.contains("long"));
+        assertEquals("old", mFirst.getString("removed", null));
+        assertFalse(mSecond.contains("string"));
+
+        /* Three writes to two files */
+        assertEquals(1, transaction.commit());
+
+        assertEquals(2, mFirst.getLong("long", 0));
+        assertFalse(mFirst.contains("removed"));
+        assertEquals("value", mSecond.getString("string", null));
+        assertEquals(true, mSecond.getBoolean("bool", false));
+        assertFalse(mSecond.contains("int"));
+    }
+
+    @Test
+    public void testClearDropsEarlierWrites() {
+        mFirst.edit().putString("kept", "no").commit();
+
+        PreferenceTransaction transaction = PreferenceTransaction.begin();
+        PreferenceTransaction.edit(mFirst).putFloat("float", 1f).apply();
+        PreferenceTransaction.edit(mFirst).clear().putString("after", "yes").apply();
+        transaction.commit();
+
+        assertEquals(1, mFirst.getAll().size());
+        assertEquals("yes", mFirst.getString("after", null));
+    }
+
+    @Test
+    public void testDiscardDropsWrites() {
+        mFirst.edit().putString("kept", "old").commit();
+
+        PreferenceTransaction transaction = PreferenceTransaction.begin();
+        PreferenceTransaction.edit(mFirst).putString("kept", "new").putLong("long", 1).apply();
+        transaction.discard();
+
+        assertEquals("old", mFirst.getString("kept", null));
+        assertFalse(mFirst.contains("long"));
+
+        /* The next write on this thread isn't buffered by the discarded transaction */
+        PreferenceTransaction.edit(mFirst).putLong("long", 2).apply();
+        assertEquals(2, mFirst.getLong("long", 0));
+    }
+
+    @Test
+    public void testOtherThreadsWriteDirectly() throws InterruptedException {
+        PreferenceTransaction transaction = PreferenceTransaction.begin();
+        try {
+            Thread other = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    PreferenceTransaction.edit(mFirst).putString("other", "value").apply();
+                }
+            });
+            other.start();
+            other.join();
+
+            assertEquals("value", mFirst.getString("other", null));
+        } finally {
+            assertEquals(0, transaction.commit());
+        }
+    }
+
+    @Test
+    public void testWritesGoStraightThroughWithoutTransaction() {
+        PreferenceTransaction transaction = PreferenceTransaction.begin();
+        SharedPreferences.Editor lateEditor = PreferenceTransaction.edit(mFirst);
+        assertEquals(0, transaction.commit());
+
+        /* An editor that outlives its transaction writes for itself */
+        lateEditor.putString("late", "value").apply();
+        assertEquals("value", mFirst.getString("late", null));
+
+        PreferenceTransaction.edit(mFirst).putString("direct", "value").apply();
+        assertEquals("value", mFirst.getString("direct", null));
+    }
+
+    @Test
+    public void testOneTransactionAtATime() {
+        PreferenceTransaction transaction = PreferenceTransaction.begin();
+        try {
+            PreferenceTransaction.begin();
+            fail("Expected an IllegalStateException");
+        } catch (IllegalStateException expected) {
+        } finally {
+            transaction.commit();
+        }
+
+        try {
+            transaction.commit();
+            fail("Expected an IllegalStateException");
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    @Test
+    public void testSunshinePreferencesWritesAreBuffered() {
+        String url = "http://example.com/forecast";
+        SunshinePreferences.saveHttpValidators(mContext, url, null, null);
+
+        PreferenceTransaction transaction = PreferenceTransaction.begin();
+        SunshinePreferences.saveHttpValidators(mContext, url, "\"etag\"", null);
+        SunshinePreferences.saveLastFullForecastTime(mContext, url, 1000);
+        assertNull(SunshinePreferences.getHttpETag(mContext, url));
+
+        /* Both writes were to the same file */
+        assertEquals(1, transaction.commit());
+        assertEquals("\"etag\"", SunshinePreferences.getHttpETag(mContext, url));
+        assertEquals(1000, SunshinePreferences.getLastFullForecastTime(mContext, url));
+
+        SunshinePreferences.saveHttpValidators(mContext, url, null, null);
+        SunshinePreferences.saveLastFullForecastTime(mContext, url, 0);
+    }
+
+    @Test
+    public void testLocationIsNotBuffered() {
+        PreferenceTransaction transaction = PreferenceTransaction.begin();
+        try {
+            SunshinePreferences.setLocationDetails(mContext, 12.5, -45.25);
+            assertTrue(SunshinePreferences.isLocationLatLonAvailable(mContext));
+
+            /* The user changes the location before the sync is over */
+            SunshinePreferences.resetLocationCoordinates(mContext);
+        } finally {
+            transaction.commit();
+        }
+
+        assertFalse(SunshinePreferences.isLocationLatLonAvailable(mContext));
+    }
+}
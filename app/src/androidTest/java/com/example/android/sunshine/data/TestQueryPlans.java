@@ -0,0 +1,420 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.DetailActivity;
+import com.example.android.sunshine.MainActivity;
+import com.example.android.sunshine.data.WeatherContract.HistoryEntry;
+import com.example.android.sunshine.data.WeatherContract.HourlyEntry;
+import com.example.android.sunshine.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.data.WeatherContract.LocationWeatherEntry;
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.utilities.NotificationUtils;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+/**
+ * Asks SQLite how it would run each query the app makes of the weather database (EXPLAIN QUERY
+ * PLAN), with 100,000 rows in each table, and fails if any of them would read a whole table, or
+ * sort its results itself rather than read them from an index in order. Either one costs
+ * nothing with a week of forecast and a great deal with a few years of it, so a test with a
+ * small table would never notice.
+ * <p>
+ * The queries are built from the same projections, selections and sort orders the app uses, so
+ * a change to one of those is checked here too. If you add a query to the app, add it to
+ * {@link #buildAppQueries()}.
+ * <p>
+ * The tables are filled in a database of their own, so the app's data is left alone.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestQueryPlans {
+
+    private static final String DATABASE_NAME = "query_plans.db";
+
+    private static final int ROWS = 100000;
+
+    /* The location_weather table gets its ROWS as this many locations' forecasts */
+    private static final int LOCATIONS = 500;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    private WeatherDbHelper mDbHelper;
+    private SQLiteDatabase mDatabase;
+
+    /* A query the app makes, with the arguments to explain it with */
+    private static class AppQuery {
+        final String name;
+        final String sql;
+        final String[] args;
+
+        /*
+         * Whether the query means to read every row, like the list of stored dates
+         * WeatherProvider#deleteDaysOtherThan compares a new forecast to, or the locations past
+         * the first MAX_LOCATIONS that eviction walks. Those still have to read them from a
+         * covering index rather than from the table.
+         */
+        final boolean readsEveryRow;
+
+        AppQuery(String name, String sql, String[] args, boolean readsEveryRow) {
+            this.name = name;
+            this.sql = sql;
+            this.args = args;
+            this.readsEveryRow = readsEveryRow;
+        }
+    }
+
+    @Before
+    public void setUp() {
+        mContext.deleteDatabase(DATABASE_NAME);
+        mDbHelper = new WeatherDbHelper(mContext, DATABASE_NAME, true);
+        mDatabase = mDbHelper.getWritableDatabase();
+
+        /* Half the days are in the past, so "from today onwards" really does skip some */
+        long today = SunshineDateUtils.getNormalizedUtcDateForToday();
+        long firstDay = today - (ROWS / 2) * SunshineDateUtils.DAY_IN_MILLIS;
+
+        ForecastBatch days = new ForecastBatch(ROWS);
+        ForecastBatch hours = new ForecastBatch(ROWS);
+        for (int i = 0; i < ROWS; i++) {
+            days.add(firstDay + i * SunshineDateUtils.DAY_IN_MILLIS,
+                    800 + i % 5, 10 + i % 7, 20 + i % 7, 50, 1000, 5, i % 360);
+            hours.add(firstDay + i * SunshineDateUtils.HOUR_IN_MILLIS,
+                    800 + i % 5, 10 + i % 7, 20 + i % 7, 50, 1000, 5, i % 360);
+        }
+
+        mDatabase.beginTransaction();
+        SQLiteStatement insert = WeatherProvider.compileInsert(mDatabase);
+        SQLiteStatement hourlyInsert = WeatherProvider.compileHourlyInsert(mDatabase);
+        SQLiteStatement archive = mDatabase.compileStatement(
+                WeatherProvider.SQL_ARCHIVE_WEATHER_BEFORE);
+        try {
+            WeatherProvider.insertForecast(insert, days);
+            WeatherProvider.insertHourlyForecast(hourlyInsert, hours);
+
+            /* A copy of every day in the history too, without deleting them from the forecast */
+            archive.bindLong(1, Long.MAX_VALUE);
+            archive.bindLong(9, System.currentTimeMillis());
+            archive.executeUpdateDelete();
+
+            /* Each location's days are also half in the past */
+            int locationDayCount = ROWS / LOCATIONS;
+            long firstLocationDay =
+                    today - (locationDayCount / 2) * SunshineDateUtils.DAY_IN_MILLIS;
+            ForecastBatch locationDays = new ForecastBatch(locationDayCount);
+            for (int i = 0; i < locationDayCount; i++) {
+                locationDays.add(firstLocationDay + i * SunshineDateUtils.DAY_IN_MILLIS,
+                        800 + i % 5, 10 + i % 7, 20 + i % 7, 50, 1000, 5, i % 360);
+            }
+            for (int i = 0; i < LOCATIONS; i++) {
+                ContentValues location = new ContentValues();
+                location.put(LocationEntry.COLUMN_LOCATION_SETTING, "Location " + i);
+                location.put(LocationEntry.COLUMN_LAST_USED, i);
+                long locationId = mDatabase.insert(LocationEntry.TABLE_NAME, null, location);
+
+                SQLiteStatement locationInsert =
+                        WeatherProvider.compileLocationInsert(mDatabase, locationId);
+                try {
+                    WeatherProvider.insertForecast(locationInsert, locationDays);
+                } finally {
+                    locationInsert.close();
+                }
+            }
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            insert.close();
+            hourlyInsert.close();
+            archive.close();
+            mDatabase.endTransaction();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        mDbHelper.close();
+        mContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    /**
+     * Every query the app makes must find its rows through an index, and none may sort.
+     */
+    @Test
+    public void testNoQueryScansATable() {
+        StringBuilder failures = new StringBuilder();
+
+        for (AppQuery query : buildAppQueries()) {
+            List<String> plan = explain(query);
+            for (String step : plan) {
+                boolean scan = step.startsWith("SCAN")
+                        && !(query.readsEveryRow && step.contains("COVERING INDEX"));
+                if (scan || step.contains("TEMP B-TREE")) {
+                    failures.append('\n').append(query.name).append(": ").append(plan);
+                    break;
+                }
+            }
+        }
+
+        if (failures.length() > 0) {
+            fail("These queries read a whole table or sort their results:" + failures);
+        }
+    }
+
+    /**
+     * MainActivity's forecast list should be read entirely from the forecast list index, without
+     * looking up a single row of the table.
+     */
+    @Test
+    public void testForecastListIsReadFromItsIndex() {
+        List<String> plan = explain(buildForecastListQuery());
+
+        assertFalse("The forecast list query has no plan", plan.isEmpty());
+        for (String step : plan) {
+            assertTrue("The forecast list isn't read from its covering index: " + plan,
+                    step.contains("COVERING INDEX " + WeatherDbHelper.INDEX_WEATHER_FORECAST_LIST));
+        }
+    }
+
+    /* MainActivity's loader */
+    private static AppQuery buildForecastListQuery() {
+        return new AppQuery("MainActivity forecast list",
+                SQLiteQueryBuilder.buildQueryString(false,
+                        WeatherEntry.TABLE_NAME,
+                        MainActivity.MAIN_FORECAST_PROJECTION,
+                        WeatherEntry.getSqlSelectForTodayOnwards(),
+                        null,
+                        null,
+                        WeatherEntry.COLUMN_DATE + " ASC",
+                        null),
+                null,
+                false);
+    }
+
+    /**
+     * @return Every query the app makes of the weather database, through WeatherProvider or
+     * directly
+     */
+    private static List<AppQuery> buildAppQueries() {
+        List<AppQuery> queries = new ArrayList<>();
+        String today = Long.toString(SunshineDateUtils.getNormalizedUtcDateForToday());
+        String[] allWeatherColumns = DetailActivity.WEATHER_DETAIL_PROJECTION;
+        String tomorrow = Long.toString(
+                SunshineDateUtils.getNormalizedUtcDateForToday() + SunshineDateUtils.DAY_IN_MILLIS);
+        String now = Long.toString(System.currentTimeMillis());
+        String[] allHourlyColumns = {
+                HourlyEntry.COLUMN_TIME,
+                HourlyEntry.COLUMN_WEATHER_ID,
+                HourlyEntry.COLUMN_MIN_TEMP,
+                HourlyEntry.COLUMN_MAX_TEMP,
+                HourlyEntry.COLUMN_HUMIDITY,
+                HourlyEntry.COLUMN_PRESSURE,
+                HourlyEntry.COLUMN_WIND_SPEED,
+                HourlyEntry.COLUMN_DEGREES
+        };
+
+        queries.add(buildForecastListQuery());
+
+        /* WeatherProvider's CODE_WEATHER_WITH_DATE, for DetailActivity and the notification */
+        queries.add(new AppQuery("DetailActivity day",
+                select(WeatherEntry.TABLE_NAME, DetailActivity.WEATHER_DETAIL_PROJECTION,
+                        WeatherEntry.COLUMN_DATE + " = ? ", null),
+                new String[]{today},
+                false));
+        queries.add(new AppQuery("NotificationUtils today",
+                select(WeatherEntry.TABLE_NAME,
+                        NotificationUtils.WEATHER_NOTIFICATION_PROJECTION,
+                        WeatherEntry.COLUMN_DATE + " = ? ", null),
+                new String[]{today},
+                false));
+
+        /* ForecastSnapshot#writeFromProvider */
+        queries.add(new AppQuery("ForecastSnapshot forecast",
+                select(WeatherEntry.TABLE_NAME, allWeatherColumns,
+                        WeatherEntry.getSqlSelectForTodayOnwards(),
+                        WeatherEntry.COLUMN_DATE + " ASC"),
+                null,
+                false));
+
+        /* SunshineSyncTask's update of the watch face */
+        queries.add(new AppQuery("SunshineSyncTask today for the watch",
+                select(WeatherEntry.TABLE_NAME, allWeatherColumns,
+                        WeatherEntry.getSqlSelectForToday(), null),
+                null,
+                false));
+
+        /* SunshineSyncUtils' check for an empty database */
+        queries.add(new AppQuery("SunshineSyncUtils stored forecast check",
+                select(WeatherEntry.TABLE_NAME, new String[]{WeatherEntry._ID},
+                        WeatherEntry.getSqlSelectForTodayOnwards(), null),
+                null,
+                false));
+
+        /* ForecastWindow's stored days */
+        queries.add(new AppQuery("ForecastWindow stored days",
+                select(WeatherEntry.TABLE_NAME, new String[]{WeatherEntry.COLUMN_DATE},
+                        WeatherEntry.COLUMN_DATE + " >= ?", null),
+                new String[]{today},
+                false));
+
+        /* Storing a forecast: the merge, and the days it deletes */
+        queries.add(new AppQuery("WeatherProvider merge update",
+                WeatherProvider.SQL_UPDATE_WEATHER_IF_CHANGED,
+                new String[]{today, "800", "10", "20", "50", "1000", "5", "0"},
+                false));
+        queries.add(new AppQuery("WeatherProvider stored dates",
+                select(WeatherEntry.TABLE_NAME, new String[]{WeatherEntry.COLUMN_DATE},
+                        null, null),
+                null,
+                true));
+        queries.add(new AppQuery("WeatherProvider delete day",
+                WeatherProvider.SQL_DELETE_WEATHER_DATE,
+                new String[]{today},
+                false));
+        queries.add(new AppQuery("ForecastPipeline delete expired days",
+                WeatherProvider.SQL_DELETE_WEATHER_BEFORE,
+                new String[]{today},
+                false));
+
+        /* Archiving replaced and expired forecasts */
+        queries.add(new AppQuery("WeatherProvider archive replaced day",
+                WeatherProvider.SQL_ARCHIVE_WEATHER_IF_CHANGED,
+                new String[]{today, "800", "10", "20", "50", "1000", "5", "0", now},
+                false));
+        queries.add(new AppQuery("ForecastPipeline archive expired days",
+                WeatherProvider.SQL_ARCHIVE_WEATHER_BEFORE,
+                new String[]{today, "0", "0", "0", "0", "0", "0", "0", now},
+                false));
+
+        /* WeatherProvider's CODE_HISTORY_WITH_RANGE */
+        queries.add(new AppQuery("History range",
+                select(HistoryEntry.TABLE_NAME, null,
+                        HistoryEntry.COLUMN_DATE + " >= ? AND "
+                                + HistoryEntry.COLUMN_DATE + " < ? ",
+                        HistoryEntry.COLUMN_DATE + " ASC"),
+                new String[]{today, tomorrow},
+                false));
+
+        /* Compacting the history */
+        queries.add(new AppQuery("WeatherProvider compact history",
+                WeatherProvider.SQL_COMPACT_HISTORY_BEFORE,
+                new String[]{today},
+                false));
+        queries.add(new AppQuery("WeatherProvider delete compacted history",
+                WeatherProvider.SQL_DELETE_COMPACTED_HISTORY,
+                new String[]{Integer.toString(ROWS)},
+                false));
+        queries.add(new AppQuery("WeatherProvider delete history past retention",
+                WeatherProvider.SQL_DELETE_HISTORY_BEFORE,
+                new String[]{today},
+                false));
+
+        /* WeatherProvider's CODE_HOURLY_WITH_RANGE */
+        queries.add(new AppQuery("Hourly range",
+                select(HourlyEntry.TABLE_NAME, allHourlyColumns,
+                        HourlyEntry.COLUMN_TIME + " >= ? AND "
+                                + HourlyEntry.COLUMN_TIME + " < ? ",
+                        null),
+                new String[]{today, tomorrow},
+                false));
+
+        /* WeatherProvider's CODE_LOCATION_WEATHER, and the queries behind it */
+        String location = Integer.toString(LOCATIONS / 2);
+        queries.add(new AppQuery("Location forecast",
+                select(LocationWeatherEntry.TABLE_NAME, allWeatherColumns,
+                        DatabaseUtils.concatenateWhere(
+                                LocationWeatherEntry.COLUMN_LOCATION_ID + " = ?",
+                                LocationWeatherEntry.COLUMN_DATE + " >= ?"),
+                        LocationWeatherEntry.COLUMN_DATE + " ASC"),
+                new String[]{location, today},
+                false));
+        queries.add(new AppQuery("Location forecast day",
+                select(LocationWeatherEntry.TABLE_NAME, allWeatherColumns,
+                        LocationWeatherEntry.COLUMN_LOCATION_ID + " = ? AND "
+                                + LocationWeatherEntry.COLUMN_DATE + " = ? ",
+                        null),
+                new String[]{location, today},
+                false));
+        queries.add(new AppQuery("WeatherProvider touch location",
+                WeatherProvider.SQL_TOUCH_LOCATION,
+                new String[]{now, location},
+                false));
+        queries.add(new AppQuery("WeatherProvider delete past location days",
+                WeatherProvider.SQL_DELETE_LOCATION_WEATHER_BEFORE,
+                new String[]{location, today},
+                false));
+
+        /* Adding a location, and evicting the least recently used */
+        queries.add(new AppQuery("WeatherProvider find location",
+                WeatherProvider.SQL_SELECT_LOCATION_ID,
+                new String[]{"Location " + location},
+                false));
+        queries.add(new AppQuery("WeatherProvider locations to evict",
+                WeatherProvider.SQL_SELECT_EVICTED_LOCATIONS,
+                new String[]{Integer.toString(LocationEntry.MAX_LOCATIONS)},
+                true));
+        queries.add(new AppQuery("WeatherProvider delete location forecast",
+                WeatherProvider.SQL_DELETE_LOCATION_WEATHER,
+                new String[]{location},
+                false));
+        queries.add(new AppQuery("WeatherProvider delete location",
+                WeatherProvider.SQL_DELETE_LOCATION,
+                new String[]{location},
+                false));
+
+        return queries;
+    }
+
+    /* The SQL SQLiteDatabase#query builds for these arguments */
+    private static String select(String table, String[] columns, String selection,
+            String sortOrder) {
+        return SQLiteQueryBuilder.buildQueryString(false, table, columns, selection,
+                null, null, sortOrder, null);
+    }
+
+    /* The "detail" column of each step of the query's plan */
+    private List<String> explain(AppQuery query) {
+        List<String> plan = new ArrayList<>();
+        Cursor cursor = mDatabase.rawQuery("EXPLAIN QUERY PLAN " + query.sql, query.args);
+        try {
+            int detail = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext()) {
+                plan.add(cursor.getString(detail));
+            }
+        } finally {
+            cursor.close();
+        }
+        return plan;
+    }
+}
@@ -18,6 +18,7 @@ package com.example.android.sunshine.data;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.provider.BaseColumns;
@@ -193,7 +194,7 @@ public class TestSunshineDatabase {
 
     @Test
     public void testDatabaseVersionWasIncremented() {
-        int expectedDatabaseVersion = 3;
+        int expectedDatabaseVersion = 7;
         String databaseVersionShouldBe1 = "Database version should be "
                 + expectedDatabaseVersion + " but isn't."
                 + "\n Database version: ";
@@ -203,6 +204,17 @@ public class TestSunshineDatabase {
                 REFLECTED_DATABASE_VERSION);
     }
 
+    /**
+     * The weather database uses write-ahead logging, so that the UI can read the forecast while
+     * a sync is writing a new one.
+     */
+    @Test
+    public void testWriteAheadLoggingIsEnabled() {
+        assertEquals("The database should use write-ahead logging",
+                "wal",
+                DatabaseUtils.stringForQuery(database, "PRAGMA journal_mode", null));
+    }
+
     /**
      * Tests to ensure that inserts into your database results in automatically incrementing row
      * IDs and that row IDs are not reused.
@@ -382,9 +394,11 @@ public class TestSunshineDatabase {
     }
 
     /**
-     * This method tests the {@link WeatherDbHelper#onUpgrade(SQLiteDatabase, int, int)}. The proper
-     * behavior for this method in our case is to simply DROP (or delete) the weather table from
-     * the database and then have the table recreated.
+     * This method tests the {@link WeatherDbHelper#onUpgrade(SQLiteDatabase, int, int)} from a
+     * version we have no migration for. The proper behavior in that case is to simply DROP (or
+     * delete) the weather table from the database and then have the table recreated. Upgrades
+     * from the versions we can migrate, which keep the data, are tested in
+     * TestWeatherDbMigrations.
      */
     @Test
     public void testOnUpgradeBehavesCorrectly() {
@@ -456,6 +470,10 @@ public class TestSunshineDatabase {
 
         /* Here, we add the name of our only table in this particular database */
         tableNameHashSet.add(REFLECTED_TABLE_NAME);
+        tableNameHashSet.add(WeatherContract.HourlyEntry.TABLE_NAME);
+        tableNameHashSet.add(WeatherContract.HistoryEntry.TABLE_NAME);
+        tableNameHashSet.add(WeatherContract.LocationEntry.TABLE_NAME);
+        tableNameHashSet.add(WeatherContract.LocationWeatherEntry.TABLE_NAME);
         /* Students, here is where you would add any other table names if you had them */
 //        tableNameHashSet.add(MyAwesomeSuperCoolTableName);
 //        tableNameHashSet.add(MyOtherCoolTableNameThatContainsOtherCoolData);
@@ -25,6 +25,7 @@ import org.junit.runner.RunWith;
 
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
 
 import static com.example.android.sunshine.data.TestUtilities.getStaticIntegerField;
 import static com.example.android.sunshine.data.TestUtilities.studentReadableNoSuchField;
@@ -38,6 +39,24 @@ public class TestUriMatcher {
     private static final Uri TEST_WEATHER_WITH_DATE_DIR = WeatherContract.WeatherEntry
             .buildWeatherUriWithDate(TestUtilities.DATE_NORMALIZED);
 
+    private static final Uri TEST_HOURLY_DIR = WeatherContract.HourlyEntry.CONTENT_URI;
+    private static final Uri TEST_HOURLY_WITH_RANGE_DIR = WeatherContract.HourlyEntry
+            .buildHourlyUriWithRange(TestUtilities.DATE_NORMALIZED,
+                    TestUtilities.DATE_NORMALIZED + TimeUnit.DAYS.toMillis(1));
+
+    private static final Uri TEST_HISTORY_WITH_RANGE_DIR = WeatherContract.HistoryEntry
+            .buildHistoryUriWithRange(TestUtilities.DATE_NORMALIZED,
+                    TestUtilities.DATE_NORMALIZED + TimeUnit.DAYS.toMillis(7));
+
+    private static final long TEST_LOCATION_ID = 1;
+    private static final Uri TEST_LOCATION_WITH_ID_DIR = WeatherContract.LocationEntry
+            .buildLocationUri(TEST_LOCATION_ID);
+    private static final Uri TEST_LOCATION_WEATHER_DIR = WeatherContract.LocationWeatherEntry
+            .buildLocationWeatherUri(TEST_LOCATION_ID);
+    private static final Uri TEST_LOCATION_WEATHER_WITH_DATE_DIR =
+            WeatherContract.LocationWeatherEntry.buildLocationWeatherUriWithDate(
+                    TEST_LOCATION_ID, TestUtilities.DATE_NORMALIZED);
+
     private static final String weatherCodeVariableName = "CODE_WEATHER";
     private static int REFLECTED_WEATHER_CODE;
 
@@ -101,5 +120,26 @@ public class TestUriMatcher {
         assertEquals(weatherWithDateUriCodeDoesNotMatch,
                 expectedWeatherWithDateCode,
                 actualWeatherWithDateCode);
+
+        assertEquals("Error: The CODE_HOURLY URI was matched incorrectly.",
+                WeatherProvider.CODE_HOURLY,
+                testMatcher.match(TEST_HOURLY_DIR));
+        assertEquals("Error: The CODE_HOURLY_WITH_RANGE URI was matched incorrectly.",
+                WeatherProvider.CODE_HOURLY_WITH_RANGE,
+                testMatcher.match(TEST_HOURLY_WITH_RANGE_DIR));
+
+        assertEquals("Error: The CODE_HISTORY_WITH_RANGE URI was matched incorrectly.",
+                WeatherProvider.CODE_HISTORY_WITH_RANGE,
+                testMatcher.match(TEST_HISTORY_WITH_RANGE_DIR));
+
+        assertEquals("Error: The CODE_LOCATION_WITH_ID URI was matched incorrectly.",
+                WeatherProvider.CODE_LOCATION_WITH_ID,
+                testMatcher.match(TEST_LOCATION_WITH_ID_DIR));
+        assertEquals("Error: The CODE_LOCATION_WEATHER URI was matched incorrectly.",
+                WeatherProvider.CODE_LOCATION_WEATHER,
+                testMatcher.match(TEST_LOCATION_WEATHER_DIR));
+        assertEquals("Error: The CODE_LOCATION_WEATHER_WITH_DATE URI was matched incorrectly.",
+                WeatherProvider.CODE_LOCATION_WEATHER_WITH_DATE,
+                testMatcher.match(TEST_LOCATION_WEATHER_WITH_DATE_DIR));
     }
 }
@@ -28,6 +28,7 @@ import com.example.android.sunshine.utils.PollingCheck;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.util.Map;
+import java.util.Random;
 import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -172,6 +173,33 @@ class TestUtilities {
         return bulkTestWeatherValues;
     }
 
+    /**
+     * Builds a forecast of plausible random weather for the benchmarks, one element every
+     * {@code stepMillis} from {@code firstDate}. The same seed always gives the same forecast.
+     *
+     * @param firstDate  The date (or for hourly forecasts, the time) of the first element
+     * @param stepMillis The time between elements, a day or an hour
+     * @param count      How many elements to build
+     * @param random     Where the weather comes from
+     * @return The forecast
+     */
+    static ForecastBatch createRandomForecast(long firstDate, long stepMillis, int count,
+            Random random) {
+        ForecastBatch forecast = new ForecastBatch(count);
+        for (int i = 0; i < count; i++) {
+            double temperature = 5 + random.nextInt(2500) / 100.0;
+            forecast.add(firstDate + i * stepMillis,
+                    800 + random.nextInt(5),
+                    temperature - 3,
+                    temperature + 3,
+                    random.nextInt(100),
+                    990 + random.nextInt(4000) / 100.0,
+                    random.nextInt(1500) / 100.0,
+                    random.nextInt(360));
+        }
+        return forecast;
+    }
+
 
     static TestContentObserver getTestContentObserver() {
         return TestContentObserver.getTestContentObserver();
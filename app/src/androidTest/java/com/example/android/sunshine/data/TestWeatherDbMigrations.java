@@ -0,0 +1,272 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.provider.BaseColumns;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.data.WeatherContract.HourlyEntry;
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Upgrades a database from every past version of the schema, with weather in it, and checks
+ * that the weather is still there afterwards and that the schema is exactly the one a new
+ * database gets.
+ * <p>
+ * The past schemas are written out here as they were, rather than built from WeatherContract
+ * and WeatherDbHelper, since those only know the current schema. When you increment
+ * DATABASE_VERSION, add the schema you're leaving behind to {@link #PAST_SCHEMAS}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestWeatherDbMigrations {
+
+    private static final String OLD_DATABASE_NAME = "migrations_old.db";
+    private static final String NEW_DATABASE_NAME = "migrations_new.db";
+
+    private static final String WEATHER_TABLE_VERSION_3 =
+            "CREATE TABLE weather (_id INTEGER PRIMARY KEY AUTOINCREMENT,"
+                    + " date INTEGER NOT NULL, weather_id INTEGER NOT NULL,"
+                    + " min REAL NOT NULL, max REAL NOT NULL,"
+                    + " humidity REAL NOT NULL, pressure REAL NOT NULL,"
+                    + " wind REAL NOT NULL, degrees REAL NOT NULL,"
+                    + " UNIQUE (date) ON CONFLICT REPLACE)";
+
+    private static final String HOURLY_TABLE_VERSION_4 =
+            "CREATE TABLE hourly (_id INTEGER PRIMARY KEY,"
+                    + " time INTEGER NOT NULL, weather_id INTEGER NOT NULL,"
+                    + " min REAL NOT NULL, max REAL NOT NULL,"
+                    + " humidity REAL NOT NULL, pressure REAL NOT NULL,"
+                    + " wind REAL NOT NULL, degrees REAL NOT NULL,"
+                    + " UNIQUE (time) ON CONFLICT REPLACE)";
+
+    private static final String FORECAST_LIST_INDEX_VERSION_5 =
+            "CREATE INDEX weather_forecast_list ON weather (date, max, min, weather_id)";
+
+    private static final String HISTORY_TABLE_VERSION_6 =
+            "CREATE TABLE history (_id INTEGER PRIMARY KEY,"
+                    + " date INTEGER NOT NULL, weather_id INTEGER NOT NULL,"
+                    + " min REAL NOT NULL, max REAL NOT NULL,"
+                    + " humidity REAL NOT NULL, pressure REAL NOT NULL,"
+                    + " wind REAL NOT NULL, degrees REAL NOT NULL,"
+                    + " archived INTEGER NOT NULL, samples INTEGER NOT NULL DEFAULT 1)";
+
+    private static final String HISTORY_DATE_INDEX_VERSION_6 =
+            "CREATE INDEX history_date ON history (date, archived)";
+
+    /* PAST_SCHEMAS[i] is the schema of version OLDEST_MIGRATABLE_VERSION + i */
+    private static final String[][] PAST_SCHEMAS = {
+            /* Version 3 */
+            {WEATHER_TABLE_VERSION_3},
+            /* Version 4 */
+            {WEATHER_TABLE_VERSION_3, HOURLY_TABLE_VERSION_4},
+            /* Version 5 */
+            {WEATHER_TABLE_VERSION_3, HOURLY_TABLE_VERSION_4, FORECAST_LIST_INDEX_VERSION_5},
+            /* Version 6 */
+            {WEATHER_TABLE_VERSION_3, HOURLY_TABLE_VERSION_4, FORECAST_LIST_INDEX_VERSION_5,
+                    HISTORY_TABLE_VERSION_6, HISTORY_DATE_INDEX_VERSION_6},
+    };
+
+    /* The days and hours we store before upgrading, and expect to find afterwards */
+    private static final long FIRST_DATE = 1475280000000L;
+    private static final int DAYS = 14;
+    private static final int HOURS = 40;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    @Before
+    @After
+    public void deleteDatabases() {
+        mContext.deleteDatabase(OLD_DATABASE_NAME);
+        mContext.deleteDatabase(NEW_DATABASE_NAME);
+    }
+
+    /**
+     * Every version from OLDEST_MIGRATABLE_VERSION up to (but not including) the current one
+     * needs a past schema here, or it isn't being tested.
+     */
+    @Test
+    public void testEveryPastVersionHasASchema() {
+        WeatherDbHelper helper = new WeatherDbHelper(mContext, NEW_DATABASE_NAME, true);
+        int currentVersion = helper.getWritableDatabase().getVersion();
+        helper.close();
+
+        assertEquals("Add the schema of each past version to PAST_SCHEMAS",
+                currentVersion - WeatherDbMigrations.OLDEST_MIGRATABLE_VERSION,
+                PAST_SCHEMAS.length);
+    }
+
+    /**
+     * Upgrading from each past version should keep every row, with the same _ID and values,
+     * and leave the database with the same schema as a new one.
+     */
+    @Test
+    public void testUpgradeFromEveryPastVersionKeepsData() {
+        List<String> expectedSchema = readNewSchema();
+
+        for (int i = 0; i < PAST_SCHEMAS.length; i++) {
+            int oldVersion = WeatherDbMigrations.OLDEST_MIGRATABLE_VERSION + i;
+            String[] schema = PAST_SCHEMAS[i];
+            boolean hasHourlyTable = schema.length > 1;
+
+            SQLiteDatabase oldDatabase = createDatabase(oldVersion, schema);
+            insertRows(oldDatabase, WeatherEntry.TABLE_NAME, WeatherEntry.COLUMN_DATE,
+                    DAYS, 24 * 60 * 60 * 1000L);
+            if (hasHourlyTable) {
+                insertRows(oldDatabase, HourlyEntry.TABLE_NAME, HourlyEntry.COLUMN_TIME,
+                        HOURS, 60 * 60 * 1000L);
+            }
+            List<String> weatherBefore = readRows(oldDatabase, WeatherEntry.TABLE_NAME);
+            List<String> hourlyBefore = hasHourlyTable
+                    ? readRows(oldDatabase, HourlyEntry.TABLE_NAME)
+                    : new ArrayList<String>();
+            oldDatabase.close();
+
+            WeatherDbHelper helper = new WeatherDbHelper(mContext, OLD_DATABASE_NAME, true);
+            SQLiteDatabase upgraded = helper.getWritableDatabase();
+            String fromVersion = "Upgrading from version " + oldVersion + ": ";
+
+            assertEquals(fromVersion + "the schema differs from a new database's",
+                    expectedSchema, readSchema(upgraded));
+            assertEquals(fromVersion + "the weather table lost or changed rows",
+                    weatherBefore, readRows(upgraded, WeatherEntry.TABLE_NAME));
+            assertEquals(fromVersion + "the hourly table lost or changed rows",
+                    hourlyBefore, readRows(upgraded, HourlyEntry.TABLE_NAME));
+
+            helper.close();
+            mContext.deleteDatabase(OLD_DATABASE_NAME);
+        }
+    }
+
+    /**
+     * A database from before version 3 has a schema we don't know how to migrate, so it should
+     * be replaced with an empty database at the current version, with none of its old tables
+     * left behind.
+     */
+    @Test
+    public void testUpgradeFromUnknownVersionStartsOver() {
+        List<String> expectedSchema = readNewSchema();
+
+        SQLiteDatabase oldDatabase = createDatabase(2, new String[]{
+                "CREATE TABLE location (_id INTEGER PRIMARY KEY, location_setting TEXT)",
+                "CREATE TABLE weather (_id INTEGER PRIMARY KEY, location_id INTEGER,"
+                        + " date INTEGER, min REAL, max REAL)"});
+        oldDatabase.execSQL("INSERT INTO weather (location_id, date, min, max)"
+                + " VALUES (1, " + FIRST_DATE + ", 10, 20)");
+        oldDatabase.close();
+
+        WeatherDbHelper helper = new WeatherDbHelper(mContext, OLD_DATABASE_NAME, true);
+        SQLiteDatabase upgraded = helper.getWritableDatabase();
+
+        assertEquals("The schema differs from a new database's",
+                expectedSchema, readSchema(upgraded));
+        assertEquals("The weather table should be empty",
+                0, readRows(upgraded, WeatherEntry.TABLE_NAME).size());
+        helper.close();
+    }
+
+    /* The schema WeatherDbHelper gives a new database */
+    private List<String> readNewSchema() {
+        WeatherDbHelper helper = new WeatherDbHelper(mContext, NEW_DATABASE_NAME, true);
+        List<String> schema = readSchema(helper.getWritableDatabase());
+        helper.close();
+        return schema;
+    }
+
+    /* Creates the old database with the given schema, as that version of the app would have */
+    private SQLiteDatabase createDatabase(int version, String[] schema) {
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(
+                mContext.getDatabasePath(OLD_DATABASE_NAME), null);
+        for (String statement : schema) {
+            db.execSQL(statement);
+        }
+        db.setVersion(version);
+        return db;
+    }
+
+    /* Inserts rows whose values all differ, a step apart in the given time column */
+    private static void insertRows(SQLiteDatabase db, String table, String timeColumn,
+            int count, long step) {
+        for (int i = 0; i < count; i++) {
+            ContentValues values = new ContentValues();
+            values.put(timeColumn, FIRST_DATE + i * step);
+            values.put(WeatherEntry.COLUMN_WEATHER_ID, 800 + i);
+            values.put(WeatherEntry.COLUMN_MIN_TEMP, 10.5 + i);
+            values.put(WeatherEntry.COLUMN_MAX_TEMP, 20.25 + i);
+            values.put(WeatherEntry.COLUMN_HUMIDITY, 50 + i);
+            values.put(WeatherEntry.COLUMN_PRESSURE, 1000.125 + i);
+            values.put(WeatherEntry.COLUMN_WIND_SPEED, 3.5 + i);
+            values.put(WeatherEntry.COLUMN_DEGREES, 10 * i);
+            assertTrue("Couldn't insert into the old " + table + " table",
+                    db.insert(table, null, values) != -1);
+        }
+    }
+
+    /* Every row of a table, every column of each, in _ID order */
+    private static List<String> readRows(SQLiteDatabase db, String table) {
+        List<String> rows = new ArrayList<>();
+        Cursor cursor = db.query(table, null, null, null, null, null, BaseColumns._ID);
+        assertNotNull(cursor);
+        try {
+            while (cursor.moveToNext()) {
+                StringBuilder row = new StringBuilder();
+                for (int column = 0; column < cursor.getColumnCount(); column++) {
+                    row.append(cursor.getColumnName(column)).append('=')
+                            .append(cursor.getString(column)).append(' ');
+                }
+                rows.add(row.toString());
+            }
+        } finally {
+            cursor.close();
+        }
+        return rows;
+    }
+
+    /*
+     * The SQL of every table and index we created, ignoring whitespace, which differs between
+     * the past schemas above and the SQL WeatherDbHelper builds.
+     */
+    private static List<String> readSchema(SQLiteDatabase db) {
+        List<String> schema = new ArrayList<>();
+        Cursor cursor = db.rawQuery("SELECT sql FROM sqlite_master WHERE sql IS NOT NULL"
+                + " AND name NOT LIKE 'sqlite_%' AND name != 'android_metadata'"
+                + " ORDER BY name", null);
+        try {
+            while (cursor.moveToNext()) {
+                schema.add(cursor.getString(0).replaceAll("\\s+", ""));
+            }
+        } finally {
+            cursor.close();
+        }
+        return schema;
+    }
+}
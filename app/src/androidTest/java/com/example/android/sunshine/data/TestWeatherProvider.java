@@ -17,6 +17,7 @@ package com.example.android.sunshine.data;
 
 import android.content.ComponentName;
 import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.pm.PackageManager;
@@ -24,16 +25,22 @@ import android.content.pm.ProviderInfo;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
+import android.os.Bundle;
 import android.support.test.InstrumentationRegistry;
 import android.support.test.runner.AndroidJUnit4;
 
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.util.concurrent.TimeUnit;
+
 import static com.example.android.sunshine.data.TestUtilities.BULK_INSERT_RECORDS_TO_INSERT;
 import static com.example.android.sunshine.data.TestUtilities.createBulkInsertTestWeatherValues;
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
 import static junit.framework.Assert.assertNotNull;
 import static junit.framework.Assert.assertTrue;
 import static junit.framework.Assert.fail;
@@ -326,6 +333,602 @@ public class TestWeatherProvider {
         cursor.close();
     }
 
+    /**
+     * bulkInsert binds rows into one compiled INSERT, but a row that is missing a column can't
+     * be bound that way. It should be rejected just as SQLiteDatabase#insert rejects it, without
+     * taking the rows around it down with it.
+     */
+    @Test
+    public void testBulkInsertSkipsIncompleteRow() {
+        ContentValues[] values = createBulkInsertTestWeatherValues();
+        values[1].remove(WeatherContract.WeatherEntry.COLUMN_HUMIDITY);
+
+        int insertCount = mContext.getContentResolver()
+                .bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, values);
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT - 1, insertCount);
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                null,
+                null,
+                null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT - 1, cursor.getCount());
+        cursor.close();
+    }
+
+    /**
+     * This test inserts the same records as {@link #testBulkInsert()}, but as a
+     * {@link ForecastBatch} through {@link WeatherContract#METHOD_BULK_INSERT_BATCH}, and checks
+     * that the rows that come back out are the same and that observers are notified.
+     */
+    @Test
+    public void testBulkInsertForecastBatch() {
+        ContentValues[] bulkInsertTestContentValues = createBulkInsertTestWeatherValues();
+        ForecastBatch batch = ForecastBatch.fromContentValues(bulkInsertTestContentValues);
+
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        ContentResolver contentResolver = mContext.getContentResolver();
+        contentResolver.registerContentObserver(
+                WeatherContract.WeatherEntry.CONTENT_URI, true, weatherObserver);
+
+        Bundle result = contentResolver.call(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                WeatherContract.METHOD_BULK_INSERT_BATCH,
+                null,
+                batch.toBundle());
+
+        weatherObserver.waitForNotificationOrFail();
+        contentResolver.unregisterContentObserver(weatherObserver);
+
+        assertNotNull("No result from the batch insert", result);
+        assertEquals("Number of expected records inserted does not match actual inserted record "
+                        + "count",
+                BULK_INSERT_RECORDS_TO_INSERT,
+                result.getInt(WeatherContract.EXTRA_ROWS_INSERTED));
+
+        Cursor cursor = contentResolver.query(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                null,
+                null,
+                null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+
+        cursor.moveToFirst();
+        for (int i = 0; i < BULK_INSERT_RECORDS_TO_INSERT; i++, cursor.moveToNext()) {
+            TestUtilities.validateCurrentRecord(
+                    "testBulkInsertForecastBatch. Error validating WeatherEntry " + i,
+                    cursor,
+                    bulkInsertTestContentValues[i]);
+        }
+
+        cursor.close();
+    }
+
+    /**
+     * Merges the forecast from {@link #testBulkInsert()} back into the table it was just
+     * inserted into through {@link WeatherContract#METHOD_MERGE_BATCH}. Nothing should change and
+     * nobody should be notified. Then merges a forecast with one day changed and the last day
+     * gone, which should touch exactly those two rows.
+     */
+    @Test
+    public void testMergeForecastBatch() throws Exception {
+        ContentValues[] storedValues = createBulkInsertTestWeatherValues();
+        /* A merge archives the days before today, so keep the forecast from today on */
+        long today = SunshineDateUtils.getNormalizedUtcDateForToday();
+        for (int i = 0; i < storedValues.length; i++) {
+            storedValues[i].put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                    today + i * SunshineDateUtils.DAY_IN_MILLIS);
+        }
+        ContentResolver contentResolver = mContext.getContentResolver();
+        contentResolver.bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, storedValues);
+
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        contentResolver.registerContentObserver(
+                WeatherContract.WeatherEntry.CONTENT_URI, true, weatherObserver);
+
+        Bundle result = contentResolver.call(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                WeatherContract.METHOD_MERGE_BATCH,
+                null,
+                ForecastBatch.fromContentValues(storedValues).toBundle());
+        assertNotNull("No result from the merge", result);
+        assertEquals(0, result.getInt(WeatherContract.EXTRA_ROWS_CHANGED));
+
+        /* Notifications are delivered on the observer's own thread, so give one time to arrive */
+        Thread.sleep(1000);
+        assertFalse("An unchanged forecast notified observers", weatherObserver.mContentChanged);
+
+        ContentValues[] newValues = new ContentValues[storedValues.length - 1];
+        for (int i = 0; i < newValues.length; i++) {
+            newValues[i] = new ContentValues(storedValues[i]);
+        }
+        newValues[0].put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 99.5);
+
+        result = contentResolver.call(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                WeatherContract.METHOD_MERGE_BATCH,
+                null,
+                ForecastBatch.fromContentValues(newValues).toBundle());
+
+        weatherObserver.waitForNotificationOrFail();
+        contentResolver.unregisterContentObserver(weatherObserver);
+
+        /* The changed day is written and the missing one deleted */
+        assertEquals(2, result.getInt(WeatherContract.EXTRA_ROWS_CHANGED));
+
+        Cursor cursor = contentResolver.query(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                null,
+                null,
+                null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        assertEquals(newValues.length, cursor.getCount());
+
+        cursor.moveToFirst();
+        for (int i = 0; i < newValues.length; i++, cursor.moveToNext()) {
+            TestUtilities.validateCurrentRecord(
+                    "testMergeForecastBatch. Error validating WeatherEntry " + i,
+                    cursor,
+                    newValues[i]);
+        }
+
+        cursor.close();
+    }
+
+    /**
+     * Inserts three days of a 3-hourly forecast into the hourly table, the first day through
+     * bulkInsert and the rest as a {@link ForecastBatch}, and checks that a range query returns
+     * exactly the periods of the middle day, in order.
+     */
+    @Test
+    public void testHourlyInsertAndRangeQuery() {
+        long periodMillis = TimeUnit.HOURS.toMillis(3);
+        long firstDay = TestUtilities.DATE_NORMALIZED;
+        long secondDay = firstDay + SunshineDateUtils.DAY_IN_MILLIS;
+        int periodsPerDay = 8;
+
+        ContentValues[] firstDayValues = new ContentValues[periodsPerDay];
+        for (int i = 0; i < periodsPerDay; i++) {
+            ContentValues values = TestUtilities.createTestWeatherContentValues();
+            values.remove(WeatherContract.WeatherEntry.COLUMN_DATE);
+            values.put(WeatherContract.HourlyEntry.COLUMN_TIME, firstDay + i * periodMillis);
+            firstDayValues[i] = values;
+        }
+
+        ForecastBatch laterDays = new ForecastBatch();
+        for (int i = 0; i < 2 * periodsPerDay; i++) {
+            laterDays.add(secondDay + i * periodMillis, 800 + i, 10 + i, 20 + i, 50, 1000, 3, 90);
+        }
+
+        ContentResolver contentResolver = mContext.getContentResolver();
+        assertEquals(periodsPerDay, contentResolver.bulkInsert(
+                WeatherContract.HourlyEntry.CONTENT_URI, firstDayValues));
+
+        Bundle result = contentResolver.call(
+                WeatherContract.HourlyEntry.CONTENT_URI,
+                WeatherContract.METHOD_BULK_INSERT_BATCH,
+                WeatherContract.HourlyEntry.CONTENT_URI.toString(),
+                laterDays.toBundle());
+        assertNotNull(result);
+        assertEquals(2 * periodsPerDay, result.getInt(WeatherContract.EXTRA_ROWS_INSERTED));
+
+        /* Nothing went into the weather table */
+        Cursor weatherCursor = contentResolver.query(WeatherContract.WeatherEntry.CONTENT_URI,
+                null, null, null, null);
+        assertEquals(0, weatherCursor.getCount());
+        weatherCursor.close();
+
+        Cursor cursor = contentResolver.query(
+                WeatherContract.HourlyEntry.buildHourlyUriWithRange(secondDay,
+                        secondDay + SunshineDateUtils.DAY_IN_MILLIS),
+                new String[]{
+                        WeatherContract.HourlyEntry.COLUMN_TIME,
+                        WeatherContract.HourlyEntry.COLUMN_WEATHER_ID
+                },
+                null,
+                null,
+                WeatherContract.HourlyEntry.COLUMN_TIME + " ASC");
+
+        assertNotNull(cursor);
+        assertEquals(periodsPerDay, cursor.getCount());
+        for (int i = 0; cursor.moveToNext(); i++) {
+            assertEquals(secondDay + i * periodMillis, cursor.getLong(0));
+            assertEquals(800 + i, cursor.getInt(1));
+        }
+        cursor.close();
+    }
+
+    /**
+     * Every row of the hourly table must start on the hour.
+     */
+    @Test
+    public void testHourlyTimeMustBeOnTheHour() {
+        ContentValues values = TestUtilities.createTestWeatherContentValues();
+        values.remove(WeatherContract.WeatherEntry.COLUMN_DATE);
+        values.put(WeatherContract.HourlyEntry.COLUMN_TIME,
+                TestUtilities.DATE_NORMALIZED + TimeUnit.MINUTES.toMillis(30));
+
+        try {
+            mContext.getContentResolver().bulkInsert(WeatherContract.HourlyEntry.CONTENT_URI,
+                    new ContentValues[]{values});
+            fail("A time that isn't on the hour should have been rejected");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    /**
+     * Merging a forecast that changes a day should move the forecast it replaces into the history
+     * table, and merging the same forecast again shouldn't archive anything.
+     */
+    @Test
+    public void testMergeArchivesReplacedForecast() {
+        long day = SunshineDateUtils.getNormalizedUtcDateForToday()
+                + SunshineDateUtils.DAY_IN_MILLIS;
+
+        mergeDay(day, 800, 10);
+        assertEquals("Nothing has been replaced yet", 0, queryHistory(day).getCount());
+
+        mergeDay(day, 801, 12);
+        mergeDay(day, 801, 12);
+
+        Cursor history = queryHistory(day);
+        assertEquals("Only the replaced forecast should be archived", 1, history.getCount());
+        history.moveToFirst();
+        assertEquals(800, history.getInt(
+                history.getColumnIndex(WeatherContract.HistoryEntry.COLUMN_WEATHER_ID)));
+        assertEquals(10.0, history.getDouble(
+                history.getColumnIndex(WeatherContract.HistoryEntry.COLUMN_MIN_TEMP)));
+        assertEquals(1, history.getInt(
+                history.getColumnIndex(WeatherContract.HistoryEntry.COLUMN_SAMPLES)));
+        history.close();
+    }
+
+    /**
+     * Days before today should move from the weather table into the history table, and a range
+     * query of the history should return only the days in the range.
+     */
+    @Test
+    public void testExpiredDaysAreArchived() {
+        long today = SunshineDateUtils.getNormalizedUtcDateForToday();
+        ForecastBatch forecast = new ForecastBatch();
+        for (int i = -3; i <= 1; i++) {
+            forecast.add(today + i * SunshineDateUtils.DAY_IN_MILLIS, 800 - i, 10, 20, 50,
+                    1000, 3, 90);
+        }
+        mContext.getContentResolver().call(WeatherContract.WeatherEntry.CONTENT_URI,
+                WeatherContract.METHOD_MERGE_BATCH, null, forecast.toBundle());
+
+        ForecastWriter writer = ForecastWriter.begin(mContext);
+        try {
+            assertEquals(3, writer.archiveDaysBefore(today));
+            writer.commit();
+        } finally {
+            writer.close();
+        }
+
+        Cursor weather = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.CONTENT_URI, null, null, null, null);
+        assertEquals("Only today and tomorrow should be left", 2, weather.getCount());
+        weather.close();
+
+        /* The two days before yesterday, but not yesterday */
+        Cursor history = mContext.getContentResolver().query(
+                WeatherContract.HistoryEntry.buildHistoryUriWithRange(
+                        today - 3 * SunshineDateUtils.DAY_IN_MILLIS,
+                        today - SunshineDateUtils.DAY_IN_MILLIS),
+                new String[]{
+                        WeatherContract.HistoryEntry.COLUMN_DATE,
+                        WeatherContract.HistoryEntry.COLUMN_WEATHER_ID
+                },
+                null,
+                null,
+                WeatherContract.HistoryEntry.COLUMN_DATE + " ASC");
+        assertNotNull(history);
+        assertEquals(2, history.getCount());
+        for (int i = -3; history.moveToNext(); i++) {
+            assertEquals(today + i * SunshineDateUtils.DAY_IN_MILLIS, history.getLong(0));
+            assertEquals(800 - i, history.getInt(1));
+        }
+        history.close();
+    }
+
+    /**
+     * Merging a forecast should archive the days before today first, as the sync does, rather
+     * than deleting them along with the days the new forecast no longer has.
+     */
+    @Test
+    public void testMergeArchivesExpiredDays() {
+        long today = SunshineDateUtils.getNormalizedUtcDateForToday();
+        long yesterday = today - SunshineDateUtils.DAY_IN_MILLIS;
+        long tomorrow = today + SunshineDateUtils.DAY_IN_MILLIS;
+        long dayAfter = tomorrow + SunshineDateUtils.DAY_IN_MILLIS;
+
+        mergeDays(new long[]{yesterday, today, tomorrow}, new int[]{800, 801, 802},
+                new double[]{10, 10, 10});
+        mergeDays(new long[]{today, dayAfter}, new int[]{801, 803}, new double[]{10, 10});
+
+        Cursor history = queryHistory(yesterday);
+        assertEquals("Yesterday should have been archived", 1, history.getCount());
+        history.moveToFirst();
+        assertEquals(800, history.getInt(
+                history.getColumnIndex(WeatherContract.HistoryEntry.COLUMN_WEATHER_ID)));
+        history.close();
+
+        history = queryHistory(tomorrow);
+        assertEquals("A future day the forecast dropped is only deleted", 0,
+                history.getCount());
+        history.close();
+
+        Cursor weather = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.CONTENT_URI, null, null, null, null);
+        assertNotNull(weather);
+        assertEquals(2, weather.getCount());
+        weather.close();
+    }
+
+    /**
+     * Compaction should reduce an old day's forecasts to one row of their averages, leave the
+     * last week alone, and delete what is older than the retention period.
+     */
+    @Test
+    public void testCompactHistory() {
+        long today = SunshineDateUtils.getNormalizedUtcDateForToday();
+        long yesterday = today - SunshineDateUtils.DAY_IN_MILLIS;
+        long monthAgo = today - 30 * SunshineDateUtils.DAY_IN_MILLIS;
+        long yearsAgo = today - 400 * SunshineDateUtils.DAY_IN_MILLIS;
+
+        /*
+         * Three forecasts for a month ago, two for yesterday and one for over a year ago. Each
+         * merge archives the past days the one before it stored.
+         */
+        mergeDays(new long[]{yearsAgo, monthAgo, yesterday}, new int[]{800, 800, 800},
+                new double[]{5, 10, 10});
+        mergeDays(new long[]{monthAgo, yesterday}, new int[]{801, 801}, new double[]{12, 12});
+        mergeDays(new long[]{monthAgo}, new int[]{802}, new double[]{17});
+
+        ForecastWriter writer = ForecastWriter.begin(mContext);
+        try {
+            writer.archiveDaysBefore(today);
+            writer.commit();
+        } finally {
+            writer.close();
+        }
+        assertEquals(3, queryHistory(monthAgo).getCount());
+
+        Bundle result = mContext.getContentResolver().call(
+                WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_COMPACT_HISTORY,
+                "365",
+                null);
+        assertNotNull(result);
+        /* The day over a year ago, and two of the month old day's three rows */
+        assertEquals(3, result.getInt(WeatherContract.EXTRA_ROWS_DELETED));
+
+        assertEquals("Days past retention should be deleted", 0,
+                queryHistory(yearsAgo).getCount());
+        assertEquals("The last week shouldn't be compacted", 2,
+                queryHistory(yesterday).getCount());
+
+        Cursor compacted = queryHistory(monthAgo);
+        assertEquals(1, compacted.getCount());
+        compacted.moveToFirst();
+        assertEquals("Compaction should average the forecasts", 13.0, compacted.getDouble(
+                compacted.getColumnIndex(WeatherContract.HistoryEntry.COLUMN_MIN_TEMP)));
+        assertEquals("Compaction should keep the last weather ID", 802, compacted.getInt(
+                compacted.getColumnIndex(WeatherContract.HistoryEntry.COLUMN_WEATHER_ID)));
+        assertEquals(3, compacted.getInt(
+                compacted.getColumnIndex(WeatherContract.HistoryEntry.COLUMN_SAMPLES)));
+        compacted.close();
+    }
+
+    private void mergeDay(long date, int weatherId, double minTemp) {
+        mergeDays(new long[]{date}, new int[]{weatherId}, new double[]{minTemp});
+    }
+
+    /* Merges a forecast of the given days, with the rest of each day's values fixed */
+    private void mergeDays(long[] dates, int[] weatherIds, double[] minTemps) {
+        ForecastBatch forecast = new ForecastBatch(dates.length);
+        for (int i = 0; i < dates.length; i++) {
+            forecast.add(dates[i], weatherIds[i], minTemps[i], 20, 50, 1000, 3, 90);
+        }
+        Bundle result = mContext.getContentResolver().call(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                WeatherContract.METHOD_MERGE_BATCH,
+                null,
+                forecast.toBundle());
+        assertNotNull("No result from the merge", result);
+    }
+
+    /* Every archived forecast for a single day */
+    private Cursor queryHistory(long date) {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.HistoryEntry.buildHistoryUriWithRange(date,
+                        date + SunshineDateUtils.DAY_IN_MILLIS),
+                null,
+                null,
+                null,
+                WeatherContract.HistoryEntry.COLUMN_ARCHIVED + " ASC");
+        assertNotNull(cursor);
+        return cursor;
+    }
+
+    /**
+     * Each location's forecast should only ever come back for that location, whether it was
+     * stored with bulkInsert or METHOD_BULK_INSERT_BATCH, and storing a new forecast should drop
+     * the days of the old one that are past. None of it should touch the user's own forecast in
+     * the weather table.
+     */
+    @Test
+    public void testLocationWeatherIsScopedToItsLocation() {
+        long today = SunshineDateUtils.getNormalizedUtcDateForToday();
+        ContentResolver contentResolver = mContext.getContentResolver();
+
+        long first = insertLocation("Mountain View, CA");
+        long second = insertLocation("London, UK");
+        assertEquals("Adding a location again should return the one we have",
+                first, insertLocation("Mountain View, CA"));
+
+        /* Yesterday to tomorrow for the first location, today to the day after for the second */
+        Bundle result = contentResolver.call(
+                WeatherContract.LocationWeatherEntry.CONTENT_URI,
+                WeatherContract.METHOD_BULK_INSERT_BATCH,
+                WeatherContract.LocationWeatherEntry.buildLocationWeatherUri(first).toString(),
+                buildForecast(today - SunshineDateUtils.DAY_IN_MILLIS, 800).toBundle());
+        assertNotNull(result);
+        assertEquals(3, result.getInt(WeatherContract.EXTRA_ROWS_INSERTED));
+        assertEquals(3, contentResolver.bulkInsert(
+                WeatherContract.LocationWeatherEntry.buildLocationWeatherUri(second),
+                buildForecast(today, 900).toContentValues()));
+
+        assertLocationForecast(first, today - SunshineDateUtils.DAY_IN_MILLIS, 800);
+        assertLocationForecast(second, today, 900);
+
+        /* A new forecast for the first location replaces its old days and drops yesterday */
+        contentResolver.bulkInsert(
+                WeatherContract.LocationWeatherEntry.buildLocationWeatherUri(first),
+                buildForecast(today, 810).toContentValues());
+        assertLocationForecast(first, today, 810);
+
+        Cursor day = contentResolver.query(
+                WeatherContract.LocationWeatherEntry.buildLocationWeatherUriWithDate(
+                        second, today + SunshineDateUtils.DAY_IN_MILLIS),
+                new String[]{WeatherContract.LocationWeatherEntry.COLUMN_WEATHER_ID},
+                null,
+                null,
+                null);
+        assertNotNull(day);
+        assertEquals(1, day.getCount());
+        day.moveToFirst();
+        assertEquals(901, day.getInt(0));
+        day.close();
+
+        Cursor weather = contentResolver.query(
+                WeatherContract.WeatherEntry.CONTENT_URI, null, null, null, null);
+        assertNotNull(weather);
+        assertEquals("The user's own forecast should be left alone", 0, weather.getCount());
+        weather.close();
+    }
+
+    /**
+     * Evicting locations should delete the least recently used ones, forecast and all, and
+     * storing a location's forecast should count as using it, while querying it should not.
+     * Adding locations through the provider should never leave more than
+     * LocationEntry.MAX_LOCATIONS of them.
+     */
+    @Test
+    public void testLeastRecentlyUsedLocationIsEvicted() {
+        long today = SunshineDateUtils.getNormalizedUtcDateForToday();
+        ContentResolver contentResolver = mContext.getContentResolver();
+
+        long[] locations = {
+                insertLocation("Mountain View, CA"),
+                insertLocation("London, UK"),
+                insertLocation("Sydney, AU")
+        };
+        for (long location : locations) {
+            contentResolver.bulkInsert(
+                    WeatherContract.LocationWeatherEntry.buildLocationWeatherUri(location),
+                    buildForecast(today, 800).toContentValues());
+        }
+
+        /* Make the second location the least recently used, and evict one */
+        WeatherDbHelper helper = new WeatherDbHelper(mContext);
+        SQLiteDatabase database = helper.getWritableDatabase();
+        WeatherProvider.touchLocation(database, locations[0], 3000);
+        WeatherProvider.touchLocation(database, locations[1], 1000);
+        WeatherProvider.touchLocation(database, locations[2], 2000);
+        assertEquals(1, WeatherProvider.evictLeastRecentlyUsed(database, 2));
+        database.close();
+
+        assertEquals(0, countRows(WeatherContract.LocationEntry.buildLocationUri(locations[1])));
+        assertEquals("An evicted location's forecast should go with it", 0, countRows(
+                WeatherContract.LocationWeatherEntry.buildLocationWeatherUri(locations[1])));
+        assertEquals(3, countRows(
+                WeatherContract.LocationWeatherEntry.buildLocationWeatherUri(locations[2])));
+
+        /* The query above read the third location's forecast, which left it at 2000 */
+        assertEquals("Querying a location's forecast shouldn't write to the database",
+                2000, queryLastUsed(locations[2]));
+
+        contentResolver.bulkInsert(
+                WeatherContract.LocationWeatherEntry.buildLocationWeatherUri(locations[2]),
+                buildForecast(today, 801).toContentValues());
+        assertTrue("Storing a location's forecast should count as using it",
+                queryLastUsed(locations[2]) > 2000);
+
+        for (int i = 0; i <= WeatherContract.LocationEntry.MAX_LOCATIONS; i++) {
+            insertLocation("Location " + i);
+        }
+        assertEquals(WeatherContract.LocationEntry.MAX_LOCATIONS,
+                countRows(WeatherContract.LocationEntry.CONTENT_URI));
+    }
+
+    /* Reads when a location was last used through the provider */
+    private long queryLastUsed(long locationId) {
+        Cursor location = mContext.getContentResolver().query(
+                WeatherContract.LocationEntry.buildLocationUri(locationId),
+                new String[]{WeatherContract.LocationEntry.COLUMN_LAST_USED},
+                null,
+                null,
+                null);
+        assertNotNull(location);
+        assertTrue(location.moveToFirst());
+        long lastUsed = location.getLong(0);
+        location.close();
+        return lastUsed;
+    }
+
+    /* Adds a location through the provider and returns its ID */
+    private long insertLocation(String locationSetting) {
+        ContentValues values = new ContentValues();
+        values.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        Uri uri = mContext.getContentResolver().insert(
+                WeatherContract.LocationEntry.CONTENT_URI, values);
+        assertNotNull("No URI for the new location", uri);
+        return ContentUris.parseId(uri);
+    }
+
+    /* Three days from firstDate, with weather IDs counting up from firstWeatherId */
+    private static ForecastBatch buildForecast(long firstDate, int firstWeatherId) {
+        ForecastBatch forecast = new ForecastBatch(3);
+        for (int i = 0; i < 3; i++) {
+            forecast.add(firstDate + i * SunshineDateUtils.DAY_IN_MILLIS, firstWeatherId + i,
+                    10, 20, 50, 1000, 3, 90);
+        }
+        return forecast;
+    }
+
+    /* Checks that a location's forecast is exactly the one buildForecast built */
+    private void assertLocationForecast(long locationId, long firstDate, int firstWeatherId) {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.LocationWeatherEntry.buildLocationWeatherUri(locationId),
+                new String[]{
+                        WeatherContract.LocationWeatherEntry.COLUMN_DATE,
+                        WeatherContract.LocationWeatherEntry.COLUMN_WEATHER_ID
+                },
+                null,
+                null,
+                WeatherContract.LocationWeatherEntry.COLUMN_DATE + " ASC");
+        assertNotNull(cursor);
+        assertEquals(3, cursor.getCount());
+        for (int i = 0; cursor.moveToNext(); i++) {
+            assertEquals(firstDate + i * SunshineDateUtils.DAY_IN_MILLIS, cursor.getLong(0));
+            assertEquals(firstWeatherId + i, cursor.getInt(1));
+        }
+        cursor.close();
+    }
+
+    private int countRows(Uri uri) {
+        Cursor cursor = mContext.getContentResolver().query(uri, null, null, null, null);
+        assertNotNull(cursor);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+
     /**
      * This test deletes all records from the weather table using the ContentProvider. It also
      * verifies that registered ContentObservers receive onChange callbacks when data is deleted.
@@ -442,6 +1045,10 @@ public class TestWeatherProvider {
 
         /* The delete method deletes all of the desired rows from the table, not the table itself */
         database.delete(WeatherContract.WeatherEntry.TABLE_NAME, null, null);
+        database.delete(WeatherContract.HourlyEntry.TABLE_NAME, null, null);
+        database.delete(WeatherContract.HistoryEntry.TABLE_NAME, null, null);
+        database.delete(WeatherContract.LocationWeatherEntry.TABLE_NAME, null, null);
+        database.delete(WeatherContract.LocationEntry.TABLE_NAME, null, null);
 
         /* Always close the database when you're through with it */
         database.close();
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.sunshine.data.ForecastBatch;
+import com.example.android.sunshine.data.WeatherContract;
+import com.example.android.sunshine.utilities.NetworkUtils;
+import com.example.android.sunshine.utilities.OpenWeatherJsonUtils;
+import com.example.android.sunshine.weatherserver.StandInWeatherServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.net.URL;
+
+import static junit.framework.Assert.assertEquals;
+
+/**
+ * Times storing a large forecast straight off a {@link StandInWeatherServer}, first one step
+ * after the other (download and parse everything, then write it all), then through
+ * {@link ForecastPipeline}. With the pipeline, the total should come close to the slowest of
+ * reading, parsing and writing rather than to their sum. Results go to logcat under this
+ * class's tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BenchmarkForecastPipeline {
+
+    private static final String TAG = BenchmarkForecastPipeline.class.getSimpleName();
+
+    private static final int[] PAYLOAD_DAYS = {365, 5000, 20000};
+
+    private static final int ITERATIONS = 3;
+
+    /* Name and bandwidth in bytes per second (0 for none) */
+    private static final Object[][] CONDITIONS = {
+            {"loopback", 0L},
+            {"wifi", 2 * 1024 * 1024L},
+    };
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    private StandInWeatherServer mServer;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new StandInWeatherServer().start();
+        /* Every request should go all the way to the server and back */
+        mServer.setValidatorsEnabled(false);
+        NetworkUtils.setForecastBaseUrl(mServer.getBaseUrl());
+    }
+
+    @After
+    public void tearDown() {
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        NetworkUtils.setForecastBaseUrl(null);
+        mServer.shutdown();
+    }
+
+    @Test
+    public void benchmarkSequentialAgainstPipelined() throws Exception {
+        for (Object[] condition : CONDITIONS) {
+            mServer.setBandwidthBytesPerSecond((Long) condition[1]);
+
+            for (int numDays : PAYLOAD_DAYS) {
+                URL url = NetworkUtils.buildUrlWithDays(NetworkUtils.getUrl(mContext), numDays);
+
+                double sequentialMillis = 0;
+                double pipelinedMillis = 0;
+                for (int i = 0; i < ITERATIONS; i++) {
+                    long start = SystemClock.elapsedRealtimeNanos();
+                    assertEquals(numDays, (int) NetworkUtils.getResponseFromHttpUrl(url,
+                            mSequentialHandler));
+                    sequentialMillis += (SystemClock.elapsedRealtimeNanos() - start) / 1e6;
+
+                    start = SystemClock.elapsedRealtimeNanos();
+                    assertEquals(numDays, (int) NetworkUtils.getResponseFromHttpUrl(url,
+                            mPipelinedHandler));
+                    pipelinedMillis += (SystemClock.elapsedRealtimeNanos() - start) / 1e6;
+                }
+
+                Log.i(TAG, String.format("%-8s %6d days: sequential %9.1f ms | pipelined %9.1f ms",
+                        condition[0], numDays,
+                        sequentialMillis / ITERATIONS, pipelinedMillis / ITERATIONS));
+            }
+        }
+    }
+
+    /*
+     * Reads and parses the whole response, and only then writes it, by deleting the old forecast
+     * and bulk inserting the new one through the provider
+     */
+    private final NetworkUtils.ResponseHandler<Integer> mSequentialHandler =
+            new NetworkUtils.ResponseHandler<Integer>() {
+                @Override
+                public Integer handleResponse(Reader body) throws IOException {
+                    ForecastBatch forecast =
+                            OpenWeatherJsonUtils.getForecastBatchFromJson(mContext, body);
+                    ContentResolver contentResolver = mContext.getContentResolver();
+                    contentResolver.delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+                    Bundle result = contentResolver.call(
+                            WeatherContract.WeatherEntry.CONTENT_URI,
+                            WeatherContract.METHOD_BULK_INSERT_BATCH,
+                            null,
+                            forecast.toBundle());
+                    return result.getInt(WeatherContract.EXTRA_ROWS_INSERTED);
+                }
+            };
+
+    private final NetworkUtils.ResponseHandler<Integer> mPipelinedHandler =
+            new NetworkUtils.ResponseHandler<Integer>() {
+                @Override
+                public Integer handleResponse(Reader body) throws IOException {
+                    return ForecastPipeline.parseAndStore(mContext, body, true);
+                }
+            };
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.sunshine.data.SunshinePreferences;
+import com.example.android.sunshine.data.WeatherContract;
+import com.example.android.sunshine.utilities.NetworkUtils;
+import com.example.android.sunshine.weatherserver.StandInWeatherServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+
+import static junit.framework.Assert.assertEquals;
+
+/**
+ * Runs the whole sync (request, decoding, parsing, database, cache) against a
+ * {@link StandInWeatherServer} in the test process, under a few simulated network conditions.
+ * Each condition is timed for a cold sync (full download), a top-up sync (only the near-term
+ * days, see {@link ForecastWindow}), a revalidated sync (304) and a sync answered from the
+ * forecast cache. Results go to logcat under this class's tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BenchmarkSyncPipeline {
+
+    private static final String TAG = BenchmarkSyncPipeline.class.getSimpleName();
+
+    private static final int ITERATIONS = 5;
+
+    /* Name, round trip latency in milliseconds and bandwidth in bytes per second (0 for none) */
+    private static final Object[][] CONDITIONS = {
+            {"loopback", 0L, 0L},
+            {"wifi", 30L, 2 * 1024 * 1024L},
+            {"3g", 300L, 48 * 1024L},
+    };
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    private StandInWeatherServer mServer;
+    private String mRequestUrl;
+    private String mTopUpUrl;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new StandInWeatherServer().start();
+        NetworkUtils.setForecastBaseUrl(mServer.getBaseUrl());
+        mRequestUrl = NetworkUtils.getUrl(mContext).toString();
+        mTopUpUrl = NetworkUtils.buildUrlWithDays(NetworkUtils.getUrl(mContext),
+                ForecastWindow.NEAR_TERM_DAYS).toString();
+    }
+
+    @After
+    public void tearDown() {
+        forgetForecast();
+        NetworkUtils.setForecastBaseUrl(null);
+        mServer.shutdown();
+    }
+
+    @Test
+    public void benchmarkSyncUnderNetworkConditions() {
+        for (Object[] condition : CONDITIONS) {
+            String name = (String) condition[0];
+            mServer.setLatencyMillis((Long) condition[1]);
+            mServer.setBandwidthBytesPerSecond((Long) condition[2]);
+
+            long coldMillis = 0;
+            long topUpMillis = 0;
+            long revalidatedMillis = 0;
+            long cachedMillis = 0;
+
+            for (int i = 0; i < ITERATIONS; i++) {
+                /* Nothing stored anywhere: the full forecast is downloaded */
+                forgetForecast();
+                int requests = mServer.getRequestCount();
+                long start = SystemClock.elapsedRealtime();
+                assertEquals(SyncOutcome.UPDATED, SunshineSyncTask.syncWeather(mContext));
+                coldMillis += SystemClock.elapsedRealtime() - start;
+                assertEquals(requests + 1, mServer.getRequestCount());
+
+                /* Every day is stored and the forecast is fresh: only the near term is fetched */
+                requests = mServer.getRequestCount();
+                start = SystemClock.elapsedRealtime();
+                assertEquals(SyncOutcome.UPDATED, SunshineSyncTask.syncWeather(mContext));
+                topUpMillis += SystemClock.elapsedRealtime() - start;
+                assertEquals(requests + 1, mServer.getRequestCount());
+
+                /* A full refresh is due, but the server answers 304 as nothing has changed */
+                forceFullRefresh();
+                ForecastDiskCache.getInstance(mContext).remove(mRequestUrl);
+                int notModified = mServer.getNotModifiedCount();
+                start = SystemClock.elapsedRealtime();
+                assertEquals(SyncOutcome.NOT_MODIFIED, SunshineSyncTask.syncWeather(mContext));
+                revalidatedMillis += SystemClock.elapsedRealtime() - start;
+                assertEquals(notModified + 1, mServer.getNotModifiedCount());
+
+                /* The 304 refreshed the cache entry, so the network isn't needed at all */
+                forceFullRefresh();
+                requests = mServer.getRequestCount();
+                start = SystemClock.elapsedRealtime();
+                assertEquals(SyncOutcome.NOT_MODIFIED, SunshineSyncTask.syncWeather(mContext));
+                cachedMillis += SystemClock.elapsedRealtime() - start;
+                assertEquals(requests, mServer.getRequestCount());
+            }
+
+            Log.i(TAG, String.format(
+                    "%-8s cold %5d ms, top-up %5d ms, revalidated %5d ms, cached %5d ms",
+                    name,
+                    coldMillis / ITERATIONS,
+                    topUpMillis / ITERATIONS,
+                    revalidatedMillis / ITERATIONS,
+                    cachedMillis / ITERATIONS));
+        }
+
+        Log.i(TAG, "Requests " + mServer.getRequestCount()
+                + " over " + mServer.getConnectionCount() + " connections, "
+                + mServer.getBytesSent() + " bytes sent");
+    }
+
+    /**
+     * Clears the stored forecast, its validators and its cache entries, so the next sync starts
+     * from nothing.
+     */
+    private void forgetForecast() {
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        SunshinePreferences.saveHttpValidators(mContext, mRequestUrl, null, null);
+        ForecastDiskCache.getInstance(mContext).remove(mRequestUrl);
+        SunshinePreferences.saveHttpValidators(mContext, mTopUpUrl, null, null);
+        ForecastDiskCache.getInstance(mContext).remove(mTopUpUrl);
+        forceFullRefresh();
+    }
+
+    /**
+     * Makes the next sync ask for the whole forecast, as if the last full one were too old.
+     */
+    private void forceFullRefresh() {
+        SunshinePreferences.saveLastFullForecastTime(mContext, mRequestUrl, 0);
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.utilities.HttpResult;
+import com.example.android.sunshine.utilities.NetworkUtils;
+import com.example.android.sunshine.weatherserver.StandInWeatherServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Checks that {@link ForecastBatchFetcher} runs requests side by side, stays within its per-host
+ * limit, and reports every location exactly once.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestForecastBatchFetcher {
+
+    private static final int LOCATIONS = 12;
+    private static final long HANDLER_MILLIS = 100;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    private StandInWeatherServer mServer;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new StandInWeatherServer().start();
+    }
+
+    @After
+    public void tearDown() {
+        mServer.shutdown();
+    }
+
+    @Test
+    public void testBatchRunsConcurrentlyWithinHostLimit() throws Exception {
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+
+        NetworkUtils.ResponseHandler<String> slowHandler =
+                new NetworkUtils.ResponseHandler<String>() {
+            @Override
+            public String handleResponse(Reader body) throws IOException {
+                int now = inFlight.incrementAndGet();
+                while (true) {
+                    int max = maxInFlight.get();
+                    if (now <= max || maxInFlight.compareAndSet(max, now)) {
+                        break;
+                    }
+                }
+                try {
+                    Thread.sleep(HANDLER_MILLIS);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                } finally {
+                    inFlight.decrementAndGet();
+                }
+                return "done";
+            }
+        };
+
+        /* Unique locations, so nothing is answered from the forecast cache of an earlier run */
+        List<URL> urls = createUrls("batch", LOCATIONS);
+
+        final Set<URL> reported = Collections.synchronizedSet(new HashSet<URL>());
+        final Thread caller = Thread.currentThread();
+        final boolean[] callbacksOnCaller = {true};
+
+        long start = System.nanoTime();
+        int succeeded = ForecastBatchFetcher.fetchAll(mContext, urls, slowHandler,
+                new ForecastBatchFetcher.Callback<String>() {
+                    @Override
+                    public void onResult(URL url, HttpResult<String> result) {
+                        callbacksOnCaller[0] &= Thread.currentThread() == caller;
+                        reported.add(url);
+                    }
+
+                    @Override
+                    public void onFailure(URL url, IOException error) {
+                        callbacksOnCaller[0] &= Thread.currentThread() == caller;
+                        reported.add(url);
+                    }
+                });
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertEquals(LOCATIONS, succeeded);
+        assertEquals(LOCATIONS, reported.size());
+        assertTrue("Callbacks should run on the calling thread", callbacksOnCaller[0]);
+        assertTrue("Per-host limit exceeded: " + maxInFlight.get(),
+                maxInFlight.get() <= ForecastBatchFetcher.MAX_REQUESTS_PER_HOST);
+        assertTrue("Requests did not overlap", maxInFlight.get() > 1);
+        assertTrue("Batch took " + elapsedMillis + " ms, no faster than one at a time",
+                elapsedMillis < LOCATIONS * HANDLER_MILLIS);
+    }
+
+    @Test
+    public void testFailuresAreReportedPerLocation() throws Exception {
+        mServer.setErrorResponseCode(404);
+
+        List<URL> urls = createUrls("missing", 3);
+
+        final AtomicInteger failures = new AtomicInteger();
+        int succeeded = ForecastBatchFetcher.fetchAll(mContext, urls,
+                new NetworkUtils.ResponseHandler<String>() {
+                    @Override
+                    public String handleResponse(Reader body) throws IOException {
+                        return "unexpected";
+                    }
+                },
+                new ForecastBatchFetcher.Callback<String>() {
+                    @Override
+                    public void onResult(URL url, HttpResult<String> result) {
+                    }
+
+                    @Override
+                    public void onFailure(URL url, IOException error) {
+                        failures.incrementAndGet();
+                    }
+                });
+
+        assertEquals(0, succeeded);
+        assertEquals(3, failures.get());
+    }
+
+    private List<URL> createUrls(String name, int count) throws IOException {
+        List<URL> urls = new ArrayList<>();
+        long run = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            urls.add(new URL(mServer.getBaseUrl() + "?q=" + name + "-" + run + "-" + i));
+        }
+        return urls;
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests the freshness, LRU eviction and counters of {@link ForecastDiskCache}, using a cache
+ * directory of its own so the app's real cache is left alone.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestForecastDiskCache {
+
+    private static final String URL_A = "https://example.com/staticweather?q=a";
+    private static final String URL_B = "https://example.com/staticweather?q=b";
+    private static final String URL_C = "https://example.com/staticweather?q=c";
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    private File mDirectory;
+    private ForecastDiskCache mCache;
+
+    @Before
+    public void setUp() {
+        mDirectory = new File(mContext.getCacheDir(), "test-forecast-http");
+        deleteDirectory();
+        mCache = new ForecastDiskCache(mDirectory);
+    }
+
+    @After
+    public void tearDown() {
+        deleteDirectory();
+    }
+
+    @Test
+    public void testStoredEntryIsServedWhileFresh() throws IOException {
+        byte[] body = "{\"list\":[]}".getBytes("UTF-8");
+        store(URL_A, "\"v1\"", body);
+
+        ForecastDiskCache.Entry entry = mCache.getFresh(URL_A);
+        assertNotNull("A just-stored entry should be fresh", entry);
+        assertEquals("\"v1\"", entry.eTag);
+        assertEquals(new String(body, "UTF-8"), readBody(entry));
+
+        assertEquals(1, mCache.getHitCount());
+        assertEquals(0, mCache.getMissCount());
+    }
+
+    @Test
+    public void testStaleEntryIsAMiss() throws IOException {
+        store(URL_A, "\"v1\"", new byte[]{1, 2, 3});
+        mCache.setFreshnessTtl(0, TimeUnit.MILLISECONDS);
+
+        assertNull("An entry older than the TTL should not be served", mCache.getFresh(URL_A));
+        assertNull("A URL that was never stored should not be served", mCache.getFresh(URL_B));
+        assertEquals(2, mCache.getMissCount());
+
+        mCache.setFreshnessTtl(1, TimeUnit.HOURS);
+        mCache.markRevalidated(URL_A);
+        assertNotNull("A revalidated entry should be fresh again", mCache.getFresh(URL_A));
+        assertEquals(1, mCache.getRevalidationCount());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEntryIsEvicted() throws IOException {
+        byte[] body = new byte[1024];
+        store(URL_A, null, body);
+        store(URL_B, null, body);
+
+        /* Reading A makes B the least recently used entry */
+        assertNotNull(mCache.getFresh(URL_A));
+
+        mCache.setMaxSize(mCache.getSize());
+        store(URL_C, null, body);
+
+        assertEquals(1, mCache.getEvictionCount());
+        assertNotNull("The recently read entry should survive", mCache.getFresh(URL_A));
+        assertNull("The least recently used entry should be evicted", mCache.getFresh(URL_B));
+        assertNotNull("The newest entry should survive", mCache.getFresh(URL_C));
+        assertTrue(mCache.getSize() <= 2 * (body.length + 256));
+    }
+
+    @Test
+    public void testAbortedEntryIsNotStored() throws IOException {
+        ForecastDiskCache.Editor editor = mCache.edit(URL_A, null, null, null);
+        assertNotNull(editor);
+        drain(editor.wrap(new ByteArrayInputStream(new byte[]{1, 2, 3})));
+        editor.abort();
+
+        assertNull(mCache.getFresh(URL_A));
+        assertEquals(0, mCache.getSize());
+    }
+
+    private void store(String url, String eTag, byte[] body) throws IOException {
+        ForecastDiskCache.Editor editor = mCache.edit(url, eTag, null, null);
+        assertNotNull(editor);
+        drain(editor.wrap(new ByteArrayInputStream(body)));
+        editor.commit();
+    }
+
+    private String readBody(ForecastDiskCache.Entry entry) throws IOException {
+        InputStream in = mCache.openBody(entry);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[256];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toString("UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void drain(InputStream in) throws IOException {
+        byte[] buffer = new byte[256];
+        while (in.read(buffer) != -1) {
+            /* Discard */
+        }
+        in.close();
+    }
+
+    private void deleteDirectory() {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+}
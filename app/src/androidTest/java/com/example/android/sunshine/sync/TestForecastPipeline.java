@@ -0,0 +1,231 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.data.ForecastBatch;
+import com.example.android.sunshine.data.WeatherContract;
+import com.example.android.sunshine.utilities.OpenWeatherErrorException;
+import com.example.android.sunshine.utilities.OpenWeatherJsonUtils;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+import com.example.android.sunshine.weatherserver.SyntheticForecast;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.fail;
+
+/**
+ * Checks that {@link ForecastPipeline} stores exactly what the parser reads, and that a forecast
+ * that fails part way through leaves the stored one untouched, even after some of its days have
+ * already been written.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestForecastPipeline {
+
+    /* Enough days for the parser to hand over several batches */
+    private static final int LARGE_FORECAST_DAYS = ForecastPipeline.CHUNK_DAYS * 10 + 7;
+
+    private static final int STORED_WEATHER_ID = 800;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    @Before
+    @After
+    public void clearForecast() {
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+    }
+
+    @Test
+    public void testStoresEveryDayOfALargeForecast() throws Exception {
+        String json = SyntheticForecast.createJson(LARGE_FORECAST_DAYS, 3);
+        storeDays(0, 14);
+
+        int daysStored = ForecastPipeline.parseAndStore(mContext, new StringReader(json), true);
+
+        assertEquals(LARGE_FORECAST_DAYS, daysStored);
+        assertStoredForecast(OpenWeatherJsonUtils.getForecastBatchFromJson(mContext,
+                new StringReader(json)));
+    }
+
+    @Test
+    public void testPartialForecastIsMergedIntoStoredOne() throws Exception {
+        String json = SyntheticForecast.createJson(3, 5);
+        ForecastBatch partial = OpenWeatherJsonUtils.getForecastBatchFromJson(mContext,
+                new StringReader(json));
+
+        /* Two days in the past, which should go, and two weeks from today, which should stay */
+        storeDays(-2, 14);
+
+        assertEquals(3,
+                ForecastPipeline.parseAndStore(mContext, new StringReader(json), false));
+
+        Cursor cursor = queryForecast();
+        try {
+            assertEquals(14, cursor.getCount());
+            for (int day = 0; cursor.moveToNext(); day++) {
+                int expectedWeatherId = day < partial.size()
+                        ? partial.getWeatherId(day)
+                        : STORED_WEATHER_ID;
+                assertEquals("Wrong weather on day " + day, expectedWeatherId, cursor.getInt(
+                        cursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID)));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void testUnchangedDaysAreNotRewritten() throws Exception {
+        String json = SyntheticForecast.createJson(14, 3);
+        ForecastPipeline.parseAndStore(mContext, new StringReader(json), true);
+        long[] rowIds = queryRowIds();
+
+        /* The same forecast again: every row should be the one we already had */
+        assertEquals(14, ForecastPipeline.parseAndStore(mContext, new StringReader(json), true));
+        long[] unchangedRowIds = queryRowIds();
+        assertEquals(rowIds.length, unchangedRowIds.length);
+        for (int day = 0; day < rowIds.length; day++) {
+            assertEquals("Day " + day + " was rewritten", rowIds[day], unchangedRowIds[day]);
+        }
+
+        /* A full forecast that is a week shorter drops the days it no longer covers */
+        String shorter = SyntheticForecast.createJson(7, 3);
+        ForecastPipeline.parseAndStore(mContext, new StringReader(shorter), true);
+        assertStoredForecast(OpenWeatherJsonUtils.getForecastBatchFromJson(mContext,
+                new StringReader(shorter)));
+    }
+
+    @Test
+    public void testTruncatedResponseChangesNothing() throws Exception {
+        String json = SyntheticForecast.createJson(LARGE_FORECAST_DAYS, 3);
+        storeDays(0, 14);
+
+        try {
+            ForecastPipeline.parseAndStore(mContext,
+                    new StringReader(json.substring(0, json.length() / 2)), true);
+            fail("Expected the truncated forecast to be rejected");
+        } catch (IOException expected) {
+        }
+
+        assertOnlyStoredDaysRemain();
+    }
+
+    @Test
+    public void testErrorCodeAfterTheDaysChangesNothing() throws Exception {
+        /* Move the error code to the very end, after every day has been handed over */
+        String json = SyntheticForecast.createJson(LARGE_FORECAST_DAYS, 3)
+                .replace("\"cod\":\"200\",", "");
+        json = json.substring(0, json.lastIndexOf('}')) + ",\"cod\":\"500\"}";
+        storeDays(0, 14);
+
+        try {
+            ForecastPipeline.parseAndStore(mContext, new StringReader(json), true);
+            fail("Expected an OpenWeatherErrorException");
+        } catch (OpenWeatherErrorException e) {
+            assertEquals(500, e.getErrorCode());
+        }
+
+        assertOnlyStoredDaysRemain();
+    }
+
+    private Cursor queryForecast() {
+        return mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                null,
+                null,
+                null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+    }
+
+    /* The rowid of each stored day, which changes whenever a day is written again */
+    private long[] queryRowIds() {
+        Cursor cursor = queryForecast();
+        try {
+            long[] rowIds = new long[cursor.getCount()];
+            int idIndex = cursor.getColumnIndex(WeatherContract.WeatherEntry._ID);
+            for (int day = 0; cursor.moveToNext(); day++) {
+                rowIds[day] = cursor.getLong(idIndex);
+            }
+            return rowIds;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void assertStoredForecast(ForecastBatch expected) {
+        Cursor cursor = queryForecast();
+        try {
+            assertEquals(expected.size(), cursor.getCount());
+            int dateIndex = cursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_DATE);
+            int maxIndex = cursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP);
+            for (int day = 0; cursor.moveToNext(); day++) {
+                assertEquals(expected.getDate(day), cursor.getLong(dateIndex));
+                assertEquals(expected.getMaxTemp(day), cursor.getDouble(maxIndex));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void assertOnlyStoredDaysRemain() {
+        Cursor cursor = queryForecast();
+        try {
+            assertEquals(14, cursor.getCount());
+            int weatherIdIndex =
+                    cursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID);
+            while (cursor.moveToNext()) {
+                assertEquals(STORED_WEATHER_ID, cursor.getInt(weatherIdIndex));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Stores a forecast for the days from {@code firstDay} (inclusive) to {@code endDay}
+     * (exclusive), counting today as day 0.
+     */
+    private void storeDays(int firstDay, int endDay) {
+        long today = SunshineDateUtils.getNormalizedUtcDateForToday();
+        ContentValues[] rows = new ContentValues[endDay - firstDay];
+        for (int day = firstDay; day < endDay; day++) {
+            ContentValues row = new ContentValues();
+            row.put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                    today + day * SunshineDateUtils.DAY_IN_MILLIS);
+            row.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, STORED_WEATHER_ID);
+            row.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, 10.0);
+            row.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 20.0);
+            row.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, 50.0);
+            row.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, 1000.0);
+            row.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, 5.0);
+            row.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, 90.0);
+            rows[day - firstDay] = row;
+        }
+        mContext.getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, rows);
+    }
+}
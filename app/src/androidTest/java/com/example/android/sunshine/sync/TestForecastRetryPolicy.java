@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.support.test.runner.AndroidJUnit4;
+import android.util.MalformedJsonException;
+
+import com.example.android.sunshine.utilities.HttpStatusException;
+import com.example.android.sunshine.utilities.OpenWeatherErrorException;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+/**
+ * Tests how {@link ForecastRetryPolicy} sorts failures, the bounds of its jittered backoff, and
+ * the {@link CircuitBreaker} it keeps per host.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestForecastRetryPolicy {
+
+    @Test
+    public void testTransientFailuresAreRetried() {
+        assertTrue(ForecastRetryPolicy.isTransient(new SocketTimeoutException()));
+        assertTrue(ForecastRetryPolicy.isTransient(new HttpStatusException(503, "")));
+        assertTrue(ForecastRetryPolicy.isTransient(new HttpStatusException(429, "")));
+        assertTrue(ForecastRetryPolicy.isTransient(new OpenWeatherErrorException(500)));
+        assertTrue(ForecastRetryPolicy.isTransient(new EOFException()));
+        assertTrue(ForecastRetryPolicy.isTransient(new IOException("Connection reset")));
+    }
+
+    @Test
+    public void testPermanentFailuresAreNotRetried() {
+        assertFalse(ForecastRetryPolicy.isTransient(new HttpStatusException(404, "")));
+        assertFalse(ForecastRetryPolicy.isTransient(new HttpStatusException(401, "")));
+        assertFalse(ForecastRetryPolicy.isTransient(new OpenWeatherErrorException(404)));
+        assertFalse(ForecastRetryPolicy.isTransient(new MalformedJsonException("")));
+        assertFalse(ForecastRetryPolicy.isTransient(new CircuitOpenException("example.com", 0)));
+    }
+
+    @Test
+    public void testBackoffIsJitteredAndCapped() {
+        Random random = new Random(42);
+        for (int attempt = 1; attempt <= 40; attempt++) {
+            long ceiling = Math.min(ForecastRetryPolicy.MAX_DELAY_MILLIS,
+                    ForecastRetryPolicy.BASE_DELAY_MILLIS << Math.min(attempt - 1, 30));
+            for (int i = 0; i < 100; i++) {
+                long delay = ForecastRetryPolicy.computeDelayMillis(attempt, random);
+                assertTrue("Delay " + delay + " out of range for attempt " + attempt,
+                        delay >= 0 && delay <= ceiling);
+            }
+        }
+    }
+
+    @Test
+    public void testBreakerOpensAfterThresholdAndRecoversAfterTrial() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(3, 50, 1000);
+
+        for (int i = 0; i < 3; i++) {
+            assertTrue(breaker.allowRequest());
+            breaker.recordFailure();
+        }
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest());
+
+        Thread.sleep(100);
+
+        /* One trial gets through, everybody else waits for it */
+        assertTrue(breaker.allowRequest());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest());
+
+        breaker.recordSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.allowRequest());
+    }
+
+    @Test
+    public void testFailedTrialReopensForLonger() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(1, 50, 1000);
+
+        breaker.allowRequest();
+        breaker.recordFailure();
+        Thread.sleep(100);
+
+        assertTrue(breaker.allowRequest());
+        breaker.recordFailure();
+
+        assertTrue(breaker.isOpen());
+        assertTrue(breaker.getRemainingOpenMillis() > 50);
+    }
+
+    /**
+     * An attempt that throws something other than an IOException during a half open breaker's
+     * trial must still end the trial, or the breaker would refuse every request after it.
+     */
+    @Test
+    public void testRuntimeExceptionEndsTrial() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(1, 50, 1000);
+        breaker.allowRequest();
+        breaker.recordFailure();
+        Thread.sleep(100);
+
+        try {
+            ForecastRetryPolicy.execute("crashing.example.com", breaker,
+                    new ForecastRetryPolicy.Attempt<Void>() {
+                        @Override
+                        public Void run() throws IOException {
+                            throw new IllegalStateException("Expected BEGIN_OBJECT");
+                        }
+                    });
+            fail("Expected the exception to be thrown");
+        } catch (IllegalStateException expected) {
+        }
+
+        /* The failed trial opened the breaker again, and it lets another trial through later */
+        assertTrue(breaker.isOpen());
+        Thread.sleep(breaker.getRemainingOpenMillis() + 50);
+        assertTrue(breaker.allowRequest());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+    }
+
+    /**
+     * A failure that opens the breaker is thrown as it is, rather than being slept on only to end
+     * in a CircuitOpenException.
+     */
+    @Test
+    public void testFailureThatOpensBreakerIsThrownAtOnce() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(1, 1000, 1000);
+        final int[] attempts = {0};
+
+        long start = System.nanoTime();
+        try {
+            ForecastRetryPolicy.execute("opening.example.com", breaker,
+                    new ForecastRetryPolicy.Attempt<Void>() {
+                        @Override
+                        public Void run() throws IOException {
+                            attempts[0]++;
+                            throw new SocketTimeoutException();
+                        }
+                    });
+            fail("Expected the timeout to be thrown");
+        } catch (SocketTimeoutException expected) {
+        }
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertEquals(1, attempts[0]);
+        assertTrue(breaker.isOpen());
+        assertTrue(elapsedMillis < ForecastRetryPolicy.BASE_DELAY_MILLIS);
+    }
+
+    @Test
+    public void testPermanentFailureIsNotRetried() throws Exception {
+        final int[] attempts = {0};
+        try {
+            ForecastRetryPolicy.execute(new URL("http://permanent.example.com/"),
+                    new ForecastRetryPolicy.Attempt<Void>() {
+                        @Override
+                        public Void run() throws IOException {
+                            attempts[0]++;
+                            throw new OpenWeatherErrorException(404);
+                        }
+                    });
+            fail("Expected the error to be thrown");
+        } catch (OpenWeatherErrorException expected) {
+            assertEquals(1, attempts[0]);
+        }
+        assertFalse(ForecastRetryPolicy.getBreaker("permanent.example.com").isOpen());
+    }
+
+    @Test
+    public void testBreakerStopsRequestsToFailingHost() throws Exception {
+        URL url = new URL("http://failing.example.com/");
+        ForecastRetryPolicy.Attempt<Void> timesOut = new ForecastRetryPolicy.Attempt<Void>() {
+            @Override
+            public Void run() throws IOException {
+                throw new SocketTimeoutException();
+            }
+        };
+
+        long start = System.nanoTime();
+        for (int sync = 0; sync < 2; sync++) {
+            try {
+                ForecastRetryPolicy.execute(url, timesOut);
+                fail("Expected the timeout to be thrown");
+            } catch (SocketTimeoutException expected) {
+            }
+        }
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue(elapsedMillis < 4 * ForecastRetryPolicy.MAX_DELAY_MILLIS);
+
+        try {
+            ForecastRetryPolicy.execute(url, timesOut);
+            fail("Expected the breaker to refuse the request");
+        } catch (CircuitOpenException expected) {
+        }
+        assertFalse(ForecastRetryPolicy.shouldReschedule(url, SyncOutcome.FAILED));
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.data.SunshinePreferences;
+import com.example.android.sunshine.data.WeatherContract;
+import com.example.android.sunshine.utilities.NetworkUtils;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.net.URL;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Checks the number of days {@link ForecastWindow} asks for, depending on what the database
+ * already holds and how old the last full forecast is.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestForecastWindow {
+
+    private static final String FULL_URL = "https://example.com/staticweather?q=window&cnt=14";
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    @Before
+    @After
+    public void clearForecast() {
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        SunshinePreferences.saveLastFullForecastTime(mContext, FULL_URL, 0);
+    }
+
+    @Test
+    public void testEmptyDatabaseAsksForEverything() {
+        markFullForecastFresh();
+        ForecastWindow window = ForecastWindow.choose(mContext, FULL_URL);
+
+        assertTrue(window.isFullRefresh());
+        assertFalse(window.hasStoredForecast());
+        assertEquals(NetworkUtils.FORECAST_DAYS, window.getDays());
+    }
+
+    @Test
+    public void testCompleteFreshForecastOnlyRefreshesNearTerm() {
+        storeDays(0, NetworkUtils.FORECAST_DAYS);
+        markFullForecastFresh();
+        ForecastWindow window = ForecastWindow.choose(mContext, FULL_URL);
+
+        assertFalse(window.isFullRefresh());
+        assertEquals(ForecastWindow.NEAR_TERM_DAYS, window.getDays());
+    }
+
+    @Test
+    public void testMissingDayExtendsWindowToIt() {
+        /* The day has rolled over since the last sync, so the last day is missing */
+        storeDays(0, NetworkUtils.FORECAST_DAYS - 1);
+        markFullForecastFresh();
+        ForecastWindow window = ForecastWindow.choose(mContext, FULL_URL);
+
+        assertFalse(window.isFullRefresh());
+        assertEquals(NetworkUtils.FORECAST_DAYS, window.getDays());
+
+        /* A gap in the middle only needs the days up to the gap */
+        clearForecast();
+        storeDays(0, 5);
+        storeDays(6, NetworkUtils.FORECAST_DAYS);
+        markFullForecastFresh();
+        assertEquals(6, ForecastWindow.choose(mContext, FULL_URL).getDays());
+    }
+
+    @Test
+    public void testStaleOrOtherLocationForecastIsReplaced() {
+        storeDays(0, NetworkUtils.FORECAST_DAYS);
+
+        /* Never had a full forecast for this URL */
+        assertTrue(ForecastWindow.choose(mContext, FULL_URL).isFullRefresh());
+
+        /* Had one, but too long ago */
+        SunshinePreferences.saveLastFullForecastTime(mContext, FULL_URL,
+                System.currentTimeMillis() - ForecastWindow.FULL_REFRESH_INTERVAL_MILLIS - 1);
+        assertTrue(ForecastWindow.choose(mContext, FULL_URL).isFullRefresh());
+
+        /* Fresh, but for another location */
+        SunshinePreferences.saveLastFullForecastTime(mContext, FULL_URL + "&other",
+                System.currentTimeMillis());
+        assertTrue(ForecastWindow.choose(mContext, FULL_URL).isFullRefresh());
+    }
+
+    @Test
+    public void testBuildUrlWithDaysOnlyChangesTheCount() throws Exception {
+        URL full = new URL(FULL_URL + "&units=metric");
+        URL partial = NetworkUtils.buildUrlWithDays(full, 3);
+        assertEquals("https://example.com/staticweather?q=window&cnt=3&units=metric",
+                partial.toString());
+    }
+
+    private void markFullForecastFresh() {
+        SunshinePreferences.saveLastFullForecastTime(mContext, FULL_URL,
+                System.currentTimeMillis());
+    }
+
+    /**
+     * Stores a forecast for the days from {@code firstDay} (inclusive) to {@code endDay}
+     * (exclusive), counting today as day 0.
+     */
+    private void storeDays(int firstDay, int endDay) {
+        long today = SunshineDateUtils.getNormalizedUtcDateForToday();
+        ContentValues[] rows = new ContentValues[endDay - firstDay];
+        for (int day = firstDay; day < endDay; day++) {
+            ContentValues row = new ContentValues();
+            row.put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                    today + day * SunshineDateUtils.DAY_IN_MILLIS);
+            row.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, 800);
+            row.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, 10.0);
+            row.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 20.0);
+            row.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, 50.0);
+            row.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, 1000.0);
+            row.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, 5.0);
+            row.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, 90.0);
+            rows[day - firstDay] = row;
+        }
+        mContext.getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, rows);
+    }
+}
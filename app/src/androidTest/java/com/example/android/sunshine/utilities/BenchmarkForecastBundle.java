@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.sunshine.weatherserver.SyntheticForecast;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import static junit.framework.Assert.assertEquals;
+
+/**
+ * Measures how {@link ForecastBundleParser} scales with the number of threads it parses on, from
+ * 1 to 8, against parsing each location of the bundle one after the other with
+ * {@link OpenWeatherJsonUtils}. The speedup levels off at the number of cores the device has,
+ * which is logged alongside the results.
+ * <p>
+ * Results are written to logcat under the "ForecastBundle" tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BenchmarkForecastBundle {
+
+    private static final String LOG_TAG = "ForecastBundle";
+
+    private static final int LOCATIONS = 48;
+    private static final int[] BUNDLE_DAYS = {14, 365};
+    private static final int[] THREADS = {1, 2, 3, 4, 6, 8};
+
+    private static final int WARMUP_ITERATIONS = 3;
+    private static final int MEASURED_ITERATIONS = 10;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    @Test
+    public void benchmarkParallelBundleParsing() throws Exception {
+        Log.i(LOG_TAG, Runtime.getRuntime().availableProcessors() + " cores available");
+
+        for (int numDays : BUNDLE_DAYS) {
+            String bundle = SyntheticForecast.createBundleJson(LOCATIONS, numDays, numDays);
+            String[] locations = new String[LOCATIONS];
+            for (int i = 0; i < LOCATIONS; i++) {
+                locations[i] = SyntheticForecast.createJson(numDays, numDays + i,
+                        SyntheticForecast.getBundleLatitude(i),
+                        SyntheticForecast.getBundleLongitude(i));
+            }
+
+            double serialMillis = measureSerial(locations);
+            Log.i(LOG_TAG, String.format("%2d locations x %3d days: serial %8.2f ms",
+                    LOCATIONS, numDays, serialMillis));
+
+            for (int threads : THREADS) {
+                ForkJoinPool pool = new ForkJoinPool(threads);
+                try {
+                    double millis = measureBundle(bundle, pool);
+                    Log.i(LOG_TAG, String.format(
+                            "%2d locations x %3d days: %d threads %8.2f ms (%.2fx serial)",
+                            LOCATIONS, numDays, threads, millis, serialMillis / millis));
+                } finally {
+                    pool.shutdown();
+                }
+            }
+        }
+    }
+
+    /* The median of the measured iterations, which shrugs off the odd GC pause */
+    private double measureBundle(String bundle, ForkJoinPool pool) throws Exception {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            assertEquals(LOCATIONS, ForecastBundleParser.parse(new StringReader(bundle), pool)
+                    .size());
+        }
+
+        long[] nanos = new long[MEASURED_ITERATIONS];
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            long start = SystemClock.elapsedRealtimeNanos();
+            ForecastBundleParser.parse(new StringReader(bundle), pool);
+            nanos[i] = SystemClock.elapsedRealtimeNanos() - start;
+        }
+        return median(nanos);
+    }
+
+    private double measureSerial(String[] locations) throws Exception {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            parseSerially(locations);
+        }
+
+        long[] nanos = new long[MEASURED_ITERATIONS];
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            long start = SystemClock.elapsedRealtimeNanos();
+            parseSerially(locations);
+            nanos[i] = SystemClock.elapsedRealtimeNanos() - start;
+        }
+        return median(nanos);
+    }
+
+    private void parseSerially(String[] locations) throws Exception {
+        for (String location : locations) {
+            OpenWeatherJsonUtils.getForecastBatchFromJson(mContext, new StringReader(location));
+        }
+    }
+
+    private static double median(long[] nanos) {
+        Arrays.sort(nanos);
+        return nanos[nanos.length / 2] / 1e6;
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.os.Debug;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.sunshine.data.ForecastBatch;
+import com.example.android.sunshine.weatherserver.SyntheticForecast;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.StringReader;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Compares the forecast parsers on their own, with no I/O involved: the JSONObject (DOM) parser,
+ * the JsonReader (pull) parser producing ContentValues, and the pull parser producing the
+ * {@link ForecastBatch} the sync actually uses all start from the same String. Where
+ * {@link BenchmarkForecastStreaming} measures the whole path from response bytes to rows, this
+ * isolates what the parsers themselves cost, in time, bytes and objects allocated per day.
+ * <p>
+ * Results are written to logcat under the "ForecastParsers" tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BenchmarkForecastParsers {
+
+    private static final String LOG_TAG = "ForecastParsers";
+
+    private static final int[] PAYLOAD_DAYS = {14, 365, 5000};
+
+    private static final int PARSER_DOM = 0;
+    private static final int PARSER_PULL = 1;
+    private static final int PARSER_BATCH = 2;
+
+    private static final int WARMUP_ITERATIONS = 3;
+    private static final int MEASURED_ITERATIONS = 10;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    @Test
+    public void benchmarkPullParserAgainstDomParser() throws Exception {
+        for (int numDays : PAYLOAD_DAYS) {
+            String json = SyntheticForecast.createJson(numDays, numDays);
+
+            ContentValues[] fromDom = (ContentValues[]) parse(json, PARSER_DOM);
+            ContentValues[] fromPull = (ContentValues[]) parse(json, PARSER_PULL);
+            ContentValues[] fromBatch = ((ForecastBatch) parse(json, PARSER_BATCH))
+                    .toContentValues();
+            assertEquals(numDays, fromPull.length);
+            assertEquals(numDays, fromBatch.length);
+            for (int i = 0; i < numDays; i++) {
+                assertEquals("Pull parser disagrees on day " + i, fromDom[i], fromPull[i]);
+                assertEquals("Batch parser disagrees on day " + i, fromDom[i], fromBatch[i]);
+            }
+
+            Result domResult = measure(json, PARSER_DOM);
+            Result pullResult = measure(json, PARSER_PULL);
+            Result batchResult = measure(json, PARSER_BATCH);
+
+            Log.i(LOG_TAG, String.format("%5d days: dom %s | pull %s | batch %s", numDays,
+                    domResult.describe(numDays),
+                    pullResult.describe(numDays),
+                    batchResult.describe(numDays)));
+
+            assertTrue("Pull parser allocated more than the DOM parser for " + numDays + " days",
+                    pullResult.allocatedBytes < domResult.allocatedBytes);
+            assertTrue("Batch parser allocated more than ContentValues for " + numDays + " days",
+                    batchResult.allocatedBytes < pullResult.allocatedBytes);
+        }
+    }
+
+    private Result measure(String json, int parser) throws Exception {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            parse(json, parser);
+        }
+
+        long totalNanos = 0;
+        long totalBytes = 0;
+        long totalObjects = 0;
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            Runtime.getRuntime().gc();
+
+            Debug.resetThreadAllocCount();
+            Debug.resetThreadAllocSize();
+            Debug.startAllocCounting();
+            long start = SystemClock.elapsedRealtimeNanos();
+
+            parse(json, parser);
+
+            totalNanos += SystemClock.elapsedRealtimeNanos() - start;
+            Debug.stopAllocCounting();
+            totalBytes += Debug.getThreadAllocSize();
+            totalObjects += Debug.getThreadAllocCount();
+        }
+
+        Result result = new Result();
+        result.millis = totalNanos / 1e6 / MEASURED_ITERATIONS;
+        result.allocatedBytes = totalBytes / MEASURED_ITERATIONS;
+        result.allocatedObjects = totalObjects / MEASURED_ITERATIONS;
+        return result;
+    }
+
+    private Object parse(String json, int parser) throws Exception {
+        switch (parser) {
+            case PARSER_BATCH:
+                return OpenWeatherJsonUtils.getForecastBatchFromJson(mContext,
+                        new StringReader(json));
+            case PARSER_PULL:
+                return OpenWeatherJsonUtils.getWeatherContentValuesFromJson(mContext,
+                        new StringReader(json));
+            default:
+                return OpenWeatherJsonUtils.getWeatherContentValuesFromJson(mContext, json);
+        }
+    }
+
+    private static class Result {
+        double millis;
+        long allocatedBytes;
+        long allocatedObjects;
+
+        String describe(int numDays) {
+            return String.format("%8.2f ms %9.0f days/s %7d B/day %5d obj/day",
+                    millis, numDays / (millis / 1000),
+                    allocatedBytes / numDays, allocatedObjects / numDays);
+        }
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.os.Debug;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.sunshine.weatherserver.SyntheticForecast;
+
+import org.json.JSONException;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.Scanner;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Compares the original "read the whole body into a String, then parse it" path against the
+ * streaming path that hands a Reader straight to the parser. Both paths read from the same bytes,
+ * so the comparison covers exactly the work done after the body arrives from the network.
+ * <p>
+ * Results are written to logcat under the "ForecastStreaming" tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BenchmarkForecastStreaming {
+
+    private static final String LOG_TAG = "ForecastStreaming";
+
+    private static final int[] PAYLOAD_DAYS = {14, 365, 5000};
+
+    private static final int WARMUP_ITERATIONS = 3;
+    private static final int MEASURED_ITERATIONS = 10;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    /**
+     * Runs both paths over each payload size and checks that the streaming path never allocates
+     * more than the String path. The streaming path should also produce exactly the same rows.
+     */
+    @Test
+    public void benchmarkStreamingAgainstStringPath() throws Exception {
+        for (int numDays : PAYLOAD_DAYS) {
+            byte[] payload = SyntheticForecast.createJson(numDays, numDays)
+                    .getBytes("UTF-8");
+
+            ContentValues[] fromString = parseWithStringPath(payload);
+            ContentValues[] fromStream = parseWithStreamingPath(payload);
+            assertEquals(numDays, fromStream.length);
+            for (int i = 0; i < numDays; i++) {
+                assertEquals("Streaming parser disagrees on day " + i,
+                        fromString[i], fromStream[i]);
+            }
+
+            Result stringResult = measure(payload, false);
+            Result streamResult = measure(payload, true);
+
+            Log.i(LOG_TAG, String.format("%5d days (%7d bytes): string %8.2f ms %10d bytes" +
+                            " | streaming %8.2f ms %10d bytes",
+                    numDays, payload.length,
+                    stringResult.millis, stringResult.allocatedBytes,
+                    streamResult.millis, streamResult.allocatedBytes));
+
+            assertTrue("Streaming path allocated more than the String path for " + numDays
+                            + " days",
+                    streamResult.allocatedBytes <= stringResult.allocatedBytes);
+        }
+    }
+
+    private Result measure(byte[] payload, boolean streaming) throws Exception {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            parse(payload, streaming);
+        }
+
+        long totalNanos = 0;
+        long totalAllocated = 0;
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            Runtime.getRuntime().gc();
+
+            Debug.resetThreadAllocCount();
+            Debug.startAllocCounting();
+            long start = SystemClock.elapsedRealtimeNanos();
+
+            parse(payload, streaming);
+
+            totalNanos += SystemClock.elapsedRealtimeNanos() - start;
+            Debug.stopAllocCounting();
+            totalAllocated += Debug.getThreadAllocSize();
+        }
+
+        Result result = new Result();
+        result.millis = totalNanos / 1e6 / MEASURED_ITERATIONS;
+        result.allocatedBytes = totalAllocated / MEASURED_ITERATIONS;
+        return result;
+    }
+
+    private ContentValues[] parse(byte[] payload, boolean streaming) throws Exception {
+        return streaming ? parseWithStreamingPath(payload) : parseWithStringPath(payload);
+    }
+
+    private ContentValues[] parseWithStringPath(byte[] payload) throws JSONException {
+        InputStream in = new ByteArrayInputStream(payload);
+        String response = readResponse(in);
+        return OpenWeatherJsonUtils.getWeatherContentValuesFromJson(mContext, response);
+    }
+
+    private ContentValues[] parseWithStreamingPath(byte[] payload) throws IOException {
+        InputStream in = new ByteArrayInputStream(payload);
+        return NetworkUtils.handleResponse(in,
+                new NetworkUtils.ResponseHandler<ContentValues[]>() {
+                    @Override
+                    public ContentValues[] handleResponse(Reader body) throws IOException {
+                        return OpenWeatherJsonUtils.getWeatherContentValuesFromJson(mContext, body);
+                    }
+                });
+    }
+
+    /**
+     * Reads an entire response stream into a single String, the way Sunshine originally did
+     * before parsing it. This is the baseline the streaming path is measured against.
+     *
+     * @param in The response body
+     * @return The contents of the stream, null if the stream was empty
+     */
+    private static String readResponse(InputStream in) {
+        Scanner scanner = new Scanner(in);
+        scanner.useDelimiter("\\A");
+
+        boolean hasInput = scanner.hasNext();
+        String response = null;
+        if (hasInput) {
+            response = scanner.next();
+        }
+        scanner.close();
+        return response;
+    }
+
+    private static class Result {
+        double millis;
+        long allocatedBytes;
+    }
+}
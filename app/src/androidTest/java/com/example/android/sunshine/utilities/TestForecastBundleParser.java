@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.MalformedJsonException;
+
+import com.example.android.sunshine.weatherserver.SyntheticForecast;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.StringReader;
+import java.net.HttpURLConnection;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+/**
+ * Checks that {@link ForecastBundleParser} gives every location of a bundle exactly the forecast
+ * the single-location parser would, in the order the locations appear, however many threads it
+ * parses them on.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestForecastBundleParser {
+
+    private static final int LOCATIONS = 24;
+    private static final int DAYS = 14;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    private ForkJoinPool mPool;
+
+    @Before
+    public void setUp() {
+        mPool = new ForkJoinPool(4);
+    }
+
+    @After
+    public void tearDown() {
+        mPool.shutdown();
+    }
+
+    @Test
+    public void testBundleMatchesSingleLocationParser() throws Exception {
+        String bundle = SyntheticForecast.createBundleJson(LOCATIONS, DAYS, 3);
+
+        List<ForecastBundleParser.LocationForecast> forecasts =
+                ForecastBundleParser.parse(new StringReader(bundle), mPool);
+
+        assertEquals(LOCATIONS, forecasts.size());
+        for (int i = 0; i < LOCATIONS; i++) {
+            ForecastBundleParser.LocationForecast location = forecasts.get(i);
+            assertEquals(HttpURLConnection.HTTP_OK, location.getErrorCode());
+            assertEquals(SyntheticForecast.getBundleLatitude(i), location.getLatitude());
+            assertEquals(SyntheticForecast.getBundleLongitude(i), location.getLongitude());
+
+            String single = SyntheticForecast.createJson(DAYS, 3 + i,
+                    SyntheticForecast.getBundleLatitude(i),
+                    SyntheticForecast.getBundleLongitude(i));
+            ContentValues[] expected = OpenWeatherJsonUtils.getWeatherContentValuesFromJson(
+                    mContext, new StringReader(single));
+            ContentValues[] actual = location.getForecast().toContentValues();
+            assertEquals(expected.length, actual.length);
+            for (int day = 0; day < expected.length; day++) {
+                assertEquals("Location " + i + " differs on day " + day,
+                        expected[day], actual[day]);
+            }
+        }
+    }
+
+    @Test
+    public void testLocationErrorDoesNotFailBundle() throws Exception {
+        String bundle = SyntheticForecast.createBundleJson(3, DAYS, 3)
+                .replace("\"forecasts\":[",
+                        "\"forecasts\":[" + SyntheticForecast.createErrorJson(404) + ",");
+
+        List<ForecastBundleParser.LocationForecast> forecasts =
+                ForecastBundleParser.parse(new StringReader(bundle), mPool);
+
+        assertEquals(4, forecasts.size());
+        assertEquals(HttpURLConnection.HTTP_NOT_FOUND, forecasts.get(0).getErrorCode());
+        assertNull(forecasts.get(0).getForecast());
+        for (int i = 1; i < forecasts.size(); i++) {
+            assertEquals(DAYS, forecasts.get(i).getForecast().size());
+        }
+    }
+
+    @Test
+    public void testBundleErrorIsReported() throws Exception {
+        try {
+            ForecastBundleParser.parse(new StringReader("{\"cod\":\"500\",\"forecasts\":[]}"),
+                    mPool);
+            fail("Expected an OpenWeatherErrorException");
+        } catch (OpenWeatherErrorException e) {
+            assertEquals(500, e.getErrorCode());
+        }
+    }
+
+    @Test
+    public void testMalformedBundleIsRejected() throws Exception {
+        String bundle = SyntheticForecast.createBundleJson(LOCATIONS, DAYS, 3);
+
+        /* Cut off part way through the last location */
+        try {
+            ForecastBundleParser.parse(
+                    new StringReader(bundle.substring(0, bundle.length() - 100)), mPool);
+            fail("Expected a MalformedJsonException");
+        } catch (MalformedJsonException expected) {
+        }
+
+        /* A location that is structurally fine but is missing a field */
+        try {
+            ForecastBundleParser.parse(
+                    new StringReader(bundle.replaceFirst("\"humidity\":\\d+,", "")), mPool);
+            fail("Expected a MalformedJsonException");
+        } catch (MalformedJsonException expected) {
+        }
+    }
+
+    @Test
+    public void testEmptyBundle() throws Exception {
+        assertTrue(ForecastBundleParser.parse(
+                new StringReader("{\"cod\":200,\"cnt\":0,\"forecasts\":[]}"), mPool).isEmpty());
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.weatherserver.StandInWeatherServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.net.URL;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Exercises the real HTTP path of NetworkUtils against a {@link StandInWeatherServer} running on
+ * the device, checking that compressed forecasts are negotiated, decoded as a stream and counted.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestNetworkUtils {
+
+    private static final int FORECAST_DAYS = 365;
+    private static final String LOCATION = "94043,USA";
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    private StandInWeatherServer mServer;
+    private byte[] mForecastJson;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new StandInWeatherServer().start();
+        mForecastJson = mServer.getForecastJson(LOCATION, FORECAST_DAYS).getBytes("UTF-8");
+    }
+
+    @After
+    public void tearDown() {
+        mServer.shutdown();
+    }
+
+    @Test
+    public void testRequestAcceptsCompressedResponses() throws Exception {
+        fetchForecast();
+
+        String acceptEncoding = mServer.getLastRequestHeaders().get("accept-encoding");
+        assertNotNull("NetworkUtils did not send Accept-Encoding", acceptEncoding);
+        assertTrue("NetworkUtils did not ask for gzip", acceptEncoding.contains("gzip"));
+        assertTrue("NetworkUtils did not ask for deflate", acceptEncoding.contains("deflate"));
+    }
+
+    @Test
+    public void testIdentityResponse() throws Exception {
+        mServer.setCompression(StandInWeatherServer.Compression.NONE);
+        HttpResult<ContentValues[]> result = fetchForecast();
+
+        assertForecastParsed(result);
+        assertEquals(result.getWireBytes(), result.getDecodedBytes());
+    }
+
+    @Test
+    public void testGzipResponseIsDecoded() throws Exception {
+        ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+        GZIPOutputStream out = new GZIPOutputStream(gzipped);
+        out.write(mForecastJson);
+        out.close();
+
+        mServer.setCompression(StandInWeatherServer.Compression.GZIP);
+        HttpResult<ContentValues[]> result = fetchForecast();
+
+        assertForecastParsed(result);
+        assertCompressed(result, gzipped.size());
+    }
+
+    @Test
+    public void testZlibDeflateResponseIsDecoded() throws Exception {
+        byte[] deflated = deflate(mForecastJson, false);
+
+        mServer.setCompression(StandInWeatherServer.Compression.DEFLATE);
+        HttpResult<ContentValues[]> result = fetchForecast();
+
+        assertForecastParsed(result);
+        assertCompressed(result, deflated.length);
+    }
+
+    @Test
+    public void testRawDeflateResponseIsDecoded() throws Exception {
+        byte[] deflated = deflate(mForecastJson, true);
+
+        mServer.setCompression(StandInWeatherServer.Compression.RAW_DEFLATE);
+        HttpResult<ContentValues[]> result = fetchForecast();
+
+        assertForecastParsed(result);
+        assertCompressed(result, deflated.length);
+    }
+
+    private HttpResult<ContentValues[]> fetchForecast() throws IOException {
+        URL url = new URL(mServer.getBaseUrl() + "?q=" + LOCATION + "&cnt=" + FORECAST_DAYS);
+        return NetworkUtils.getResponseFromHttpUrl(url, null, null,
+                new NetworkUtils.ResponseHandler<ContentValues[]>() {
+                    @Override
+                    public ContentValues[] handleResponse(Reader body) throws IOException {
+                        return OpenWeatherJsonUtils.getWeatherContentValuesFromJson(mContext, body);
+                    }
+                });
+    }
+
+    private void assertForecastParsed(HttpResult<ContentValues[]> result) throws Exception {
+        ContentValues[] expected = OpenWeatherJsonUtils.getWeatherContentValuesFromJson(
+                mContext, new String(mForecastJson, "UTF-8"));
+
+        assertEquals(200, result.getResponseCode());
+        assertNotNull(result.getBody());
+        assertEquals(FORECAST_DAYS, result.getBody().length);
+        for (int i = 0; i < FORECAST_DAYS; i++) {
+            assertEquals("Day " + i + " did not match", expected[i], result.getBody()[i]);
+        }
+    }
+
+    private static void assertCompressed(HttpResult<?> result, int compressedLength) {
+        assertEquals("Wire bytes should be the compressed length",
+                compressedLength, result.getWireBytes());
+        assertTrue("Decoded bytes should exceed wire bytes for a compressed forecast",
+                result.getDecodedBytes() > result.getWireBytes());
+    }
+
+    private static byte[] deflate(byte[] data, boolean raw) throws IOException {
+        ByteArrayOutputStream deflated = new ByteArrayOutputStream();
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, raw);
+        DeflaterOutputStream out = new DeflaterOutputStream(deflated, deflater);
+        out.write(data);
+        out.close();
+        deflater.end();
+        return deflated.toByteArray();
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.MalformedJsonException;
+
+import com.example.android.sunshine.data.ForecastBatch;
+import com.example.android.sunshine.data.WeatherContract;
+import com.example.android.sunshine.weatherserver.SyntheticForecast;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+/**
+ * Checks that the JsonReader parser in {@link OpenWeatherJsonUtils} gives exactly the same rows as
+ * the JSONObject parser, whatever order the fields arrive in.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestOpenWeatherJsonUtils {
+
+    /* Two days in the order the staticweather server sends them */
+    private static final String CANONICAL_JSON = "{"
+            + "\"city\":{\"id\":1,\"name\":\"Mountain View\","
+            + "\"coord\":{\"lon\":-122.0574,\"lat\":37.4192},\"country\":\"US\"},"
+            + "\"cod\":\"200\",\"message\":0.0,\"cnt\":2,"
+            + "\"list\":["
+            + "{\"dt\":1,\"temp\":{\"day\":20.5,\"min\":12.25,\"max\":22.75,\"night\":13},"
+            + "\"pressure\":1012.5,\"humidity\":64,"
+            + "\"weather\":[{\"id\":800,\"main\":\"Clear\"}],"
+            + "\"speed\":3.5,\"deg\":270,\"clouds\":0},"
+            + "{\"dt\":2,\"temp\":{\"day\":18,\"min\":10,\"max\":19.5},"
+            + "\"pressure\":1009,\"humidity\":81,"
+            + "\"weather\":[{\"id\":501,\"main\":\"Rain\"}],"
+            + "\"speed\":7.25,\"deg\":180,\"rain\":2.5}"
+            + "]}";
+
+    /*
+     * The same forecast, with the top level fields, the fields of each day, and the fields of
+     * "temp", "coord" and "weather" all in a different order, plus fields we don't know about.
+     */
+    private static final String REORDERED_JSON = "{"
+            + "\"list\":["
+            + "{\"deg\":270,\"weather\":[{\"main\":\"Clear\",\"id\":800}],\"humidity\":64,"
+            + "\"extra\":{\"nested\":[1,2,{\"a\":null}]},\"speed\":3.5,"
+            + "\"temp\":{\"max\":22.75,\"night\":13,\"min\":12.25},\"pressure\":1012.5},"
+            + "{\"speed\":7.25,\"pressure\":1009,\"temp\":{\"max\":19.5,\"min\":10},"
+            + "\"deg\":180,\"humidity\":81,\"weather\":[{\"id\":501}]}"
+            + "],"
+            + "\"cnt\":2,"
+            + "\"city\":{\"coord\":{\"lat\":37.4192,\"lon\":-122.0574},\"name\":\"Mountain View\"},"
+            + "\"cod\":200"
+            + "}";
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    @Test
+    public void testPullParserMatchesDomParser() throws Exception {
+        for (int numDays : new int[]{1, 14, 365}) {
+            String json = SyntheticForecast.createJson(numDays, 7);
+            assertSameRows(OpenWeatherJsonUtils.getWeatherContentValuesFromJson(mContext, json),
+                    OpenWeatherJsonUtils.getWeatherContentValuesFromJson(mContext,
+                            new StringReader(json)));
+        }
+    }
+
+    @Test
+    public void testFieldOrderDoesNotMatter() throws Exception {
+        assertSameRows(
+                OpenWeatherJsonUtils.getWeatherContentValuesFromJson(mContext, CANONICAL_JSON),
+                OpenWeatherJsonUtils.getWeatherContentValuesFromJson(mContext,
+                        new StringReader(REORDERED_JSON)));
+    }
+
+    @Test
+    public void testErrorCodeIsReported() throws Exception {
+        String json = SyntheticForecast.createErrorJson(404);
+
+        /* The DOM parser can only say "nothing" */
+        assertNull(OpenWeatherJsonUtils.getWeatherContentValuesFromJson(mContext, json));
+
+        try {
+            OpenWeatherJsonUtils.getWeatherContentValuesFromJson(mContext, new StringReader(json));
+            fail("Expected an OpenWeatherErrorException");
+        } catch (OpenWeatherErrorException e) {
+            assertEquals(404, e.getErrorCode());
+        }
+    }
+
+    @Test
+    public void testMissingFieldIsRejected() throws Exception {
+        String json = CANONICAL_JSON.replace("\"humidity\":81,", "");
+        try {
+            OpenWeatherJsonUtils.getWeatherContentValuesFromJson(mContext, new StringReader(json));
+            fail("Expected a MalformedJsonException");
+        } catch (MalformedJsonException expected) {
+        }
+    }
+
+    @Test
+    public void testHourlyForecastIsParsed() throws Exception {
+        String json = SyntheticForecast.createHourlyJson(40, 3, 7);
+
+        ForecastBatch forecast = OpenWeatherJsonUtils.getHourlyForecastBatchFromJson(mContext,
+                new StringReader(json));
+
+        assertEquals(40, forecast.size());
+        for (int i = 0; i < forecast.size(); i++) {
+            /* Each period keeps the start time the server gave it, three hours apart */
+            assertTrue(WeatherContract.HourlyEntry.isTimeOnTheHour(forecast.getDate(i)));
+            if (i > 0) {
+                assertEquals(TimeUnit.HOURS.toMillis(3),
+                        forecast.getDate(i) - forecast.getDate(i - 1));
+            }
+            assertTrue(forecast.getMinTemp(i) <= forecast.getMaxTemp(i));
+        }
+    }
+
+    @Test
+    public void testHourlyPeriodWithoutTimeIsRejected() throws Exception {
+        String json = SyntheticForecast.createHourlyJson(2, 3, 7)
+                .replaceFirst("\"dt\":\\d+,", "");
+        try {
+            OpenWeatherJsonUtils.getHourlyForecastBatchFromJson(mContext,
+                    new StringReader(json));
+            fail("Expected a MalformedJsonException");
+        } catch (MalformedJsonException expected) {
+        }
+    }
+
+    private static void assertSameRows(ContentValues[] expected, ContentValues[] actual) {
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals("Rows differ on day " + i, expected[i], actual[i]);
+        }
+    }
+}
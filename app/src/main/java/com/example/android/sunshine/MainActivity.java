@@ -33,6 +33,7 @@ import android.view.MenuItem;
 import android.view.View;
 import android.widget.ProgressBar;
 
+import com.example.android.sunshine.data.ForecastSnapshot;
 import com.example.android.sunshine.data.SunshinePreferences;
 import com.example.android.sunshine.data.WeatherContract;
 import com.example.android.sunshine.sync.SunshineSyncUtils;
@@ -148,6 +149,24 @@ public class MainActivity extends AppCompatActivity implements
 
         showLoading();
 
+        /*
+         * The first time the Activity starts, draw the forecast we stored last time straight
+         * from the forecast snapshot, rather than leaving the loading indicator up while the
+         * database is opened and queried. The loader swaps in the real data when it has it. If
+         * the loader already exists (after a rotation, for instance) it has data for us already.
+         *
+         * This reads the snapshot on the main thread, on purpose: it is a single read of a file
+         * ForecastSnapshot caps at under 1.5 KB, which is far quicker than a trip to a background
+         * thread and back, and doing it here is what lets the very first frame show the forecast.
+         */
+        if (getSupportLoaderManager().getLoader(ID_FORECAST_LOADER) == null) {
+            Cursor snapshot = ForecastSnapshot.queryFromToday(this, MAIN_FORECAST_PROJECTION);
+            if (snapshot != null) {
+                mForecastAdapter.swapCursor(snapshot);
+                showWeatherDataView();
+            }
+        }
+
         /*
          * Ensures a loader is initialized and active. If the loader doesn't already exist, one is
          * created and (if the activity/fragment is currently started) starts the loader. Otherwise
@@ -0,0 +1,315 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentValues;
+import android.os.Bundle;
+
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+
+import java.util.Arrays;
+
+/**
+ * A forecast held column by column in primitive arrays, one element per day. This is what the
+ * forecast parser produces and what {@link WeatherProvider} stores, so a sync never has to box
+ * every value of every day into a ContentValues (and unbox it again to write it).
+ * <p>
+ * ContentValues are still available through {@link #toContentValues()} and
+ * {@link #fromContentValues(ContentValues[])} for code that needs them.
+ * <p>
+ * An hourly forecast uses the same layout, one element per period, with the time each period
+ * begins in place of the date. Its {@link #toContentValues()} are keyed for the weather table,
+ * so hourly batches go to the provider through {@link WeatherContract#METHOD_BULK_INSERT_BATCH}.
+ * <p>
+ * A batch is not thread safe. It is filled by one thread and then handed over to another.
+ */
+public final class ForecastBatch {
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    /* Keys under which a batch travels in the Bundle of a ContentProvider call */
+    private static final String KEY_SIZE = "size";
+    private static final String KEY_DATES = "dates";
+    private static final String KEY_WEATHER_IDS = "weather_ids";
+    private static final String KEY_MIN_TEMPS = "min_temps";
+    private static final String KEY_MAX_TEMPS = "max_temps";
+    private static final String KEY_HUMIDITY = "humidity";
+    private static final String KEY_PRESSURE = "pressure";
+    private static final String KEY_WIND_SPEEDS = "wind_speeds";
+    private static final String KEY_DEGREES = "degrees";
+
+    private int mSize;
+    private long[] mDates;
+    private int[] mWeatherIds;
+    private double[] mMinTemps;
+    private double[] mMaxTemps;
+    private double[] mHumidity;
+    private double[] mPressure;
+    private double[] mWindSpeeds;
+    private double[] mDegrees;
+
+    public ForecastBatch() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity How many days to make room for up front. The batch grows past this if
+     *                 needed.
+     */
+    public ForecastBatch(int capacity) {
+        if (capacity < 1) {
+            capacity = 1;
+        }
+        mDates = new long[capacity];
+        mWeatherIds = new int[capacity];
+        mMinTemps = new double[capacity];
+        mMaxTemps = new double[capacity];
+        mHumidity = new double[capacity];
+        mPressure = new double[capacity];
+        mWindSpeeds = new double[capacity];
+        mDegrees = new double[capacity];
+    }
+
+    /**
+     * Adds a day to the end of the batch. The arguments are the columns of
+     * {@link WeatherEntry}, in the same units.
+     */
+    public void add(long date, int weatherId, double minTemp, double maxTemp, double humidity,
+                    double pressure, double windSpeed, double degrees) {
+        if (mSize == mDates.length) {
+            grow();
+        }
+        mDates[mSize] = date;
+        mWeatherIds[mSize] = weatherId;
+        mMinTemps[mSize] = minTemp;
+        mMaxTemps[mSize] = maxTemp;
+        mHumidity[mSize] = humidity;
+        mPressure[mSize] = pressure;
+        mWindSpeeds[mSize] = windSpeed;
+        mDegrees[mSize] = degrees;
+        mSize++;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    public long getDate(int index) {
+        return mDates[checkIndex(index)];
+    }
+
+    public int getWeatherId(int index) {
+        return mWeatherIds[checkIndex(index)];
+    }
+
+    public double getMinTemp(int index) {
+        return mMinTemps[checkIndex(index)];
+    }
+
+    public double getMaxTemp(int index) {
+        return mMaxTemps[checkIndex(index)];
+    }
+
+    public double getHumidity(int index) {
+        return mHumidity[checkIndex(index)];
+    }
+
+    public double getPressure(int index) {
+        return mPressure[checkIndex(index)];
+    }
+
+    public double getWindSpeed(int index) {
+        return mWindSpeeds[checkIndex(index)];
+    }
+
+    public double getDegrees(int index) {
+        return mDegrees[checkIndex(index)];
+    }
+
+    /**
+     * Converts the batch into one ContentValues per day, exactly as the forecast parser used to
+     * produce them. The parser has always truncated humidity to a whole percentage, so it is
+     * put in as an Integer.
+     *
+     * @return ContentValues for each day, in order
+     */
+    public ContentValues[] toContentValues() {
+        ContentValues[] weatherContentValues = new ContentValues[mSize];
+        for (int i = 0; i < mSize; i++) {
+            ContentValues weatherValues = new ContentValues();
+            weatherValues.put(WeatherEntry.COLUMN_DATE, mDates[i]);
+            weatherValues.put(WeatherEntry.COLUMN_HUMIDITY, (int) mHumidity[i]);
+            weatherValues.put(WeatherEntry.COLUMN_PRESSURE, mPressure[i]);
+            weatherValues.put(WeatherEntry.COLUMN_WIND_SPEED, mWindSpeeds[i]);
+            weatherValues.put(WeatherEntry.COLUMN_DEGREES, mDegrees[i]);
+            weatherValues.put(WeatherEntry.COLUMN_MAX_TEMP, mMaxTemps[i]);
+            weatherValues.put(WeatherEntry.COLUMN_MIN_TEMP, mMinTemps[i]);
+            weatherValues.put(WeatherEntry.COLUMN_WEATHER_ID, mWeatherIds[i]);
+            weatherContentValues[i] = weatherValues;
+        }
+        return weatherContentValues;
+    }
+
+    /**
+     * Builds a batch out of ContentValues holding every column of {@link WeatherEntry}.
+     *
+     * @param values One set of weather values per day
+     * @return A batch with the same days in the same order
+     * @throws IllegalArgumentException If any of the values is missing a column
+     */
+    public static ForecastBatch fromContentValues(ContentValues[] values) {
+        ForecastBatch batch = new ForecastBatch(values.length);
+        for (ContentValues value : values) {
+            batch.add(getLong(value, WeatherEntry.COLUMN_DATE),
+                    (int) getLong(value, WeatherEntry.COLUMN_WEATHER_ID),
+                    getDouble(value, WeatherEntry.COLUMN_MIN_TEMP),
+                    getDouble(value, WeatherEntry.COLUMN_MAX_TEMP),
+                    getDouble(value, WeatherEntry.COLUMN_HUMIDITY),
+                    getDouble(value, WeatherEntry.COLUMN_PRESSURE),
+                    getDouble(value, WeatherEntry.COLUMN_WIND_SPEED),
+                    getDouble(value, WeatherEntry.COLUMN_DEGREES));
+        }
+        return batch;
+    }
+
+    /**
+     * Packs the batch into a Bundle for {@link WeatherContract#METHOD_BULK_INSERT_BATCH}. The
+     * columns are first trimmed to the days actually in the batch, so the spare capacity isn't
+     * sent to the provider along with them. They then go in without copying, so the batch must
+     * not be changed afterwards.
+     *
+     * @return A Bundle that {@link #fromBundle(Bundle)} turns back into this batch
+     */
+    public Bundle toBundle() {
+        trimToSize();
+        Bundle bundle = new Bundle();
+        bundle.putInt(KEY_SIZE, mSize);
+        bundle.putLongArray(KEY_DATES, mDates);
+        bundle.putIntArray(KEY_WEATHER_IDS, mWeatherIds);
+        bundle.putDoubleArray(KEY_MIN_TEMPS, mMinTemps);
+        bundle.putDoubleArray(KEY_MAX_TEMPS, mMaxTemps);
+        bundle.putDoubleArray(KEY_HUMIDITY, mHumidity);
+        bundle.putDoubleArray(KEY_PRESSURE, mPressure);
+        bundle.putDoubleArray(KEY_WIND_SPEEDS, mWindSpeeds);
+        bundle.putDoubleArray(KEY_DEGREES, mDegrees);
+        return bundle;
+    }
+
+    /**
+     * Unpacks a batch packed by {@link #toBundle()}.
+     *
+     * @param bundle The Bundle to unpack
+     * @return The batch
+     * @throws IllegalArgumentException If the Bundle does not hold a complete batch
+     */
+    public static ForecastBatch fromBundle(Bundle bundle) {
+        if (bundle == null) {
+            throw new IllegalArgumentException("No forecast batch to unpack");
+        }
+        ForecastBatch batch = new ForecastBatch(1);
+        batch.mSize = bundle.getInt(KEY_SIZE, -1);
+        batch.mDates = bundle.getLongArray(KEY_DATES);
+        batch.mWeatherIds = bundle.getIntArray(KEY_WEATHER_IDS);
+        batch.mMinTemps = bundle.getDoubleArray(KEY_MIN_TEMPS);
+        batch.mMaxTemps = bundle.getDoubleArray(KEY_MAX_TEMPS);
+        batch.mHumidity = bundle.getDoubleArray(KEY_HUMIDITY);
+        batch.mPressure = bundle.getDoubleArray(KEY_PRESSURE);
+        batch.mWindSpeeds = bundle.getDoubleArray(KEY_WIND_SPEEDS);
+        batch.mDegrees = bundle.getDoubleArray(KEY_DEGREES);
+
+        if (batch.mSize < 0
+                || !hasRoomFor(batch.mSize, batch.mDates)
+                || !hasRoomFor(batch.mSize, batch.mWeatherIds)
+                || !hasRoomFor(batch.mSize, batch.mMinTemps)
+                || !hasRoomFor(batch.mSize, batch.mMaxTemps)
+                || !hasRoomFor(batch.mSize, batch.mHumidity)
+                || !hasRoomFor(batch.mSize, batch.mPressure)
+                || !hasRoomFor(batch.mSize, batch.mWindSpeeds)
+                || !hasRoomFor(batch.mSize, batch.mDegrees)) {
+            throw new IllegalArgumentException("Incomplete forecast batch");
+        }
+        return batch;
+    }
+
+    private void grow() {
+        /* A batch trimmed while empty has no room at all */
+        int capacity = Math.max(1, mDates.length * 2);
+        mDates = Arrays.copyOf(mDates, capacity);
+        mWeatherIds = Arrays.copyOf(mWeatherIds, capacity);
+        mMinTemps = Arrays.copyOf(mMinTemps, capacity);
+        mMaxTemps = Arrays.copyOf(mMaxTemps, capacity);
+        mHumidity = Arrays.copyOf(mHumidity, capacity);
+        mPressure = Arrays.copyOf(mPressure, capacity);
+        mWindSpeeds = Arrays.copyOf(mWindSpeeds, capacity);
+        mDegrees = Arrays.copyOf(mDegrees, capacity);
+    }
+
+    /**
+     * Shrinks every column to exactly the days in the batch.
+     */
+    private void trimToSize() {
+        if (mDates.length == mSize) {
+            return;
+        }
+        mDates = Arrays.copyOf(mDates, mSize);
+        mWeatherIds = Arrays.copyOf(mWeatherIds, mSize);
+        mMinTemps = Arrays.copyOf(mMinTemps, mSize);
+        mMaxTemps = Arrays.copyOf(mMaxTemps, mSize);
+        mHumidity = Arrays.copyOf(mHumidity, mSize);
+        mPressure = Arrays.copyOf(mPressure, mSize);
+        mWindSpeeds = Arrays.copyOf(mWindSpeeds, mSize);
+        mDegrees = Arrays.copyOf(mDegrees, mSize);
+    }
+
+    private int checkIndex(int index) {
+        if (index < 0 || index >= mSize) {
+            throw new IndexOutOfBoundsException("Index " + index + ", size " + mSize);
+        }
+        return index;
+    }
+
+    private static boolean hasRoomFor(int size, long[] column) {
+        return column != null && column.length >= size;
+    }
+
+    private static boolean hasRoomFor(int size, int[] column) {
+        return column != null && column.length >= size;
+    }
+
+    private static boolean hasRoomFor(int size, double[] column) {
+        return column != null && column.length >= size;
+    }
+
+    private static long getLong(ContentValues value, String column) {
+        Long columnValue = value.getAsLong(column);
+        if (columnValue == null) {
+            throw new IllegalArgumentException("No value for " + column);
+        }
+        return columnValue;
+    }
+
+    private static double getDouble(ContentValues value, String column) {
+        Double columnValue = value.getAsDouble(column);
+        if (columnValue == null) {
+            throw new IllegalArgumentException("No value for " + column);
+        }
+        return columnValue;
+    }
+}
@@ -0,0 +1,371 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.util.Log;
+
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.CRC32;
+
+/**
+ * A copy of the forecast we last stored, kept in a small binary file so that the first frame of
+ * {@link com.example.android.sunshine.MainActivity} (and the notification) can be drawn from a
+ * single file read, without waiting for the database to be opened and queried. The database
+ * stays the source of truth: the snapshot is rewritten after every sync that changes the
+ * forecast, and anything that can't be read from it is read from the ContentProvider instead.
+ * <p>
+ * The file is a fixed-size header followed by one fixed-width record per day, oldest first. All
+ * values are little-endian:
+ * <pre>
+ *     header   magic (int), version (short), record size (short), day count (int),
+ *              time written (long), CRC32 of everything else in the file (int)
+ *     record   date (long), min (double), max (double), weather ID (int),
+ *              humidity, pressure, wind speed, degrees (float each)
+ * </pre>
+ * A file with the wrong magic number, version or record size, a length that doesn't match its
+ * day count, or a checksum that doesn't match its contents is treated as if it wasn't there.
+ */
+public final class ForecastSnapshot {
+
+    private static final String TAG = ForecastSnapshot.class.getSimpleName();
+
+    private static final String SNAPSHOT_FILE_NAME = "forecast.snapshot";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /* "SNSS" in ASCII, so we can reject files we didn't write */
+    private static final int SNAPSHOT_MAGIC = 0x53534e53;
+    /* Bump this whenever the layout below changes; older files are then ignored */
+    private static final short SNAPSHOT_VERSION = 1;
+
+    private static final int HEADER_BYTES = 24;
+    /* The checksum is the last field of the header and covers every other byte of the file */
+    private static final int CHECKSUM_OFFSET = 20;
+    private static final short RECORD_BYTES = 44;
+
+    /*
+     * More days than a forecast ever has. Capping the file this small (under 1.5 KB) keeps the
+     * read cheap enough for MainActivity to do on the main thread, damaged file or not.
+     */
+    private static final int MAX_DAYS = 32;
+
+    /*
+     * Every column a snapshot can answer for. The projections MainActivity and
+     * NotificationUtils use are subsets of this.
+     */
+    private static final String[] SNAPSHOT_PROJECTION = {
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES,
+    };
+
+    private static final int INDEX_DATE = 0;
+    private static final int INDEX_WEATHER_ID = 1;
+    private static final int INDEX_MIN_TEMP = 2;
+    private static final int INDEX_MAX_TEMP = 3;
+    private static final int INDEX_HUMIDITY = 4;
+    private static final int INDEX_PRESSURE = 5;
+    private static final int INDEX_WIND_SPEED = 6;
+    private static final int INDEX_DEGREES = 7;
+
+    private ForecastSnapshot() {
+    }
+
+    /**
+     * Replaces the snapshot with the forecast currently stored in the ContentProvider, from today
+     * onwards. Call this after a sync has stored a new forecast. Failing to write the snapshot
+     * only costs us a slower cold start, so errors are logged rather than thrown.
+     *
+     * @param context Used to query the ContentProvider and find the snapshot file
+     */
+    public static void writeFromProvider(Context context) {
+        Cursor cursor = context.getContentResolver().query(
+                WeatherEntry.CONTENT_URI,
+                SNAPSHOT_PROJECTION,
+                WeatherEntry.getSqlSelectForTodayOnwards(),
+                null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+        if (cursor == null) {
+            return;
+        }
+
+        ForecastBatch forecast = new ForecastBatch(cursor.getCount());
+        try {
+            while (cursor.moveToNext()) {
+                forecast.add(cursor.getLong(INDEX_DATE),
+                        cursor.getInt(INDEX_WEATHER_ID),
+                        cursor.getDouble(INDEX_MIN_TEMP),
+                        cursor.getDouble(INDEX_MAX_TEMP),
+                        cursor.getDouble(INDEX_HUMIDITY),
+                        cursor.getDouble(INDEX_PRESSURE),
+                        cursor.getDouble(INDEX_WIND_SPEED),
+                        cursor.getDouble(INDEX_DEGREES));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        try {
+            write(getSnapshotFile(context), forecast, System.currentTimeMillis());
+        } catch (IOException e) {
+            Log.w(TAG, "Couldn't write the forecast snapshot", e);
+        }
+    }
+
+    /**
+     * Reads the days between {@code firstDate} and {@code lastDate} (inclusive) from the
+     * snapshot, in date order, as if they had been queried from the ContentProvider with the
+     * given projection.
+     *
+     * @param context    Used to find the snapshot file
+     * @param projection Columns to return, all of which must be columns of the weather table
+     * @param firstDate  Normalized UTC date of the first day wanted
+     * @param lastDate   Normalized UTC date of the last day wanted
+     * @return A Cursor over the days found, or null if the snapshot is missing, unreadable or has
+     * none of those days, in which case the caller should query the ContentProvider instead
+     */
+    public static Cursor query(Context context, String[] projection, long firstDate,
+            long lastDate) {
+        ForecastBatch forecast = read(getSnapshotFile(context));
+        if (forecast == null) {
+            return null;
+        }
+
+        int[] columns = new int[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            columns[i] = indexOf(projection[i]);
+        }
+
+        MatrixCursor cursor = new MatrixCursor(projection);
+        Object[] row = new Object[projection.length];
+        for (int day = 0; day < forecast.size(); day++) {
+            long date = forecast.getDate(day);
+            if (date < firstDate || date > lastDate) {
+                continue;
+            }
+            for (int i = 0; i < columns.length; i++) {
+                row[i] = getValue(forecast, day, columns[i]);
+            }
+            cursor.addRow(row);
+        }
+
+        if (cursor.getCount() == 0) {
+            cursor.close();
+            return null;
+        }
+        return cursor;
+    }
+
+    /**
+     * Reads the days from today onwards, for the first frame of the forecast list.
+     *
+     * @see #query(Context, String[], long, long)
+     */
+    public static Cursor queryFromToday(Context context, String[] projection) {
+        return query(context, projection, SunshineDateUtils.getNormalizedUtcDateForToday(),
+                Long.MAX_VALUE);
+    }
+
+    /**
+     * Writes a snapshot of a forecast to a file. The snapshot is written to a temporary file
+     * first and renamed over the old one, so a reader sees either the old snapshot or the new
+     * one, never half of each.
+     *
+     * @param file        Where to write the snapshot
+     * @param forecast    The days to write, in date order
+     * @param writtenTime When the snapshot was taken, in milliseconds since the epoch
+     * @throws IOException If the snapshot couldn't be written. The old one is left as it was.
+     */
+    static void write(File file, ForecastBatch forecast, long writtenTime) throws IOException {
+        int days = Math.min(forecast.size(), MAX_DAYS);
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + days * RECORD_BYTES)
+                .order(ByteOrder.LITTLE_ENDIAN);
+
+        buffer.putInt(SNAPSHOT_MAGIC)
+                .putShort(SNAPSHOT_VERSION)
+                .putShort(RECORD_BYTES)
+                .putInt(days)
+                .putLong(writtenTime)
+                .putInt(0);
+        for (int day = 0; day < days; day++) {
+            buffer.putLong(forecast.getDate(day))
+                    .putDouble(forecast.getMinTemp(day))
+                    .putDouble(forecast.getMaxTemp(day))
+                    .putInt(forecast.getWeatherId(day))
+                    .putFloat((float) forecast.getHumidity(day))
+                    .putFloat((float) forecast.getPressure(day))
+                    .putFloat((float) forecast.getWindSpeed(day))
+                    .putFloat((float) forecast.getDegrees(day));
+        }
+        byte[] bytes = buffer.array();
+        buffer.putInt(CHECKSUM_OFFSET, checksum(bytes));
+
+        File tempFile = new File(file.getPath() + TEMP_SUFFIX);
+        FileOutputStream out = new FileOutputStream(tempFile);
+        try {
+            out.write(bytes);
+            /* Make sure the data is on disk before the rename makes it the snapshot */
+            out.getFD().sync();
+        } catch (IOException e) {
+            out.close();
+            tempFile.delete();
+            throw e;
+        }
+        out.close();
+
+        if (!tempFile.renameTo(file)) {
+            tempFile.delete();
+            throw new IOException("Couldn't replace " + file);
+        }
+    }
+
+    /**
+     * Reads a snapshot from a file in one read.
+     *
+     * @param file The snapshot file
+     * @return The days in the snapshot, or null if there is no snapshot or it isn't valid
+     */
+    static ForecastBatch read(File file) {
+        byte[] bytes;
+        try {
+            RandomAccessFile in = new RandomAccessFile(file, "r");
+            try {
+                long length = in.length();
+                if (length < HEADER_BYTES || length > HEADER_BYTES + MAX_DAYS * RECORD_BYTES) {
+                    Log.w(TAG, "Ignoring a forecast snapshot of " + length + " bytes");
+                    return null;
+                }
+                bytes = new byte[(int) length];
+                in.readFully(bytes);
+            } finally {
+                in.close();
+            }
+        } catch (FileNotFoundException e) {
+            /* No sync has finished yet */
+            return null;
+        } catch (IOException e) {
+            Log.w(TAG, "Couldn't read the forecast snapshot", e);
+            return null;
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        int magic = buffer.getInt();
+        short version = buffer.getShort();
+        short recordBytes = buffer.getShort();
+        int days = buffer.getInt();
+        buffer.getLong();
+        int storedChecksum = buffer.getInt();
+
+        if (magic != SNAPSHOT_MAGIC || version != SNAPSHOT_VERSION
+                || recordBytes != RECORD_BYTES) {
+            Log.w(TAG, "Ignoring a forecast snapshot in an unknown format");
+            return null;
+        }
+        if (days < 0 || bytes.length != HEADER_BYTES + days * RECORD_BYTES) {
+            Log.w(TAG, "Ignoring a truncated forecast snapshot");
+            return null;
+        }
+        if (storedChecksum != checksum(bytes)) {
+            Log.w(TAG, "Ignoring a corrupt forecast snapshot");
+            return null;
+        }
+
+        ForecastBatch forecast = new ForecastBatch(days);
+        for (int day = 0; day < days; day++) {
+            long date = buffer.getLong();
+            double minTemp = buffer.getDouble();
+            double maxTemp = buffer.getDouble();
+            int weatherId = buffer.getInt();
+            forecast.add(date, weatherId, minTemp, maxTemp,
+                    buffer.getFloat(),
+                    buffer.getFloat(),
+                    buffer.getFloat(),
+                    buffer.getFloat());
+        }
+        return forecast;
+    }
+
+    /**
+     * Deletes the snapshot, if there is one.
+     *
+     * @param context Used to find the snapshot file
+     */
+    public static void delete(Context context) {
+        getSnapshotFile(context).delete();
+    }
+
+    static File getSnapshotFile(Context context) {
+        /* The snapshot can always be rebuilt, so there's no point backing it up */
+        return new File(context.getApplicationContext().getNoBackupFilesDir(),
+                SNAPSHOT_FILE_NAME);
+    }
+
+    /* CRC32 of the whole file except for the checksum field itself */
+    private static int checksum(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, CHECKSUM_OFFSET);
+        crc.update(bytes, HEADER_BYTES, bytes.length - HEADER_BYTES);
+        return (int) crc.getValue();
+    }
+
+    private static int indexOf(String column) {
+        for (int i = 0; i < SNAPSHOT_PROJECTION.length; i++) {
+            if (SNAPSHOT_PROJECTION[i].equals(column)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("The forecast snapshot has no column " + column);
+    }
+
+    private static Object getValue(ForecastBatch forecast, int day, int column) {
+        switch (column) {
+            case INDEX_DATE:
+                return forecast.getDate(day);
+            case INDEX_WEATHER_ID:
+                return forecast.getWeatherId(day);
+            case INDEX_MIN_TEMP:
+                return forecast.getMinTemp(day);
+            case INDEX_MAX_TEMP:
+                return forecast.getMaxTemp(day);
+            case INDEX_HUMIDITY:
+                return forecast.getHumidity(day);
+            case INDEX_PRESSURE:
+                return forecast.getPressure(day);
+            case INDEX_WIND_SPEED:
+                return forecast.getWindSpeed(day);
+            case INDEX_DEGREES:
+                return forecast.getDegrees(day);
+            default:
+                throw new IllegalArgumentException("Unknown column " + column);
+        }
+    }
+}
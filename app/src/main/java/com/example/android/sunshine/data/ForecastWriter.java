@@ -0,0 +1,220 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentProvider;
+import android.content.ContentProviderClient;
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import java.io.Closeable;
+import java.util.Arrays;
+
+/**
+ * A single transaction on the weather table that a forecast can be written into a batch at a
+ * time. Nothing written becomes visible until {@link #commit()}. Closing the writer without
+ * committing rolls everything back, so a forecast that fails half way through leaves the stored
+ * one exactly as it was.
+ * <p>
+ * ContentProvider calls are each their own transaction, so the writer goes around them and talks
+ * to {@link WeatherProvider}'s database directly. That only works in the process the provider
+ * runs in, which for Sunshine is always the case.
+ * <p>
+ * SQLite transactions belong to the thread that began them, so every method of a writer must be
+ * called on the thread that called {@link #begin(Context)}. While the transaction is open, other
+ * writers (and, without write-ahead logging, readers) wait for it. Keep it short.
+ * <p>
+ * {@link #merge(ForecastBatch)} only writes the days whose forecast has changed, and together
+ * with {@link #deleteUnmerged()} replaces the stored forecast while touching as few rows as it
+ * can. Observers are only notified on commit if a row actually changed.
+ * <p>
+ * The forecasts that merging replaces, and the days {@link #archiveDaysBefore(long)} removes,
+ * aren't lost: they are moved into the history table in the same transaction.
+ */
+public final class ForecastWriter implements Closeable {
+
+    private final Context mContext;
+    private final ContentProviderClient mClient;
+    private final SQLiteDatabase mDb;
+
+    /* Compiled the first time a batch is merged */
+    private SQLiteStatement mArchiveIfChanged;
+    private SQLiteStatement mUpdateIfChanged;
+    private SQLiteStatement mInsertIfNew;
+
+    /* The dates of every day merged so far, sorted by deleteUnmerged */
+    private long[] mMergedDates = new long[0];
+    private int mMergedCount;
+
+    private int mRowsWritten;
+    private int mRowsDeleted;
+
+    private boolean mFinished;
+
+    private ForecastWriter(Context context, ContentProviderClient client, SQLiteDatabase db) {
+        mContext = context;
+        mClient = client;
+        mDb = db;
+
+        mDb.beginTransaction();
+    }
+
+    /**
+     * Begins a transaction on the weather table.
+     *
+     * @param context Used to find {@link WeatherProvider}
+     * @return A writer, which must be closed
+     * @throws IllegalStateException If the provider isn't running in this process
+     */
+    public static ForecastWriter begin(Context context) {
+        ContentProviderClient client = context.getContentResolver()
+                .acquireContentProviderClient(WeatherContract.CONTENT_AUTHORITY);
+        if (client == null) {
+            throw new IllegalStateException("WeatherProvider is not available");
+        }
+
+        try {
+            ContentProvider provider = client.getLocalContentProvider();
+            if (!(provider instanceof WeatherProvider)) {
+                throw new IllegalStateException("WeatherProvider is not running in this process");
+            }
+            return new ForecastWriter(context.getApplicationContext(), client,
+                    ((WeatherProvider) provider).getWritableDatabase());
+        } catch (RuntimeException e) {
+            client.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Moves every day before {@code date} out of the weather table and into the history table.
+     *
+     * @param date The normalized date of the first day to keep, usually today
+     * @return The number of days moved
+     */
+    public int archiveDaysBefore(long date) {
+        checkNotFinished();
+        int rowsDeleted = WeatherProvider.archiveDaysBefore(mDb, date, System.currentTimeMillis());
+        mRowsDeleted += rowsDeleted;
+        return rowsDeleted;
+    }
+
+    /**
+     * Merges a batch of days into the stored forecast. Days we didn't have are inserted and days
+     * whose forecast differs are rewritten, with the forecast they had moved into the history
+     * table, but days we already have exactly this forecast for aren't touched.
+     *
+     * @param batch The days to merge
+     * @return The number of rows written
+     */
+    public int merge(ForecastBatch batch) {
+        checkNotFinished();
+        if (mUpdateIfChanged == null) {
+            mArchiveIfChanged = WeatherProvider.compileArchiveIfChanged(mDb,
+                    System.currentTimeMillis());
+            mUpdateIfChanged = WeatherProvider.compileUpdateIfChanged(mDb);
+            mInsertIfNew = WeatherProvider.compileInsertIfNew(mDb);
+        }
+
+        int rowsWritten = WeatherProvider.mergeForecast(mArchiveIfChanged, mUpdateIfChanged,
+                mInsertIfNew, batch);
+        mRowsWritten += rowsWritten;
+
+        if (mMergedCount + batch.size() > mMergedDates.length) {
+            mMergedDates = Arrays.copyOf(mMergedDates,
+                    Math.max(mMergedCount + batch.size(), mMergedDates.length * 2));
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            mMergedDates[mMergedCount++] = batch.getDate(i);
+        }
+        return rowsWritten;
+    }
+
+    /**
+     * Deletes every stored day that wasn't in one of the batches merged so far. Call this once
+     * the last batch of a full forecast has been merged, to drop the days it no longer covers.
+     *
+     * @return The number of rows deleted
+     */
+    public int deleteUnmerged() {
+        checkNotFinished();
+        Arrays.sort(mMergedDates, 0, mMergedCount);
+        int rowsDeleted = WeatherProvider.deleteDaysOtherThan(mDb, mMergedDates, mMergedCount);
+        mRowsDeleted += rowsDeleted;
+        return rowsDeleted;
+    }
+
+    /**
+     * @return The number of rows inserted or rewritten so far. Merged days that were already up
+     * to date aren't counted.
+     */
+    public int getRowsWritten() {
+        return mRowsWritten;
+    }
+
+    /**
+     * @return The number of rows deleted so far
+     */
+    public int getRowsDeleted() {
+        return mRowsDeleted;
+    }
+
+    /**
+     * Makes everything written so far visible at once, and lets observers of the weather table
+     * know if anything changed.
+     */
+    public void commit() {
+        checkNotFinished();
+        mDb.setTransactionSuccessful();
+        finish();
+
+        if (mRowsWritten > 0 || mRowsDeleted > 0) {
+            mContext.getContentResolver()
+                    .notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
+        }
+    }
+
+    /**
+     * Rolls back everything written, unless {@link #commit()} has already been called.
+     */
+    @Override
+    public void close() {
+        if (!mFinished) {
+            finish();
+        }
+    }
+
+    private void finish() {
+        mFinished = true;
+        try {
+            if (mUpdateIfChanged != null) {
+                mArchiveIfChanged.close();
+                mUpdateIfChanged.close();
+                mInsertIfNew.close();
+            }
+            mDb.endTransaction();
+        } finally {
+            mClient.release();
+        }
+    }
+
+    private void checkNotFinished() {
+        if (mFinished) {
+            throw new IllegalStateException("This forecast has already been committed or closed");
+        }
+    }
+}
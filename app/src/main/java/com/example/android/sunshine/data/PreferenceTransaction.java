@@ -0,0 +1,287 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.SharedPreferences;
+
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Buffers the preference writes made while a sync runs, so they reach disk together at the end
+ * of it instead of one at a time.
+ * <p>
+ * Every SharedPreferences.Editor#apply rewrites the whole XML file behind the preferences it
+ * edits, however little was changed. A single sync used to do that several times over: the
+ * sync saved the HTTP validators and the time of the last full forecast, and the notification
+ * saved when it was shown. While a transaction is open, those writes are collected here instead
+ * (see {@link SunshinePreferences}), and {@link #commit()} applies each preferences file's share
+ * of them with a single editor, after the forecast they describe is safely in the database. If
+ * the sync fails, {@link #discard()} drops them, as they describe a forecast we never stored.
+ * <p>
+ * Reads made while the transaction is open still see the values from before it began. The sync
+ * only reads a preference before it writes it, so that is never a problem there.
+ * <p>
+ * A transaction belongs to the thread that began it, and only buffers the writes made on that
+ * thread. Writes from anywhere else, the UI for one, go straight through as they always did. The
+ * location's coordinates are never buffered (see SunshinePreferences#setLocationDetails): the
+ * user can change the location while a sync runs, and a write held back until the end of the
+ * sync would put the old coordinates back over the new ones.
+ */
+public final class PreferenceTransaction {
+
+    /* Stands in for a removed key among the buffered values */
+    private static final Object REMOVED = new Object();
+
+    private static final Object sLock = new Object();
+
+    /* The transaction open on each thread, if there is one */
+    private static final ThreadLocal<PreferenceTransaction> sOpenTransaction =
+            new ThreadLocal<PreferenceTransaction>();
+
+    /*
+     * The writes applied so far for each preferences file. SharedPreferences instances are
+     * singletons per file, so they can be told apart by identity. Guarded by sLock.
+     */
+    private final Map<SharedPreferences, PendingWrites> mWrites =
+            new IdentityHashMap<SharedPreferences, PendingWrites>();
+
+    /* Calls to apply or commit that were buffered rather than written. Guarded by sLock. */
+    private int mBufferedApplies;
+
+    private boolean mFinished;
+
+    private PreferenceTransaction() {
+    }
+
+    /**
+     * Opens a transaction on the calling thread. Until it ends, the preference writes
+     * SunshinePreferences makes on this thread are buffered in it.
+     *
+     * @return The transaction, which must be committed or discarded on this thread when the sync
+     * is done with it
+     * @throws IllegalStateException If a transaction is already open on this thread
+     */
+    public static PreferenceTransaction begin() {
+        if (sOpenTransaction.get() != null) {
+            throw new IllegalStateException("A preference transaction is already open");
+        }
+        PreferenceTransaction transaction = new PreferenceTransaction();
+        sOpenTransaction.set(transaction);
+        return transaction;
+    }
+
+    /**
+     * Returns the editor SunshinePreferences should write {@code sp} through: one that buffers
+     * its changes in the transaction open on this thread, or an ordinary editor if there isn't
+     * one.
+     *
+     * @param sp The preferences to edit
+     * @return An editor for {@code sp}
+     */
+    static SharedPreferences.Editor edit(SharedPreferences sp) {
+        PreferenceTransaction transaction = sOpenTransaction.get();
+        if (transaction == null) {
+            return sp.edit();
+        }
+        return transaction.new BufferedEditor(sp);
+    }
+
+    /**
+     * Ends the transaction, applying the buffered changes to each preferences file with a single
+     * editor. As with any other apply, the changes are visible in memory straight away and are
+     * written to disk in the background, so this doesn't wait for the disk.
+     *
+     * @return The number of preference file rewrites buffering saved, that is the number of
+     * writes made during the transaction less the number of files they touched
+     * @throws IllegalStateException If the transaction has already ended
+     */
+    public int commit() {
+        synchronized (sLock) {
+            end();
+
+            for (Map.Entry<SharedPreferences, PendingWrites> entry : mWrites.entrySet()) {
+                entry.getValue().applyTo(entry.getKey().edit());
+            }
+            return mBufferedApplies - mWrites.size();
+        }
+    }
+
+    /**
+     * Ends the transaction without writing any of the buffered changes.
+     *
+     * @throws IllegalStateException If the transaction has already ended
+     */
+    public void discard() {
+        synchronized (sLock) {
+            end();
+            mWrites.clear();
+        }
+    }
+
+    /* Marks the transaction ended, so that later writes on this thread go straight through */
+    private void end() {
+        if (mFinished) {
+            throw new IllegalStateException("The preference transaction has already ended");
+        }
+        mFinished = true;
+        if (sOpenTransaction.get() == this) {
+            sOpenTransaction.remove();
+        }
+    }
+
+    /*
+     * The changes made to one preferences file, in the form an Editor keeps them: whether the
+     * file is cleared first, and then the new value (or REMOVED) for each key.
+     */
+    private static final class PendingWrites {
+
+        private boolean mClear;
+        private final Map<String, Object> mValues = new LinkedHashMap<String, Object>();
+
+        /* Adds later changes on top of these, as applying them one after the other would */
+        void merge(PendingWrites later) {
+            if (later.mClear) {
+                mClear = true;
+                mValues.clear();
+            }
+            mValues.putAll(later.mValues);
+        }
+
+        @SuppressWarnings("unchecked")
+        void applyTo(SharedPreferences.Editor editor) {
+            if (mClear) {
+                editor.clear();
+            }
+            for (Map.Entry<String, Object> entry : mValues.entrySet()) {
+                String key = entry.getKey();
+                Object value = entry.getValue();
+                if (value == REMOVED) {
+                    editor.remove(key);
+                } else if (value instanceof String) {
+                    editor.putString(key, (String) value);
+                } else if (value instanceof Set) {
+                    editor.putStringSet(key, (Set<String>) value);
+                } else if (value instanceof Integer) {
+                    editor.putInt(key, (Integer) value);
+                } else if (value instanceof Long) {
+                    editor.putLong(key, (Long) value);
+                } else if (value instanceof Float) {
+                    editor.putFloat(key, (Float) value);
+                } else {
+                    editor.putBoolean(key, (Boolean) value);
+                }
+            }
+            editor.apply();
+        }
+    }
+
+    /*
+     * An Editor whose apply and commit hand its changes to the transaction rather than writing
+     * them. Like a real Editor, changes that are never applied are dropped.
+     */
+    private final class BufferedEditor implements SharedPreferences.Editor {
+
+        private final SharedPreferences mPreferences;
+        private PendingWrites mPending = new PendingWrites();
+
+        BufferedEditor(SharedPreferences preferences) {
+            mPreferences = preferences;
+        }
+
+        private SharedPreferences.Editor put(String key, Object value) {
+            synchronized (this) {
+                mPending.mValues.put(key, value != null ? value : REMOVED);
+            }
+            return this;
+        }
+
+        @Override
+        public SharedPreferences.Editor putString(String key, String value) {
+            return put(key, value);
+        }
+
+        @Override
+        public SharedPreferences.Editor putStringSet(String key, Set<String> values) {
+            return put(key, values != null ? new HashSet<String>(values) : null);
+        }
+
+        @Override
+        public SharedPreferences.Editor putInt(String key, int value) {
+            return put(key, value);
+        }
+
+        @Override
+        public SharedPreferences.Editor putLong(String key, long value) {
+            return put(key, value);
+        }
+
+        @Override
+        public SharedPreferences.Editor putFloat(String key, float value) {
+            return put(key, value);
+        }
+
+        @Override
+        public SharedPreferences.Editor putBoolean(String key, boolean value) {
+            return put(key, value);
+        }
+
+        @Override
+        public SharedPreferences.Editor remove(String key) {
+            return put(key, REMOVED);
+        }
+
+        @Override
+        public synchronized SharedPreferences.Editor clear() {
+            mPending.mClear = true;
+            return this;
+        }
+
+        @Override
+        public boolean commit() {
+            apply();
+            return true;
+        }
+
+        @Override
+        public void apply() {
+            PendingWrites applied;
+            synchronized (this) {
+                applied = mPending;
+                mPending = new PendingWrites();
+            }
+
+            synchronized (sLock) {
+                if (mFinished) {
+                    /* The transaction ended while this editor was open, so write it ourselves */
+                    applied.applyTo(mPreferences.edit());
+                    return;
+                }
+
+                PendingWrites writes = mWrites.get(mPreferences);
+                if (writes == null) {
+                    writes = new PendingWrites();
+                    mWrites.put(mPreferences, writes);
+                }
+                writes.merge(applied);
+                mBufferedApplies++;
+            }
+        }
+    }
+}
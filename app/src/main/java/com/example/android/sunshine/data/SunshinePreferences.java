@@ -31,11 +31,32 @@ public final class SunshinePreferences {
     public static final String PREF_COORD_LAT = "coord_lat";
     public static final String PREF_COORD_LONG = "coord_long";
 
+    /*
+     * The ETag and Last-Modified validators of the last forecast we stored are kept per request
+     * URL in their own preferences file. They aren't user preferences, and keeping them out of
+     * the default file means writing them doesn't rewrite the user's settings.
+     */
+    private static final String HTTP_VALIDATORS_PREFS_NAME = "http_validators";
+    private static final String PREF_ETAG_PREFIX = "etag:";
+    private static final String PREF_LAST_MODIFIED_PREFIX = "last_modified:";
+
+    /*
+     * When the last full (every day) forecast was stored, and for which request URL. Partial
+     * syncs only top up the forecast, so this decides when a full one is due again. The URL
+     * makes sure a forecast stored for one location is never topped up with another's.
+     */
+    private static final String PREF_LAST_FULL_FORECAST_TIME = "last_full_forecast_time";
+    private static final String PREF_LAST_FULL_FORECAST_URL = "last_full_forecast_url";
+
     /**
      * Helper method to handle setting location details in Preferences (city name, latitude,
      * longitude)
      * <p>
      * When the location details are updated, the database should to be cleared.
+     * <p>
+     * This is written straight away even inside a {@link PreferenceTransaction}. The user may
+     * change the location while a sync is running, and resetLocationCoordinates has to win over
+     * whatever the sync learned about the old one.
      *
      * @param context  Context used to get the SharedPreferences
      * @param lat      the latitude of the city
@@ -185,6 +206,27 @@ public final class SunshinePreferences {
         return shouldDisplayNotifications;
     }
 
+    /**
+     * Returns how many days of weather history the user wants to keep. Forecasts for days longer
+     * ago than that are deleted from the history table the next time it is compacted.
+     *
+     * @param context Used to access SharedPreferences
+     * @return The number of days of history to keep
+     */
+    public static int getHistoryRetentionDays(Context context) {
+        String keyForHistory = context.getString(R.string.pref_history_key);
+        String defaultHistory = context.getString(R.string.pref_history_2_years);
+
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        String preferredHistory = sp.getString(keyForHistory, defaultHistory);
+
+        try {
+            return Integer.parseInt(preferredHistory);
+        } catch (NumberFormatException e) {
+            return Integer.parseInt(defaultHistory);
+        }
+    }
+
     /**
      * Returns the last time that a notification was shown (in UNIX time)
      *
@@ -237,9 +279,99 @@ public final class SunshinePreferences {
      */
     public static void saveLastNotificationTime(Context context, long timeOfNotification) {
         SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
-        SharedPreferences.Editor editor = sp.edit();
+        SharedPreferences.Editor editor = PreferenceTransaction.edit(sp);
         String lastNotificationKey = context.getString(R.string.pref_last_notification);
         editor.putLong(lastNotificationKey, timeOfNotification);
         editor.apply();
     }
-}
\ No newline at end of file
+
+    /**
+     * Returns the ETag the server sent with the last forecast we stored for this URL.
+     *
+     * @param context Used to access SharedPreferences
+     * @param url     The request URL the forecast was fetched from
+     * @return The stored ETag, or null if we don't have one
+     */
+    public static String getHttpETag(Context context, String url) {
+        SharedPreferences sp = context.getSharedPreferences(
+                HTTP_VALIDATORS_PREFS_NAME, Context.MODE_PRIVATE);
+        return sp.getString(PREF_ETAG_PREFIX + url, null);
+    }
+
+    /**
+     * Returns the Last-Modified date the server sent with the last forecast we stored for this
+     * URL.
+     *
+     * @param context Used to access SharedPreferences
+     * @param url     The request URL the forecast was fetched from
+     * @return The stored Last-Modified header value, or null if we don't have one
+     */
+    public static String getHttpLastModified(Context context, String url) {
+        SharedPreferences sp = context.getSharedPreferences(
+                HTTP_VALIDATORS_PREFS_NAME, Context.MODE_PRIVATE);
+        return sp.getString(PREF_LAST_MODIFIED_PREFIX + url, null);
+    }
+
+    /**
+     * Saves the validators of a forecast response once its data has been stored, so that the
+     * next request for the same URL can be made conditional. Passing null for a validator
+     * removes it.
+     *
+     * @param context      Used to access SharedPreferences
+     * @param url          The request URL the forecast was fetched from
+     * @param eTag         The ETag response header, or null
+     * @param lastModified The Last-Modified response header, or null
+     */
+    public static void saveHttpValidators(Context context, String url, String eTag,
+                                          String lastModified) {
+        SharedPreferences sp = context.getSharedPreferences(
+                HTTP_VALIDATORS_PREFS_NAME, Context.MODE_PRIVATE);
+        SharedPreferences.Editor editor = PreferenceTransaction.edit(sp);
+
+        if (eTag != null) {
+            editor.putString(PREF_ETAG_PREFIX + url, eTag);
+        } else {
+            editor.remove(PREF_ETAG_PREFIX + url);
+        }
+
+        if (lastModified != null) {
+            editor.putString(PREF_LAST_MODIFIED_PREFIX + url, lastModified);
+        } else {
+            editor.remove(PREF_LAST_MODIFIED_PREFIX + url);
+        }
+
+        editor.apply();
+    }
+
+    /**
+     * Returns when the last full forecast for this URL was stored.
+     *
+     * @param context Used to access SharedPreferences
+     * @param url     The request URL for the full forecast of the current location
+     * @return UNIX time of the last full forecast, or 0 if there hasn't been one for this URL
+     */
+    public static long getLastFullForecastTime(Context context, String url) {
+        SharedPreferences sp = context.getSharedPreferences(
+                HTTP_VALIDATORS_PREFS_NAME, Context.MODE_PRIVATE);
+        if (!url.equals(sp.getString(PREF_LAST_FULL_FORECAST_URL, null))) {
+            return 0;
+        }
+        return sp.getLong(PREF_LAST_FULL_FORECAST_TIME, 0);
+    }
+
+    /**
+     * Saves the time a full forecast was stored, once it is safely in the database.
+     *
+     * @param context    Used to access SharedPreferences
+     * @param url        The request URL for the full forecast of the current location
+     * @param timeMillis UNIX time the forecast was stored
+     */
+    public static void saveLastFullForecastTime(Context context, String url, long timeMillis) {
+        SharedPreferences sp = context.getSharedPreferences(
+                HTTP_VALIDATORS_PREFS_NAME, Context.MODE_PRIVATE);
+        SharedPreferences.Editor editor = PreferenceTransaction.edit(sp);
+        editor.putString(PREF_LAST_FULL_FORECAST_URL, url);
+        editor.putLong(PREF_LAST_FULL_FORECAST_TIME, timeMillis);
+        editor.apply();
+    }
+}
@@ -56,6 +56,46 @@ public class WeatherContract {
      */
     public static final String PATH_WEATHER = "weather";
 
+    /* The path for hourly (or 3-hourly) forecasts */
+    public static final String PATH_HOURLY = "hourly";
+
+    /* The path for the archive of past forecasts */
+    public static final String PATH_HISTORY = "history";
+
+    /*
+     * The path for the places we keep forecasts for besides the user's own. Their forecasts are
+     * under PATH_WEATHER/PATH_LOCATION/<location ID>.
+     */
+    public static final String PATH_LOCATION = "location";
+
+    /*
+     * A ContentResolver#call method that inserts a whole ForecastBatch (packed with
+     * ForecastBatch#toBundle) into the weather table. It does what bulkInsert does, without a
+     * ContentValues per day. The number of rows inserted comes back under EXTRA_ROWS_INSERTED.
+     * Pass HourlyEntry.CONTENT_URI as the call's String argument to insert into the hourly table
+     * instead.
+     */
+    public static final String METHOD_BULK_INSERT_BATCH = "bulk_insert_batch";
+    public static final String EXTRA_ROWS_INSERTED = "rows_inserted";
+
+    /*
+     * A ContentResolver#call method that replaces the forecast in the weather table with a
+     * ForecastBatch, but only writes the days whose forecast changed and only deletes the days
+     * that are no longer in it. Observers are notified only if a row actually changed. The
+     * number of rows written or deleted comes back under EXTRA_ROWS_CHANGED.
+     */
+    public static final String METHOD_MERGE_BATCH = "merge_batch";
+    public static final String EXTRA_ROWS_CHANGED = "rows_changed";
+
+    /*
+     * A ContentResolver#call method that compacts the history table: days older than
+     * HistoryEntry.DETAIL_DAYS are reduced to a single row each, and days older than the
+     * retention period, in days, passed as the call's String argument, are deleted. The number
+     * of rows removed comes back under EXTRA_ROWS_DELETED.
+     */
+    public static final String METHOD_COMPACT_HISTORY = "compact_history";
+    public static final String EXTRA_ROWS_DELETED = "rows_deleted";
+
     /* Inner class that defines the table contents of the weather table */
     public static final class WeatherEntry implements BaseColumns {
 
@@ -147,4 +187,246 @@ public class WeatherContract {
             return WeatherContract.WeatherEntry.COLUMN_DATE + " = " + normalizedUtcNow;
         }
     }
-}
\ No newline at end of file
+
+    /*
+     * Inner class that defines the table contents of the hourly table, which holds forecasts for
+     * periods shorter than a day (an hour, or the three hours OpenWeatherMap's 5 day forecast
+     * uses). There are many more of these rows than there are days, so they get a table of their
+     * own rather than sharing the weather table.
+     */
+    public static final class HourlyEntry implements BaseColumns {
+
+        /* The base CONTENT_URI used to query the hourly table from the content provider */
+        public static final Uri CONTENT_URI = BASE_CONTENT_URI.buildUpon()
+                .appendPath(PATH_HOURLY)
+                .build();
+
+        /* Used internally as the name of our hourly table. */
+        public static final String TABLE_NAME = "hourly";
+
+        /*
+         * The UTC time, in milliseconds, at which the period this row forecasts begins. Unlike
+         * the weather table's dates, these aren't normalized to midnight, but they are always on
+         * the hour.
+         */
+        public static final String COLUMN_TIME = "time";
+
+        /*
+         * The rest of the columns hold the same values, under the same names, as the columns of
+         * the weather table, but for the period rather than the whole day.
+         */
+        public static final String COLUMN_WEATHER_ID = WeatherEntry.COLUMN_WEATHER_ID;
+        public static final String COLUMN_MIN_TEMP = WeatherEntry.COLUMN_MIN_TEMP;
+        public static final String COLUMN_MAX_TEMP = WeatherEntry.COLUMN_MAX_TEMP;
+        public static final String COLUMN_HUMIDITY = WeatherEntry.COLUMN_HUMIDITY;
+        public static final String COLUMN_PRESSURE = WeatherEntry.COLUMN_PRESSURE;
+        public static final String COLUMN_WIND_SPEED = WeatherEntry.COLUMN_WIND_SPEED;
+        public static final String COLUMN_DEGREES = WeatherEntry.COLUMN_DEGREES;
+
+        /**
+         * Builds a URI for the periods that begin at or after {@code startTime} and before
+         * {@code endTime}, for instance the hours of a single day. The provider answers these
+         * from the index on the time column, so they cost the same however many hours are
+         * stored.
+         *
+         * @param startTime UTC time in milliseconds of the start of the range
+         * @param endTime   UTC time in milliseconds of the end of the range, exclusive
+         * @return Uri to query the hourly forecast in that range
+         */
+        public static Uri buildHourlyUriWithRange(long startTime, long endTime) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(Long.toString(startTime))
+                    .appendPath(Long.toString(endTime))
+                    .build();
+        }
+
+        /**
+         * @param time UTC time in milliseconds
+         * @return Whether {@code time} is on the hour, as every time in the hourly table must be
+         */
+        public static boolean isTimeOnTheHour(long time) {
+            return time % SunshineDateUtils.HOUR_IN_MILLIS == 0;
+        }
+    }
+
+    /*
+     * Inner class that defines the table contents of the history table, the archive of past
+     * forecasts. Whenever a sync replaces the forecast for a day, the forecast it replaces is
+     * moved here, and once a day is over, the last forecast we had for it follows. So a day can
+     * have several rows, one for each forecast we had for it, until compaction reduces the
+     * rows of days older than DETAIL_DAYS to a single one.
+     */
+    public static final class HistoryEntry implements BaseColumns {
+
+        /* The base CONTENT_URI used to query the history table from the content provider */
+        public static final Uri CONTENT_URI = BASE_CONTENT_URI.buildUpon()
+                .appendPath(PATH_HISTORY)
+                .build();
+
+        /* Used internally as the name of our history table. */
+        public static final String TABLE_NAME = "history";
+
+        /* How many days before today keep every forecast we had for them */
+        public static final int DETAIL_DAYS = 7;
+
+        /*
+         * The date, and the forecast for it, hold the same values under the same names as the
+         * columns of the weather table. In a compacted row, the temperatures, humidity, pressure
+         * and wind speed are the averages of the forecasts it replaced, and the weather ID and
+         * wind direction are those of the last of them.
+         */
+        public static final String COLUMN_DATE = WeatherEntry.COLUMN_DATE;
+        public static final String COLUMN_WEATHER_ID = WeatherEntry.COLUMN_WEATHER_ID;
+        public static final String COLUMN_MIN_TEMP = WeatherEntry.COLUMN_MIN_TEMP;
+        public static final String COLUMN_MAX_TEMP = WeatherEntry.COLUMN_MAX_TEMP;
+        public static final String COLUMN_HUMIDITY = WeatherEntry.COLUMN_HUMIDITY;
+        public static final String COLUMN_PRESSURE = WeatherEntry.COLUMN_PRESSURE;
+        public static final String COLUMN_WIND_SPEED = WeatherEntry.COLUMN_WIND_SPEED;
+        public static final String COLUMN_DEGREES = WeatherEntry.COLUMN_DEGREES;
+
+        /* The UTC time, in milliseconds, at which the forecast was replaced or the day ended */
+        public static final String COLUMN_ARCHIVED = "archived";
+
+        /* How many forecasts the row stands for: 1, until compaction combines several */
+        public static final String COLUMN_SAMPLES = "samples";
+
+        /**
+         * Builds a URI for the archived forecasts of the days from {@code startDate} up to, but
+         * not including, {@code endDate}. The provider answers these from the index on the date
+         * column, so they cost the same however long a history is kept.
+         *
+         * @param startDate Normalized date in milliseconds of the first day in the range
+         * @param endDate   Normalized date in milliseconds of the day after the range
+         * @return Uri to query the history of that range
+         */
+        public static Uri buildHistoryUriWithRange(long startDate, long endDate) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(Long.toString(startDate))
+                    .appendPath(Long.toString(endDate))
+                    .build();
+        }
+    }
+
+    /*
+     * Inner class that defines the table contents of the location table. The weather table holds
+     * the forecast for the user's own location, the one in SunshinePreferences. Any other place
+     * we keep a forecast for gets a row here, and its forecast goes in the location_weather
+     * table (see LocationWeatherEntry) under the row's _ID.
+     *
+     * There is room for MAX_LOCATIONS of them. Adding one more evicts the location that was used
+     * least recently, along with its forecast.
+     */
+    public static final class LocationEntry implements BaseColumns {
+
+        /* The base CONTENT_URI used to query the location table from the content provider */
+        public static final Uri CONTENT_URI = BASE_CONTENT_URI.buildUpon()
+                .appendPath(PATH_LOCATION)
+                .build();
+
+        /* Used internally as the name of our location table. */
+        public static final String TABLE_NAME = "location";
+
+        /*
+         * How many locations we keep. Each holds at most a forecast's worth of days, as days
+         * before today are dropped whenever a new forecast is stored, so this caps the size of
+         * the location_weather table at a few thousand rows.
+         */
+        public static final int MAX_LOCATIONS = 200;
+
+        /*
+         * The location as we ask OpenWeatherMap for it, for instance "Mountain View, CA". Each
+         * location is stored once: inserting one we already have returns the row we have.
+         */
+        public static final String COLUMN_LOCATION_SETTING = "location_setting";
+
+        /* The name of the city, as OpenWeatherMap returns it */
+        public static final String COLUMN_CITY_NAME = "city_name";
+
+        /* The latitude and longitude of the location, as OpenWeatherMap returns them */
+        public static final String COLUMN_COORD_LAT = "coord_lat";
+        public static final String COLUMN_COORD_LONG = "coord_long";
+
+        /*
+         * The UTC time, in milliseconds, at which the location was last added or stored a
+         * forecast. The sync stores one for every location it keeps current, so the location with
+         * the oldest is the one nobody has synced for longest, and the first to be evicted.
+         */
+        public static final String COLUMN_LAST_USED = "last_used";
+
+        /**
+         * Builds a URI for a single location.
+         *
+         * @param locationId The _ID of the location
+         * @return Uri to query or delete that location
+         */
+        public static Uri buildLocationUri(long locationId) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(Long.toString(locationId))
+                    .build();
+        }
+    }
+
+    /*
+     * Inner class that defines the table contents of the location_weather table, which holds the
+     * forecasts of the places in the location table. Where the weather table has one row per
+     * date, this one has one row per location and date, so every query of it is scoped to a
+     * single location: the provider answers them from the index on the location and date, so
+     * they cost the same whether we keep one location or hundreds.
+     */
+    public static final class LocationWeatherEntry implements BaseColumns {
+
+        /*
+         * The base CONTENT_URI of the location_weather table. It isn't queried as it is, only
+         * with a location ID appended (see buildLocationWeatherUri).
+         */
+        public static final Uri CONTENT_URI = WeatherEntry.CONTENT_URI.buildUpon()
+                .appendPath(PATH_LOCATION)
+                .build();
+
+        /* Used internally as the name of our location_weather table. */
+        public static final String TABLE_NAME = "location_weather";
+
+        /* The _ID of the location in the location table that the row is a forecast for */
+        public static final String COLUMN_LOCATION_ID = "location_id";
+
+        /*
+         * The rest of the columns hold the same values, under the same names, as the columns of
+         * the weather table.
+         */
+        public static final String COLUMN_DATE = WeatherEntry.COLUMN_DATE;
+        public static final String COLUMN_WEATHER_ID = WeatherEntry.COLUMN_WEATHER_ID;
+        public static final String COLUMN_MIN_TEMP = WeatherEntry.COLUMN_MIN_TEMP;
+        public static final String COLUMN_MAX_TEMP = WeatherEntry.COLUMN_MAX_TEMP;
+        public static final String COLUMN_HUMIDITY = WeatherEntry.COLUMN_HUMIDITY;
+        public static final String COLUMN_PRESSURE = WeatherEntry.COLUMN_PRESSURE;
+        public static final String COLUMN_WIND_SPEED = WeatherEntry.COLUMN_WIND_SPEED;
+        public static final String COLUMN_DEGREES = WeatherEntry.COLUMN_DEGREES;
+
+        /**
+         * Builds a URI for the forecast of a location. Query it for the forecast, or bulkInsert
+         * into it (or call METHOD_BULK_INSERT_BATCH with it) to store a new one.
+         *
+         * @param locationId The _ID of the location in the location table
+         * @return Uri for the forecast of that location
+         */
+        public static Uri buildLocationWeatherUri(long locationId) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(Long.toString(locationId))
+                    .build();
+        }
+
+        /**
+         * Builds a URI for the forecast of a location on a single day, the counterpart of
+         * {@link WeatherEntry#buildWeatherUriWithDate(long)}.
+         *
+         * @param locationId The _ID of the location in the location table
+         * @param date       Normalized date in milliseconds
+         * @return Uri to query details about a single day of the location's forecast
+         */
+        public static Uri buildLocationWeatherUriWithDate(long locationId, long date) {
+            return buildLocationWeatherUri(locationId).buildUpon()
+                    .appendPath(Long.toString(date))
+                    .build();
+        }
+    }
+}
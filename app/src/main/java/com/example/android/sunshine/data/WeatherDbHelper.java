@@ -16,11 +16,20 @@
 package com.example.android.sunshine.data;
 
 import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 
+import com.example.android.sunshine.data.WeatherContract.HistoryEntry;
+import com.example.android.sunshine.data.WeatherContract.HourlyEntry;
+import com.example.android.sunshine.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.data.WeatherContract.LocationWeatherEntry;
 import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Manages a local database for weather data.
  */
@@ -42,11 +51,100 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
      * versions of Sunshine could cause everything to break. Although that is certainly a rare
      * use-case, we wanted to watch out for it and warn you what could happen if you mistakenly
      * version your databases.
+     *
+     * Version 4 added the hourly table, version 5 the forecast list index on the weather table,
+     * version 6 the history table and version 7 the location and location_weather tables.
+     *
+     * The database uses write-ahead logging (see onConfigure). That is a property of the file
+     * rather than of the schema, so it didn't need a new version.
+     */
+    private static final int DATABASE_VERSION = 7;
+
+    /*
+     * How many pages the write-ahead log may grow to before a commit copies it back into the
+     * database (a checkpoint). SQLite's own default is 1000 pages, which Android lowers to 100.
+     * A large forecast writes more than 100 pages in one transaction, and checkpointing in the
+     * middle of a sync only makes it longer, so we go back to SQLite's default.
+     */
+    private static final int WAL_AUTOCHECKPOINT_PAGES = 1000;
+
+    /*
+     * After a checkpoint the log file is reused rather than deleted, so without a limit it stays
+     * as large as the largest sync ever made it. Past this size it is truncated back down.
+     */
+    private static final long WAL_SIZE_LIMIT_BYTES = 512 * 1024;
+
+    /*
+     * The page cache, in KiB (SQLite takes a negative cache_size as KiB rather than pages). That
+     * is room for the whole weather table and the pages of the hourly table and its index that
+     * range queries keep coming back to.
      */
-    private static final int DATABASE_VERSION = 3;
+    private static final int CACHE_SIZE_KIB = 2048;
+
+    /* The name of the weather table's forecast list index (see onCreate) */
+    static final String INDEX_WEATHER_FORECAST_LIST = "weather_forecast_list";
+
+    /* The name of the history table's date index (see createHistoryTable) */
+    static final String INDEX_HISTORY_DATE = "history_date";
+
+    /* The name of the location table's eviction index (see createLocationTables) */
+    static final String INDEX_LOCATION_LAST_USED = "location_last_used";
+
+    private final boolean mWriteAheadLogging;
 
     public WeatherDbHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this(context, DATABASE_NAME, true);
+    }
+
+    /**
+     * Opens a weather database under another name, with or without write-ahead logging, so that
+     * tests can compare the two without touching the app's data.
+     *
+     * @param context           Used to find the database
+     * @param name              The database file name
+     * @param writeAheadLogging Whether to use write-ahead logging
+     */
+    WeatherDbHelper(Context context, String name, boolean writeAheadLogging) {
+        super(context, name, null, DATABASE_VERSION);
+        mWriteAheadLogging = writeAheadLogging;
+    }
+
+    /**
+     * Called when the database connection is being configured, before the tables are created or
+     * upgraded.
+     * <p>
+     * With the default rollback journal, a transaction locks the whole database, so while a sync
+     * is writing a forecast, MainActivity's and DetailActivity's loaders wait for it to finish.
+     * With write-ahead logging, writes go to a separate log instead, and readers carry on
+     * reading the last committed forecast from their own connections in the meantime.
+     * <p>
+     * PRAGMAs set here apply to the connection that writes go through, which is the one they
+     * matter for: how commits are synced and checkpointed, and the cache a sync writes through.
+     *
+     * @param db The database.
+     */
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        if (mWriteAheadLogging) {
+            db.enableWriteAheadLogging();
+
+            /*
+             * With write-ahead logging, NORMAL only syncs to disk at checkpoints rather than at
+             * every commit. A power cut can lose the last forecast we stored, but can't corrupt
+             * the database, and the next sync downloads the forecast again anyway.
+             */
+            db.execSQL("PRAGMA synchronous = NORMAL");
+
+            /* These PRAGMAs return the new value, so they have to be run as queries */
+            DatabaseUtils.longForQuery(db,
+                    "PRAGMA wal_autocheckpoint = " + WAL_AUTOCHECKPOINT_PAGES, null);
+            DatabaseUtils.longForQuery(db,
+                    "PRAGMA journal_size_limit = " + WAL_SIZE_LIMIT_BYTES, null);
+        } else {
+            db.disableWriteAheadLogging();
+        }
+
+        db.execSQL("PRAGMA cache_size = -" + CACHE_SIZE_KIB);
     }
 
     /**
@@ -57,6 +155,26 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
      */
     @Override
     public void onCreate(SQLiteDatabase sqLiteDatabase) {
+        createWeatherTable(sqLiteDatabase);
+        createForecastListIndex(sqLiteDatabase);
+        createHourlyTable(sqLiteDatabase);
+        createHistoryTable(sqLiteDatabase);
+        createLocationTables(sqLiteDatabase);
+    }
+
+    /*
+     * Each part of the schema is created by a method of its own, so that the migration that
+     * added it (see WeatherDbMigrations) creates it exactly as onCreate does. If one of them ever
+     * has to change, leave its method as it is for that migration's sake and make the change in
+     * a new migration, and in onCreate.
+     */
+
+    /**
+     * Creates the weather table, which has been the same since version 3.
+     *
+     * @param db The database.
+     */
+    static void createWeatherTable(SQLiteDatabase db) {
 
         /*
          * This String will contain a simple SQL statement that will create a table that will
@@ -98,16 +216,239 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
          * After we've spelled out our SQLite table creation statement above, we actually execute
          * that SQL with the execSQL method of our SQLite database object.
          */
-        sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+        db.execSQL(SQL_CREATE_WEATHER_TABLE);
+    }
+
+    /**
+     * Creates the weather table's forecast list index, added in version 5.
+     *
+     * @param db The database.
+     */
+    static void createForecastListIndex(SQLiteDatabase db) {
+
+        /*
+         * The UNIQUE constraint above already gives us an index on the date column, which is all
+         * a lookup of a single day (DetailActivity, the notification) needs. The forecast list
+         * is another matter: MainActivity asks for every day from today onwards, in date order,
+         * and reads four columns of each. With only the date index, SQLite finds each of those
+         * days in the index and then has to look the row up in the table to read its values.
+         *
+         * This index holds the date followed by every other column the list reads, in the order
+         * MainActivity projects them. It is a "covering" index for the list: SQLite seeks to
+         * today, reads the rest of the list straight out of the index in date order, and never
+         * touches the table, and it sorts nothing. (Queries that only want dates, or _ID, which
+         * every index holds anyway, were already covered by the date index.)
+         *
+         * The price is a second index to keep up to date on every write, which is why the index
+         * only holds what the list reads rather than every column.
+         */
+        final String SQL_CREATE_FORECAST_LIST_INDEX =
+
+                "CREATE INDEX " + INDEX_WEATHER_FORECAST_LIST +
+                " ON " + WeatherEntry.TABLE_NAME + " ("  +
+
+                WeatherEntry.COLUMN_DATE       + ", "    +
+                WeatherEntry.COLUMN_MAX_TEMP   + ", "    +
+                WeatherEntry.COLUMN_MIN_TEMP   + ", "    +
+                WeatherEntry.COLUMN_WEATHER_ID + ");";
+
+        db.execSQL(SQL_CREATE_FORECAST_LIST_INDEX);
+    }
+
+    /**
+     * Creates the hourly table, added in version 4.
+     *
+     * @param db The database.
+     */
+    static void createHourlyTable(SQLiteDatabase db) {
+
+        /*
+         * The hourly table holds many more rows than the weather table (8 a day for a 3-hourly
+         * forecast, 24 for an hourly one), so it is laid out with that in mind.
+         *
+         * _ID is a plain INTEGER PRIMARY KEY rather than AUTOINCREMENT. It is still the table's
+         * rowid, but SQLite no longer has to read and update sqlite_sequence for every row we
+         * insert.
+         *
+         * The UNIQUE constraint on the time column gives us an index on it for free. Every query
+         * of the hourly table is a range of times, which that index answers by seeking straight
+         * to the first row in the range, so a day's forecast costs the same to read whether the
+         * table holds a week of hours or a year of them. Forecasts arrive in time order, so new
+         * rows are also appended to the end of the index rather than scattered through it.
+         */
+        final String SQL_CREATE_HOURLY_TABLE =
+
+                "CREATE TABLE " + HourlyEntry.TABLE_NAME + " (" +
+
+                HourlyEntry._ID               + " INTEGER PRIMARY KEY, " +
+
+                HourlyEntry.COLUMN_TIME       + " INTEGER NOT NULL, "    +
+
+                HourlyEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL, "    +
+
+                HourlyEntry.COLUMN_MIN_TEMP   + " REAL NOT NULL, "       +
+                HourlyEntry.COLUMN_MAX_TEMP   + " REAL NOT NULL, "       +
+
+                HourlyEntry.COLUMN_HUMIDITY   + " REAL NOT NULL, "       +
+                HourlyEntry.COLUMN_PRESSURE   + " REAL NOT NULL, "       +
+
+                HourlyEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, "       +
+                HourlyEntry.COLUMN_DEGREES    + " REAL NOT NULL, "       +
+
+                /* As with the weather table, a newer forecast for a period replaces the old one */
+                " UNIQUE (" + HourlyEntry.COLUMN_TIME + ") ON CONFLICT REPLACE);";
+
+        db.execSQL(SQL_CREATE_HOURLY_TABLE);
+    }
+
+    /**
+     * Creates the history table and its index, added in version 6.
+     *
+     * @param db The database.
+     */
+    static void createHistoryTable(SQLiteDatabase db) {
+
+        /*
+         * The history table only ever grows at one end, a few rows a sync, and is only ever read
+         * a range of dates at a time, so like the hourly table it has a plain INTEGER PRIMARY KEY
+         * and an index on its date column.
+         *
+         * A day can have several rows, so the date isn't UNIQUE. The index is on the date and
+         * then the time each forecast was archived, which keeps a day's rows in the order we had
+         * them: compaction finds the last forecast for a day at the end of the day's rows, rather
+         * than sorting them.
+         */
+        final String SQL_CREATE_HISTORY_TABLE =
+
+                "CREATE TABLE " + HistoryEntry.TABLE_NAME + " (" +
+
+                HistoryEntry._ID               + " INTEGER PRIMARY KEY, "     +
+
+                HistoryEntry.COLUMN_DATE       + " INTEGER NOT NULL, "        +
+
+                HistoryEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL, "        +
+
+                HistoryEntry.COLUMN_MIN_TEMP   + " REAL NOT NULL, "           +
+                HistoryEntry.COLUMN_MAX_TEMP   + " REAL NOT NULL, "           +
+
+                HistoryEntry.COLUMN_HUMIDITY   + " REAL NOT NULL, "           +
+                HistoryEntry.COLUMN_PRESSURE   + " REAL NOT NULL, "           +
+
+                HistoryEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, "           +
+                HistoryEntry.COLUMN_DEGREES    + " REAL NOT NULL, "           +
+
+                HistoryEntry.COLUMN_ARCHIVED   + " INTEGER NOT NULL, "        +
+                HistoryEntry.COLUMN_SAMPLES    + " INTEGER NOT NULL DEFAULT 1);";
+
+        db.execSQL(SQL_CREATE_HISTORY_TABLE);
+
+        final String SQL_CREATE_HISTORY_DATE_INDEX =
+
+                "CREATE INDEX " + INDEX_HISTORY_DATE +
+                " ON " + HistoryEntry.TABLE_NAME + " (" +
+
+                HistoryEntry.COLUMN_DATE       + ", "   +
+                HistoryEntry.COLUMN_ARCHIVED   + ");";
+
+        db.execSQL(SQL_CREATE_HISTORY_DATE_INDEX);
     }
 
     /**
-     * This database is only a cache for online data, so its upgrade policy is simply to discard
-     * the data and call through to onCreate to recreate the table. Note that this only fires if
-     * you change the version number for your database (in our case, DATABASE_VERSION). It does NOT
-     * depend on the version number for your application found in your app/build.gradle file. If
-     * you want to update the schema without wiping data, commenting out the current body of this
-     * method should be your top priority before modifying this method.
+     * Creates the location and location_weather tables and the location table's index, added in
+     * version 7.
+     *
+     * @param db The database.
+     */
+    static void createLocationTables(SQLiteDatabase db) {
+
+        /*
+         * A location's _ID is handed out in URIs (see LocationWeatherEntry), which may outlive
+         * the location if it is evicted. AUTOINCREMENT makes sure such a URI never comes to
+         * mean another location: SQLite won't reuse the _ID of a deleted row.
+         *
+         * The UNIQUE constraint on the location setting gives us an index on it, which is how
+         * WeatherProvider finds out whether it already has a location before adding it.
+         */
+        final String SQL_CREATE_LOCATION_TABLE =
+
+                "CREATE TABLE " + LocationEntry.TABLE_NAME + " (" +
+
+                LocationEntry._ID                     + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+
+                LocationEntry.COLUMN_LOCATION_SETTING + " TEXT NOT NULL, "                     +
+                LocationEntry.COLUMN_CITY_NAME        + " TEXT, "                              +
+
+                LocationEntry.COLUMN_COORD_LAT        + " REAL, "                              +
+                LocationEntry.COLUMN_COORD_LONG       + " REAL, "                              +
+
+                LocationEntry.COLUMN_LAST_USED        + " INTEGER NOT NULL, "                  +
+
+                " UNIQUE (" + LocationEntry.COLUMN_LOCATION_SETTING + "));";
+
+        db.execSQL(SQL_CREATE_LOCATION_TABLE);
+
+        /*
+         * Evicting the least recently used locations means finding the ones past the first
+         * MAX_LOCATIONS in order of last use. With this index, SQLite reads them in that order
+         * (each index entry holds the _ID too) rather than reading and sorting the whole table.
+         */
+        final String SQL_CREATE_LOCATION_LAST_USED_INDEX =
+
+                "CREATE INDEX " + INDEX_LOCATION_LAST_USED +
+                " ON " + LocationEntry.TABLE_NAME + " (" +
+
+                LocationEntry.COLUMN_LAST_USED + ");";
+
+        db.execSQL(SQL_CREATE_LOCATION_LAST_USED_INDEX);
+
+        /*
+         * Like the weather table, but keyed by location as well as date. The UNIQUE constraint
+         * on the two, location first, gives us an index that every query of this table starts
+         * from: a location's forecast is a single seek to its first day followed by its days in
+         * date order, however many other locations there are. The same index lets us delete a
+         * location's forecast, or just its past days, without looking at anyone else's.
+         *
+         * As with the hourly table, _ID is a plain INTEGER PRIMARY KEY: nothing refers to a
+         * forecast row by its _ID, so it may as well be cheap.
+         */
+        final String SQL_CREATE_LOCATION_WEATHER_TABLE =
+
+                "CREATE TABLE " + LocationWeatherEntry.TABLE_NAME + " (" +
+
+                LocationWeatherEntry._ID                + " INTEGER PRIMARY KEY, " +
+
+                LocationWeatherEntry.COLUMN_LOCATION_ID + " INTEGER NOT NULL, "    +
+                LocationWeatherEntry.COLUMN_DATE        + " INTEGER NOT NULL, "    +
+
+                LocationWeatherEntry.COLUMN_WEATHER_ID  + " INTEGER NOT NULL, "    +
+
+                LocationWeatherEntry.COLUMN_MIN_TEMP    + " REAL NOT NULL, "       +
+                LocationWeatherEntry.COLUMN_MAX_TEMP    + " REAL NOT NULL, "       +
+
+                LocationWeatherEntry.COLUMN_HUMIDITY    + " REAL NOT NULL, "       +
+                LocationWeatherEntry.COLUMN_PRESSURE    + " REAL NOT NULL, "       +
+
+                LocationWeatherEntry.COLUMN_WIND_SPEED  + " REAL NOT NULL, "       +
+                LocationWeatherEntry.COLUMN_DEGREES     + " REAL NOT NULL, "       +
+
+                /* A newer forecast for a location's day replaces the old one */
+                " UNIQUE (" + LocationWeatherEntry.COLUMN_LOCATION_ID + ", "
+                        + LocationWeatherEntry.COLUMN_DATE + ") ON CONFLICT REPLACE);";
+
+        db.execSQL(SQL_CREATE_LOCATION_WEATHER_TABLE);
+    }
+
+    /**
+     * Brings a database from an older version of the app up to date. This only fires if you
+     * change the version number for your database (in our case, DATABASE_VERSION). It does NOT
+     * depend on the version number for your application found in your app/build.gradle file.
+     * <p>
+     * Although this database is only a cache for online data, throwing it away isn't free: the
+     * app would show nothing until it had downloaded a new forecast, and every device that
+     * updates the app at once would ask for one at once. So rather than drop the tables, we run
+     * the migrations in WeatherDbMigrations, which change the schema one version at a time and
+     * keep the data. Only if we don't know how to migrate from {@code oldVersion}, or a
+     * migration fails, do we fall back to starting over with an empty database.
      *
      * @param sqLiteDatabase Database that is being upgraded
      * @param oldVersion     The old database version
@@ -115,7 +456,32 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
      */
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
-        onCreate(sqLiteDatabase);
+        if (!WeatherDbMigrations.migrate(sqLiteDatabase, oldVersion, newVersion)) {
+            dropAllTables(sqLiteDatabase);
+            onCreate(sqLiteDatabase);
+        }
+    }
+
+    /**
+     * Drops every table in the database, including any that older versions of the app had and
+     * this one no longer knows about. Their indexes go with them.
+     *
+     * @param db The database.
+     */
+    static void dropAllTables(SQLiteDatabase db) {
+        List<String> tables = new ArrayList<>();
+        Cursor cursor = db.rawQuery("SELECT name FROM sqlite_master WHERE type = 'table'"
+                + " AND name NOT LIKE 'sqlite_%' AND name != 'android_metadata'", null);
+        try {
+            while (cursor.moveToNext()) {
+                tables.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        for (String table : tables) {
+            db.execSQL("DROP TABLE IF EXISTS " + table);
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * The steps that bring a weather database from one version to the next while keeping the weather
+ * already stored in it, so that updating the app doesn't mean downloading the forecast again.
+ * <p>
+ * To change the schema, increment WeatherDbHelper's DATABASE_VERSION, change onCreate so that a
+ * new database gets the new schema, and add a Migration to the end of {@link #MIGRATIONS} that
+ * turns a database at the previous version into exactly that, data and all. Then add the
+ * previous version's schema to TestWeatherDbMigrations, which upgrades a database from every
+ * past version and checks the result.
+ */
+final class WeatherDbMigrations {
+
+    private static final String TAG = WeatherDbMigrations.class.getSimpleName();
+
+    /*
+     * The oldest version we can migrate from. Versions before 3 belong to much older versions of
+     * Sunshine with a different schema altogether, which we simply start over from.
+     */
+    static final int OLDEST_MIGRATABLE_VERSION = 3;
+
+    /* Changes the schema of a database, and the data in it, from one version to the next */
+    private abstract static class Migration {
+        abstract void migrate(SQLiteDatabase db);
+    }
+
+    /* MIGRATIONS[i] migrates version OLDEST_MIGRATABLE_VERSION + i to the version after it */
+    private static final Migration[] MIGRATIONS = {
+
+            /* 3 to 4: the hourly table */
+            new Migration() {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    WeatherDbHelper.createHourlyTable(db);
+                }
+            },
+
+            /* 4 to 5: the weather table's forecast list index */
+            new Migration() {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    WeatherDbHelper.createForecastListIndex(db);
+                }
+            },
+
+            /* 5 to 6: the history table */
+            new Migration() {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    WeatherDbHelper.createHistoryTable(db);
+                }
+            },
+
+            /* 6 to 7: the location and location_weather tables */
+            new Migration() {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    WeatherDbHelper.createLocationTables(db);
+                }
+            },
+    };
+
+    private WeatherDbMigrations() {
+    }
+
+    /**
+     * Runs the migrations from {@code oldVersion} to {@code newVersion}, one version at a time,
+     * and logs how long each took.
+     * <p>
+     * The whole upgrade runs in a single transaction: the one SQLiteOpenHelper already runs
+     * onUpgrade in, or one of our own if there isn't one. Either the database ends up at
+     * {@code newVersion} or, if we started the transaction, it is left exactly as it was.
+     *
+     * @param db         The database to migrate
+     * @param oldVersion The version the database is at
+     * @param newVersion The version to migrate it to
+     * @return Whether the database was migrated. If not, because we have no migrations from
+     * {@code oldVersion} or one of them failed, the caller should start over with an empty
+     * database.
+     */
+    static boolean migrate(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (oldVersion < OLDEST_MIGRATABLE_VERSION
+                || newVersion > OLDEST_MIGRATABLE_VERSION + MIGRATIONS.length
+                || newVersion < oldVersion) {
+            Log.w(TAG, "No migration from version " + oldVersion + " to " + newVersion);
+            return false;
+        }
+
+        boolean ownTransaction = !db.inTransaction();
+        if (ownTransaction) {
+            db.beginTransaction();
+        }
+
+        long upgradeStart = SystemClock.elapsedRealtime();
+        int version = oldVersion;
+        try {
+            for (; version < newVersion; version++) {
+                long migrationStart = SystemClock.elapsedRealtime();
+                MIGRATIONS[version - OLDEST_MIGRATABLE_VERSION].migrate(db);
+                Log.i(TAG, "Migrated version " + version + " to " + (version + 1) + " in "
+                        + (SystemClock.elapsedRealtime() - migrationStart) + " ms");
+            }
+
+            if (ownTransaction) {
+                db.setTransactionSuccessful();
+            }
+            Log.i(TAG, "Migrated version " + oldVersion + " to " + newVersion + " in "
+                    + (SystemClock.elapsedRealtime() - upgradeStart) + " ms");
+            return true;
+        } catch (SQLException e) {
+            /*
+             * Inside SQLiteOpenHelper's transaction we can't roll back just the migration, but
+             * the caller drops every table to start over, which leaves nothing of it behind.
+             */
+            Log.e(TAG, "Migrating version " + version + " to " + (version + 1) + " failed", e);
+            return false;
+        } finally {
+            if (ownTransaction) {
+                db.endTransaction();
+            }
+        }
+    }
+}
@@ -20,12 +20,17 @@ import android.content.ContentProvider;
 import android.content.ContentValues;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Bundle;
 import android.support.annotation.NonNull;
 
 import com.example.android.sunshine.utilities.SunshineDateUtils;
 
+import java.util.Arrays;
+
 /**
  * This class serves as the ContentProvider for all of Sunshine's data. This class allows us to
  * bulkInsert data, query data, and delete data.
@@ -45,6 +50,14 @@ public class WeatherProvider extends ContentProvider {
      */
     public static final int CODE_WEATHER = 100;
     public static final int CODE_WEATHER_WITH_DATE = 101;
+    public static final int CODE_HOURLY = 200;
+    public static final int CODE_HOURLY_WITH_RANGE = 201;
+    public static final int CODE_HISTORY = 300;
+    public static final int CODE_HISTORY_WITH_RANGE = 301;
+    public static final int CODE_LOCATION = 400;
+    public static final int CODE_LOCATION_WITH_ID = 401;
+    public static final int CODE_LOCATION_WEATHER = 500;
+    public static final int CODE_LOCATION_WEATHER_WITH_DATE = 501;
 
     /*
      * The URI Matcher used by this content provider. The leading "s" in this variable name
@@ -52,6 +65,243 @@ public class WeatherProvider extends ContentProvider {
      * common convention in Android programming.
      */
     private static final UriMatcher sUriMatcher = buildUriMatcher();
+
+    /*
+     * Inserts one day into the weather table. The date column is UNIQUE ... ON CONFLICT REPLACE,
+     * so just like SQLiteDatabase#insert, this replaces any day we already had.
+     */
+    private static final String SQL_INSERT_WEATHER =
+            "INSERT INTO " + WeatherContract.WeatherEntry.TABLE_NAME + " ("
+                    + WeatherContract.WeatherEntry.COLUMN_DATE + ", "
+                    + WeatherContract.WeatherEntry.COLUMN_WEATHER_ID + ", "
+                    + WeatherContract.WeatherEntry.COLUMN_MIN_TEMP + ", "
+                    + WeatherContract.WeatherEntry.COLUMN_MAX_TEMP + ", "
+                    + WeatherContract.WeatherEntry.COLUMN_HUMIDITY + ", "
+                    + WeatherContract.WeatherEntry.COLUMN_PRESSURE + ", "
+                    + WeatherContract.WeatherEntry.COLUMN_WIND_SPEED + ", "
+                    + WeatherContract.WeatherEntry.COLUMN_DEGREES
+                    + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+
+    /* Inserts one period into the hourly table, replacing any forecast we had for it */
+    private static final String SQL_INSERT_HOURLY =
+            "INSERT INTO " + WeatherContract.HourlyEntry.TABLE_NAME + " ("
+                    + WeatherContract.HourlyEntry.COLUMN_TIME + ", "
+                    + WeatherContract.HourlyEntry.COLUMN_WEATHER_ID + ", "
+                    + WeatherContract.HourlyEntry.COLUMN_MIN_TEMP + ", "
+                    + WeatherContract.HourlyEntry.COLUMN_MAX_TEMP + ", "
+                    + WeatherContract.HourlyEntry.COLUMN_HUMIDITY + ", "
+                    + WeatherContract.HourlyEntry.COLUMN_PRESSURE + ", "
+                    + WeatherContract.HourlyEntry.COLUMN_WIND_SPEED + ", "
+                    + WeatherContract.HourlyEntry.COLUMN_DEGREES
+                    + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+
+    /* The columns SQL_INSERT_WEATHER and SQL_INSERT_HOURLY bind, in the order they bind them */
+    private static final String[] WEATHER_INSERT_COLUMNS = {
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+            WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+            WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherContract.WeatherEntry.COLUMN_DEGREES
+    };
+    private static final String[] HOURLY_INSERT_COLUMNS = {
+            WeatherContract.HourlyEntry.COLUMN_TIME,
+            WeatherContract.HourlyEntry.COLUMN_WEATHER_ID,
+            WeatherContract.HourlyEntry.COLUMN_MIN_TEMP,
+            WeatherContract.HourlyEntry.COLUMN_MAX_TEMP,
+            WeatherContract.HourlyEntry.COLUMN_HUMIDITY,
+            WeatherContract.HourlyEntry.COLUMN_PRESSURE,
+            WeatherContract.HourlyEntry.COLUMN_WIND_SPEED,
+            WeatherContract.HourlyEntry.COLUMN_DEGREES
+    };
+
+    /*
+     * The two halves of merging a day into the weather table without touching it if we already
+     * have exactly that forecast for it. The UPDATE only matches the day if one of its values
+     * differs, and the INSERT OR IGNORE (which overrides the table's ON CONFLICT REPLACE) only
+     * adds the day if we don't have it at all. Parameter ?1 is the date and ?2 to ?8 the values,
+     * in the order of SQL_INSERT_WEATHER, so both statements are bound the same way.
+     *
+     * The statements with a WHERE clause are package-private so that TestQueryPlans can check
+     * they find their rows through an index.
+     */
+    private static final String SQL_WHERE_WEATHER_CHANGED =
+            " WHERE " + WeatherContract.WeatherEntry.COLUMN_DATE + " = ?1 AND ("
+                    + WeatherContract.WeatherEntry.COLUMN_WEATHER_ID + " IS NOT ?2 OR "
+                    + WeatherContract.WeatherEntry.COLUMN_MIN_TEMP + " IS NOT ?3 OR "
+                    + WeatherContract.WeatherEntry.COLUMN_MAX_TEMP + " IS NOT ?4 OR "
+                    + WeatherContract.WeatherEntry.COLUMN_HUMIDITY + " IS NOT ?5 OR "
+                    + WeatherContract.WeatherEntry.COLUMN_PRESSURE + " IS NOT ?6 OR "
+                    + WeatherContract.WeatherEntry.COLUMN_WIND_SPEED + " IS NOT ?7 OR "
+                    + WeatherContract.WeatherEntry.COLUMN_DEGREES + " IS NOT ?8)";
+
+    static final String SQL_UPDATE_WEATHER_IF_CHANGED =
+            "UPDATE " + WeatherContract.WeatherEntry.TABLE_NAME + " SET "
+                    + WeatherContract.WeatherEntry.COLUMN_WEATHER_ID + " = ?2, "
+                    + WeatherContract.WeatherEntry.COLUMN_MIN_TEMP + " = ?3, "
+                    + WeatherContract.WeatherEntry.COLUMN_MAX_TEMP + " = ?4, "
+                    + WeatherContract.WeatherEntry.COLUMN_HUMIDITY + " = ?5, "
+                    + WeatherContract.WeatherEntry.COLUMN_PRESSURE + " = ?6, "
+                    + WeatherContract.WeatherEntry.COLUMN_WIND_SPEED + " = ?7, "
+                    + WeatherContract.WeatherEntry.COLUMN_DEGREES + " = ?8"
+                    + SQL_WHERE_WEATHER_CHANGED;
+
+    private static final String SQL_INSERT_WEATHER_IF_NEW =
+            "INSERT OR IGNORE INTO " + WeatherContract.WeatherEntry.TABLE_NAME + " ("
+                    + WeatherContract.WeatherEntry.COLUMN_DATE + ", "
+                    + WeatherContract.WeatherEntry.COLUMN_WEATHER_ID + ", "
+                    + WeatherContract.WeatherEntry.COLUMN_MIN_TEMP + ", "
+                    + WeatherContract.WeatherEntry.COLUMN_MAX_TEMP + ", "
+                    + WeatherContract.WeatherEntry.COLUMN_HUMIDITY + ", "
+                    + WeatherContract.WeatherEntry.COLUMN_PRESSURE + ", "
+                    + WeatherContract.WeatherEntry.COLUMN_WIND_SPEED + ", "
+                    + WeatherContract.WeatherEntry.COLUMN_DEGREES
+                    + ") VALUES (?1, ?2, ?3, ?4, ?5, ?6, ?7, ?8)";
+
+    static final String SQL_DELETE_WEATHER_DATE =
+            "DELETE FROM " + WeatherContract.WeatherEntry.TABLE_NAME
+                    + " WHERE " + WeatherContract.WeatherEntry.COLUMN_DATE + " = ?";
+
+    /* Copies rows of the weather table into the history table; the WHERE clause is added below */
+    private static final String SQL_ARCHIVE_WEATHER =
+            "INSERT INTO " + WeatherContract.HistoryEntry.TABLE_NAME + " ("
+                    + WeatherContract.HistoryEntry.COLUMN_DATE + ", "
+                    + WeatherContract.HistoryEntry.COLUMN_WEATHER_ID + ", "
+                    + WeatherContract.HistoryEntry.COLUMN_MIN_TEMP + ", "
+                    + WeatherContract.HistoryEntry.COLUMN_MAX_TEMP + ", "
+                    + WeatherContract.HistoryEntry.COLUMN_HUMIDITY + ", "
+                    + WeatherContract.HistoryEntry.COLUMN_PRESSURE + ", "
+                    + WeatherContract.HistoryEntry.COLUMN_WIND_SPEED + ", "
+                    + WeatherContract.HistoryEntry.COLUMN_DEGREES + ", "
+                    + WeatherContract.HistoryEntry.COLUMN_ARCHIVED
+                    + ") SELECT "
+                    + WeatherContract.WeatherEntry.COLUMN_DATE + ", "
+                    + WeatherContract.WeatherEntry.COLUMN_WEATHER_ID + ", "
+                    + WeatherContract.WeatherEntry.COLUMN_MIN_TEMP + ", "
+                    + WeatherContract.WeatherEntry.COLUMN_MAX_TEMP + ", "
+                    + WeatherContract.WeatherEntry.COLUMN_HUMIDITY + ", "
+                    + WeatherContract.WeatherEntry.COLUMN_PRESSURE + ", "
+                    + WeatherContract.WeatherEntry.COLUMN_WIND_SPEED + ", "
+                    + WeatherContract.WeatherEntry.COLUMN_DEGREES + ", "
+                    + "?9 FROM " + WeatherContract.WeatherEntry.TABLE_NAME;
+
+    /*
+     * Archives the forecast we have for a day, if the new forecast bound as in
+     * SQL_UPDATE_WEATHER_IF_CHANGED differs from it. ?9 is the time it is archived at.
+     */
+    static final String SQL_ARCHIVE_WEATHER_IF_CHANGED =
+            SQL_ARCHIVE_WEATHER + SQL_WHERE_WEATHER_CHANGED;
+
+    /* Archives every day before the date ?1, and ?9 is the time they are archived at */
+    static final String SQL_ARCHIVE_WEATHER_BEFORE =
+            SQL_ARCHIVE_WEATHER
+                    + " WHERE " + WeatherContract.WeatherEntry.COLUMN_DATE + " < ?1";
+
+    static final String SQL_DELETE_WEATHER_BEFORE =
+            "DELETE FROM " + WeatherContract.WeatherEntry.TABLE_NAME
+                    + " WHERE " + WeatherContract.WeatherEntry.COLUMN_DATE + " < ?";
+
+    /*
+     * Adds a single row for each day before the date ?1 that has more than one, combining them.
+     * The averages are weighted by the number of forecasts each row already stands for, so a day
+     * can be compacted again without skewing them. The weather ID and wind direction can't be
+     * averaged, so they are taken from the last forecast, which the history_date index finds at
+     * the end of the day's rows.
+     */
+    static final String SQL_COMPACT_HISTORY_BEFORE =
+            "INSERT INTO " + WeatherContract.HistoryEntry.TABLE_NAME + " ("
+                    + WeatherContract.HistoryEntry.COLUMN_DATE + ", "
+                    + WeatherContract.HistoryEntry.COLUMN_WEATHER_ID + ", "
+                    + WeatherContract.HistoryEntry.COLUMN_MIN_TEMP + ", "
+                    + WeatherContract.HistoryEntry.COLUMN_MAX_TEMP + ", "
+                    + WeatherContract.HistoryEntry.COLUMN_HUMIDITY + ", "
+                    + WeatherContract.HistoryEntry.COLUMN_PRESSURE + ", "
+                    + WeatherContract.HistoryEntry.COLUMN_WIND_SPEED + ", "
+                    + WeatherContract.HistoryEntry.COLUMN_DEGREES + ", "
+                    + WeatherContract.HistoryEntry.COLUMN_ARCHIVED + ", "
+                    + WeatherContract.HistoryEntry.COLUMN_SAMPLES
+                    + ") SELECT day." + WeatherContract.HistoryEntry.COLUMN_DATE + ", "
+                    + lastArchived(WeatherContract.HistoryEntry.COLUMN_WEATHER_ID) + ", "
+                    + weightedAverage(WeatherContract.HistoryEntry.COLUMN_MIN_TEMP) + ", "
+                    + weightedAverage(WeatherContract.HistoryEntry.COLUMN_MAX_TEMP) + ", "
+                    + weightedAverage(WeatherContract.HistoryEntry.COLUMN_HUMIDITY) + ", "
+                    + weightedAverage(WeatherContract.HistoryEntry.COLUMN_PRESSURE) + ", "
+                    + weightedAverage(WeatherContract.HistoryEntry.COLUMN_WIND_SPEED) + ", "
+                    + lastArchived(WeatherContract.HistoryEntry.COLUMN_DEGREES) + ", "
+                    + "MAX(day." + WeatherContract.HistoryEntry.COLUMN_ARCHIVED + "), "
+                    + "SUM(day." + WeatherContract.HistoryEntry.COLUMN_SAMPLES + ")"
+                    + " FROM " + WeatherContract.HistoryEntry.TABLE_NAME + " AS day"
+                    + " WHERE day." + WeatherContract.HistoryEntry.COLUMN_DATE + " < ?1"
+                    + " GROUP BY day." + WeatherContract.HistoryEntry.COLUMN_DATE
+                    + " HAVING COUNT(*) > 1";
+
+    /*
+     * Deletes the rows, up to the _ID ?1, of every day that has a row after it. Run after
+     * SQL_COMPACT_HISTORY_BEFORE, with the last _ID from before it, this deletes the rows that
+     * were just combined.
+     */
+    static final String SQL_DELETE_COMPACTED_HISTORY =
+            "DELETE FROM " + WeatherContract.HistoryEntry.TABLE_NAME
+                    + " WHERE " + WeatherContract.HistoryEntry._ID + " <= ?1"
+                    + " AND " + WeatherContract.HistoryEntry.COLUMN_DATE + " IN (SELECT "
+                    + WeatherContract.HistoryEntry.COLUMN_DATE
+                    + " FROM " + WeatherContract.HistoryEntry.TABLE_NAME
+                    + " WHERE " + WeatherContract.HistoryEntry._ID + " > ?1)";
+
+    static final String SQL_DELETE_HISTORY_BEFORE =
+            "DELETE FROM " + WeatherContract.HistoryEntry.TABLE_NAME
+                    + " WHERE " + WeatherContract.HistoryEntry.COLUMN_DATE + " < ?";
+
+    /*
+     * Inserts a day of a location's forecast. ?1 to ?8 are bound as in SQL_INSERT_WEATHER, so
+     * insertForecast can fill it in, and ?9 is the location's _ID, bound once for the whole
+     * forecast.
+     */
+    private static final String SQL_INSERT_LOCATION_WEATHER =
+            "INSERT INTO " + WeatherContract.LocationWeatherEntry.TABLE_NAME + " ("
+                    + WeatherContract.LocationWeatherEntry.COLUMN_DATE + ", "
+                    + WeatherContract.LocationWeatherEntry.COLUMN_WEATHER_ID + ", "
+                    + WeatherContract.LocationWeatherEntry.COLUMN_MIN_TEMP + ", "
+                    + WeatherContract.LocationWeatherEntry.COLUMN_MAX_TEMP + ", "
+                    + WeatherContract.LocationWeatherEntry.COLUMN_HUMIDITY + ", "
+                    + WeatherContract.LocationWeatherEntry.COLUMN_PRESSURE + ", "
+                    + WeatherContract.LocationWeatherEntry.COLUMN_WIND_SPEED + ", "
+                    + WeatherContract.LocationWeatherEntry.COLUMN_DEGREES + ", "
+                    + WeatherContract.LocationWeatherEntry.COLUMN_LOCATION_ID
+                    + ") VALUES (?1, ?2, ?3, ?4, ?5, ?6, ?7, ?8, ?9)";
+
+    static final String SQL_SELECT_LOCATION_ID =
+            "SELECT " + WeatherContract.LocationEntry._ID
+                    + " FROM " + WeatherContract.LocationEntry.TABLE_NAME
+                    + " WHERE " + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?";
+
+    static final String SQL_TOUCH_LOCATION =
+            "UPDATE " + WeatherContract.LocationEntry.TABLE_NAME
+                    + " SET " + WeatherContract.LocationEntry.COLUMN_LAST_USED + " = ?1"
+                    + " WHERE " + WeatherContract.LocationEntry._ID + " = ?2";
+
+    /* Every location after the first ?, most recently used first: the ones to evict */
+    static final String SQL_SELECT_EVICTED_LOCATIONS =
+            "SELECT " + WeatherContract.LocationEntry._ID
+                    + " FROM " + WeatherContract.LocationEntry.TABLE_NAME
+                    + " ORDER BY " + WeatherContract.LocationEntry.COLUMN_LAST_USED + " DESC, "
+                    + WeatherContract.LocationEntry._ID + " DESC"
+                    + " LIMIT -1 OFFSET ?";
+
+    static final String SQL_DELETE_LOCATION =
+            "DELETE FROM " + WeatherContract.LocationEntry.TABLE_NAME
+                    + " WHERE " + WeatherContract.LocationEntry._ID + " = ?";
+
+    static final String SQL_DELETE_LOCATION_WEATHER =
+            "DELETE FROM " + WeatherContract.LocationWeatherEntry.TABLE_NAME
+                    + " WHERE " + WeatherContract.LocationWeatherEntry.COLUMN_LOCATION_ID + " = ?";
+
+    static final String SQL_DELETE_LOCATION_WEATHER_BEFORE =
+            SQL_DELETE_LOCATION_WEATHER
+                    + " AND " + WeatherContract.LocationWeatherEntry.COLUMN_DATE + " < ?";
+
     private WeatherDbHelper mOpenHelper;
 
     /**
@@ -96,6 +346,39 @@ public class WeatherProvider extends ContentProvider {
          */
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/#", CODE_WEATHER_WITH_DATE);
 
+        /* content://com.example.android.sunshine/hourly/ */
+        matcher.addURI(authority, WeatherContract.PATH_HOURLY, CODE_HOURLY);
+
+        /* content://com.example.android.sunshine/hourly/<start time>/<end time> */
+        matcher.addURI(authority, WeatherContract.PATH_HOURLY + "/#/#", CODE_HOURLY_WITH_RANGE);
+
+        /* content://com.example.android.sunshine/history/ */
+        matcher.addURI(authority, WeatherContract.PATH_HISTORY, CODE_HISTORY);
+
+        /* content://com.example.android.sunshine/history/<start date>/<end date> */
+        matcher.addURI(authority, WeatherContract.PATH_HISTORY + "/#/#", CODE_HISTORY_WITH_RANGE);
+
+        /* content://com.example.android.sunshine/location/ */
+        matcher.addURI(authority, WeatherContract.PATH_LOCATION, CODE_LOCATION);
+
+        /* content://com.example.android.sunshine/location/<location ID> */
+        matcher.addURI(authority, WeatherContract.PATH_LOCATION + "/#", CODE_LOCATION_WITH_ID);
+
+        /*
+         * content://com.example.android.sunshine/weather/location/<location ID>
+         *
+         * "location" isn't a number, so these never match the "weather/#" pattern above, and no
+         * date can be mistaken for "location".
+         */
+        matcher.addURI(authority,
+                WeatherContract.PATH_WEATHER + "/" + WeatherContract.PATH_LOCATION + "/#",
+                CODE_LOCATION_WEATHER);
+
+        /* content://com.example.android.sunshine/weather/location/<location ID>/<date> */
+        matcher.addURI(authority,
+                WeatherContract.PATH_WEATHER + "/" + WeatherContract.PATH_LOCATION + "/#/#",
+                CODE_LOCATION_WEATHER_WITH_DATE);
+
         return matcher;
     }
 
@@ -131,6 +414,12 @@ public class WeatherProvider extends ContentProvider {
      * for inserting a single row of data into our ContentProvider, and so we are only going to
      * implement bulkInsert. In a normal ContentProvider's implementation, you will probably want
      * to provide proper functionality for the insert method as well.
+     * <p>
+     * SQLiteDatabase#insert builds an INSERT from the keys of each ContentValues and compiles it
+     * again for every row. Every row of a forecast has the same columns, so instead we compile
+     * one INSERT for the whole transaction and bind each row's values into it (see
+     * {@link #insertValues(SQLiteDatabase, SQLiteStatement, ContentValues[], boolean)}). The
+     * table's ON CONFLICT REPLACE still makes that an upsert.
      *
      * @param uri    The content:// URI of the insertion request.
      * @param values An array of sets of column_name/value pairs to add to the database.
@@ -142,26 +431,22 @@ public class WeatherProvider extends ContentProvider {
     public int bulkInsert(@NonNull Uri uri, @NonNull ContentValues[] values) {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
 
-        switch (sUriMatcher.match(uri)) {
+        int match = sUriMatcher.match(uri);
+        switch (match) {
 
             case CODE_WEATHER:
+            case CODE_HOURLY:
+                /* The two tables are filled in exactly the same way; only their keys differ */
+                boolean hourly = match == CODE_HOURLY;
+
                 db.beginTransaction();
-                int rowsInserted = 0;
+                int rowsInserted;
+                SQLiteStatement insert = hourly ? compileHourlyInsert(db) : compileInsert(db);
                 try {
-                    for (ContentValues value : values) {
-                        long weatherDate =
-                                value.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
-                        if (!SunshineDateUtils.isDateNormalized(weatherDate)) {
-                            throw new IllegalArgumentException("Date must be normalized to insert");
-                        }
-
-                        long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
-                        if (_id != -1) {
-                            rowsInserted++;
-                        }
-                    }
+                    rowsInserted = insertValues(db, insert, values, hourly);
                     db.setTransactionSuccessful();
                 } finally {
+                    insert.close();
                     db.endTransaction();
                 }
 
@@ -171,11 +456,748 @@ public class WeatherProvider extends ContentProvider {
 
                 return rowsInserted;
 
+            case CODE_LOCATION_WEATHER:
+                return insertLocationForecast(uri, ForecastBatch.fromContentValues(values));
+
             default:
                 return super.bulkInsert(uri, values);
         }
     }
 
+    /**
+     * Handles {@link WeatherContract#METHOD_BULK_INSERT_BATCH}, the fast path for storing a
+     * forecast, and {@link WeatherContract#METHOD_MERGE_BATCH}, which replaces the forecast
+     * while only writing the days that changed. The batch arrives as primitive arrays in
+     * {@code extras} and each value is bound straight into a compiled statement, so nothing is
+     * boxed on the way into the database.
+     * <p>
+     * Also handles {@link WeatherContract#METHOD_COMPACT_HISTORY}, which compacts the history
+     * table and deletes what is past its retention period.
+     *
+     * @param method The method to call
+     * @param arg    For METHOD_BULK_INSERT_BATCH, the content URI of the table to insert into, or
+     *               null for the weather table. Unused by METHOD_MERGE_BATCH. For
+     *               METHOD_COMPACT_HISTORY, the number of days of history to keep.
+     * @param extras The {@link ForecastBatch} to store, packed by {@link ForecastBatch#toBundle()}
+     * @return The number of rows inserted, under {@link WeatherContract#EXTRA_ROWS_INSERTED}, or
+     * for METHOD_MERGE_BATCH the number of rows written or deleted, under
+     * {@link WeatherContract#EXTRA_ROWS_CHANGED}, or for METHOD_COMPACT_HISTORY the number of
+     * rows removed from the history table, under {@link WeatherContract#EXTRA_ROWS_DELETED}
+     */
+    @Override
+    public Bundle call(@NonNull String method, String arg, Bundle extras) {
+        if (WeatherContract.METHOD_BULK_INSERT_BATCH.equals(method)) {
+            Uri uri = arg == null ? WeatherContract.WeatherEntry.CONTENT_URI : Uri.parse(arg);
+            int rowsInserted = bulkInsert(uri, ForecastBatch.fromBundle(extras));
+
+            Bundle result = new Bundle();
+            result.putInt(WeatherContract.EXTRA_ROWS_INSERTED, rowsInserted);
+            return result;
+        } else if (WeatherContract.METHOD_MERGE_BATCH.equals(method)) {
+            int rowsChanged = mergeForecast(ForecastBatch.fromBundle(extras));
+
+            Bundle result = new Bundle();
+            result.putInt(WeatherContract.EXTRA_ROWS_CHANGED, rowsChanged);
+            return result;
+        } else if (WeatherContract.METHOD_COMPACT_HISTORY.equals(method)) {
+            int rowsDeleted = compactHistory(Integer.parseInt(arg));
+
+            Bundle result = new Bundle();
+            result.putInt(WeatherContract.EXTRA_ROWS_DELETED, rowsDeleted);
+            return result;
+        }
+        return super.call(method, arg, extras);
+    }
+
+    /**
+     * Inserts every day of a batch in a single transaction, the same way
+     * {@link #bulkInsert(Uri, ContentValues[])} does.
+     *
+     * @param uri   The table to insert into, which is also the URI to notify once the rows are in
+     * @param batch The days (or for the hourly table, periods) to insert
+     * @return The number of rows inserted
+     */
+    private int bulkInsert(Uri uri, ForecastBatch batch) {
+        final boolean hourly;
+        switch (sUriMatcher.match(uri)) {
+            case CODE_WEATHER:
+                hourly = false;
+                break;
+            case CODE_HOURLY:
+                hourly = true;
+                break;
+            case CODE_LOCATION_WEATHER:
+                return insertLocationForecast(uri, batch);
+            default:
+                throw new UnsupportedOperationException("Unknown uri: " + uri);
+        }
+
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+
+        int rowsInserted;
+        db.beginTransaction();
+        SQLiteStatement insert = hourly ? compileHourlyInsert(db) : compileInsert(db);
+        try {
+            rowsInserted = insertRows(insert, batch, hourly);
+            db.setTransactionSuccessful();
+        } finally {
+            insert.close();
+            db.endTransaction();
+        }
+
+        if (rowsInserted > 0) {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+
+        return rowsInserted;
+    }
+
+    /**
+     * Makes the weather table hold exactly the days of {@code batch}, in a single transaction.
+     * Days whose forecast is unchanged aren't written, every day missing from the batch is
+     * deleted, and observers are only notified if one of those actually changed a row. A sync
+     * that brings the same forecast as last time leaves the table, and every loader watching it,
+     * alone.
+     * <p>
+     * As in ForecastPipeline, days before today are first moved into the history table, and so
+     * are the forecasts the batch replaces. The days from today on that the batch no longer has
+     * are deleted without being archived.
+     *
+     * @param batch The whole forecast
+     * @return The number of rows written, archived or deleted
+     */
+    private int mergeForecast(ForecastBatch batch) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+
+        long[] dates = new long[batch.size()];
+        for (int i = 0; i < dates.length; i++) {
+            dates[i] = batch.getDate(i);
+        }
+        Arrays.sort(dates);
+
+        long now = System.currentTimeMillis();
+
+        int rowsChanged;
+        db.beginTransaction();
+        SQLiteStatement archive = compileArchiveIfChanged(db, now);
+        SQLiteStatement update = compileUpdateIfChanged(db);
+        SQLiteStatement insert = compileInsertIfNew(db);
+        try {
+            rowsChanged = archiveDaysBefore(db,
+                    SunshineDateUtils.getNormalizedUtcDateForToday(), now);
+            rowsChanged += mergeForecast(archive, update, insert, batch);
+            rowsChanged += deleteDaysOtherThan(db, dates, dates.length);
+            db.setTransactionSuccessful();
+        } finally {
+            archive.close();
+            update.close();
+            insert.close();
+            db.endTransaction();
+        }
+
+        if (rowsChanged > 0) {
+            getContext().getContentResolver()
+                    .notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
+        }
+
+        return rowsChanged;
+    }
+
+    /**
+     * Compacts the history table in a single transaction, keeping every forecast for the last
+     * HistoryEntry.DETAIL_DAYS days and nothing from before {@code retentionDays} ago.
+     *
+     * @param retentionDays How many days of history to keep
+     * @return The number of rows removed from the history table
+     */
+    private int compactHistory(int retentionDays) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+
+        long today = SunshineDateUtils.getNormalizedUtcDateForToday();
+        long detailDate = today
+                - WeatherContract.HistoryEntry.DETAIL_DAYS * SunshineDateUtils.DAY_IN_MILLIS;
+        long retentionDate = today - retentionDays * SunshineDateUtils.DAY_IN_MILLIS;
+
+        int rowsDeleted;
+        db.beginTransaction();
+        try {
+            rowsDeleted = compactHistory(db, detailDate, retentionDate);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        if (rowsDeleted > 0) {
+            getContext().getContentResolver()
+                    .notifyChange(WeatherContract.HistoryEntry.CONTENT_URI, null);
+        }
+
+        return rowsDeleted;
+    }
+
+    /**
+     * Stores a new forecast for a location in a single transaction. The days of its old forecast
+     * that are now in the past are deleted, so a location never holds more than a forecast's
+     * worth of days, and the location counts as used.
+     *
+     * @param uri   The forecast of a location, from LocationWeatherEntry#buildLocationWeatherUri
+     * @param batch The days to insert
+     * @return The number of rows inserted
+     * @throws IllegalArgumentException If there is no such location
+     */
+    private int insertLocationForecast(Uri uri, ForecastBatch batch) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        long locationId = getLocationId(uri);
+
+        int rowsInserted;
+        db.beginTransaction();
+        SQLiteStatement insert = compileLocationInsert(db, locationId);
+        try {
+            if (!touchLocation(db, locationId, System.currentTimeMillis())) {
+                throw new IllegalArgumentException("Unknown location: " + uri);
+            }
+            deleteLocationDaysBefore(db, locationId,
+                    SunshineDateUtils.getNormalizedUtcDateForToday());
+            rowsInserted = insertForecast(insert, batch);
+            db.setTransactionSuccessful();
+        } finally {
+            insert.close();
+            db.endTransaction();
+        }
+
+        if (rowsInserted > 0) {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+
+        return rowsInserted;
+    }
+
+    /**
+     * Adds a location, or if we already have one with the same location setting, updates it.
+     * Either way the location counts as used. Adding a location past
+     * LocationEntry.MAX_LOCATIONS evicts the least recently used ones in the same transaction.
+     *
+     * @param values The columns of LocationEntry to store. The location setting is required.
+     * @return The URI of the location, from which its ID can be read with ContentUris#parseId
+     */
+    private Uri insertLocation(ContentValues values) {
+        String locationSetting =
+                values.getAsString(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING);
+        if (locationSetting == null) {
+            throw new IllegalArgumentException("A location needs a location setting");
+        }
+
+        ContentValues row = new ContentValues(values);
+        row.put(WeatherContract.LocationEntry.COLUMN_LAST_USED, System.currentTimeMillis());
+
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+
+        long locationId;
+        int locationsEvicted = 0;
+        db.beginTransaction();
+        try {
+            locationId = findLocation(db, locationSetting);
+            if (locationId == -1) {
+                locationId = db.insertOrThrow(
+                        WeatherContract.LocationEntry.TABLE_NAME, null, row);
+                locationsEvicted = evictLeastRecentlyUsed(db,
+                        WeatherContract.LocationEntry.MAX_LOCATIONS);
+            } else {
+                db.update(WeatherContract.LocationEntry.TABLE_NAME,
+                        row,
+                        WeatherContract.LocationEntry._ID + " = ?",
+                        new String[]{Long.toString(locationId)});
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        getContext().getContentResolver()
+                .notifyChange(WeatherContract.LocationEntry.CONTENT_URI, null);
+        if (locationsEvicted > 0) {
+            getContext().getContentResolver()
+                    .notifyChange(WeatherContract.LocationWeatherEntry.CONTENT_URI, null);
+        }
+
+        return WeatherContract.LocationEntry.buildLocationUri(locationId);
+    }
+
+    /* The location ID in a URI matching either of the CODE_LOCATION_WEATHER codes */
+    private static long getLocationId(Uri uri) {
+        return Long.parseLong(uri.getPathSegments().get(2));
+    }
+
+    /**
+     * Compiles the INSERT that {@link #mergeForecast(SQLiteStatement, SQLiteStatement,
+     * SQLiteStatement, ForecastBatch)} uses to move the forecast for a day into the history
+     * table before rewriting it. Close it when you're done with it.
+     *
+     * @param db           The database to write to
+     * @param archivedTime The time to record the forecasts as archived at, in milliseconds
+     * @return The compiled statement
+     */
+    static SQLiteStatement compileArchiveIfChanged(SQLiteDatabase db, long archivedTime) {
+        SQLiteStatement archive = db.compileStatement(SQL_ARCHIVE_WEATHER_IF_CHANGED);
+        /* Binding a day only sets ?1 to ?8, so this stays bound for every day */
+        archive.bindLong(9, archivedTime);
+        return archive;
+    }
+
+    /**
+     * Compiles the UPDATE that {@link #mergeForecast(SQLiteStatement, SQLiteStatement,
+     * SQLiteStatement, ForecastBatch)} uses to rewrite a day only if its forecast has changed.
+     * Close it when you're done with it.
+     *
+     * @param db The database to write to
+     * @return The compiled statement
+     */
+    static SQLiteStatement compileUpdateIfChanged(SQLiteDatabase db) {
+        return db.compileStatement(SQL_UPDATE_WEATHER_IF_CHANGED);
+    }
+
+    /**
+     * Compiles the INSERT that {@link #mergeForecast(SQLiteStatement, SQLiteStatement,
+     * SQLiteStatement, ForecastBatch)} uses to add a day we don't have yet. Close it when you're
+     * done with it.
+     *
+     * @param db The database to write to
+     * @return The compiled statement
+     */
+    static SQLiteStatement compileInsertIfNew(SQLiteDatabase db) {
+        return db.compileStatement(SQL_INSERT_WEATHER_IF_NEW);
+    }
+
+    /**
+     * Merges every day of a batch into the weather table, writing only the days that are new or
+     * whose forecast differs from the one stored, and moving the forecasts that are replaced into
+     * the history table. Each day costs one INSERT into the history table, which only archives
+     * anything if the forecast has changed, and then an UPDATE if it did or an INSERT if the day
+     * may be new. The caller is responsible for the transaction and for notifying observers,
+     * which is only needed if this returns more than 0.
+     *
+     * @param archive A statement from {@link #compileArchiveIfChanged(SQLiteDatabase, long)}
+     * @param update  A statement from {@link #compileUpdateIfChanged(SQLiteDatabase)}
+     * @param insert  A statement from {@link #compileInsertIfNew(SQLiteDatabase)}
+     * @param batch   The days to merge
+     * @return The number of rows written, leaving out the days that were already up to date
+     */
+    static int mergeForecast(SQLiteStatement archive, SQLiteStatement update,
+                             SQLiteStatement insert, ForecastBatch batch) {
+        int rowsWritten = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            long date = batch.getDate(i);
+            checkTime(false, date);
+
+            /* The archive matches exactly the days the update would rewrite */
+            bindDay(archive, batch, i);
+            if (archive.executeInsert() != -1) {
+                bindDay(update, batch, i);
+                update.executeUpdateDelete();
+                rowsWritten++;
+                continue;
+            }
+
+            /* Either the day is up to date, or we don't have it yet */
+            bindDay(insert, batch, i);
+            if (insert.executeInsert() != -1) {
+                rowsWritten++;
+            }
+        }
+        return rowsWritten;
+    }
+
+    /**
+     * Deletes every day in the weather table other than the given ones. The caller is
+     * responsible for the transaction and for notifying observers.
+     *
+     * @param db    The database to delete from
+     * @param dates The normalized dates to keep, sorted in ascending order
+     * @param count How many of {@code dates} are in use
+     * @return The number of rows deleted
+     */
+    static int deleteDaysOtherThan(SQLiteDatabase db, long[] dates, int count) {
+        /* There are only ever as many stored days as a forecast has, so this is a short list */
+        Cursor storedDates = db.query(WeatherContract.WeatherEntry.TABLE_NAME,
+                new String[]{WeatherContract.WeatherEntry.COLUMN_DATE},
+                null, null, null, null, null);
+        int rowsDeleted = 0;
+        SQLiteStatement delete = null;
+        try {
+            while (storedDates.moveToNext()) {
+                long date = storedDates.getLong(0);
+                if (Arrays.binarySearch(dates, 0, count, date) >= 0) {
+                    continue;
+                }
+                if (delete == null) {
+                    delete = db.compileStatement(SQL_DELETE_WEATHER_DATE);
+                }
+                delete.bindLong(1, date);
+                rowsDeleted += delete.executeUpdateDelete();
+            }
+        } finally {
+            storedDates.close();
+            if (delete != null) {
+                delete.close();
+            }
+        }
+        return rowsDeleted;
+    }
+
+    /**
+     * Moves every day before {@code date} from the weather table into the history table. The
+     * caller is responsible for the transaction and for notifying observers.
+     *
+     * @param db           The database to write to
+     * @param date         The normalized date of the first day to keep, usually today
+     * @param archivedTime The time to record the days as archived at, in milliseconds
+     * @return The number of days moved
+     */
+    static int archiveDaysBefore(SQLiteDatabase db, long date, long archivedTime) {
+        SQLiteStatement archive = db.compileStatement(SQL_ARCHIVE_WEATHER_BEFORE);
+        SQLiteStatement delete = db.compileStatement(SQL_DELETE_WEATHER_BEFORE);
+        try {
+            archive.bindLong(1, date);
+            archive.bindLong(9, archivedTime);
+            archive.executeUpdateDelete();
+
+            delete.bindLong(1, date);
+            return delete.executeUpdateDelete();
+        } finally {
+            archive.close();
+            delete.close();
+        }
+    }
+
+    /**
+     * Compacts the history table: every day before {@code detailDate} that has more than one row
+     * is reduced to a single row combining them (see HistoryEntry), and every day before
+     * {@code retentionDate} is deleted. Once a day has been compacted it is a single row, so
+     * this reads at most a row for each day kept, plus the forecasts archived since it last ran.
+     * The caller is responsible for the transaction and for notifying observers.
+     *
+     * @param db            The database to write to
+     * @param detailDate    The normalized date of the first day to keep every forecast for
+     * @param retentionDate The normalized date of the first day to keep at all
+     * @return The number of rows removed from the history table
+     */
+    static int compactHistory(SQLiteDatabase db, long detailDate, long retentionDate) {
+        SQLiteStatement expire = db.compileStatement(SQL_DELETE_HISTORY_BEFORE);
+        SQLiteStatement compact = db.compileStatement(SQL_COMPACT_HISTORY_BEFORE);
+        SQLiteStatement deleteCompacted = db.compileStatement(SQL_DELETE_COMPACTED_HISTORY);
+        try {
+            expire.bindLong(1, retentionDate);
+            int rowsRemoved = expire.executeUpdateDelete();
+
+            /* Every combined row is added after this one, so it tells them from the rest */
+            long lastId = DatabaseUtils.longForQuery(db, "SELECT IFNULL(MAX("
+                    + WeatherContract.HistoryEntry._ID + "), 0) FROM "
+                    + WeatherContract.HistoryEntry.TABLE_NAME, null);
+
+            compact.bindLong(1, detailDate);
+            int rowsAdded = compact.executeUpdateDelete();
+            if (rowsAdded > 0) {
+                deleteCompacted.bindLong(1, lastId);
+                rowsRemoved += deleteCompacted.executeUpdateDelete() - rowsAdded;
+            }
+            return rowsRemoved;
+        } finally {
+            expire.close();
+            compact.close();
+            deleteCompacted.close();
+        }
+    }
+
+    /**
+     * Compiles the INSERT that stores a location's forecast, with the location already bound, so
+     * that {@link #insertForecast(SQLiteStatement, ForecastBatch)} can fill it in. Close it when
+     * you're done with it.
+     *
+     * @param db         The database to insert into
+     * @param locationId The _ID of the location the forecast is for
+     * @return The compiled statement
+     */
+    static SQLiteStatement compileLocationInsert(SQLiteDatabase db, long locationId) {
+        SQLiteStatement insert = db.compileStatement(SQL_INSERT_LOCATION_WEATHER);
+        insert.bindLong(9, locationId);
+        return insert;
+    }
+
+    /**
+     * @param db              The database to read
+     * @param locationSetting The location setting of a location
+     * @return The _ID of the location with that location setting, or -1 if we don't have one
+     */
+    static long findLocation(SQLiteDatabase db, String locationSetting) {
+        Cursor cursor = db.rawQuery(SQL_SELECT_LOCATION_ID, new String[]{locationSetting});
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Records that a location was used, which keeps it from being evicted for longer.
+     *
+     * @param db         The database to write to
+     * @param locationId The _ID of the location
+     * @param time       The time it was used at, in milliseconds
+     * @return Whether there is such a location
+     */
+    static boolean touchLocation(SQLiteDatabase db, long locationId, long time) {
+        SQLiteStatement touch = db.compileStatement(SQL_TOUCH_LOCATION);
+        try {
+            touch.bindLong(1, time);
+            touch.bindLong(2, locationId);
+            return touch.executeUpdateDelete() > 0;
+        } finally {
+            touch.close();
+        }
+    }
+
+    /**
+     * Deletes the days of a location's forecast before {@code date}. The caller is responsible
+     * for the transaction and for notifying observers.
+     *
+     * @param db         The database to write to
+     * @param locationId The _ID of the location
+     * @param date       The normalized date of the first day to keep, usually today
+     * @return The number of days deleted
+     */
+    static int deleteLocationDaysBefore(SQLiteDatabase db, long locationId, long date) {
+        SQLiteStatement delete = db.compileStatement(SQL_DELETE_LOCATION_WEATHER_BEFORE);
+        try {
+            delete.bindLong(1, locationId);
+            delete.bindLong(2, date);
+            return delete.executeUpdateDelete();
+        } finally {
+            delete.close();
+        }
+    }
+
+    /**
+     * Deletes a location and its forecast. The caller is responsible for the transaction and for
+     * notifying observers.
+     *
+     * @param db         The database to write to
+     * @param locationId The _ID of the location
+     * @return The number of locations deleted, 1 or 0 if there was no such location
+     */
+    static int deleteLocation(SQLiteDatabase db, long locationId) {
+        String[] locationArgs = new String[]{Long.toString(locationId)};
+        db.execSQL(SQL_DELETE_LOCATION_WEATHER, locationArgs);
+
+        SQLiteStatement delete = db.compileStatement(SQL_DELETE_LOCATION);
+        try {
+            delete.bindLong(1, locationId);
+            return delete.executeUpdateDelete();
+        } finally {
+            delete.close();
+        }
+    }
+
+    /**
+     * Deletes the least recently used locations, and their forecasts, until there are no more
+     * than {@code maxLocations} left. Each location only ever holds a forecast's worth of days,
+     * so this is what keeps the location_weather table, and the database, from growing without
+     * limit. The locations to evict are read in order from the location_last_used index, and
+     * their forecasts deleted through the location_weather table's index, so no other
+     * location's forecast is read. The caller is responsible for the transaction and for
+     * notifying observers.
+     *
+     * @param db           The database to write to
+     * @param maxLocations How many locations to keep
+     * @return The number of locations evicted
+     */
+    static int evictLeastRecentlyUsed(SQLiteDatabase db, int maxLocations) {
+        long[] evicted;
+        Cursor cursor = db.rawQuery(SQL_SELECT_EVICTED_LOCATIONS,
+                new String[]{Integer.toString(maxLocations)});
+        try {
+            evicted = new long[cursor.getCount()];
+            for (int i = 0; cursor.moveToNext(); i++) {
+                evicted[i] = cursor.getLong(0);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        int locationsEvicted = 0;
+        for (long locationId : evicted) {
+            locationsEvicted += deleteLocation(db, locationId);
+        }
+        return locationsEvicted;
+    }
+
+    /* The value of a column in the last forecast archived for the day of a compacted row */
+    private static String lastArchived(String column) {
+        return "(SELECT latest." + column
+                + " FROM " + WeatherContract.HistoryEntry.TABLE_NAME + " AS latest"
+                + " WHERE latest." + WeatherContract.HistoryEntry.COLUMN_DATE
+                + " = day." + WeatherContract.HistoryEntry.COLUMN_DATE
+                + " ORDER BY latest." + WeatherContract.HistoryEntry.COLUMN_ARCHIVED + " DESC, "
+                + "latest." + WeatherContract.HistoryEntry._ID + " DESC"
+                + " LIMIT 1)";
+    }
+
+    /* The average of a column over a compacted day, counting each row once per sample */
+    private static String weightedAverage(String column) {
+        return "SUM(day." + column + " * day." + WeatherContract.HistoryEntry.COLUMN_SAMPLES
+                + ") / SUM(day." + WeatherContract.HistoryEntry.COLUMN_SAMPLES + ")";
+    }
+
+    /**
+     * Compiles the INSERT that {@link #insertForecast(SQLiteStatement, ForecastBatch)} uses.
+     * Close it when you're done with it.
+     *
+     * @param db The database to insert into
+     * @return The compiled statement
+     */
+    static SQLiteStatement compileInsert(SQLiteDatabase db) {
+        return db.compileStatement(SQL_INSERT_WEATHER);
+    }
+
+    /**
+     * Inserts every day of a batch, binding each value straight into {@code insert}. The caller
+     * is responsible for the transaction and for notifying observers.
+     *
+     * @param insert A statement from {@link #compileInsert(SQLiteDatabase)}
+     * @param batch  The days to insert
+     * @return The number of rows inserted
+     */
+    static int insertForecast(SQLiteStatement insert, ForecastBatch batch) {
+        return insertRows(insert, batch, false);
+    }
+
+    /**
+     * Compiles the INSERT that {@link #insertHourlyForecast(SQLiteStatement, ForecastBatch)}
+     * uses. Close it when you're done with it.
+     *
+     * @param db The database to insert into
+     * @return The compiled statement
+     */
+    static SQLiteStatement compileHourlyInsert(SQLiteDatabase db) {
+        return db.compileStatement(SQL_INSERT_HOURLY);
+    }
+
+    /**
+     * Inserts every period of an hourly forecast. Each element's date is the time its period
+     * begins, which must be on the hour. The caller is responsible for the transaction and for
+     * notifying observers.
+     *
+     * @param insert A statement from {@link #compileHourlyInsert(SQLiteDatabase)}
+     * @param batch  The periods to insert
+     * @return The number of rows inserted
+     */
+    static int insertHourlyForecast(SQLiteStatement insert, ForecastBatch batch) {
+        return insertRows(insert, batch, true);
+    }
+
+    private static int insertRows(SQLiteStatement insert, ForecastBatch batch, boolean hourly) {
+        int rowsInserted = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            checkTime(hourly, batch.getDate(i));
+
+            bindDay(insert, batch, i);
+            if (insert.executeInsert() != -1) {
+                rowsInserted++;
+            }
+        }
+        return rowsInserted;
+    }
+
+    /* Binds one day of a batch in the column order of SQL_INSERT_WEATHER */
+    private static void bindDay(SQLiteStatement statement, ForecastBatch batch, int index) {
+        statement.bindLong(1, batch.getDate(index));
+        statement.bindLong(2, batch.getWeatherId(index));
+        statement.bindDouble(3, batch.getMinTemp(index));
+        statement.bindDouble(4, batch.getMaxTemp(index));
+        statement.bindDouble(5, batch.getHumidity(index));
+        statement.bindDouble(6, batch.getPressure(index));
+        statement.bindDouble(7, batch.getWindSpeed(index));
+        statement.bindDouble(8, batch.getDegrees(index));
+    }
+
+    /**
+     * Inserts every row of a bulkInsert, binding each value into {@code insert} rather than
+     * compiling an INSERT per row as SQLiteDatabase#insert would. A row that doesn't have a value
+     * for exactly the columns {@code insert} binds (one with a missing, extra or null column) is
+     * handed to SQLiteDatabase#insert instead, so it succeeds or fails just as it always did. The
+     * caller is responsible for the transaction and for notifying observers.
+     *
+     * @param db     The database to insert into
+     * @param insert A statement from {@link #compileInsert(SQLiteDatabase)}, or for the hourly
+     *               table {@link #compileHourlyInsert(SQLiteDatabase)}
+     * @param values The rows to insert
+     * @param hourly True to insert into the hourly table, false for the weather table
+     * @return The number of rows inserted
+     */
+    static int insertValues(SQLiteDatabase db, SQLiteStatement insert, ContentValues[] values,
+                            boolean hourly) {
+        String table = hourly
+                ? WeatherContract.HourlyEntry.TABLE_NAME
+                : WeatherContract.WeatherEntry.TABLE_NAME;
+        String[] columns = hourly ? HOURLY_INSERT_COLUMNS : WEATHER_INSERT_COLUMNS;
+
+        int rowsInserted = 0;
+        for (ContentValues value : values) {
+            checkTime(hourly, value.getAsLong(columns[0]));
+
+            long _id;
+            if (hasEveryColumn(value, columns)) {
+                for (int i = 0; i < columns.length; i++) {
+                    DatabaseUtils.bindObjectToProgram(insert, i + 1, value.get(columns[i]));
+                }
+                _id = insert.executeInsert();
+            } else {
+                _id = db.insert(table, null, value);
+            }
+
+            if (_id != -1) {
+                rowsInserted++;
+            }
+        }
+        return rowsInserted;
+    }
+
+    /* Whether value holds a non-null value for each of columns, and nothing else */
+    private static boolean hasEveryColumn(ContentValues value, String[] columns) {
+        if (value.size() != columns.length) {
+            return false;
+        }
+        for (String column : columns) {
+            if (value.get(column) == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Rows of the weather table are keyed by normalized date, and rows of the hourly table by a
+     * time on the hour. Anything else would never match the queries we make.
+     */
+    private static void checkTime(boolean hourly, long time) {
+        if (hourly) {
+            if (!WeatherContract.HourlyEntry.isTimeOnTheHour(time)) {
+                throw new IllegalArgumentException("Time must be on the hour to insert");
+            }
+        } else if (!SunshineDateUtils.isDateNormalized(time)) {
+            throw new IllegalArgumentException("Date must be normalized to insert");
+        }
+    }
+
+    /**
+     * Gives {@link ForecastWriter} the database, so that it can hold one transaction open across
+     * several batches. Only works for callers in this process.
+     *
+     * @return The weather database, open for writing
+     */
+    SQLiteDatabase getWritableDatabase() {
+        return mOpenHelper.getWritableDatabase();
+    }
+
     /**
      * Handles query requests from clients. We will use this method in Sunshine to query for all
      * of our weather data as well as to query for the weather on a particular day.
@@ -285,6 +1307,167 @@ public class WeatherProvider extends ContentProvider {
                 break;
             }
 
+            /*
+             * content://com.example.android.sunshine/hourly/1472216400000/1472302800000
+             *
+             * The periods that begin between the two times. Both are bound as arguments, so the
+             * range is answered from the index on the time column.
+             */
+            case CODE_HOURLY_WITH_RANGE: {
+                String[] rangeArguments = new String[]{
+                        uri.getPathSegments().get(1),
+                        uri.getPathSegments().get(2)
+                };
+
+                cursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.HourlyEntry.TABLE_NAME,
+                        projection,
+                        WeatherContract.HourlyEntry.COLUMN_TIME + " >= ? AND "
+                                + WeatherContract.HourlyEntry.COLUMN_TIME + " < ? ",
+                        rangeArguments,
+                        null,
+                        null,
+                        sortOrder);
+
+                break;
+            }
+
+            /* content://com.example.android.sunshine/hourly/ returns every row of the table */
+            case CODE_HOURLY: {
+                cursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.HourlyEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder);
+
+                break;
+            }
+
+            /*
+             * content://com.example.android.sunshine/history/1472169600000/1474761600000
+             *
+             * The archived forecasts of the days from the first date up to the second, answered
+             * from the history_date index. However large the history grows, a range costs as
+             * many rows as it covers: compaction leaves a single row for each day that is more
+             * than a week old.
+             */
+            case CODE_HISTORY_WITH_RANGE: {
+                String[] rangeArguments = new String[]{
+                        uri.getPathSegments().get(1),
+                        uri.getPathSegments().get(2)
+                };
+
+                cursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.HistoryEntry.TABLE_NAME,
+                        projection,
+                        WeatherContract.HistoryEntry.COLUMN_DATE + " >= ? AND "
+                                + WeatherContract.HistoryEntry.COLUMN_DATE + " < ? ",
+                        rangeArguments,
+                        null,
+                        null,
+                        sortOrder);
+
+                break;
+            }
+
+            /* content://com.example.android.sunshine/history/ returns every row of the table */
+            case CODE_HISTORY: {
+                cursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.HistoryEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder);
+
+                break;
+            }
+
+            /*
+             * content://com.example.android.sunshine/weather/location/5
+             *
+             * The forecast of a single location, narrowed down further by the selection if there
+             * is one. The location's ID comes first in the WHERE clause, so SQLite seeks straight
+             * to its days in the location_weather table's index and reads them in date order.
+             * Queries never write, so only storing a forecast counts as using the location (see
+             * evictLeastRecentlyUsed).
+             */
+            case CODE_LOCATION_WEATHER: {
+                long locationId = getLocationId(uri);
+
+                cursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.LocationWeatherEntry.TABLE_NAME,
+                        projection,
+                        DatabaseUtils.concatenateWhere(
+                                WeatherContract.LocationWeatherEntry.COLUMN_LOCATION_ID + " = ?",
+                                selection),
+                        DatabaseUtils.appendSelectionArgs(
+                                new String[]{Long.toString(locationId)}, selectionArgs),
+                        null,
+                        null,
+                        sortOrder);
+
+                break;
+            }
+
+            /*
+             * content://com.example.android.sunshine/weather/location/5/1472169600000
+             *
+             * A single day of a location's forecast, the counterpart of CODE_WEATHER_WITH_DATE.
+             */
+            case CODE_LOCATION_WEATHER_WITH_DATE: {
+                long locationId = getLocationId(uri);
+
+                String[] selectionArguments = new String[]{
+                        Long.toString(locationId),
+                        uri.getLastPathSegment()
+                };
+
+                cursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.LocationWeatherEntry.TABLE_NAME,
+                        projection,
+                        WeatherContract.LocationWeatherEntry.COLUMN_LOCATION_ID + " = ? AND "
+                                + WeatherContract.LocationWeatherEntry.COLUMN_DATE + " = ? ",
+                        selectionArguments,
+                        null,
+                        null,
+                        sortOrder);
+
+                break;
+            }
+
+            /* content://com.example.android.sunshine/location/ returns every location */
+            case CODE_LOCATION: {
+                cursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.LocationEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder);
+
+                break;
+            }
+
+            /* content://com.example.android.sunshine/location/5 returns a single location */
+            case CODE_LOCATION_WITH_ID: {
+                cursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.LocationEntry.TABLE_NAME,
+                        projection,
+                        WeatherContract.LocationEntry._ID + " = ? ",
+                        new String[]{uri.getLastPathSegment()},
+                        null,
+                        null,
+                        sortOrder);
+
+                break;
+            }
+
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
@@ -326,6 +1509,60 @@ public class WeatherProvider extends ContentProvider {
 
                 break;
 
+            case CODE_HOURLY:
+                numRowsDeleted = mOpenHelper.getWritableDatabase().delete(
+                        WeatherContract.HourlyEntry.TABLE_NAME,
+                        selection,
+                        selectionArgs);
+
+                break;
+
+            case CODE_HISTORY:
+                numRowsDeleted = mOpenHelper.getWritableDatabase().delete(
+                        WeatherContract.HistoryEntry.TABLE_NAME,
+                        selection,
+                        selectionArgs);
+
+                break;
+
+            /* Deletes days of a single location's forecast, or all of them */
+            case CODE_LOCATION_WEATHER:
+                numRowsDeleted = mOpenHelper.getWritableDatabase().delete(
+                        WeatherContract.LocationWeatherEntry.TABLE_NAME,
+                        DatabaseUtils.concatenateWhere(
+                                WeatherContract.LocationWeatherEntry.COLUMN_LOCATION_ID + " = ?",
+                                selection),
+                        DatabaseUtils.appendSelectionArgs(
+                                new String[]{Long.toString(getLocationId(uri))}, selectionArgs));
+
+                break;
+
+            /*
+             * Deletes a location along with its forecast. The selection doesn't apply: the URI
+             * already names the one row to delete.
+             */
+            case CODE_LOCATION_WITH_ID: {
+                long locationId = Long.parseLong(uri.getLastPathSegment());
+                SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+
+                db.beginTransaction();
+                try {
+                    numRowsDeleted = deleteLocation(db, locationId);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+
+                if (numRowsDeleted != 0) {
+                    getContext().getContentResolver().notifyChange(
+                            WeatherContract.LocationWeatherEntry.buildLocationWeatherUri(
+                                    locationId),
+                            null);
+                }
+
+                break;
+            }
+
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
@@ -354,18 +1591,20 @@ public class WeatherProvider extends ContentProvider {
     }
 
     /**
-     * In Sunshine, we aren't going to do anything with this method. However, we are required to
-     * override it as WeatherProvider extends ContentProvider and insert is an abstract method in
-     * ContentProvider. Rather than the single insert method, we are only going to implement
-     * {@link WeatherProvider#bulkInsert}.
+     * Forecasts are only ever inserted a whole forecast at a time, with
+     * {@link WeatherProvider#bulkInsert}, so the only thing insert adds is a location, one at a
+     * time (see {@link #insertLocation(ContentValues)}).
      *
      * @param uri    The URI of the insertion request. This must not be null.
      * @param values A set of column_name/value pairs to add to the database.
      *               This must not be null
-     * @return nothing in Sunshine, but normally the URI for the newly inserted item.
+     * @return The URI of the location.
      */
     @Override
     public Uri insert(@NonNull Uri uri, ContentValues values) {
+        if (sUriMatcher.match(uri) == CODE_LOCATION) {
+            return insertLocation(values);
+        }
         throw new RuntimeException(
                 "We are not implementing insert in Sunshine. Use bulkInsert instead");
     }
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.os.SystemClock;
+
+/**
+ * A circuit breaker for a remote endpoint. While the endpoint keeps failing, there is no point
+ * in every sync waking the radio, timing out and retrying. After enough consecutive failures
+ * the breaker "opens" and requests are refused straight away. Once a cool down has passed, a
+ * single trial request is let through ("half open"). If it works the breaker closes again, and
+ * if it doesn't the breaker opens for twice as long, up to a limit.
+ * <p>
+ * Only transient failures (timeouts, 5xx responses, dropped connections) should be recorded as
+ * failures. A server that answers "no such location" is working fine.
+ */
+final class CircuitBreaker {
+
+    enum State {
+        /* Requests flow normally */
+        CLOSED,
+        /* Requests are refused until the cool down has passed */
+        OPEN,
+        /* The cool down has passed and one trial request is allowed through */
+        HALF_OPEN
+    }
+
+    private final int mFailureThreshold;
+    private final long mInitialOpenMillis;
+    private final long mMaxOpenMillis;
+
+    private State mState = State.CLOSED;
+    private int mConsecutiveFailures;
+    private long mOpenMillis;
+    private long mOpenUntil;
+    private boolean mTrialInFlight;
+
+    /**
+     * @param failureThreshold  Consecutive failures that open the breaker
+     * @param initialOpenMillis How long the breaker stays open the first time it trips
+     * @param maxOpenMillis     The longest the breaker will stay open after repeated trips
+     */
+    CircuitBreaker(int failureThreshold, long initialOpenMillis, long maxOpenMillis) {
+        mFailureThreshold = failureThreshold;
+        mInitialOpenMillis = initialOpenMillis;
+        mMaxOpenMillis = maxOpenMillis;
+        mOpenMillis = initialOpenMillis;
+    }
+
+    /**
+     * Asks whether a request may go ahead. If this returns true, the caller must report how the
+     * request went with {@link #recordSuccess()} or {@link #recordFailure()}.
+     *
+     * @return true if the request may be made
+     */
+    synchronized boolean allowRequest() {
+        switch (mState) {
+            case CLOSED:
+                return true;
+
+            case OPEN:
+                if (SystemClock.elapsedRealtime() < mOpenUntil) {
+                    return false;
+                }
+                mState = State.HALF_OPEN;
+                mTrialInFlight = true;
+                return true;
+
+            case HALF_OPEN:
+                /* Only one trial at a time, the rest wait to see how it goes */
+                if (mTrialInFlight) {
+                    return false;
+                }
+                mTrialInFlight = true;
+                return true;
+
+            default:
+                throw new IllegalStateException("Unknown state: " + mState);
+        }
+    }
+
+    /**
+     * Records a request that reached the endpoint and got a proper answer.
+     */
+    synchronized void recordSuccess() {
+        mState = State.CLOSED;
+        mConsecutiveFailures = 0;
+        mOpenMillis = mInitialOpenMillis;
+        mTrialInFlight = false;
+    }
+
+    /**
+     * Records a request that failed for a reason that may go away if we wait.
+     */
+    synchronized void recordFailure() {
+        mTrialInFlight = false;
+
+        if (mState == State.HALF_OPEN) {
+            /* The trial failed, so back off for longer than last time */
+            mOpenMillis = Math.min(mOpenMillis * 2, mMaxOpenMillis);
+            open();
+            return;
+        }
+
+        mConsecutiveFailures++;
+        if (mState == State.CLOSED && mConsecutiveFailures >= mFailureThreshold) {
+            open();
+        }
+    }
+
+    private void open() {
+        mState = State.OPEN;
+        mOpenUntil = SystemClock.elapsedRealtime() + mOpenMillis;
+    }
+
+    /**
+     * @return The current state. An open breaker whose cool down has passed still reports OPEN
+     * until the next call to {@link #allowRequest()}.
+     */
+    synchronized State getState() {
+        return mState;
+    }
+
+    /**
+     * @return true if a request made now would be refused
+     */
+    synchronized boolean isOpen() {
+        return mState == State.OPEN && SystemClock.elapsedRealtime() < mOpenUntil;
+    }
+
+    /**
+     * @return How long until the breaker lets a trial request through, or 0 if it isn't open
+     */
+    synchronized long getRemainingOpenMillis() {
+        if (mState != State.OPEN) {
+            return 0;
+        }
+        return Math.max(0, mOpenUntil - SystemClock.elapsedRealtime());
+    }
+}
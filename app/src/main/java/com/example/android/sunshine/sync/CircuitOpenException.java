@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import java.io.IOException;
+
+/**
+ * Thrown instead of making a request when the circuit breaker for the forecast endpoint is open.
+ */
+class CircuitOpenException extends IOException {
+
+    private final long mRetryAfterMillis;
+
+    CircuitOpenException(String host, long retryAfterMillis) {
+        super("Circuit open for " + host + ", retry in " + retryAfterMillis + " ms");
+        mRetryAfterMillis = retryAfterMillis;
+    }
+
+    /**
+     * @return How long until the breaker will let a trial request through
+     */
+    long getRetryAfterMillis() {
+        return mRetryAfterMillis;
+    }
+}
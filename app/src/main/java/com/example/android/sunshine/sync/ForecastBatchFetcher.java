@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.Context;
+import android.os.Process;
+
+import com.example.android.sunshine.utilities.HttpResult;
+import com.example.android.sunshine.utilities.NetworkUtils;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fetches the forecasts for several locations at once. Done one after the other, N locations
+ * cost N round trips; done concurrently they cost about as long as the slowest one.
+ * <p>
+ * The requests run on a small shared pool of background threads, and no more than
+ * {@link #MAX_REQUESTS_PER_HOST} of them talk to the same host at a time. That keeps us polite
+ * to the weather server and within the keep-alive pool of {@link SunshineHttpClient}, so every
+ * connection can be reused. Each request goes through the forecast cache and
+ * {@link ForecastRetryPolicy}, just like the regular sync.
+ * <p>
+ * Results are handed back as each request finishes, not once they all have. The callbacks run
+ * one at a time on the thread that called {@link #fetchAll}, so they can safely write to the
+ * database without any locking of their own. The response handler, on the other hand, runs on
+ * the pool threads, several at once, so it must not have side effects: the parser the regular
+ * sync uses saves each location's coordinates as the user's, and would have every location in
+ * the batch overwrite the last. {@link SavedLocationSync} is the sync's user of this class.
+ */
+public final class ForecastBatchFetcher {
+
+    /* Threads in the shared pool. Requests beyond this wait in the queue. */
+    static final int MAX_THREADS = 6;
+
+    /* Requests allowed in flight to any one host, under the keep-alive pool's default of 5 */
+    static final int MAX_REQUESTS_PER_HOST = 4;
+
+    /* How long an idle pool thread sticks around before it is let go */
+    private static final long THREAD_KEEP_ALIVE_SECONDS = 30;
+
+    private static final ConcurrentHashMap<String, Semaphore> sHostPermits =
+            new ConcurrentHashMap<>();
+
+    private static ThreadPoolExecutor sExecutor;
+
+    /**
+     * Receives the result of each request in a batch as soon as it is ready.
+     *
+     * @param <T> The type of object the response handler produces
+     */
+    public interface Callback<T> {
+
+        /**
+         * Called when the forecast for a location has been fetched and parsed.
+         *
+         * @param url    The URL of the location
+         * @param result The response and whatever the handler parsed out of it
+         */
+        void onResult(URL url, HttpResult<T> result);
+
+        /**
+         * Called when the forecast for a location could not be fetched, after any retries.
+         *
+         * @param url   The URL of the location
+         * @param error Why the request failed
+         */
+        void onFailure(URL url, IOException error);
+    }
+
+    private ForecastBatchFetcher() {
+    }
+
+    /**
+     * Fetches every URL concurrently and reports each one to {@code callback} as it completes.
+     * This blocks until all of them have been reported, so call it from a background thread.
+     * If the calling thread is interrupted, the requests still outstanding are cancelled.
+     *
+     * @param context  Used to find the forecast cache
+     * @param urls     The forecast URLs to fetch, built with
+     *                 {@link NetworkUtils#buildUrlWithLocationQuery} or
+     *                 {@link NetworkUtils#buildUrlWithLatitudeLongitude}
+     * @param handler  Parses each response body, on the pool thread that fetched it. It runs
+     *                 on several threads at once, so it must not touch anything shared.
+     * @param callback Receives each result on the calling thread
+     * @param <T>      The type of object the handler produces
+     * @return The number of locations fetched successfully
+     * @throws InterruptedException If the calling thread was interrupted while waiting
+     */
+    public static <T> int fetchAll(Context context,
+                                   List<URL> urls,
+                                   NetworkUtils.ResponseHandler<T> handler,
+                                   Callback<T> callback) throws InterruptedException {
+
+        final Context appContext = context.getApplicationContext();
+
+        ExecutorCompletionService<Fetch<T>> completionService =
+                new ExecutorCompletionService<>(getExecutor());
+
+        List<Future<Fetch<T>>> futures = new ArrayList<>(urls.size());
+        for (URL url : urls) {
+            futures.add(completionService.submit(new Fetch<>(appContext, url, handler)));
+        }
+
+        int succeeded = 0;
+        try {
+            for (int i = 0; i < futures.size(); i++) {
+                Fetch<T> fetch = getUnchecked(completionService.take());
+                if (fetch.mError == null) {
+                    callback.onResult(fetch.mUrl, fetch.mResult);
+                    succeeded++;
+                } else {
+                    callback.onFailure(fetch.mUrl, fetch.mError);
+                }
+            }
+        } finally {
+            /* Only does anything if we're leaving early because we were interrupted */
+            for (Future<Fetch<T>> future : futures) {
+                future.cancel(true);
+            }
+        }
+        return succeeded;
+    }
+
+    private static <T> Fetch<T> getUnchecked(Future<Fetch<T>> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException | ExecutionException e) {
+            /* Fetch.call catches everything and the future is already done, so this can't happen */
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static synchronized ThreadPoolExecutor getExecutor() {
+        if (sExecutor == null) {
+            sExecutor = new ThreadPoolExecutor(MAX_THREADS, MAX_THREADS,
+                    THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(),
+                    new ThreadFactory() {
+                        private final AtomicInteger mCount = new AtomicInteger();
+
+                        @Override
+                        public Thread newThread(final Runnable runnable) {
+                            return new Thread(new Runnable() {
+                                @Override
+                                public void run() {
+                                    Process.setThreadPriority(
+                                            Process.THREAD_PRIORITY_BACKGROUND);
+                                    runnable.run();
+                                }
+                            }, "ForecastBatchFetcher #" + mCount.incrementAndGet());
+                        }
+                    });
+            /* Don't keep threads around between syncs, which are hours apart */
+            sExecutor.allowCoreThreadTimeOut(true);
+        }
+        return sExecutor;
+    }
+
+    private static Semaphore getHostPermits(String host) {
+        Semaphore permits = sHostPermits.get(host);
+        if (permits == null) {
+            permits = new Semaphore(MAX_REQUESTS_PER_HOST);
+            Semaphore existing = sHostPermits.putIfAbsent(host, permits);
+            if (existing != null) {
+                permits = existing;
+            }
+        }
+        return permits;
+    }
+
+    /**
+     * One request of a batch, and afterwards its result or error.
+     */
+    private static final class Fetch<T> implements Callable<Fetch<T>> {
+        final Context mContext;
+        final URL mUrl;
+        final NetworkUtils.ResponseHandler<T> mHandler;
+
+        HttpResult<T> mResult;
+        IOException mError;
+
+        Fetch(Context context, URL url, NetworkUtils.ResponseHandler<T> handler) {
+            mContext = context;
+            mUrl = url;
+            mHandler = handler;
+        }
+
+        @Override
+        public Fetch<T> call() {
+            Semaphore permits = getHostPermits(mUrl.getHost());
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                mError = new InterruptedIOException("Cancelled before " + mUrl + " was fetched");
+                return this;
+            }
+
+            try {
+                mResult = ForecastRetryPolicy.execute(mUrl,
+                        new ForecastRetryPolicy.Attempt<HttpResult<T>>() {
+                            @Override
+                            public HttpResult<T> run() throws IOException {
+                                return NetworkUtils.getResponseFromHttpUrl(mContext, mUrl,
+                                        null, null, mHandler);
+                            }
+                        });
+            } catch (IOException e) {
+                mError = e;
+            } catch (RuntimeException e) {
+                /* A handler that blew up shouldn't take the rest of the batch down with it */
+                mError = new IOException("Failed to fetch " + mUrl, e);
+            } finally {
+                permits.release();
+            }
+            return this;
+        }
+    }
+}
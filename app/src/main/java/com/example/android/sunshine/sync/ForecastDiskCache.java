@@ -0,0 +1,548 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A size-bounded, least recently used cache of forecast responses, stored in the app's cache
+ * directory and keyed by request URL. It sits in front of the network in
+ * {@link SunshineHttpClient}: while an entry is younger than the freshness TTL, requests for its
+ * URL are answered from disk without touching the network at all.
+ * <p>
+ * Each entry is a single file holding a small header (the URL, when the entry was stored, its
+ * validators and its Content-Encoding) followed by the response body exactly as it came over the
+ * wire. Keeping the body compressed keeps the cache small, and it is decoded as a stream on the
+ * way out just like a network response.
+ */
+public final class ForecastDiskCache {
+
+    private static final String TAG = ForecastDiskCache.class.getSimpleName();
+
+    /* Name of the directory inside the app's cache directory that holds our entries */
+    private static final String CACHE_DIRECTORY_NAME = "forecast-http";
+
+    private static final long DEFAULT_MAX_SIZE_BYTES = 512 * 1024;
+    private static final long DEFAULT_FRESHNESS_TTL_MILLIS = TimeUnit.MINUTES.toMillis(30);
+
+    /* Every entry file starts with these, so we can reject files we didn't write */
+    private static final int ENTRY_MAGIC = 0x53554e43;
+    private static final int ENTRY_VERSION = 1;
+    /* The stored-at timestamp sits right after the magic number and version */
+    private static final long STORED_AT_OFFSET = 8;
+
+    private static final String ENTRY_SUFFIX = ".entry";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static ForecastDiskCache sInstance;
+
+    private final File mDirectory;
+    private long mMaxSizeBytes = DEFAULT_MAX_SIZE_BYTES;
+    private long mFreshnessTtlMillis = DEFAULT_FRESHNESS_TTL_MILLIS;
+
+    /*
+     * File name to file size, in least recently used order. This is built from the directory
+     * listing the first time the cache is used, ordering files by their last-modified time, which
+     * we update every time an entry is read or written.
+     */
+    private final LinkedHashMap<String, Long> mEntrySizes = new LinkedHashMap<>(16, 0.75f, true);
+    private boolean mIndexLoaded;
+    private long mSizeBytes;
+
+    private long mHitCount;
+    private long mMissCount;
+    private long mEvictionCount;
+    private long mRevalidationCount;
+
+    /**
+     * @param context Used to find the app's cache directory
+     * @return The forecast cache shared by the whole app
+     */
+    public static synchronized ForecastDiskCache getInstance(Context context) {
+        if (sInstance == null) {
+            File directory = new File(context.getApplicationContext().getCacheDir(),
+                    CACHE_DIRECTORY_NAME);
+            sInstance = new ForecastDiskCache(directory);
+        }
+        return sInstance;
+    }
+
+    ForecastDiskCache(File directory) {
+        mDirectory = directory;
+    }
+
+    /**
+     * Sets how long after it was stored (or last revalidated with the server) an entry may be
+     * served without going to the network.
+     *
+     * @param duration Length of the freshness window
+     * @param unit     Unit of {@code duration}
+     */
+    public synchronized void setFreshnessTtl(long duration, TimeUnit unit) {
+        mFreshnessTtlMillis = unit.toMillis(duration);
+    }
+
+    /**
+     * Sets the largest total size the entries may occupy on disk. If the cache is already over
+     * the new size, the least recently used entries are evicted straight away.
+     *
+     * @param maxSizeBytes Size limit in bytes
+     */
+    public synchronized void setMaxSize(long maxSizeBytes) {
+        mMaxSizeBytes = maxSizeBytes;
+        loadIndex();
+        trimToSize(null);
+    }
+
+    /**
+     * @return The number of requests answered from the cache
+     */
+    public synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    /**
+     * @return The number of requests that had to go to the network, either because there was no
+     * entry or because it was no longer fresh
+     */
+    public synchronized long getMissCount() {
+        return mMissCount;
+    }
+
+    /**
+     * @return The number of entries removed to keep the cache under its size limit
+     */
+    public synchronized long getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    /**
+     * @return The number of stale entries made fresh again by a 304 from the server
+     */
+    public synchronized long getRevalidationCount() {
+        return mRevalidationCount;
+    }
+
+    /**
+     * @return The total size of all entries on disk, in bytes
+     */
+    public synchronized long getSize() {
+        loadIndex();
+        return mSizeBytes;
+    }
+
+    /**
+     * Looks up a fresh entry for {@code url}. Every call counts as either a hit or a miss.
+     *
+     * @param url The request URL
+     * @return The entry's header, or null if there is no entry or it is no longer fresh
+     */
+    synchronized Entry getFresh(String url) {
+        loadIndex();
+        File file = entryFile(url);
+        Entry entry = null;
+        if (file.exists()) {
+            try {
+                entry = readHeader(file, url);
+            } catch (IOException e) {
+                Log.w(TAG, "Dropping unreadable cache entry for " + url, e);
+                remove(file);
+            }
+        }
+
+        long now = System.currentTimeMillis();
+        if (entry == null || now - entry.storedAtMillis >= mFreshnessTtlMillis
+                || entry.storedAtMillis > now) {
+            mMissCount++;
+            return null;
+        }
+
+        mHitCount++;
+        touch(file);
+        return entry;
+    }
+
+    /**
+     * Opens the body of an entry previously returned by {@link #getFresh(String)}. The body is
+     * still in its Content-Encoding.
+     *
+     * @param entry The entry to read
+     * @return A stream positioned at the start of the body. The caller must close it.
+     * @throws IOException If the entry can no longer be read
+     */
+    InputStream openBody(Entry entry) throws IOException {
+        DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(entry.file)));
+        try {
+            readHeader(in, entry.url);
+            return in;
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Drops an entry, for example because its body turned out to be corrupt.
+     *
+     * @param url The request URL
+     */
+    synchronized void remove(String url) {
+        loadIndex();
+        remove(entryFile(url));
+    }
+
+    /**
+     * Records that the server confirmed the entry for {@code url} is still current, which starts
+     * its freshness window over again.
+     *
+     * @param url The request URL
+     */
+    synchronized void markRevalidated(String url) {
+        loadIndex();
+        File file = entryFile(url);
+        if (!file.exists()) {
+            return;
+        }
+
+        try {
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                raf.seek(STORED_AT_OFFSET);
+                raf.writeLong(System.currentTimeMillis());
+            } finally {
+                raf.close();
+            }
+            mRevalidationCount++;
+            touch(file);
+        } catch (IOException e) {
+            Log.w(TAG, "Couldn't revalidate cache entry for " + url, e);
+            remove(file);
+        }
+    }
+
+    /**
+     * Starts writing a new entry for {@code url}. The body is written through
+     * {@link Editor#wrap(InputStream)} while the response is read, and the entry only replaces
+     * any existing one once {@link Editor#commit()} is called.
+     *
+     * @param url             The request URL
+     * @param eTag            The ETag response header, or null
+     * @param lastModified    The Last-Modified response header, or null
+     * @param contentEncoding The Content-Encoding response header, or null
+     * @return An editor for the new entry, or null if the cache directory can't be written
+     */
+    Editor edit(String url, String eTag, String lastModified, String contentEncoding) {
+        try {
+            if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+                return null;
+            }
+            File tempFile = File.createTempFile(keyFor(url), TEMP_SUFFIX, mDirectory);
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tempFile)));
+            out.writeInt(ENTRY_MAGIC);
+            out.writeInt(ENTRY_VERSION);
+            out.writeLong(System.currentTimeMillis());
+            out.writeUTF(url);
+            out.writeUTF(eTag != null ? eTag : "");
+            out.writeUTF(lastModified != null ? lastModified : "");
+            out.writeUTF(contentEncoding != null ? contentEncoding : "");
+            return new Editor(url, tempFile, out);
+        } catch (IOException e) {
+            Log.w(TAG, "Couldn't start cache entry for " + url, e);
+            return null;
+        }
+    }
+
+    private synchronized void commit(Editor editor) throws IOException {
+        loadIndex();
+        File file = entryFile(editor.mUrl);
+        remove(file);
+        if (!editor.mTempFile.renameTo(file)) {
+            editor.mTempFile.delete();
+            throw new IOException("Couldn't commit cache entry for " + editor.mUrl);
+        }
+        touch(file);
+        mEntrySizes.put(file.getName(), file.length());
+        mSizeBytes += file.length();
+        trimToSize(file.getName());
+    }
+
+    /**
+     * Evicts least recently used entries until the cache fits in its size limit.
+     *
+     * @param keep Name of an entry that must not be evicted, or null
+     */
+    private void trimToSize(String keep) {
+        Iterator<Map.Entry<String, Long>> iterator = mEntrySizes.entrySet().iterator();
+        while (mSizeBytes > mMaxSizeBytes && iterator.hasNext()) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            if (eldest.getKey().equals(keep)) {
+                continue;
+            }
+            new File(mDirectory, eldest.getKey()).delete();
+            mSizeBytes -= eldest.getValue();
+            iterator.remove();
+            mEvictionCount++;
+        }
+    }
+
+    private void remove(File file) {
+        Long size = mEntrySizes.remove(file.getName());
+        if (size != null) {
+            mSizeBytes -= size;
+        }
+        file.delete();
+    }
+
+    private void touch(File file) {
+        file.setLastModified(System.currentTimeMillis());
+        /* A get on an access-ordered LinkedHashMap moves the entry to the most recent end */
+        mEntrySizes.get(file.getName());
+    }
+
+    private void loadIndex() {
+        if (mIndexLoaded) {
+            return;
+        }
+        mIndexLoaded = true;
+
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long difference = a.lastModified() - b.lastModified();
+                return difference < 0 ? -1 : (difference > 0 ? 1 : 0);
+            }
+        });
+
+        for (File file : files) {
+            if (file.getName().endsWith(ENTRY_SUFFIX)) {
+                mEntrySizes.put(file.getName(), file.length());
+                mSizeBytes += file.length();
+            } else if (file.getName().endsWith(TEMP_SUFFIX)) {
+                /* Left behind by a write that never finished */
+                file.delete();
+            }
+        }
+    }
+
+    private File entryFile(String url) {
+        return new File(mDirectory, keyFor(url) + ENTRY_SUFFIX);
+    }
+
+    private static Entry readHeader(File file, String url) throws IOException {
+        DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)));
+        try {
+            Entry entry = readHeader(in, url);
+            entry.file = file;
+            return entry;
+        } finally {
+            in.close();
+        }
+    }
+
+    private static Entry readHeader(DataInputStream in, String url) throws IOException {
+        if (in.readInt() != ENTRY_MAGIC || in.readInt() != ENTRY_VERSION) {
+            throw new IOException("Not a cache entry");
+        }
+
+        Entry entry = new Entry();
+        entry.storedAtMillis = in.readLong();
+        entry.url = in.readUTF();
+        entry.eTag = emptyToNull(in.readUTF());
+        entry.lastModified = emptyToNull(in.readUTF());
+        entry.contentEncoding = emptyToNull(in.readUTF());
+
+        /* Two URLs with the same hash would share a file, so make sure this one is ours */
+        if (!entry.url.equals(url)) {
+            throw new IOException("Cache entry belongs to " + entry.url);
+        }
+        return entry;
+    }
+
+    private static String emptyToNull(String value) {
+        return value.isEmpty() ? null : value;
+    }
+
+    /**
+     * @param url The request URL
+     * @return A file system safe name for the URL's entry
+     */
+    private static String keyFor(String url) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] hash = digest.digest(url.getBytes("UTF-8"));
+            StringBuilder key = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                key.append(Character.forDigit((b >> 4) & 0xf, 16));
+                key.append(Character.forDigit(b & 0xf, 16));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException | IOException e) {
+            /* SHA-1 and UTF-8 are always available */
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * The header of a cache entry.
+     */
+    static final class Entry {
+        File file;
+        String url;
+        long storedAtMillis;
+        String eTag;
+        String lastModified;
+        String contentEncoding;
+    }
+
+    /**
+     * Writes a new entry while its response is being read from the network.
+     */
+    final class Editor {
+
+        private final String mUrl;
+        private final File mTempFile;
+        private final OutputStream mOut;
+        private boolean mFailed;
+        private boolean mDone;
+
+        private Editor(String url, File tempFile, OutputStream out) {
+            mUrl = url;
+            mTempFile = tempFile;
+            mOut = out;
+        }
+
+        /**
+         * Wraps the response body so that every byte read from it is also written to the entry.
+         * If writing fails, the response is still read normally and the entry is abandoned.
+         *
+         * @param body The response body as it comes over the wire
+         * @return A stream to read the response from in place of {@code body}
+         */
+        InputStream wrap(InputStream body) {
+            return new FilterInputStream(body) {
+                @Override
+                public int read() throws IOException {
+                    int result = in.read();
+                    if (result != -1) {
+                        write(new byte[]{(byte) result}, 0, 1);
+                    }
+                    return result;
+                }
+
+                @Override
+                public int read(byte[] buffer, int offset, int length) throws IOException {
+                    int result = in.read(buffer, offset, length);
+                    if (result > 0) {
+                        write(buffer, offset, result);
+                    }
+                    return result;
+                }
+
+                @Override
+                public long skip(long n) throws IOException {
+                    /* Skipped bytes would leave a hole in the entry, so read them instead */
+                    byte[] buffer = new byte[(int) Math.min(n, 8 * 1024)];
+                    int result = read(buffer, 0, buffer.length);
+                    return Math.max(result, 0);
+                }
+
+                @Override
+                public boolean markSupported() {
+                    return false;
+                }
+            };
+        }
+
+        private void write(byte[] buffer, int offset, int length) {
+            if (mFailed) {
+                return;
+            }
+            try {
+                mOut.write(buffer, offset, length);
+            } catch (IOException e) {
+                Log.w(TAG, "Couldn't write cache entry for " + mUrl, e);
+                mFailed = true;
+            }
+        }
+
+        /**
+         * Publishes the entry. Call this only once the whole response has been read.
+         */
+        void commit() {
+            if (mDone) {
+                return;
+            }
+            mDone = true;
+            try {
+                mOut.close();
+                if (mFailed) {
+                    mTempFile.delete();
+                    return;
+                }
+                ForecastDiskCache.this.commit(this);
+            } catch (IOException e) {
+                Log.w(TAG, "Couldn't commit cache entry for " + mUrl, e);
+                mTempFile.delete();
+            }
+        }
+
+        /**
+         * Throws the entry away, leaving any existing entry for the URL untouched.
+         */
+        void abort() {
+            if (mDone) {
+                return;
+            }
+            mDone = true;
+            try {
+                mOut.close();
+            } catch (IOException e) {
+                /* We're deleting the file anyway */
+            }
+            mTempFile.delete();
+        }
+    }
+}
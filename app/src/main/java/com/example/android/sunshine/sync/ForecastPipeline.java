@@ -0,0 +1,424 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.Context;
+import android.os.Process;
+import android.util.Log;
+
+import com.example.android.sunshine.data.ForecastBatch;
+import com.example.android.sunshine.data.ForecastWriter;
+import com.example.android.sunshine.utilities.OpenWeatherJsonUtils;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Stores a forecast while it is still being downloaded. Done one step after the other, reading
+ * the response, parsing it and writing it to the database take as long as all three put
+ * together. Here each step runs on its own thread and passes its work on as it goes, so for a
+ * large forecast the whole thing takes about as long as the slowest step.
+ * <p>
+ * The three stages are:
+ * <ol>
+ * <li>Reading: pulls text off the response (and so off the network, through the decompressor
+ * and the UTF-8 decoder) in chunks of {@link #TEXT_CHUNK_CHARS} characters.</li>
+ * <li>Parsing: runs on the calling thread, reading those chunks and producing the forecast
+ * {@link #CHUNK_DAYS} days at a time.</li>
+ * <li>Storing: merges each batch of days into a single {@link ForecastWriter} transaction,
+ * writing only the days whose forecast has changed.</li>
+ * </ol>
+ * No more than {@link #MAX_CHUNKS_IN_FLIGHT} chunks wait between two stages. A stage that gets
+ * that far ahead waits for the next one to catch up, so memory use doesn't grow with the size of
+ * the forecast.
+ * <p>
+ * Nothing is visible in the database until the whole response has been read and checked, at
+ * which point the old forecast is replaced (or topped up) in one commit. If anything fails along
+ * the way, the transaction is rolled back and the stored forecast is left as it was. If the new
+ * forecast turns out to be the same as the stored one, nothing is written and nobody watching
+ * the weather table is told anything changed.
+ */
+final class ForecastPipeline {
+
+    private static final String TAG = ForecastPipeline.class.getSimpleName();
+
+    /* Days the parser hands to the storing stage at a time */
+    static final int CHUNK_DAYS = 64;
+
+    /* Chunks allowed to wait between two stages before the stage in front has to wait */
+    static final int MAX_CHUNKS_IN_FLIGHT = 4;
+
+    /* Characters the reading stage hands to the parser at a time */
+    static final int TEXT_CHUNK_CHARS = 8 * 1024;
+
+    /* How long an idle stage thread sticks around before it is let go */
+    private static final long THREAD_KEEP_ALIVE_SECONDS = 30;
+
+    /* Tell the storing stage the forecast is complete, or that the parser gave up on it */
+    private static final ForecastBatch END_OF_FORECAST = new ForecastBatch(1);
+    private static final ForecastBatch ABANDONED = new ForecastBatch(1);
+
+    private static ThreadPoolExecutor sExecutor;
+
+    private ForecastPipeline() {
+    }
+
+    /**
+     * Parses the forecast in {@code body} and stores it, with the stages described above. This
+     * blocks until the forecast has been committed or rolled back.
+     *
+     * @param context         Used to store the forecast and its location details
+     * @param body            The response body, as handed to the sync's response handler
+     * @param replaceForecast True to replace every day we have stored, false to merge the new
+     *                        days into them, dropping any days that are already in the past
+     * @return The number of days stored. If the forecast had no days, nothing was changed.
+     * @throws IOException If the response couldn't be read or parsed. Nothing was changed.
+     */
+    static int parseAndStore(Context context, Reader body, boolean replaceForecast)
+            throws IOException {
+
+        ThreadPoolExecutor executor = getExecutor();
+
+        ReadStage readStage = new ReadStage(body);
+        StoreStage storeStage = new StoreStage(context.getApplicationContext(), replaceForecast);
+        executor.execute(readStage);
+        Future<Integer> stored = executor.submit(storeStage);
+
+        boolean parsed = false;
+        try {
+            OpenWeatherJsonUtils.readForecastFromJson(context, readStage.getReader(),
+                    CHUNK_DAYS, storeStage);
+            parsed = true;
+        } finally {
+            /*
+             * Whatever happened, both stages must be told we're done, or their threads (and the
+             * transaction) would be left waiting for us.
+             */
+            readStage.finish();
+            storeStage.finish(parsed);
+        }
+
+        try {
+            return stored.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while the forecast was being stored");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException("Forecast could not be stored", cause);
+        }
+    }
+
+    private static synchronized ThreadPoolExecutor getExecutor() {
+        if (sExecutor == null) {
+            /*
+             * Every stage needs a thread of its own right away, since they wait on each other.
+             * With a bounded pool, a stage stuck in the queue would leave the others waiting for
+             * it forever, so threads are created as needed instead.
+             */
+            sExecutor = new ThreadPoolExecutor(0, Integer.MAX_VALUE,
+                    THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    new SynchronousQueue<Runnable>(),
+                    new ThreadFactory() {
+                        private final AtomicInteger mCount = new AtomicInteger();
+
+                        @Override
+                        public Thread newThread(final Runnable runnable) {
+                            return new Thread(new Runnable() {
+                                @Override
+                                public void run() {
+                                    Process.setThreadPriority(
+                                            Process.THREAD_PRIORITY_BACKGROUND);
+                                    runnable.run();
+                                }
+                            }, "ForecastPipeline #" + mCount.incrementAndGet());
+                        }
+                    });
+        }
+        return sExecutor;
+    }
+
+    private static <T> void putUninterruptibly(BlockingQueue<T> queue, T element) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                queue.put(element);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static <T> T takeUninterruptibly(BlockingQueue<T> queue) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return queue.take();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * A piece of the response text on its way from the reading stage to the parser. A chunk with
+     * a negative length marks the end of the text, and carries the error that ended it, if any.
+     */
+    private static final class TextChunk {
+        final char[] chars = new char[TEXT_CHUNK_CHARS];
+        int offset;
+        int length;
+        IOException error;
+    }
+
+    /**
+     * The reading stage. It fills chunks from a fixed set of {@link #MAX_CHUNKS_IN_FLIGHT},
+     * which the parser hands back once it has read them, so no more text is buffered than that
+     * and no new chunks are allocated along the way.
+     */
+    private static final class ReadStage implements Runnable {
+        private final Reader mSource;
+        private final BlockingQueue<TextChunk> mEmpty =
+                new ArrayBlockingQueue<>(MAX_CHUNKS_IN_FLIGHT);
+        private final BlockingQueue<TextChunk> mFilled =
+                new ArrayBlockingQueue<>(MAX_CHUNKS_IN_FLIGHT);
+        private volatile boolean mStopped;
+
+        /* Only touched by the parsing thread */
+        private TextChunk mCurrent;
+        private boolean mEnded;
+
+        ReadStage(Reader source) {
+            mSource = source;
+            for (int i = 0; i < MAX_CHUNKS_IN_FLIGHT; i++) {
+                mEmpty.add(new TextChunk());
+            }
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                TextChunk chunk = takeUninterruptibly(mEmpty);
+                chunk.offset = 0;
+                chunk.error = null;
+                if (mStopped) {
+                    chunk.length = -1;
+                } else {
+                    try {
+                        chunk.length = mSource.read(chunk.chars, 0, chunk.chars.length);
+                    } catch (IOException e) {
+                        chunk.length = -1;
+                        chunk.error = e;
+                    }
+                }
+                putUninterruptibly(mFilled, chunk);
+                if (chunk.length < 0) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * @return The text read by this stage, for the parser
+         */
+        Reader getReader() {
+            return new Reader() {
+                @Override
+                public int read(char[] buffer, int offset, int count) throws IOException {
+                    if (count == 0) {
+                        return 0;
+                    }
+                    if (mCurrent == null) {
+                        if (mEnded) {
+                            return -1;
+                        }
+                        mCurrent = takeChunk();
+                        if (mCurrent.length < 0) {
+                            IOException error = mCurrent.error;
+                            mEnded = true;
+                            mEmpty.add(mCurrent);
+                            mCurrent = null;
+                            if (error != null) {
+                                throw error;
+                            }
+                            return -1;
+                        }
+                    }
+
+                    int read = Math.min(count, mCurrent.length - mCurrent.offset);
+                    System.arraycopy(mCurrent.chars, mCurrent.offset, buffer, offset, read);
+                    mCurrent.offset += read;
+                    if (mCurrent.offset == mCurrent.length) {
+                        mEmpty.add(mCurrent);
+                        mCurrent = null;
+                    }
+                    return read;
+                }
+
+                @Override
+                public void close() {
+                    /* The response body is closed by whoever gave it to us */
+                }
+            };
+        }
+
+        /**
+         * Stops the stage and waits for it to finish, which happens as soon as any read it is in
+         * the middle of returns. Once this returns, the stage no longer touches the response.
+         */
+        void finish() {
+            mStopped = true;
+            if (mCurrent != null) {
+                mEmpty.add(mCurrent);
+                mCurrent = null;
+            }
+            while (!mEnded) {
+                TextChunk chunk = takeUninterruptibly(mFilled);
+                if (chunk.length < 0) {
+                    mEnded = true;
+                }
+                mEmpty.add(chunk);
+            }
+        }
+
+        private TextChunk takeChunk() throws InterruptedIOException {
+            try {
+                return mFilled.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while reading the forecast");
+            }
+        }
+    }
+
+    /**
+     * The storing stage. It only begins its transaction when the first days arrive, so the
+     * database isn't held up while we wait for the server to start sending.
+     */
+    private static final class StoreStage
+            implements Callable<Integer>, OpenWeatherJsonUtils.ForecastConsumer {
+
+        private final Context mContext;
+        private final boolean mReplaceForecast;
+        private final BlockingQueue<ForecastBatch> mBatches =
+                new ArrayBlockingQueue<>(MAX_CHUNKS_IN_FLIGHT);
+
+        StoreStage(Context context, boolean replaceForecast) {
+            mContext = context;
+            mReplaceForecast = replaceForecast;
+        }
+
+        @Override
+        public void onForecastDays(ForecastBatch days) throws IOException {
+            try {
+                mBatches.put(days);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while storing the forecast");
+            }
+        }
+
+        /**
+         * Tells the stage there are no more days coming.
+         *
+         * @param complete True to commit what has been stored, false to roll it back
+         */
+        void finish(boolean complete) {
+            putUninterruptibly(mBatches, complete ? END_OF_FORECAST : ABANDONED);
+        }
+
+        @Override
+        public Integer call() {
+            ForecastWriter writer = null;
+            ForecastBatch days = null;
+            try {
+                int daysStored = 0;
+                while ((days = takeUninterruptibly(mBatches)) != END_OF_FORECAST
+                        && days != ABANDONED) {
+                    if (writer == null) {
+                        writer = ForecastWriter.begin(mContext);
+                        deleteExpiredDays(writer);
+                    }
+                    writer.merge(days);
+                    daysStored += days.size();
+                }
+
+                if (days == ABANDONED) {
+                    return 0;
+                }
+                if (writer != null) {
+                    if (mReplaceForecast) {
+                        /* Days the new forecast no longer covers */
+                        writer.deleteUnmerged();
+                    }
+                    writer.commit();
+
+                    Log.d(TAG, "Stored " + daysStored + " days: " + writer.getRowsWritten()
+                            + " rows written, " + writer.getRowsDeleted() + " rows deleted");
+                    SunshineSyncStats.recordRowsTouched(writer.getRowsWritten(),
+                            writer.getRowsDeleted(), daysStored - writer.getRowsWritten());
+                }
+                return daysStored;
+            } catch (RuntimeException | Error e) {
+                /* Keep taking days until the parser is done, so it never waits on us forever */
+                while (days != END_OF_FORECAST && days != ABANDONED) {
+                    days = takeUninterruptibly(mBatches);
+                }
+                throw e;
+            } finally {
+                if (writer != null) {
+                    writer.close();
+                }
+            }
+        }
+
+        private void deleteExpiredDays(ForecastWriter writer) {
+            /*
+             * Days that are already in the past go, into the history table, whichever way we're
+             * storing the forecast. The rest are only deleted, by deleteUnmerged, if a full
+             * forecast no longer has them.
+             */
+            writer.archiveDaysBefore(SunshineDateUtils.getNormalizedUtcDateForToday());
+        }
+    }
+}
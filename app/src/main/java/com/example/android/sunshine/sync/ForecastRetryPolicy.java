@@ -0,0 +1,255 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.util.Log;
+import android.util.MalformedJsonException;
+
+import com.example.android.sunshine.utilities.HttpStatusException;
+import com.example.android.sunshine.utilities.OpenWeatherErrorException;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Retries forecast requests that fail for reasons that may go away on their own, and keeps a
+ * {@link CircuitBreaker} per host so that an endpoint that is down isn't hammered by every sync.
+ * <p>
+ * Failures fall into two groups:
+ * <ul>
+ * <li>Transient: timeouts, 5xx responses, 429 Too Many Requests, error codes of 500 and above
+ * in the JSON, dropped connections and truncated bodies. These are retried with exponential
+ * backoff and count against the circuit breaker.</li>
+ * <li>Permanent: an unknown location (cod 404), other 4xx responses and JSON we can't make
+ * sense of. Asking again will get the same answer, so these fail straight away. The server did
+ * answer, so they count as a success as far as the breaker is concerned.</li>
+ * </ul>
+ * The delays use "full jitter": each wait is a random time between zero and the exponential
+ * backoff. Without the randomness, every device that failed at the same moment would retry at
+ * the same moment too.
+ */
+final class ForecastRetryPolicy {
+
+    private static final String TAG = ForecastRetryPolicy.class.getSimpleName();
+
+    /* Requests per sync, including the first. This runs inside the sync, so keep it short. */
+    static final int MAX_ATTEMPTS = 3;
+    static final long BASE_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(2);
+    static final long MAX_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(16);
+
+    /* Circuit breaker settings. Two syncs' worth of failed attempts trips it. */
+    static final int BREAKER_FAILURE_THRESHOLD = 2 * MAX_ATTEMPTS;
+    static final long BREAKER_INITIAL_OPEN_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    static final long BREAKER_MAX_OPEN_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    private static final ConcurrentHashMap<String, CircuitBreaker> sBreakers =
+            new ConcurrentHashMap<>();
+
+    private static final Random sRandom = new Random();
+
+    /**
+     * One attempt at a request.
+     *
+     * @param <T> The type of the result
+     */
+    interface Attempt<T> {
+        T run() throws IOException;
+    }
+
+    private ForecastRetryPolicy() {
+    }
+
+    /**
+     * Runs the attempt, retrying transient failures with backoff, as long as the circuit breaker
+     * for the URL's host allows it.
+     *
+     * @param url     The URL being requested, used to pick the circuit breaker
+     * @param attempt The request to make
+     * @param <T>     The type of the result
+     * @return The result of the first attempt that succeeded
+     * @throws CircuitOpenException If the breaker is open and no request was made
+     * @throws IOException          The failure of the last attempt made, or the one that
+     *                              opened the breaker
+     */
+    static <T> T execute(URL url, Attempt<T> attempt) throws IOException {
+        String host = url.getHost();
+        return execute(host, getBreaker(host), attempt);
+    }
+
+    /**
+     * Runs the attempt as {@link #execute(URL, Attempt)} does, behind the given breaker. Tests
+     * use this to put a breaker with short timeouts in front of an attempt.
+     *
+     * @param host    The host being requested, for the log and for CircuitOpenException
+     * @param breaker The circuit breaker for the host
+     * @param attempt The request to make
+     * @param <T>     The type of the result
+     * @return The result of the first attempt that succeeded
+     * @throws CircuitOpenException If the breaker is open and no request was made
+     * @throws IOException          The failure of the last attempt made, or the one that
+     *                              opened the breaker
+     */
+    static <T> T execute(String host, CircuitBreaker breaker, Attempt<T> attempt)
+            throws IOException {
+        for (int attemptNumber = 1; ; attemptNumber++) {
+            if (!breaker.allowRequest()) {
+                throw new CircuitOpenException(host, breaker.getRemainingOpenMillis());
+            }
+
+            try {
+                T result = attempt.run();
+                breaker.recordSuccess();
+                return result;
+            } catch (IOException e) {
+                if (!isTransient(e)) {
+                    breaker.recordSuccess();
+                    throw e;
+                }
+
+                breaker.recordFailure();
+
+                /*
+                 * Once this failure has opened the breaker, waiting out the backoff would only
+                 * end in a CircuitOpenException. Give up now with the failure that opened it.
+                 */
+                if (attemptNumber >= MAX_ATTEMPTS || breaker.isOpen()) {
+                    throw e;
+                }
+
+                long delayMillis = computeDelayMillis(attemptNumber, sRandom);
+                Log.w(TAG, "Attempt " + attemptNumber + " for " + host + " failed (" + e
+                        + "), retrying in " + delayMillis + " ms");
+                SunshineSyncStats.recordRetry();
+                sleep(delayMillis);
+            } catch (RuntimeException e) {
+                /*
+                 * A bug, or a response we choked on in a way that isn't an IOException. Either
+                 * way the breaker has to hear how the request ended: if this was the trial of a
+                 * half open breaker, nothing else would ever let another request through. It
+                 * isn't worth retrying, as it would most likely happen again.
+                 */
+                breaker.recordFailure();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Decides whether a failed request is worth trying again.
+     *
+     * @param e The failure
+     * @return true if the failure may go away on its own
+     */
+    static boolean isTransient(IOException e) {
+        if (e instanceof CircuitOpenException) {
+            return false;
+        }
+
+        if (e instanceof SocketTimeoutException) {
+            return true;
+        }
+
+        /* Anything else interrupted means someone (the JobDispatcher, say) wants us to stop */
+        if (e instanceof InterruptedIOException) {
+            return false;
+        }
+
+        if (e instanceof HttpStatusException) {
+            HttpStatusException statusException = (HttpStatusException) e;
+            return statusException.isServerError()
+                    || statusException.getResponseCode() == HTTP_TOO_MANY_REQUESTS;
+        }
+
+        if (e instanceof OpenWeatherErrorException) {
+            int errorCode = ((OpenWeatherErrorException) e).getErrorCode();
+            return errorCode >= 500 || errorCode == HTTP_TOO_MANY_REQUESTS;
+        }
+
+        /* The body was well formed as far as it went, so the connection was probably cut off */
+        if (e instanceof EOFException) {
+            return true;
+        }
+
+        /* The server sent something we can't parse, and it'll send it again */
+        if (e instanceof MalformedJsonException) {
+            return false;
+        }
+
+        /* Connection refused or reset, DNS failures and the like */
+        return true;
+    }
+
+    /**
+     * Works out how long to wait before the next attempt.
+     *
+     * @param attemptNumber The attempt that just failed, starting at 1
+     * @param random        Source of the jitter
+     * @return A random delay between 0 and the capped exponential backoff for this attempt
+     */
+    static long computeDelayMillis(int attemptNumber, Random random) {
+        int shift = Math.min(attemptNumber - 1, 30);
+        long backoff = Math.min(MAX_DELAY_MILLIS, BASE_DELAY_MILLIS << shift);
+        return (long) (random.nextDouble() * backoff);
+    }
+
+    /**
+     * Decides whether the JobDispatcher should retry a sync job early rather than wait for the
+     * next scheduled run. Only transient failures are worth it, and not while the breaker is
+     * open: the job's own retry would only be refused again.
+     *
+     * @param url     The URL the sync requested
+     * @param outcome How the sync ended
+     * @return true if the job should be rescheduled
+     */
+    static boolean shouldReschedule(URL url, SyncOutcome outcome) {
+        return outcome == SyncOutcome.FAILED && !getBreaker(url.getHost()).isOpen();
+    }
+
+    /**
+     * @param host A host name
+     * @return The circuit breaker for the host, created closed on first use
+     */
+    static CircuitBreaker getBreaker(String host) {
+        CircuitBreaker breaker = sBreakers.get(host);
+        if (breaker == null) {
+            breaker = new CircuitBreaker(BREAKER_FAILURE_THRESHOLD,
+                    BREAKER_INITIAL_OPEN_MILLIS,
+                    BREAKER_MAX_OPEN_MILLIS);
+            CircuitBreaker existing = sBreakers.putIfAbsent(host, breaker);
+            if (existing != null) {
+                breaker = existing;
+            }
+        }
+        return breaker;
+    }
+
+    private static void sleep(long millis) throws InterruptedIOException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while backing off");
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.Context;
+import android.database.Cursor;
+
+import com.example.android.sunshine.data.SunshinePreferences;
+import com.example.android.sunshine.data.WeatherContract;
+import com.example.android.sunshine.utilities.NetworkUtils;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides how many days of forecast a sync should ask for. Syncs run every few hours, but the
+ * forecast only grows by a day a day, so downloading, parsing and inserting all of it every time
+ * is mostly wasted work.
+ * <p>
+ * The weather server's window always starts today ("cnt" days from today), so we can't ask for
+ * just the days at the end. What we can do is stop at the last day we're missing:
+ * <ul>
+ * <li>With nothing stored, a forecast stored for another location, or a full forecast older than
+ * {@link #FULL_REFRESH_INTERVAL_MILLIS}, we ask for the whole forecast and replace what we
+ * have.</li>
+ * <li>Otherwise we ask for every day up to the last one we don't have, and at least
+ * {@link #NEAR_TERM_DAYS}, since the next few days are the ones whose forecast changes the most.
+ * The result is merged into the stored forecast.</li>
+ * </ul>
+ */
+final class ForecastWindow {
+
+    /* Days that are always refreshed, even when we have them */
+    static final int NEAR_TERM_DAYS = 3;
+
+    /* How often the whole forecast is downloaded again, whatever we have */
+    static final long FULL_REFRESH_INTERVAL_MILLIS = TimeUnit.HOURS.toMillis(12);
+
+    private final int mDays;
+    private final boolean mFullRefresh;
+    private final boolean mHasStoredForecast;
+
+    private ForecastWindow(int days, boolean fullRefresh, boolean hasStoredForecast) {
+        mDays = days;
+        mFullRefresh = fullRefresh;
+        mHasStoredForecast = hasStoredForecast;
+    }
+
+    /**
+     * Looks at the forecast stored for the current location and picks the window to request.
+     *
+     * @param context         Used to access the ContentResolver and SharedPreferences
+     * @param fullForecastUrl The request URL for the full forecast of the current location
+     * @return The window to request
+     */
+    static ForecastWindow choose(Context context, String fullForecastUrl) {
+        int fullDays = NetworkUtils.FORECAST_DAYS;
+        boolean[] stored = getStoredDays(context, fullDays);
+
+        boolean hasStoredForecast = false;
+        int lastMissingDay = -1;
+        for (int day = 0; day < fullDays; day++) {
+            if (stored[day]) {
+                hasStoredForecast = true;
+            } else {
+                lastMissingDay = day;
+            }
+        }
+
+        long lastFullForecast =
+                SunshinePreferences.getLastFullForecastTime(context, fullForecastUrl);
+        long age = System.currentTimeMillis() - lastFullForecast;
+        boolean fullRefreshDue = lastFullForecast == 0
+                || age < 0
+                || age >= FULL_REFRESH_INTERVAL_MILLIS;
+
+        if (!hasStoredForecast || fullRefreshDue) {
+            return new ForecastWindow(fullDays, true, hasStoredForecast);
+        }
+
+        int days = Math.max(NEAR_TERM_DAYS, lastMissingDay + 1);
+        days = Math.min(days, fullDays);
+        return new ForecastWindow(days, false, true);
+    }
+
+    /**
+     * @return The number of days to request, starting today
+     */
+    int getDays() {
+        return mDays;
+    }
+
+    /**
+     * @return true if the response replaces the stored forecast, false if it is merged into it
+     */
+    boolean isFullRefresh() {
+        return mFullRefresh;
+    }
+
+    /**
+     * @return true if there is any forecast from today onwards in the database
+     */
+    boolean hasStoredForecast() {
+        return mHasStoredForecast;
+    }
+
+    /**
+     * @return For each day of the forecast, starting today, whether the database has it
+     */
+    private static boolean[] getStoredDays(Context context, int fullDays) {
+        boolean[] stored = new boolean[fullDays];
+        long today = SunshineDateUtils.getNormalizedUtcDateForToday();
+
+        Cursor cursor = context.getContentResolver().query(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                new String[]{WeatherContract.WeatherEntry.COLUMN_DATE},
+                WeatherContract.WeatherEntry.COLUMN_DATE + " >= ?",
+                new String[]{Long.toString(today)},
+                null);
+
+        if (cursor == null) {
+            return stored;
+        }
+
+        try {
+            while (cursor.moveToNext()) {
+                long day = (cursor.getLong(0) - today) / SunshineDateUtils.DAY_IN_MILLIS;
+                if (day >= 0 && day < fullDays) {
+                    stored[(int) day] = true;
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        return stored;
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.util.Log;
+
+import com.example.android.sunshine.data.ForecastBatch;
+import com.example.android.sunshine.data.WeatherContract;
+import com.example.android.sunshine.utilities.HttpResult;
+import com.example.android.sunshine.utilities.NetworkUtils;
+import com.example.android.sunshine.utilities.OpenWeatherJsonUtils;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Refreshes the forecasts of the saved locations (see
+ * {@link WeatherContract.LocationEntry}) after the user's own forecast has been synced. The
+ * locations are fetched side by side with {@link ForecastBatchFetcher} and each forecast is
+ * stored as soon as it arrives.
+ * <p>
+ * Each response is parsed on whichever pool thread fetched it, so the parser used here must not
+ * touch anything shared. {@link OpenWeatherJsonUtils#getForecastBatchForLocation} hands the
+ * location's coordinates back rather than saving them as the user's location, which the parser
+ * the regular sync uses would do, with every location overwriting the last.
+ */
+final class SavedLocationSync {
+
+    private static final String TAG = SavedLocationSync.class.getSimpleName();
+
+    private static final String[] LOCATION_PROJECTION = {
+            WeatherContract.LocationEntry._ID,
+            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING
+    };
+
+    private static final int INDEX_LOCATION_ID = 0;
+    private static final int INDEX_LOCATION_SETTING = 1;
+
+    /* Parses a forecast without any side effects, so it is safe on any number of threads */
+    private static final NetworkUtils.ResponseHandler<ForecastBatch> PARSER =
+            new NetworkUtils.ResponseHandler<ForecastBatch>() {
+                @Override
+                public ForecastBatch handleResponse(Reader body) throws IOException {
+                    return OpenWeatherJsonUtils.getForecastBatchForLocation(body,
+                            new double[2]);
+                }
+            };
+
+    private SavedLocationSync() {
+    }
+
+    /**
+     * Fetches and stores the forecast of every saved location. A location whose forecast can't be
+     * fetched keeps the one it had. This blocks until every location has been dealt with, so
+     * call it from the sync's background thread.
+     *
+     * @param context Used to access the ContentResolver
+     * @return The number of locations whose forecast was fetched
+     */
+    static int sync(Context context) {
+        final Context appContext = context.getApplicationContext();
+
+        /* Keyed by the URL's text, as URL#equals looks up the host's address */
+        final Map<String, Long> locationIds = new HashMap<>();
+        List<URL> urls = new ArrayList<>();
+
+        Cursor locations = appContext.getContentResolver().query(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                LOCATION_PROJECTION,
+                null,
+                null,
+                null);
+        if (locations == null) {
+            return 0;
+        }
+        try {
+            while (locations.moveToNext()) {
+                URL url = NetworkUtils.buildUrlWithLocationQuery(
+                        locations.getString(INDEX_LOCATION_SETTING));
+                if (url != null) {
+                    locationIds.put(url.toString(), locations.getLong(INDEX_LOCATION_ID));
+                    urls.add(url);
+                }
+            }
+        } finally {
+            locations.close();
+        }
+
+        if (urls.isEmpty()) {
+            return 0;
+        }
+
+        try {
+            return ForecastBatchFetcher.fetchAll(appContext, urls, PARSER,
+                    new ForecastBatchFetcher.Callback<ForecastBatch>() {
+                        @Override
+                        public void onResult(URL url, HttpResult<ForecastBatch> result) {
+                            ForecastBatch forecast = result.getBody();
+                            if (forecast == null || forecast.isEmpty()) {
+                                return;
+                            }
+                            try {
+                                appContext.getContentResolver().call(
+                                        WeatherContract.LocationWeatherEntry.CONTENT_URI,
+                                        WeatherContract.METHOD_BULK_INSERT_BATCH,
+                                        WeatherContract.LocationWeatherEntry
+                                                .buildLocationWeatherUri(
+                                                        locationIds.get(url.toString()))
+                                                .toString(),
+                                        forecast.toBundle());
+                            } catch (IllegalArgumentException e) {
+                                /* The location was removed while we were fetching it */
+                                Log.i(TAG, e.getMessage());
+                            }
+                        }
+
+                        @Override
+                        public void onFailure(URL url, IOException error) {
+                            Log.w(TAG, "Couldn't refresh the forecast for " + url, error);
+                        }
+                    });
+        } catch (InterruptedException e) {
+            /* Whoever interrupted us will want to know */
+            Thread.currentThread().interrupt();
+            return 0;
+        }
+    }
+}
@@ -18,6 +18,7 @@ package com.example.android.sunshine.sync;
 import android.content.Context;
 import android.os.AsyncTask;
 
+import com.example.android.sunshine.utilities.NetworkUtils;
 import com.firebase.jobdispatcher.Job;
 import com.firebase.jobdispatcher.JobParameters;
 import com.firebase.jobdispatcher.JobService;
@@ -26,7 +27,7 @@ import com.firebase.jobdispatcher.RetryStrategy;
 
 public class SunshineFirebaseJobService extends JobService {
 
-    private AsyncTask<Void, Void, Void> mFetchWeatherTask;
+    private AsyncTask<Void, Void, Boolean> mFetchWeatherTask;
 
     /**
      * The entry point to your Job. Implementations should offload work to another thread of
@@ -41,18 +42,23 @@ public class SunshineFirebaseJobService extends JobService {
     @Override
     public boolean onStartJob(final JobParameters jobParameters) {
 
-        mFetchWeatherTask = new AsyncTask<Void, Void, Void>(){
+        mFetchWeatherTask = new AsyncTask<Void, Void, Boolean>(){
             @Override
-            protected Void doInBackground(Void... voids) {
+            protected Boolean doInBackground(Void... voids) {
                 Context context = getApplicationContext();
-                SunshineSyncTask.syncWeather(context);
-                jobFinished(jobParameters, false);
-                return null;
+                SyncOutcome outcome = SunshineSyncTask.syncWeather(context);
+
+                /*
+                 * Ask the JobDispatcher to retry early only if the sync failed for a reason that
+                 * may go away, and the forecast endpoint's circuit breaker isn't open. Otherwise
+                 * the next scheduled run will do.
+                 */
+                return ForecastRetryPolicy.shouldReschedule(NetworkUtils.getUrl(context), outcome);
             }
 
             @Override
-            protected void onPostExecute(Void aVoid) {
-                jobFinished(jobParameters, false);
+            protected void onPostExecute(Boolean needsReschedule) {
+                jobFinished(jobParameters, needsReschedule);
             }
         };
 
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.Context;
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.util.Log;
+
+import com.example.android.sunshine.data.SunshinePreferences;
+import com.example.android.sunshine.data.WeatherContract;
+import com.firebase.jobdispatcher.JobParameters;
+import com.firebase.jobdispatcher.JobService;
+
+/**
+ * Compacts the weather history once a day: forecasts for days more than a week ago are combined
+ * into a single row per day, and days older than the user's retention preference are deleted.
+ * The work is done by WeatherProvider, in a single transaction, through
+ * {@link WeatherContract#METHOD_COMPACT_HISTORY}.
+ */
+public class SunshineHistoryJobService extends JobService {
+
+    private static final String TAG = SunshineHistoryJobService.class.getSimpleName();
+
+    private AsyncTask<Void, Void, Void> mCompactHistoryTask;
+
+    /**
+     * Called by the Job Dispatcher on the application's main thread, so the compaction itself
+     * runs on a background thread.
+     *
+     * @return whether there is more work remaining.
+     */
+    @Override
+    public boolean onStartJob(final JobParameters jobParameters) {
+
+        mCompactHistoryTask = new AsyncTask<Void, Void, Void>() {
+            @Override
+            protected Void doInBackground(Void... voids) {
+                Context context = getApplicationContext();
+                int retentionDays = SunshinePreferences.getHistoryRetentionDays(context);
+
+                try {
+                    Bundle result = context.getContentResolver().call(
+                            WeatherContract.BASE_CONTENT_URI,
+                            WeatherContract.METHOD_COMPACT_HISTORY,
+                            Integer.toString(retentionDays),
+                            null);
+                    if (result != null) {
+                        Log.d(TAG, "Compacted history, keeping " + retentionDays + " days: "
+                                + result.getInt(WeatherContract.EXTRA_ROWS_DELETED)
+                                + " rows removed");
+                    }
+                } catch (RuntimeException e) {
+                    /*
+                     * A failed compaction rolls back and leaves the history as it was, so there
+                     * is nothing to clean up. It mustn't take the process down with it, though.
+                     */
+                    Log.e(TAG, "Couldn't compact the weather history", e);
+                }
+                return null;
+            }
+
+            @Override
+            protected void onPostExecute(Void nothing) {
+                /* Even if compaction failed, tomorrow's run will catch up */
+                jobFinished(jobParameters, false);
+            }
+        };
+
+        mCompactHistoryTask.execute();
+        return true;
+    }
+
+    /**
+     * Called if the device stops charging before compaction finishes. Compaction is a single
+     * transaction, so there is nothing to undo, and the next daily run will do.
+     *
+     * @return whether the job should be retried
+     */
+    @Override
+    public boolean onStopJob(JobParameters jobParameters) {
+        if (mCompactHistoryTask != null) {
+            mCompactHistoryTask.cancel(true);
+        }
+        return false;
+    }
+}
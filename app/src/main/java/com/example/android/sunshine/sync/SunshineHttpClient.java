@@ -0,0 +1,395 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.android.sunshine.utilities.HttpResult;
+import com.example.android.sunshine.utilities.HttpStatusException;
+import com.example.android.sunshine.utilities.NetworkUtils;
+import com.example.android.sunshine.utilities.RequestTiming;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.KeyManagementException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * The HTTP client used by the sync. A single instance lives for the life of the process so that
+ * every request it makes can share sockets and TLS sessions:
+ * <p>
+ *   1) Responses are always read to the end and closed rather than disconnected, which returns
+ *   the socket to HttpURLConnection's keep-alive pool for the next request to the same host.
+ * <p>
+ *   2) Every HTTPS connection uses the same SSLSocketFactory, whose session cache lets a new
+ *   connection resume a previous TLS session instead of doing a full handshake. Using one factory
+ *   also matters for pooling, since pooled connections are only shared between requests that use
+ *   the same factory.
+ * <p>
+ * Each request is timed phase by phase and the timings are returned in its {@link HttpResult}.
+ */
+public final class SunshineHttpClient {
+
+    private static final String TAG = SunshineHttpClient.class.getSimpleName();
+
+    private static final int CONNECT_TIMEOUT_MILLIS = (int) TimeUnit.SECONDS.toMillis(15);
+    private static final int READ_TIMEOUT_MILLIS = (int) TimeUnit.SECONDS.toMillis(20);
+
+    /* How many TLS sessions to keep, and for how long they may be resumed */
+    private static final int TLS_SESSION_CACHE_SIZE = 16;
+    private static final int TLS_SESSION_TIMEOUT_SECONDS = (int) TimeUnit.HOURS.toSeconds(12);
+
+    /* Headers used to make conditional requests */
+    private static final String HEADER_ETAG = "ETag";
+    private static final String HEADER_LAST_MODIFIED = "Last-Modified";
+    private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    private static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+
+    /* Content encodings we know how to decode, most preferred first */
+    private static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+    private static final String ENCODING_GZIP = "gzip";
+    private static final String ENCODING_DEFLATE = "deflate";
+    private static final String ENCODING_IDENTITY = "identity";
+    private static final String ACCEPT_ENCODING = ENCODING_GZIP + ", " + ENCODING_DEFLATE;
+
+    /* Size of the buffers used by the decompressors */
+    private static final int DECODE_BUFFER_SIZE = 8 * 1024;
+
+    private static SunshineHttpClient sInstance;
+
+    private final SSLSocketFactory mSslSocketFactory;
+
+    /**
+     * @return The client shared by everything in the sync
+     */
+    public static synchronized SunshineHttpClient getInstance() {
+        if (sInstance == null) {
+            sInstance = new SunshineHttpClient();
+        }
+        return sInstance;
+    }
+
+    private SunshineHttpClient() {
+        mSslSocketFactory = createSslSocketFactory();
+    }
+
+    private static SSLSocketFactory createSslSocketFactory() {
+        try {
+            SSLContext sslContext = SSLContext.getInstance("TLS");
+            sslContext.init(null, null, null);
+
+            SSLSessionContext sessionContext = sslContext.getClientSessionContext();
+            sessionContext.setSessionCacheSize(TLS_SESSION_CACHE_SIZE);
+            sessionContext.setSessionTimeout(TLS_SESSION_TIMEOUT_SECONDS);
+
+            return sslContext.getSocketFactory();
+        } catch (NoSuchAlgorithmException | KeyManagementException e) {
+            /* Every Android device supports TLS, but fall back to the default just in case */
+            Log.e(TAG, "Couldn't create a TLS context, using the default socket factory", e);
+            return HttpsURLConnection.getDefaultSSLSocketFactory();
+        }
+    }
+
+    /**
+     * Makes a GET request for the given URL without consulting any cache. See
+     * {@link #execute(URL, String, String, ForecastDiskCache, NetworkUtils.ResponseHandler)}.
+     */
+    public <T> HttpResult<T> execute(URL url, String eTag, String lastModified,
+                                     NetworkUtils.ResponseHandler<T> handler)
+            throws IOException {
+        return execute(url, eTag, lastModified, null, handler);
+    }
+
+    /**
+     * Makes a GET request for the given URL, conditional on the validators passed in, and streams
+     * the (decompressed) response body to {@code handler}. When the server answers 304 Not
+     * Modified, {@code handler} is never called.
+     * <p>
+     * If a cache is given and holds a fresh entry for the URL, the network isn't used at all. When
+     * the entry has the same validators the caller passed in, the caller already has this data
+     * and we answer 304 straight away. Otherwise the cached body is streamed to {@code handler}.
+     * Successful network responses are written to the cache as they are read.
+     *
+     * @param url          The URL to fetch
+     * @param eTag         ETag from the last response for this URL, or null
+     * @param lastModified Last-Modified from the last response for this URL, or null
+     * @param cache        Cache to consult and update, or null to always use the network
+     * @param handler      Consumes the response body as it arrives
+     * @param <T>          The type of object the handler produces
+     * @return The response code, parsed body, validators, byte counts and timings
+     * @throws IOException Related to network and stream reading, including error responses
+     */
+    public <T> HttpResult<T> execute(URL url, String eTag, String lastModified,
+                                     ForecastDiskCache cache,
+                                     NetworkUtils.ResponseHandler<T> handler)
+            throws IOException {
+
+        String cacheKey = url.toString();
+        if (cache != null) {
+            ForecastDiskCache.Entry entry = cache.getFresh(cacheKey);
+            if (entry != null) {
+                HttpResult<T> cachedResult =
+                        executeFromCache(cache, entry, eTag, lastModified, handler);
+                if (cachedResult != null) {
+                    return cachedResult;
+                }
+            }
+        }
+
+        HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
+        boolean reusable = false;
+        try {
+            if (urlConnection instanceof HttpsURLConnection) {
+                ((HttpsURLConnection) urlConnection).setSSLSocketFactory(mSslSocketFactory);
+            }
+            urlConnection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+            urlConnection.setReadTimeout(READ_TIMEOUT_MILLIS);
+
+            /*
+             * HttpURLConnection has its own (disabled by default) response cache. We manage the
+             * validators ourselves so that a 304 reaches us rather than being hidden behind it.
+             */
+            urlConnection.setUseCaches(false);
+            if (eTag != null) {
+                urlConnection.setRequestProperty(HEADER_IF_NONE_MATCH, eTag);
+            }
+            if (lastModified != null) {
+                urlConnection.setRequestProperty(HEADER_IF_MODIFIED_SINCE, lastModified);
+            }
+
+            /*
+             * Forecast JSON compresses several times over, so we always ask for it compressed.
+             * Setting Accept-Encoding ourselves also turns off HttpURLConnection's transparent
+             * gzip support, which would otherwise hide the compressed size from us.
+             */
+            urlConnection.setRequestProperty(HEADER_ACCEPT_ENCODING, ACCEPT_ENCODING);
+
+            long connectStart = SystemClock.elapsedRealtime();
+            urlConnection.connect();
+            long connectMillis = SystemClock.elapsedRealtime() - connectStart;
+
+            long firstByteStart = SystemClock.elapsedRealtime();
+            int responseCode = urlConnection.getResponseCode();
+            long firstByteMillis = SystemClock.elapsedRealtime() - firstByteStart;
+
+            String newETag = urlConnection.getHeaderField(HEADER_ETAG);
+            String newLastModified = urlConnection.getHeaderField(HEADER_LAST_MODIFIED);
+
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                /* A 304 has no body, so the connection can go straight back to the pool */
+                reusable = true;
+                if (cache != null) {
+                    cache.markRevalidated(cacheKey);
+                }
+                /* Some servers leave the validators off a 304, so carry the old ones forward */
+                return new HttpResult<>(responseCode, null,
+                        newETag != null ? newETag : eTag,
+                        newLastModified != null ? newLastModified : lastModified,
+                        0, 0,
+                        new RequestTiming(connectMillis, firstByteMillis, 0),
+                        false);
+            }
+
+            if (responseCode >= HttpURLConnection.HTTP_BAD_REQUEST) {
+                /* Read the error body to the end too, so the connection can still be reused */
+                discardErrorStream(urlConnection);
+                reusable = true;
+                throw new HttpStatusException(responseCode, "HTTP " + responseCode + " from " + url);
+            }
+
+            /*
+             * We count the bytes on both sides of the decompressor, and the parser reads the
+             * decompressed stream directly, so the body is never inflated into memory as a whole.
+             */
+            long bodyStart = SystemClock.elapsedRealtime();
+            String contentEncoding = urlConnection.getContentEncoding();
+            InputStream networkStream = urlConnection.getInputStream();
+
+            /* Copy the body into the cache, still compressed, as the parser reads it */
+            ForecastDiskCache.Editor cacheEditor = null;
+            if (cache != null) {
+                cacheEditor = cache.edit(cacheKey, newETag, newLastModified, contentEncoding);
+                if (cacheEditor != null) {
+                    networkStream = cacheEditor.wrap(networkStream);
+                }
+            }
+
+            T body;
+            CountingInputStream wireStream = new CountingInputStream(networkStream);
+            CountingInputStream decodedStream;
+            try {
+                decodedStream = new CountingInputStream(
+                        decodeContent(wireStream, contentEncoding));
+                body = NetworkUtils.handleResponse(decodedStream, handler);
+            } catch (IOException | RuntimeException e) {
+                if (cacheEditor != null) {
+                    cacheEditor.abort();
+                }
+                throw e;
+            }
+            long bodyMillis = SystemClock.elapsedRealtime() - bodyStart;
+
+            /*
+             * Only keep responses the handler could make sense of. Error payloads, such as an
+             * unknown location, make the handler return null and shouldn't be replayed.
+             */
+            if (cacheEditor != null) {
+                if (body != null) {
+                    cacheEditor.commit();
+                } else {
+                    cacheEditor.abort();
+                }
+            }
+
+            /* handleResponse read the body to the end and closed it, so keep the connection */
+            reusable = true;
+
+            return new HttpResult<>(responseCode, body, newETag, newLastModified,
+                    wireStream.getCount(), decodedStream.getCount(),
+                    new RequestTiming(connectMillis, firstByteMillis, bodyMillis),
+                    false);
+        } finally {
+            /*
+             * disconnect() closes the socket for good, so we only do it when something went
+             * wrong part way through a response and the connection can't be trusted.
+             */
+            if (!reusable) {
+                urlConnection.disconnect();
+            }
+        }
+    }
+
+    /**
+     * Answers a request from a fresh cache entry.
+     *
+     * @return The result, or null if the entry couldn't be read, in which case it has been
+     * dropped from the cache and the request should go to the network
+     */
+    private static <T> HttpResult<T> executeFromCache(ForecastDiskCache cache,
+                                                      ForecastDiskCache.Entry entry,
+                                                      String eTag, String lastModified,
+                                                      NetworkUtils.ResponseHandler<T> handler) {
+        boolean callerIsCurrent = (eTag != null && eTag.equals(entry.eTag))
+                || (lastModified != null && lastModified.equals(entry.lastModified));
+        if (callerIsCurrent) {
+            return new HttpResult<>(HttpURLConnection.HTTP_NOT_MODIFIED, null,
+                    entry.eTag, entry.lastModified, 0, 0,
+                    new RequestTiming(0, 0, 0), true);
+        }
+
+        long bodyStart = SystemClock.elapsedRealtime();
+        try {
+            CountingInputStream decodedStream = new CountingInputStream(
+                    decodeContent(cache.openBody(entry), entry.contentEncoding));
+            T body = NetworkUtils.handleResponse(decodedStream, handler);
+            long bodyMillis = SystemClock.elapsedRealtime() - bodyStart;
+            if (body == null) {
+                cache.remove(entry.url);
+                return null;
+            }
+            return new HttpResult<>(HttpURLConnection.HTTP_OK, body,
+                    entry.eTag, entry.lastModified, 0, decodedStream.getCount(),
+                    new RequestTiming(0, 0, bodyMillis), true);
+        } catch (IOException | RuntimeException e) {
+            cache.remove(entry.url);
+            return null;
+        }
+    }
+
+    /**
+     * Reads and closes the error stream of a failed response.
+     *
+     * @param urlConnection A connection whose response code is 400 or above
+     */
+    private static void discardErrorStream(HttpURLConnection urlConnection) throws IOException {
+        InputStream errorStream = urlConnection.getErrorStream();
+        if (errorStream == null) {
+            return;
+        }
+        try {
+            byte[] buffer = new byte[DECODE_BUFFER_SIZE];
+            while (errorStream.read(buffer) != -1) {
+                /* Discard */
+            }
+        } finally {
+            errorStream.close();
+        }
+    }
+
+    /**
+     * Wraps a response stream in a decoder for its Content-Encoding. Decoding happens as the
+     * stream is read, so only the decompressor's window is ever held in memory.
+     *
+     * @param in              The response body as it came over the wire
+     * @param contentEncoding The value of the Content-Encoding header, or null
+     * @return A stream of the decoded response body
+     * @throws IOException If the encoding is unknown or the gzip header can't be read
+     */
+    static InputStream decodeContent(InputStream in, String contentEncoding) throws IOException {
+        if (contentEncoding == null) {
+            return in;
+        }
+
+        String encoding = contentEncoding.trim().toLowerCase(Locale.US);
+        if (encoding.isEmpty() || ENCODING_IDENTITY.equals(encoding)) {
+            return in;
+        } else if (ENCODING_GZIP.equals(encoding) || "x-gzip".equals(encoding)) {
+            return new GZIPInputStream(in, DECODE_BUFFER_SIZE);
+        } else if (ENCODING_DEFLATE.equals(encoding)) {
+            /*
+             * "deflate" is supposed to be zlib-wrapped, but plenty of servers send a raw deflate
+             * stream instead. A zlib stream always starts with a CMF byte whose low nibble is 8
+             * and whose first two bytes are a multiple of 31, so peek at them to decide.
+             */
+            InputStream buffered = new BufferedInputStream(in, DECODE_BUFFER_SIZE);
+            buffered.mark(2);
+            int cmf = buffered.read();
+            int flg = buffered.read();
+            buffered.reset();
+            boolean zlibWrapped = cmf != -1 && flg != -1
+                    && (cmf & 0x0f) == 8
+                    && ((cmf << 8) | flg) % 31 == 0;
+            final Inflater inflater = new Inflater(!zlibWrapped);
+            return new InflaterInputStream(buffered, inflater, DECODE_BUFFER_SIZE) {
+                @Override
+                public void close() throws IOException {
+                    /* InflaterInputStream only frees the Inflaters it creates itself */
+                    try {
+                        super.close();
+                    } finally {
+                        inflater.end();
+                    }
+                }
+            };
+        } else {
+            throw new IOException("Unsupported Content-Encoding: " + contentEncoding);
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.Context;
+import android.os.SystemClock;
+
+import com.example.android.sunshine.utilities.NetworkUtils;
+
+import java.net.URL;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Makes sure only one sync per location is ever running. Syncs are started from a number of
+ * places (the IntentService, the JobService, the refresh menu, the empty check at start up and
+ * location changes in the settings) and they often overlap. Rather than each one queuing up and
+ * downloading the same forecast again, a caller that arrives while a sync for the same location
+ * is in flight waits for that sync and shares its outcome.
+ * <p>
+ * Locations are identified by their request URL from {@link NetworkUtils#getUrl(Context)}, so a
+ * sync for a different location is never mistaken for a duplicate.
+ */
+final class SunshineSyncCoordinator {
+
+    /*
+     * How long a requested immediate sync counts as pending before it has started. If the
+     * service never gets to run it (the process is killed, say), we don't want to swallow every
+     * later request for the location.
+     */
+    private static final long PENDING_EXPIRY_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    /* Syncs currently running, keyed by request URL */
+    private static final ConcurrentHashMap<String, Flight> sFlights = new ConcurrentHashMap<>();
+
+    /* Immediate syncs that have been requested but not yet started, keyed by request URL */
+    private static final ConcurrentHashMap<String, Long> sPending = new ConcurrentHashMap<>();
+
+    private SunshineSyncCoordinator() {
+    }
+
+    /**
+     * Syncs the weather for the user's current location, or, if a sync for that location is
+     * already running, waits for it to finish and returns its outcome.
+     *
+     * @param context Used to access utility methods and the ContentResolver
+     * @return The outcome of the sync that did the work
+     */
+    static SyncOutcome sync(Context context) {
+        URL weatherRequestUrl = NetworkUtils.getUrl(context);
+        String key = String.valueOf(weatherRequestUrl);
+
+        Flight flight = new Flight();
+        Flight inFlight = sFlights.putIfAbsent(key, flight);
+
+        /* Either way, whatever was pending for this location is now taken care of */
+        sPending.remove(key);
+
+        if (inFlight != null) {
+            SunshineSyncStats.recordCoalesced();
+            return inFlight.await();
+        }
+
+        try {
+            flight.mOutcome = SunshineSyncTask.performSync(context, weatherRequestUrl);
+        } finally {
+            sFlights.remove(key, flight);
+            flight.mDone.countDown();
+        }
+
+        /*
+         * The saved locations are refreshed on the same schedule as the user's own forecast, so
+         * there is only something new for them when there was for the user. This runs once the
+         * flight is over and performSync has let go of its lock, so neither the callers sharing
+         * this sync nor the next sync wait on it.
+         */
+        if (flight.mOutcome == SyncOutcome.UPDATED) {
+            SavedLocationSync.sync(context);
+        }
+        return flight.mOutcome;
+    }
+
+    /**
+     * Called before starting an immediate sync. If a sync for the same location is already
+     * running or about to run, the new request would only download the same forecast again, so
+     * it is dropped and counted as a duplicate.
+     *
+     * @param context Used to find the user's current location
+     * @return true if the caller should go ahead and start the sync
+     */
+    static boolean requestImmediateSync(Context context) {
+        String key = String.valueOf(NetworkUtils.getUrl(context));
+        long now = SystemClock.elapsedRealtime();
+
+        if (sFlights.containsKey(key)) {
+            SunshineSyncStats.recordCoalesced();
+            return false;
+        }
+
+        Long pendingSince = sPending.putIfAbsent(key, now);
+        if (pendingSince == null) {
+            /*
+             * A new location. Requests that were lost for the locations the user has since
+             * moved away from would otherwise stay here for as long as the process lives.
+             */
+            pruneExpired(now);
+            return true;
+        }
+
+        if (now - pendingSince < PENDING_EXPIRY_MILLIS) {
+            SunshineSyncStats.recordCoalesced();
+            return false;
+        }
+
+        /* The earlier request seems to have been lost, so let this one through */
+        sPending.put(key, now);
+        return true;
+    }
+
+    /**
+     * Drops the pending requests that have been waiting longer than PENDING_EXPIRY_MILLIS.
+     *
+     * @param now The current {@link SystemClock#elapsedRealtime()}
+     */
+    private static void pruneExpired(long now) {
+        Iterator<Map.Entry<String, Long>> entries = sPending.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<String, Long> entry = entries.next();
+            if (now - entry.getValue() >= PENDING_EXPIRY_MILLIS) {
+                /* Only if no one has renewed it in the meantime */
+                sPending.remove(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * A sync in progress that other callers can wait on.
+     */
+    private static final class Flight {
+        final CountDownLatch mDone = new CountDownLatch(1);
+        /* Written before mDone is counted down, which makes it visible to waiting threads */
+        SyncOutcome mOutcome = SyncOutcome.FAILED;
+
+        SyncOutcome await() {
+            try {
+                mDone.await();
+                return mOutcome;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return SyncOutcome.FAILED;
+            }
+        }
+    }
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters describing what the sync has been doing since the process started. These are cheap
+ * to update from any thread and are logged after every sync so they can be picked up from logcat.
+ */
+public final class SunshineSyncStats {
+
+    private static final String TAG = SunshineSyncStats.class.getSimpleName();
+
+    /* Every call to SunshineSyncTask.syncWeather */
+    private static final AtomicInteger sSyncRuns = new AtomicInteger();
+    /* Runs where the server told us the forecast hadn't changed (HTTP 304) */
+    private static final AtomicInteger sNotModifiedRuns = new AtomicInteger();
+    /* Runs that downloaded and stored a new forecast */
+    private static final AtomicInteger sUpdatedRuns = new AtomicInteger();
+    /* Runs answered from the on-disk forecast cache without using the network */
+    private static final AtomicInteger sServedFromCacheRuns = new AtomicInteger();
+    /* Sync requests that joined a sync already in flight for the same location */
+    private static final AtomicInteger sCoalescedRequests = new AtomicInteger();
+    /* Runs that ended in an exception */
+    private static final AtomicInteger sFailedRuns = new AtomicInteger();
+    /* Requests made again after a transient failure */
+    private static final AtomicInteger sRetries = new AtomicInteger();
+    /* Runs refused by the circuit breaker without touching the network */
+    private static final AtomicInteger sCircuitOpenRuns = new AtomicInteger();
+
+    /* Syncs that asked for the whole forecast, and those that only topped it up */
+    private static final AtomicInteger sFullWindowRuns = new AtomicInteger();
+    private static final AtomicInteger sPartialWindowRuns = new AtomicInteger();
+    /* Days of forecast requested, over all syncs */
+    private static final AtomicLong sDaysRequested = new AtomicLong();
+
+    /* Forecast body bytes as they came over the network, and after decompression */
+    private static final AtomicLong sWireBytes = new AtomicLong();
+    private static final AtomicLong sDecodedBytes = new AtomicLong();
+
+    /* Weather table rows the syncs wrote or deleted, and stored days they found up to date */
+    private static final AtomicLong sRowsWritten = new AtomicLong();
+    private static final AtomicLong sRowsDeleted = new AtomicLong();
+    private static final AtomicLong sRowsUnchanged = new AtomicLong();
+
+    /* Preference file rewrites saved by buffering each sync's writes in a PreferenceTransaction */
+    private static final AtomicInteger sPreferenceWritesAvoided = new AtomicInteger();
+
+    private SunshineSyncStats() {
+    }
+
+    static void recordSyncStarted() {
+        sSyncRuns.incrementAndGet();
+    }
+
+    static void recordNotModified() {
+        sNotModifiedRuns.incrementAndGet();
+    }
+
+    static void recordUpdated() {
+        sUpdatedRuns.incrementAndGet();
+    }
+
+    static void recordServedFromCache() {
+        sServedFromCacheRuns.incrementAndGet();
+    }
+
+    static void recordCoalesced() {
+        sCoalescedRequests.incrementAndGet();
+    }
+
+    static void recordFailed() {
+        sFailedRuns.incrementAndGet();
+    }
+
+    static void recordRetry() {
+        sRetries.incrementAndGet();
+    }
+
+    static void recordCircuitOpen() {
+        sCircuitOpenRuns.incrementAndGet();
+    }
+
+    static void recordForecastWindow(int days, boolean fullRefresh) {
+        if (fullRefresh) {
+            sFullWindowRuns.incrementAndGet();
+        } else {
+            sPartialWindowRuns.incrementAndGet();
+        }
+        sDaysRequested.addAndGet(days);
+    }
+
+    static void recordBytes(long wireBytes, long decodedBytes) {
+        sWireBytes.addAndGet(wireBytes);
+        sDecodedBytes.addAndGet(decodedBytes);
+    }
+
+    static void recordRowsTouched(int written, int deleted, int unchanged) {
+        sRowsWritten.addAndGet(written);
+        sRowsDeleted.addAndGet(deleted);
+        sRowsUnchanged.addAndGet(unchanged);
+    }
+
+    static void recordPreferenceWritesAvoided(int writes) {
+        sPreferenceWritesAvoided.addAndGet(writes);
+    }
+
+    /**
+     * @return The number of syncs that have been started
+     */
+    public static int getSyncRuns() {
+        return sSyncRuns.get();
+    }
+
+    /**
+     * @return The number of syncs that were served by a 304 Not Modified response, and so skipped
+     * parsing, the database and notifications entirely
+     */
+    public static int getNotModifiedRuns() {
+        return sNotModifiedRuns.get();
+    }
+
+    /**
+     * @return The number of syncs that stored a new forecast
+     */
+    public static int getUpdatedRuns() {
+        return sUpdatedRuns.get();
+    }
+
+    /**
+     * @return The number of syncs answered from the on-disk forecast cache
+     */
+    public static int getServedFromCacheRuns() {
+        return sServedFromCacheRuns.get();
+    }
+
+    /**
+     * @return The number of duplicate fetches avoided because a sync for the same location was
+     * already running or about to run
+     */
+    public static int getCoalescedRequests() {
+        return sCoalescedRequests.get();
+    }
+
+    /**
+     * @return The number of syncs that failed
+     */
+    public static int getFailedRuns() {
+        return sFailedRuns.get();
+    }
+
+    /**
+     * @return The number of times a forecast request was retried after a transient failure
+     */
+    public static int getRetries() {
+        return sRetries.get();
+    }
+
+    /**
+     * @return The number of syncs skipped because the forecast endpoint's circuit breaker was open
+     */
+    public static int getCircuitOpenRuns() {
+        return sCircuitOpenRuns.get();
+    }
+
+    /**
+     * @return The number of syncs that asked for the whole forecast
+     */
+    public static int getFullWindowRuns() {
+        return sFullWindowRuns.get();
+    }
+
+    /**
+     * @return The number of syncs that only asked for the days they were missing
+     */
+    public static int getPartialWindowRuns() {
+        return sPartialWindowRuns.get();
+    }
+
+    /**
+     * @return The number of days of forecast requested, over all syncs
+     */
+    public static long getDaysRequested() {
+        return sDaysRequested.get();
+    }
+
+    /**
+     * @return The number of forecast body bytes downloaded, as they came over the network
+     */
+    public static long getWireBytes() {
+        return sWireBytes.get();
+    }
+
+    /**
+     * @return The number of forecast body bytes parsed, after decompression
+     */
+    public static long getDecodedBytes() {
+        return sDecodedBytes.get();
+    }
+
+    /**
+     * @return The number of weather table rows inserted or rewritten by syncs
+     */
+    public static long getRowsWritten() {
+        return sRowsWritten.get();
+    }
+
+    /**
+     * @return The number of weather table rows deleted by syncs
+     */
+    public static long getRowsDeleted() {
+        return sRowsDeleted.get();
+    }
+
+    /**
+     * @return The number of days syncs downloaded that were already stored exactly as they were,
+     * and so weren't written again
+     */
+    public static long getRowsUnchanged() {
+        return sRowsUnchanged.get();
+    }
+
+    /**
+     * @return The number of times a preferences file would have been rewritten during a sync, had
+     * the sync's preference writes not been buffered and made together at the end of it
+     */
+    public static int getPreferenceWritesAvoided() {
+        return sPreferenceWritesAvoided.get();
+    }
+
+    /**
+     * Writes the current counters, including those of the forecast cache, to logcat.
+     *
+     * @param context Used to find the forecast cache
+     */
+    static void log(Context context) {
+        ForecastDiskCache cache = ForecastDiskCache.getInstance(context);
+        Log.i(TAG, "Sync runs: " + getSyncRuns()
+                + ", updated: " + getUpdatedRuns()
+                + ", not modified (304): " + getNotModifiedRuns()
+                + ", served from cache: " + getServedFromCacheRuns()
+                + ", duplicates coalesced: " + getCoalescedRequests()
+                + ", failed: " + getFailedRuns()
+                + ", retries: " + getRetries()
+                + ", skipped by circuit breaker: " + getCircuitOpenRuns()
+                + ", full windows: " + getFullWindowRuns()
+                + ", partial windows: " + getPartialWindowRuns()
+                + ", days requested: " + getDaysRequested()
+                + ", bytes on the wire: " + getWireBytes()
+                + ", bytes decoded: " + getDecodedBytes()
+                + ", rows written: " + getRowsWritten()
+                + ", rows deleted: " + getRowsDeleted()
+                + ", rows unchanged: " + getRowsUnchanged()
+                + ", preference writes avoided: " + getPreferenceWritesAvoided()
+                + ", cache hits: " + cache.getHitCount()
+                + ", cache misses: " + cache.getMissCount()
+                + ", cache evictions: " + cache.getEvictionCount()
+                + ", cache size: " + cache.getSize());
+    }
+}
@@ -16,7 +16,6 @@
 package com.example.android.sunshine.sync;
 
 import android.content.ContentResolver;
-import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.net.Uri;
@@ -28,11 +27,13 @@ import android.text.format.DateUtils;
 import android.util.Log;
 
 import com.example.android.sunshine.R;
+import com.example.android.sunshine.data.ForecastSnapshot;
+import com.example.android.sunshine.data.PreferenceTransaction;
 import com.example.android.sunshine.data.SunshinePreferences;
 import com.example.android.sunshine.data.WeatherContract;
+import com.example.android.sunshine.utilities.HttpResult;
 import com.example.android.sunshine.utilities.NetworkUtils;
 import com.example.android.sunshine.utilities.NotificationUtils;
-import com.example.android.sunshine.utilities.OpenWeatherJsonUtils;
 import com.example.android.sunshine.utilities.SunshineWeatherUtils;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.api.GoogleApiClient;
@@ -43,57 +44,173 @@ import com.google.android.gms.wearable.PutDataMapRequest;
 import com.google.android.gms.wearable.PutDataRequest;
 import com.google.android.gms.wearable.Wearable;
 
+import java.io.IOException;
+import java.io.Reader;
 import java.net.URL;
 
 import static com.example.android.sunshine.MainActivity.MAIN_FORECAST_PROJECTION;
 
 public class SunshineSyncTask implements GoogleApiClient.ConnectionCallbacks, GoogleApiClient.OnConnectionFailedListener {
 
+    private static final String TAG = SunshineSyncTask.class.getSimpleName();
+
     /**
      * Performs the network request for updated weather, parses the JSON from that request, and
      * inserts the new weather information into our ContentProvider. Will notify the user that new
      * weather has been loaded if the user hasn't been notified of the weather within the last day
      * AND they haven't disabled notifications in the preferences screen.
+     * <p>
+     * If a sync for the same location is already running, this waits for it and returns its
+     * outcome instead of downloading the forecast a second time.
      *
      * @param context Used to access utility methods and the ContentResolver
+     * @return How the sync that did the work ended
      */
-    synchronized public static void syncWeather(Context context) {
+    public static SyncOutcome syncWeather(Context context) {
+        return SunshineSyncCoordinator.sync(context);
+    }
+
+    /**
+     * Does the actual work of {@link #syncWeather(Context)} for one location. Only
+     * {@link SunshineSyncCoordinator} should call this.
+     * <p>
+     * Only the days we need are requested (see {@link ForecastWindow}): a partial forecast is
+     * merged into the one we have, and a full one replaces it.
+     * <p>
+     * The request is conditional on the validators of the last forecast we stored. If the server
+     * says nothing has changed, the rest of the sync (parsing, the database, notifications and
+     * the push to Android Wear) is skipped.
+     * <p>
+     * The preferences the sync writes along the way are buffered in a
+     * {@link PreferenceTransaction} and written together once the sync is over, rather than each
+     * rewriting the preferences file on its own. If the sync fails they are dropped, so we never
+     * keep validators for a forecast we didn't store.
+     *
+     * @param context         Used to access utility methods and the ContentResolver
+     * @param fullForecastUrl The URL to get the full forecast JSON from
+     * @return How the sync ended
+     */
+    synchronized static SyncOutcome performSync(final Context context, URL fullForecastUrl) {
+
+        SunshineSyncStats.recordSyncStarted();
+
+        SyncOutcome outcome = SyncOutcome.NO_DATA;
+
+        PreferenceTransaction preferences = PreferenceTransaction.begin();
+        boolean completed = false;
 
         try {
             /*
-             * The getUrl method will return the URL that we need to get the forecast JSON for the
-             * weather. It will decide whether to create a URL based off of the latitude and
-             * longitude or off of a simple location as a String.
+             * The URL comes from NetworkUtils.getUrl, which decides whether to create a URL based
+             * off of the latitude and longitude or off of a simple location as a String. We then
+             * cut it down to the days we actually need.
              */
-            URL weatherRequestUrl = NetworkUtils.getUrl(context);
+            final ForecastWindow window =
+                    ForecastWindow.choose(context, fullForecastUrl.toString());
+            final URL weatherRequestUrl = window.isFullRefresh()
+                    ? fullForecastUrl
+                    : NetworkUtils.buildUrlWithDays(fullForecastUrl, window.getDays());
+            String requestUrlKey = weatherRequestUrl.toString();
 
-            /* Use the URL to retrieve the JSON */
-            String jsonWeatherResponse = NetworkUtils.getResponseFromHttpUrl(weatherRequestUrl);
+            SunshineSyncStats.recordForecastWindow(window.getDays(), window.isFullRefresh());
 
-            /* Parse the JSON into a list of weather values */
-            ContentValues[] weatherValues = OpenWeatherJsonUtils
-                    .getWeatherContentValuesFromJson(context, jsonWeatherResponse);
+            /*
+             * A 304 only helps us if we still have the forecast it refers to. If the database has
+             * been cleared out from under us, make an unconditional request instead.
+             */
+            String eTag = null;
+            String lastModified = null;
+            if (window.hasStoredForecast()) {
+                eTag = SunshinePreferences.getHttpETag(context, requestUrlKey);
+                lastModified = SunshinePreferences.getHttpLastModified(context, requestUrlKey);
+            }
 
             /*
-             * In cases where our JSON contained an error code, getWeatherContentValuesFromJson
-             * would have returned null. We need to check for those cases here to prevent any
-             * NullPointerExceptions being thrown. We also have no reason to insert fresh data if
-             * there isn't any to insert.
+             * Use the URL to retrieve the JSON, and parse and store it as it streams in, rather
+             * than reading the whole response into a String first. See ForecastPipeline: the
+             * forecast is committed in one go once all of it has arrived, and a full one
+             * replaces what we had where a partial one is merged into it.
              */
-            if (weatherValues != null && weatherValues.length != 0) {
-                /* Get a handle on the ContentResolver to delete and insert data */
-                ContentResolver sunshineContentResolver = context.getContentResolver();
+            final String requestETag = eTag;
+            final String requestLastModified = lastModified;
+            final boolean replaceForecast = window.isFullRefresh();
+            final NetworkUtils.ResponseHandler<Integer> handler =
+                    new NetworkUtils.ResponseHandler<Integer>() {
+                        @Override
+                        public Integer handleResponse(Reader body) throws IOException {
+                            return ForecastPipeline.parseAndStore(context, body,
+                                    replaceForecast);
+                        }
+                    };
 
-                /* Delete old weather data because we don't need to keep multiple days' data */
-                sunshineContentResolver.delete(
-                        WeatherContract.WeatherEntry.CONTENT_URI,
-                        null,
-                        null);
+            /*
+             * Timeouts and server errors are retried a couple of times with backoff. If the
+             * endpoint has been failing for a while, its circuit breaker refuses the request
+             * without touching the network at all.
+             */
+            HttpResult<Integer> weatherResult = ForecastRetryPolicy.execute(
+                    weatherRequestUrl,
+                    new ForecastRetryPolicy.Attempt<HttpResult<Integer>>() {
+                        @Override
+                        public HttpResult<Integer> run() throws IOException {
+                            return NetworkUtils.getResponseFromHttpUrl(context,
+                                    weatherRequestUrl, requestETag, requestLastModified, handler);
+                        }
+                    });
+
+            Log.d(TAG, "Forecast request " + weatherResult.getResponseCode()
+                    + (weatherResult.isFromCache() ? " (cached): " : ": ")
+                    + weatherResult.getTiming());
+
+            if (weatherResult.isFromCache()) {
+                SunshineSyncStats.recordServedFromCache();
+            }
+
+            /* Nothing has changed since our last sync, so there is nothing left to do */
+            if (weatherResult.isNotModified()) {
+                if (window.isFullRefresh()) {
+                    /* The full forecast we have is still current, which is as good as a new one */
+                    SunshinePreferences.saveLastFullForecastTime(context,
+                            fullForecastUrl.toString(),
+                            System.currentTimeMillis());
+                }
+                SunshineSyncStats.recordNotModified();
+                SunshineSyncStats.log(context);
+                completed = true;
+                return SyncOutcome.NOT_MODIFIED;
+            }
 
-                /* Insert our new weather data into Sunshine's ContentProvider */
-                sunshineContentResolver.bulkInsert(
-                        WeatherContract.WeatherEntry.CONTENT_URI,
-                        weatherValues);
+            SunshineSyncStats.recordBytes(weatherResult.getWireBytes(),
+                    weatherResult.getDecodedBytes());
+
+            Integer daysStored = weatherResult.getBody();
+
+            /*
+             * Error codes in the JSON are thrown as OpenWeatherErrorException by the parser, but
+             * we still guard against a null or empty forecast here. If there was nothing to
+             * store, the pipeline left the forecast we had alone.
+             */
+            if (daysStored != null && daysStored > 0) {
+                if (window.isFullRefresh()) {
+                    SunshinePreferences.saveLastFullForecastTime(context,
+                            fullForecastUrl.toString(),
+                            System.currentTimeMillis());
+                }
+
+                /*
+                 * Only now that the forecast is safely stored do we remember its validators. If
+                 * anything above had failed, the next request would be unconditional.
+                 */
+                SunshinePreferences.saveHttpValidators(context,
+                        requestUrlKey,
+                        weatherResult.getETag(),
+                        weatherResult.getLastModified());
+
+                /*
+                 * Keep a copy of the new forecast where the next cold start (and the notification
+                 * below) can read it without going through the database.
+                 */
+                ForecastSnapshot.writeFromProvider(context);
 
                 /*
                  * Finally, after we insert data into the ContentProvider, determine whether or not
@@ -124,17 +241,51 @@ public class SunshineSyncTask implements GoogleApiClient.ConnectionCallbacks, Go
                 }
 
             /* If the code reaches this point, we have successfully performed our sync */
-
+                SunshineSyncStats.recordUpdated();
+                outcome = SyncOutcome.UPDATED;
             }
 
+            completed = true;
+
+        } catch (CircuitOpenException e) {
+            /* The endpoint has been failing, so we didn't even try */
+            Log.i(TAG, e.getMessage());
+            SunshineSyncStats.recordCircuitOpen();
+            outcome = SyncOutcome.CIRCUIT_OPEN;
+        } catch (IOException e) {
+            SunshineSyncStats.recordFailed();
+            if (ForecastRetryPolicy.isTransient(e)) {
+                /* Timeouts and server errors that outlasted our retries */
+                Log.w(TAG, "Forecast sync failed", e);
+                outcome = SyncOutcome.FAILED;
+            } else {
+                /* Location invalid, or a response we can't use */
+                Log.e(TAG, "Forecast server gave us no usable data", e);
+                outcome = SyncOutcome.NO_DATA;
+            }
         } catch (Exception e) {
             /* Server probably invalid */
-            e.printStackTrace();
+            SunshineSyncStats.recordFailed();
+            Log.e(TAG, "Forecast sync failed unexpectedly", e);
+            outcome = SyncOutcome.FAILED;
+        } finally {
+            if (completed) {
+                /*
+                 * Whatever the sync stored in the database is committed by now, so the
+                 * preferences that describe it can follow. This only queues the write to disk.
+                 */
+                SunshineSyncStats.recordPreferenceWritesAvoided(preferences.commit());
+            } else {
+                preferences.discard();
+            }
         }
 
+        SunshineSyncStats.log(context);
+
         // Sync new weather data to Android Wear
         sendWearWeatherData(context);
 
+        return outcome;
     }
 
     private static void sendWearWeatherData(Context context) {
@@ -28,6 +28,7 @@ import com.firebase.jobdispatcher.FirebaseJobDispatcher;
 import com.firebase.jobdispatcher.GooglePlayDriver;
 import com.firebase.jobdispatcher.Job;
 import com.firebase.jobdispatcher.Lifetime;
+import com.firebase.jobdispatcher.RetryStrategy;
 import com.firebase.jobdispatcher.Trigger;
 
 import java.util.concurrent.TimeUnit;
@@ -42,9 +43,26 @@ public class SunshineSyncUtils {
     private static final int SYNC_INTERVAL_SECONDS = (int) TimeUnit.HOURS.toSeconds(SYNC_INTERVAL_HOURS);
     private static final int SYNC_FLEXTIME_SECONDS = SYNC_INTERVAL_SECONDS / 3;
 
+    /* Backoff for early retries of a failed sync job, see ForecastRetryPolicy */
+    private static final int RETRY_INITIAL_BACKOFF_SECONDS =
+            (int) TimeUnit.MILLISECONDS.toSeconds(ForecastRetryPolicy.BREAKER_INITIAL_OPEN_MILLIS);
+    private static final int RETRY_MAXIMUM_BACKOFF_SECONDS =
+            (int) TimeUnit.MILLISECONDS.toSeconds(ForecastRetryPolicy.BREAKER_MAX_OPEN_MILLIS);
+
+    /*
+     * The history table is compacted once a day, at some point in the few hours after that while
+     * the device is charging. It only ever has a day's worth of forecasts to compact, so there's
+     * no hurry.
+     */
+    private static final int HISTORY_COMPACTION_INTERVAL_SECONDS =
+            (int) TimeUnit.DAYS.toSeconds(1);
+    private static final int HISTORY_COMPACTION_FLEXTIME_SECONDS =
+            (int) TimeUnit.HOURS.toSeconds(6);
+
     private static boolean sInitialized;
 
     private static final String SUNSHINE_SYNC_TAG = "sunshine-sync";
+    private static final String SUNSHINE_HISTORY_COMPACTION_TAG = "sunshine-history-compaction";
 
     /**
      * Schedules a repeating sync of Sunshine's weather data using FirebaseJobDispatcher.
@@ -93,12 +111,50 @@ public class SunshineSyncUtils {
                  * the old one.
                  */
                 .setReplaceCurrent(true)
+                /*
+                 * When a sync fails for a transient reason, the JobService asks to be retried.
+                 * Start that backoff at the circuit breaker's cool down, so the retry isn't
+                 * refused by a breaker that has only just opened.
+                 */
+                .setRetryStrategy(dispatcher.newRetryStrategy(
+                        RetryStrategy.RETRY_POLICY_EXPONENTIAL,
+                        RETRY_INITIAL_BACKOFF_SECONDS,
+                        RETRY_MAXIMUM_BACKOFF_SECONDS))
                 /* Once the Job is ready, call the builder's build method to return the Job */
                 .build();
 
         /* Schedule the Job with the dispatcher */
         dispatcher.schedule(syncSunshineJob);
     }
+
+    /**
+     * Schedules a daily compaction of the weather history (see SunshineHistoryJobService) using
+     * FirebaseJobDispatcher. Compaction doesn't need the network, so instead it waits for the
+     * device to be charging.
+     *
+     * @param context Context used to create the GooglePlayDriver that powers the
+     *                FirebaseJobDispatcher
+     */
+    static void scheduleFirebaseJobDispatcherHistoryCompaction(@NonNull final Context context) {
+
+        Driver driver = new GooglePlayDriver(context);
+        FirebaseJobDispatcher dispatcher = new FirebaseJobDispatcher(driver);
+
+        Job compactHistoryJob = dispatcher.newJobBuilder()
+                .setService(SunshineHistoryJobService.class)
+                .setTag(SUNSHINE_HISTORY_COMPACTION_TAG)
+                .setConstraints(Constraint.DEVICE_CHARGING)
+                .setLifetime(Lifetime.FOREVER)
+                .setRecurring(true)
+                .setTrigger(Trigger.executionWindow(
+                        HISTORY_COMPACTION_INTERVAL_SECONDS,
+                        HISTORY_COMPACTION_INTERVAL_SECONDS + HISTORY_COMPACTION_FLEXTIME_SECONDS))
+                .setReplaceCurrent(true)
+                .build();
+
+        dispatcher.schedule(compactHistoryJob);
+    }
+
     /**
      * Creates periodic sync tasks and checks to see if an immediate sync is required. If an
      * immediate sync is required, this method will take care of making sure that sync occurs.
@@ -121,6 +177,7 @@ public class SunshineSyncUtils {
          * periodically.
          */
         scheduleFirebaseJobDispatcherSync(context);
+        scheduleFirebaseJobDispatcherHistoryCompaction(context);
 
         /*
          * We need to check to see if our ContentProvider has data to display in our forecast
@@ -181,11 +238,16 @@ public class SunshineSyncUtils {
 
     /**
      * Helper method to perform a sync immediately using an IntentService for asynchronous
-     * execution.
+     * execution. If a sync for the same location is already running or waiting to run, there is
+     * nothing to gain from another one and this does nothing.
      *
      * @param context The Context used to start the IntentService for the sync.
      */
     public static void startImmediateSync(@NonNull final Context context) {
+        if (!SunshineSyncCoordinator.requestImmediateSync(context)) {
+            return;
+        }
+
         Intent intentToSyncImmediately = new Intent(context, SunshineSyncIntentService.class);
         context.startService(intentToSyncImmediately);
     }
@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+/**
+ * How a run of {@link SunshineSyncTask#syncWeather} ended.
+ */
+public enum SyncOutcome {
+
+    /* A new forecast was downloaded and stored */
+    UPDATED,
+
+    /* The server (or the forecast cache) told us the forecast we already have is current */
+    NOT_MODIFIED,
+
+    /*
+     * The server answered, but with an error code instead of a forecast, or with something we
+     * couldn't parse. Trying again soon won't help.
+     */
+    NO_DATA,
+
+    /* The sync failed for a reason that may go away, like a timeout or a 5xx, even after retries */
+    FAILED,
+
+    /* The forecast endpoint has been failing, so its circuit breaker stopped us from trying */
+    CIRCUIT_OPEN
+}
@@ -0,0 +1,422 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.util.MalformedJsonException;
+
+import com.example.android.sunshine.data.ForecastBatch;
+
+import java.io.CharArrayReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Parses a bundle of forecasts for many locations at once, for deployments that sync dozens of
+ * locations in a single response. A bundle looks like this:
+ * <pre>
+ *     {"cod": "200", "cnt": 2, "forecasts": [ {forecast}, {forecast} ]}
+ * </pre>
+ * where each forecast is exactly what the server returns for a single location, including its
+ * own "cod".
+ * <p>
+ * Parsing one location is strictly serial, but the locations don't depend on each other. So the
+ * bundle is first scanned (cheaply, without parsing any values) for where each location's
+ * forecast starts and ends, and the locations are then parsed in parallel on a
+ * {@link ForkJoinPool}, each straight out of the bundle's characters. The results are joined
+ * back together in the order the locations appear in the bundle.
+ */
+public final class ForecastBundleParser {
+
+    private static final String BUNDLE_FORECASTS = "forecasts";
+    private static final String BUNDLE_MESSAGE_CODE = "cod";
+
+    /* Split the locations until each task parses no more than this many */
+    private static final int LOCATIONS_PER_TASK = 1;
+
+    private static ForkJoinPool sPool;
+
+    private ForecastBundleParser() {
+    }
+
+    /**
+     * One location's forecast from a bundle.
+     */
+    public static final class LocationForecast {
+
+        private final double mLatitude;
+        private final double mLongitude;
+        private final ForecastBatch mForecast;
+        private final int mErrorCode;
+
+        LocationForecast(double latitude, double longitude, ForecastBatch forecast) {
+            mLatitude = latitude;
+            mLongitude = longitude;
+            mForecast = forecast;
+            mErrorCode = HttpURLConnection.HTTP_OK;
+        }
+
+        LocationForecast(int errorCode) {
+            mLatitude = Double.NaN;
+            mLongitude = Double.NaN;
+            mForecast = null;
+            mErrorCode = errorCode;
+        }
+
+        /**
+         * @return The "cod" the server gave for this location. Anything other than 200 means
+         * there is no forecast for it.
+         */
+        public int getErrorCode() {
+            return mErrorCode;
+        }
+
+        /**
+         * @return The latitude from the forecast's "city.coord", or NaN if there is no forecast
+         */
+        public double getLatitude() {
+            return mLatitude;
+        }
+
+        /**
+         * @return The longitude from the forecast's "city.coord", or NaN if there is no forecast
+         */
+        public double getLongitude() {
+            return mLongitude;
+        }
+
+        /**
+         * @return The location's forecast, one day per element starting today, or null if the
+         * server reported an error for this location
+         */
+        public ForecastBatch getForecast() {
+            return mForecast;
+        }
+    }
+
+    /**
+     * Parses a bundle on a pool with one thread for each of the device's cores.
+     *
+     * @see #parse(Reader, ForkJoinPool)
+     */
+    public static List<LocationForecast> parse(Reader bundleReader) throws IOException {
+        return parse(bundleReader, getPool());
+    }
+
+    /**
+     * Parses a bundle of forecasts, a location per task, on {@code pool}.
+     * <p>
+     * A location the server reported an error for (an unknown city, say) comes back with that
+     * error code and no forecast, rather than failing the whole bundle. Unlike
+     * {@link OpenWeatherJsonUtils#getForecastBatchFromJson}, nothing is stored in the
+     * preferences: the bundle isn't the user's own location.
+     *
+     * @param bundleReader Reader over the whole bundle, which is read to the end
+     * @param pool         The pool to parse the locations on
+     * @return Each location's forecast, in the order they appear in the bundle
+     * @throws OpenWeatherErrorException If the bundle as a whole carries an error code
+     * @throws IOException               If the JSON cannot be read, or any location's forecast
+     *                                   is malformed
+     */
+    public static List<LocationForecast> parse(Reader bundleReader, ForkJoinPool pool)
+            throws IOException {
+        char[] bundle = readFully(bundleReader);
+        List<int[]> segments = new BundleScanner(bundle).findForecasts();
+        if (segments.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        try {
+            return pool.invoke(new ParseTask(bundle, segments, 0, segments.size()));
+        } catch (ParseException e) {
+            throw e.getIOException();
+        }
+    }
+
+    private static synchronized ForkJoinPool getPool() {
+        if (sPool == null) {
+            sPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        }
+        return sPool;
+    }
+
+    /**
+     * Parses the locations in {@code [from, to)}, splitting the range in half and parsing both
+     * halves in parallel until it is small enough to parse directly.
+     */
+    private static final class ParseTask extends RecursiveTask<List<LocationForecast>> {
+
+        private final char[] mBundle;
+        private final List<int[]> mSegments;
+        private final int mFrom;
+        private final int mTo;
+
+        ParseTask(char[] bundle, List<int[]> segments, int from, int to) {
+            mBundle = bundle;
+            mSegments = segments;
+            mFrom = from;
+            mTo = to;
+        }
+
+        @Override
+        protected List<LocationForecast> compute() {
+            if (mTo - mFrom <= LOCATIONS_PER_TASK) {
+                List<LocationForecast> forecasts = new ArrayList<>(mTo - mFrom);
+                for (int i = mFrom; i < mTo; i++) {
+                    forecasts.add(parseLocation(mSegments.get(i)));
+                }
+                return forecasts;
+            }
+
+            int middle = (mFrom + mTo) >>> 1;
+            ParseTask first = new ParseTask(mBundle, mSegments, mFrom, middle);
+            ParseTask second = new ParseTask(mBundle, mSegments, middle, mTo);
+            first.fork();
+            List<LocationForecast> forecasts = second.compute();
+            List<LocationForecast> firstForecasts = first.join();
+
+            List<LocationForecast> joined =
+                    new ArrayList<>(firstForecasts.size() + forecasts.size());
+            joined.addAll(firstForecasts);
+            joined.addAll(forecasts);
+            return joined;
+        }
+
+        private LocationForecast parseLocation(int[] segment) {
+            double[] coordinates = new double[2];
+            try {
+                ForecastBatch forecast = OpenWeatherJsonUtils.getForecastBatchForLocation(
+                        new CharArrayReader(mBundle, segment[0], segment[1] - segment[0]),
+                        coordinates);
+                return new LocationForecast(coordinates[0], coordinates[1], forecast);
+            } catch (OpenWeatherErrorException e) {
+                return new LocationForecast(e.getErrorCode());
+            } catch (IOException e) {
+                /* Tasks can't throw checked exceptions, so this is unwrapped again in parse */
+                throw new ParseException(e);
+            }
+        }
+    }
+
+    private static final class ParseException extends RuntimeException {
+        ParseException(IOException cause) {
+            super(cause);
+        }
+
+        /* ForkJoinPool may have wrapped us again on the way out of the task */
+        IOException getIOException() {
+            for (Throwable cause = getCause(); cause != null; cause = cause.getCause()) {
+                if (cause instanceof IOException) {
+                    return (IOException) cause;
+                }
+            }
+            return new IOException(this);
+        }
+    }
+
+    /**
+     * Finds where each element of the bundle's "forecasts" array begins and ends. It only looks
+     * at the structure of the JSON (brackets, braces, strings and commas), so it is much quicker
+     * than parsing, and the values themselves are checked when each forecast is parsed.
+     */
+    private static final class BundleScanner {
+
+        private final char[] mJson;
+        private int mPos;
+
+        BundleScanner(char[] json) {
+            mJson = json;
+        }
+
+        /**
+         * @return The start (inclusive) and end (exclusive) of each forecast in the bundle
+         */
+        List<int[]> findForecasts() throws IOException {
+            List<int[]> segments = null;
+            int errorCode = HttpURLConnection.HTTP_OK;
+
+            expect('{');
+            if (peek() != '}') {
+                do {
+                    String name = readName();
+                    expect(':');
+                    if (BUNDLE_FORECASTS.equals(name)) {
+                        segments = readArrayElements();
+                    } else if (BUNDLE_MESSAGE_CODE.equals(name)) {
+                        errorCode = readCode();
+                    } else {
+                        skipValue();
+                    }
+                } while (consumeIf(','));
+            }
+            expect('}');
+
+            if (errorCode != HttpURLConnection.HTTP_OK) {
+                throw new OpenWeatherErrorException(errorCode);
+            }
+            if (segments == null) {
+                throw new MalformedJsonException("No value for " + BUNDLE_FORECASTS);
+            }
+            return segments;
+        }
+
+        private List<int[]> readArrayElements() throws IOException {
+            List<int[]> elements = new ArrayList<>();
+            expect('[');
+            if (peek() != ']') {
+                do {
+                    skipWhitespace();
+                    int start = mPos;
+                    skipValue();
+                    elements.add(new int[]{start, mPos});
+                } while (consumeIf(','));
+            }
+            expect(']');
+            return elements;
+        }
+
+        /* The code may be a number or, as the staticweather server sends it, a string */
+        private int readCode() throws IOException {
+            skipWhitespace();
+            int start = mPos;
+            skipValue();
+            String code = new String(mJson, start, mPos - start).replace("\"", "").trim();
+            try {
+                return Integer.parseInt(code);
+            } catch (NumberFormatException e) {
+                throw new MalformedJsonException("Bad " + BUNDLE_MESSAGE_CODE + ": " + code);
+            }
+        }
+
+        private String readName() throws IOException {
+            skipWhitespace();
+            int start = mPos + 1;
+            skipString();
+            return new String(mJson, start, mPos - 1 - start);
+        }
+
+        private void skipValue() throws IOException {
+            skipWhitespace();
+            if (mPos >= mJson.length) {
+                throw syntaxError("Unexpected end of bundle");
+            }
+            char c = mJson[mPos];
+            if (c == '"') {
+                skipString();
+            } else if (c == '{' || c == '[') {
+                skipContainer();
+            } else {
+                /* A number, true, false or null: everything up to the next delimiter */
+                int start = mPos;
+                while (mPos < mJson.length && !isDelimiter(mJson[mPos])) {
+                    mPos++;
+                }
+                if (mPos == start) {
+                    throw syntaxError("Expected a value");
+                }
+            }
+        }
+
+        private void skipContainer() throws IOException {
+            int depth = 0;
+            while (mPos < mJson.length) {
+                char c = mJson[mPos];
+                if (c == '"') {
+                    skipString();
+                    continue;
+                }
+                mPos++;
+                if (c == '{' || c == '[') {
+                    depth++;
+                } else if ((c == '}' || c == ']') && --depth == 0) {
+                    return;
+                }
+            }
+            throw syntaxError("Unterminated object or array");
+        }
+
+        private void skipString() throws IOException {
+            if (mPos >= mJson.length || mJson[mPos] != '"') {
+                throw syntaxError("Expected a string");
+            }
+            mPos++;
+            while (mPos < mJson.length) {
+                char c = mJson[mPos++];
+                if (c == '\\') {
+                    mPos++;
+                } else if (c == '"') {
+                    return;
+                }
+            }
+            throw syntaxError("Unterminated string");
+        }
+
+        private void expect(char expected) throws IOException {
+            skipWhitespace();
+            if (mPos >= mJson.length || mJson[mPos] != expected) {
+                throw syntaxError("Expected '" + expected + "'");
+            }
+            mPos++;
+        }
+
+        private boolean consumeIf(char c) {
+            skipWhitespace();
+            if (mPos < mJson.length && mJson[mPos] == c) {
+                mPos++;
+                return true;
+            }
+            return false;
+        }
+
+        private char peek() {
+            skipWhitespace();
+            return mPos < mJson.length ? mJson[mPos] : 0;
+        }
+
+        private void skipWhitespace() {
+            while (mPos < mJson.length && Character.isWhitespace(mJson[mPos])) {
+                mPos++;
+            }
+        }
+
+        private static boolean isDelimiter(char c) {
+            return c == ',' || c == '}' || c == ']' || Character.isWhitespace(c);
+        }
+
+        private MalformedJsonException syntaxError(String message) {
+            return new MalformedJsonException(message + " at character " + mPos + " of bundle");
+        }
+    }
+
+    private static char[] readFully(Reader reader) throws IOException {
+        char[] buffer = new char[8192];
+        int length = 0;
+        int read;
+        while ((read = reader.read(buffer, length, buffer.length - length)) != -1) {
+            length += read;
+            if (length == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+        }
+        return length == buffer.length ? buffer : Arrays.copyOf(buffer, length);
+    }
+}
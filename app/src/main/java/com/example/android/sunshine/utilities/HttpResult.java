@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import java.net.HttpURLConnection;
+
+/**
+ * The outcome of a single request made through {@link NetworkUtils}. Along with whatever the
+ * {@link NetworkUtils.ResponseHandler} parsed out of the body, this carries the response code and
+ * the cache validators the server sent back, so callers can make a conditional request next time.
+ *
+ * @param <T> The type of object the response body was parsed into
+ */
+public final class HttpResult<T> {
+
+    private final int mResponseCode;
+    private final T mBody;
+    private final String mETag;
+    private final String mLastModified;
+    private final long mWireBytes;
+    private final long mDecodedBytes;
+    private final RequestTiming mTiming;
+    private final boolean mFromCache;
+
+    public HttpResult(int responseCode, T body, String eTag, String lastModified,
+                      long wireBytes, long decodedBytes, RequestTiming timing,
+                      boolean fromCache) {
+        mResponseCode = responseCode;
+        mBody = body;
+        mETag = eTag;
+        mLastModified = lastModified;
+        mWireBytes = wireBytes;
+        mDecodedBytes = decodedBytes;
+        mTiming = timing;
+        mFromCache = fromCache;
+    }
+
+    /**
+     * @return The HTTP status code of the response
+     */
+    public int getResponseCode() {
+        return mResponseCode;
+    }
+
+    /**
+     * @return true if the server answered 304 Not Modified, in which case there is no body and
+     * whatever we stored from the last response is still current
+     */
+    public boolean isNotModified() {
+        return mResponseCode == HttpURLConnection.HTTP_NOT_MODIFIED;
+    }
+
+    /**
+     * @return The parsed response body, or null if the server answered 304 Not Modified
+     */
+    public T getBody() {
+        return mBody;
+    }
+
+    /**
+     * @return The value of the ETag response header, or null if the server didn't send one
+     */
+    public String getETag() {
+        return mETag;
+    }
+
+    /**
+     * @return The value of the Last-Modified response header, or null if the server didn't send
+     * one
+     */
+    public String getLastModified() {
+        return mLastModified;
+    }
+
+    /**
+     * @return The number of body bytes that came over the network, before any decompression
+     */
+    public long getWireBytes() {
+        return mWireBytes;
+    }
+
+    /**
+     * @return The number of body bytes handed to the parser, after decompression. This equals
+     * {@link #getWireBytes()} when the server didn't compress the response.
+     */
+    public long getDecodedBytes() {
+        return mDecodedBytes;
+    }
+
+    /**
+     * @return How long each phase of the request took
+     */
+    public RequestTiming getTiming() {
+        return mTiming;
+    }
+
+    /**
+     * @return true if this response was answered from the on-disk forecast cache without
+     * touching the network
+     */
+    public boolean isFromCache() {
+        return mFromCache;
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import java.io.IOException;
+
+/**
+ * Thrown when the weather server answers with an HTTP error status (400 and above), so callers
+ * can tell a server that is down (5xx) from a request that will never succeed (most 4xx).
+ */
+public class HttpStatusException extends IOException {
+
+    private final int mResponseCode;
+
+    public HttpStatusException(int responseCode, String message) {
+        super(message);
+        mResponseCode = responseCode;
+    }
+
+    /**
+     * @return The HTTP status code of the response
+     */
+    public int getResponseCode() {
+        return mResponseCode;
+    }
+
+    /**
+     * @return true for 5xx responses, which mean the server failed rather than the request
+     */
+    public boolean isServerError() {
+        return mResponseCode >= 500 && mResponseCode < 600;
+    }
+}
@@ -17,16 +17,22 @@ package com.example.android.sunshine.utilities;
 
 import android.content.Context;
 import android.net.Uri;
+import android.support.annotation.VisibleForTesting;
+import android.text.TextUtils;
 import android.util.Log;
 
+import com.example.android.sunshine.BuildConfig;
 import com.example.android.sunshine.data.SunshinePreferences;
+import com.example.android.sunshine.sync.ForecastDiskCache;
+import com.example.android.sunshine.sync.SunshineHttpClient;
 
+import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.HttpURLConnection;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.Scanner;
 
 /**
  * These utilities will be used to communicate with the weather servers.
@@ -54,7 +60,18 @@ public final class NetworkUtils {
     private static final String STATIC_WEATHER_URL =
             "https://andfun-weather.udacity.com/staticweather";
 
-    private static final String FORECAST_BASE_URL = STATIC_WEATHER_URL;
+    private static final String FORECAST_BASE_URL =
+            TextUtils.isEmpty(BuildConfig.FORECAST_BASE_URL_OVERRIDE)
+                    ? STATIC_WEATHER_URL
+                    : BuildConfig.FORECAST_BASE_URL_OVERRIDE;
+
+    /*
+     * The base URL actually used to build requests. Normally this is FORECAST_BASE_URL, which can
+     * be changed at build time with -PforecastBaseUrl (see app/build.gradle). Tests that run a
+     * stand-in weather server inside the test process point requests at it with
+     * setForecastBaseUrl, since its port isn't known until it starts.
+     */
+    private static volatile String sForecastBaseUrl = FORECAST_BASE_URL;
 
     /*
      * NOTE: These values only effect responses from OpenWeatherMap, NOT from the fake weather
@@ -70,6 +87,9 @@ public final class NetworkUtils {
     /* The number of days we want our API to return */
     private static final int numDays = 14;
 
+    /* The full length of the forecast that getUrl asks for */
+    public static final int FORECAST_DAYS = numDays;
+
     /* The query parameter allows us to provide a location string to the API */
     private static final String QUERY_PARAM = "q";
 
@@ -83,6 +103,17 @@ public final class NetworkUtils {
     /* The days parameter allows us to designate how many days of weather data we want */
     private static final String DAYS_PARAM = "cnt";
 
+    /**
+     * Sends forecast requests to another server, such as a stand-in weather server started by a
+     * test.
+     *
+     * @param baseUrl The base URL to use, or null to go back to FORECAST_BASE_URL
+     */
+    @VisibleForTesting
+    public static void setForecastBaseUrl(String baseUrl) {
+        sForecastBaseUrl = baseUrl != null ? baseUrl : FORECAST_BASE_URL;
+    }
+
     /**
      * Retrieves the proper URL to query for the weather data. The reason for both this method as
      * well as {@link #buildUrlWithLocationQuery(String)} is two fold.
@@ -111,14 +142,15 @@ public final class NetworkUtils {
 
     /**
      * Builds the URL used to talk to the weather server using latitude and longitude of a
-     * location.
+     * location. Use {@link #getUrl(Context)} for the user's preferred location; this is for
+     * fetching other locations, such as a batch with {@code ForecastBatchFetcher}.
      *
      * @param latitude  The latitude of the location
      * @param longitude The longitude of the location
      * @return The Url to use to query the weather server.
      */
-    private static URL buildUrlWithLatitudeLongitude(Double latitude, Double longitude) {
-        Uri weatherQueryUri = Uri.parse(FORECAST_BASE_URL).buildUpon()
+    public static URL buildUrlWithLatitudeLongitude(Double latitude, Double longitude) {
+        Uri weatherQueryUri = Uri.parse(sForecastBaseUrl).buildUpon()
                 .appendQueryParameter(LAT_PARAM, String.valueOf(latitude))
                 .appendQueryParameter(LON_PARAM, String.valueOf(longitude))
                 .appendQueryParameter(FORMAT_PARAM, format)
@@ -143,8 +175,8 @@ public final class NetworkUtils {
      * @param locationQuery The location that will be queried for.
      * @return The URL to use to query the weather server.
      */
-    private static URL buildUrlWithLocationQuery(String locationQuery) {
-        Uri weatherQueryUri = Uri.parse(FORECAST_BASE_URL).buildUpon()
+    public static URL buildUrlWithLocationQuery(String locationQuery) {
+        Uri weatherQueryUri = Uri.parse(sForecastBaseUrl).buildUpon()
                 .appendQueryParameter(QUERY_PARAM, locationQuery)
                 .appendQueryParameter(FORMAT_PARAM, format)
                 .appendQueryParameter(UNITS_PARAM, units)
@@ -161,30 +193,184 @@ public final class NetworkUtils {
         }
     }
 
+    /**
+     * Takes a forecast URL built by one of the methods above and changes the number of days it
+     * asks for. The window always starts today, so this asks for the first {@code days} days.
+     *
+     * @param weatherQueryUrl A URL from {@link #getUrl(Context)} or one of the build methods
+     * @param days            The number of days of forecast to request
+     * @return The same request for {@code days} days
+     */
+    public static URL buildUrlWithDays(URL weatherQueryUrl, int days) {
+        Uri weatherQueryUri = Uri.parse(weatherQueryUrl.toString());
+        Uri.Builder builder = weatherQueryUri.buildUpon().clearQuery();
+
+        /* Keep every parameter where it was, so the URL only differs in the count */
+        for (String name : weatherQueryUri.getQueryParameterNames()) {
+            String value = DAYS_PARAM.equals(name)
+                    ? Integer.toString(days)
+                    : weatherQueryUri.getQueryParameter(name);
+            builder.appendQueryParameter(name, value);
+        }
+
+        try {
+            return new URL(builder.build().toString());
+        } catch (MalformedURLException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Consumes the body of an HTTP response while it is still streaming in from the network. This
+     * lets a parser read the forecast directly off the socket instead of waiting for the entire
+     * response to be copied into a String first.
+     *
+     * @param <T> The type of object the handler produces from the response body
+     */
+    public interface ResponseHandler<T> {
+
+        /**
+         * Called once with the body of a successful response. The Reader is closed for you when
+         * this method returns, so don't hold on to it.
+         *
+         * @param body A buffered, UTF-8 decoding Reader over the response body
+         * @return Whatever the handler parsed out of the body
+         * @throws IOException Related to network and stream reading
+         */
+        T handleResponse(Reader body) throws IOException;
+    }
+
+    /* Size of the character buffer placed between the network stream and the parser */
+    private static final int RESPONSE_BUFFER_SIZE = 8 * 1024;
+
+    /* Size of the buffer used to skip over whatever a parser leaves unread */
+    private static final int DRAIN_BUFFER_SIZE = 8 * 1024;
+
     /**
      * This method returns the entire result from the HTTP response.
+     * <p>
+     * Prefer {@link #getResponseFromHttpUrl(URL, ResponseHandler)}, which streams the body to its
+     * consumer rather than holding a complete copy of it in memory.
      *
      * @param url The URL to fetch the HTTP response from.
      * @return The contents of the HTTP response, null if no response
      * @throws IOException Related to network and stream reading
      */
     public static String getResponseFromHttpUrl(URL url) throws IOException {
-        HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
-        try {
-            InputStream in = urlConnection.getInputStream();
+        return getResponseFromHttpUrl(url, new ResponseHandler<String>() {
+            @Override
+            public String handleResponse(Reader body) throws IOException {
+                StringBuilder response = new StringBuilder();
+                char[] buffer = new char[RESPONSE_BUFFER_SIZE];
+                int read;
+                while ((read = body.read(buffer)) != -1) {
+                    response.append(buffer, 0, read);
+                }
+                return response.length() > 0 ? response.toString() : null;
+            }
+        });
+    }
 
-            Scanner scanner = new Scanner(in);
-            scanner.useDelimiter("\\A");
+    /**
+     * Fetches the given URL and hands the response body to {@code handler} as a stream. No String
+     * holding the complete body is ever built, so peak memory stays at roughly the size of the
+     * parsed result rather than the parsed result plus a full copy of the payload.
+     *
+     * @param url     The URL to fetch the HTTP response from.
+     * @param handler Consumes the response body as it arrives
+     * @param <T>     The type of object the handler produces
+     * @return The value returned by {@code handler}
+     * @throws IOException Related to network and stream reading
+     */
+    public static <T> T getResponseFromHttpUrl(URL url, ResponseHandler<T> handler)
+            throws IOException {
+        return getResponseFromHttpUrl(url, null, null, handler).getBody();
+    }
 
-            boolean hasInput = scanner.hasNext();
-            String response = null;
-            if (hasInput) {
-                response = scanner.next();
-            }
-            scanner.close();
-            return response;
+    /**
+     * Makes a conditional request for the given URL. If we have validators from a previous
+     * response, they are sent as If-None-Match and If-Modified-Since headers. When the server
+     * tells us the data hasn't changed (304 Not Modified), {@code handler} is never called and no
+     * body is downloaded at all.
+     * <p>
+     * Requests go through the sync's shared {@link SunshineHttpClient}, so connections and TLS
+     * sessions are reused from one request to the next.
+     *
+     * @param url          The URL to fetch the HTTP response from.
+     * @param eTag         ETag from the last response for this URL, or null
+     * @param lastModified Last-Modified from the last response for this URL, or null
+     * @param handler      Consumes the response body as it arrives
+     * @param <T>          The type of object the handler produces
+     * @return The response code, parsed body and new validators of the response
+     * @throws IOException Related to network and stream reading
+     */
+    public static <T> HttpResult<T> getResponseFromHttpUrl(URL url, String eTag,
+                                                           String lastModified,
+                                                           ResponseHandler<T> handler)
+            throws IOException {
+        return SunshineHttpClient.getInstance().execute(url, eTag, lastModified, handler);
+    }
+
+    /**
+     * Same as {@link #getResponseFromHttpUrl(URL, String, String, ResponseHandler)}, except that
+     * the request goes through the app's on-disk forecast cache. While the cached response for
+     * this URL is fresh, it is answered without using the network at all.
+     *
+     * @param context      Used to find the forecast cache
+     * @param url          The URL to fetch the HTTP response from.
+     * @param eTag         ETag from the last response for this URL, or null
+     * @param lastModified Last-Modified from the last response for this URL, or null
+     * @param handler      Consumes the response body as it arrives
+     * @param <T>          The type of object the handler produces
+     * @return The response code, parsed body and new validators of the response
+     * @throws IOException Related to network and stream reading
+     */
+    public static <T> HttpResult<T> getResponseFromHttpUrl(Context context, URL url, String eTag,
+                                                           String lastModified,
+                                                           ResponseHandler<T> handler)
+            throws IOException {
+        return SunshineHttpClient.getInstance().execute(url, eTag, lastModified,
+                ForecastDiskCache.getInstance(context), handler);
+    }
+
+    /**
+     * Wraps a response stream in a buffered UTF-8 Reader and passes it to {@code handler}. The
+     * stream is always read to the end and closed, which lets its connection be reused.
+     *
+     * @param in      The response body
+     * @param handler Consumes the response body
+     * @param <T>     The type of object the handler produces
+     * @return The value returned by {@code handler}
+     * @throws IOException Related to stream reading
+     */
+    public static <T> T handleResponse(InputStream in, ResponseHandler<T> handler)
+            throws IOException {
+        Reader body = new BufferedReader(new InputStreamReader(in, "UTF-8"), RESPONSE_BUFFER_SIZE);
+        try {
+            T result = handler.handleResponse(body);
+            /*
+             * Parsers are free to stop as soon as they've seen the closing bracket. Read whatever
+             * they left behind so the byte counts cover the whole body, and so the connection is
+             * left in a state where it can go back to the keep-alive pool.
+             */
+            drain(in);
+            return result;
         } finally {
-            urlConnection.disconnect();
+            body.close();
+        }
+    }
+
+    /**
+     * Reads and discards the rest of a stream.
+     *
+     * @param in The stream to exhaust
+     * @throws IOException Related to stream reading
+     */
+    private static void drain(InputStream in) throws IOException {
+        byte[] buffer = new byte[DRAIN_BUFFER_SIZE];
+        while (in.read(buffer) != -1) {
+            /* Discard */
         }
     }
-}
\ No newline at end of file
+}
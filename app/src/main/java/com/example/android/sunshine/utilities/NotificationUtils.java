@@ -15,6 +15,7 @@ import android.support.v4.content.ContextCompat;
 
 import com.example.android.sunshine.DetailActivity;
 import com.example.android.sunshine.R;
+import com.example.android.sunshine.data.ForecastSnapshot;
 import com.example.android.sunshine.data.SunshinePreferences;
 import com.example.android.sunshine.data.WeatherContract;
 
@@ -54,19 +55,29 @@ public class NotificationUtils {
     public static void notifyUserOfNewWeather(Context context) {
 
         /* Build the URI for today's weather in order to show up to date data in notification */
-        Uri todaysWeatherUri = WeatherContract.WeatherEntry
-                .buildWeatherUriWithDate(SunshineDateUtils.normalizeDate(System.currentTimeMillis()));
+        long today = SunshineDateUtils.normalizeDate(System.currentTimeMillis());
+        Uri todaysWeatherUri = WeatherContract.WeatherEntry.buildWeatherUriWithDate(today);
 
         /*
-         * The MAIN_FORECAST_PROJECTION array passed in as the second parameter is defined in our WeatherContract
-         * class and is used to limit the columns returned in our cursor.
+         * The sync that calls us has just written today's weather to the forecast snapshot, which
+         * is much cheaper to read than the database. Only if that fails do we query the
+         * ContentProvider.
          */
-        Cursor todayWeatherCursor = context.getContentResolver().query(
-                todaysWeatherUri,
-                WEATHER_NOTIFICATION_PROJECTION,
-                null,
-                null,
-                null);
+        Cursor todayWeatherCursor = ForecastSnapshot.query(context,
+                WEATHER_NOTIFICATION_PROJECTION, today, today);
+
+        if (todayWeatherCursor == null) {
+            /*
+             * The WEATHER_NOTIFICATION_PROJECTION array passed in as the second parameter is
+             * defined above and is used to limit the columns returned in our cursor.
+             */
+            todayWeatherCursor = context.getContentResolver().query(
+                    todaysWeatherUri,
+                    WEATHER_NOTIFICATION_PROJECTION,
+                    null,
+                    null,
+                    null);
+        }
 
         /*
          * If todayWeatherCursor is empty, moveToFirst will return false. If our cursor is not
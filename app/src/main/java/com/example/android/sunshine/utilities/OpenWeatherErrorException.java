@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+
+/**
+ * Thrown by the streaming forecast parser when the JSON carries an error "cod" rather than a
+ * forecast. OpenWeatherMap style servers do this with a 200 response, so the HTTP status alone
+ * doesn't tell us something went wrong.
+ */
+public class OpenWeatherErrorException extends IOException {
+
+    private final int mErrorCode;
+
+    public OpenWeatherErrorException(int errorCode) {
+        super("Forecast server reported error " + errorCode);
+        mErrorCode = errorCode;
+    }
+
+    /**
+     * @return The "cod" value from the response
+     */
+    public int getErrorCode() {
+        return mErrorCode;
+    }
+
+    /**
+     * @return true if the server doesn't know the location we asked for. Asking again won't help.
+     */
+    public boolean isLocationInvalid() {
+        return mErrorCode == HttpURLConnection.HTTP_NOT_FOUND;
+    }
+}
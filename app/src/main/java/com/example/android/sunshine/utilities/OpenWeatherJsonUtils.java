@@ -17,7 +17,11 @@ package com.example.android.sunshine.utilities;
 
 import android.content.ContentValues;
 import android.content.Context;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.MalformedJsonException;
 
+import com.example.android.sunshine.data.ForecastBatch;
 import com.example.android.sunshine.data.SunshinePreferences;
 import com.example.android.sunshine.data.WeatherContract;
 
@@ -25,7 +29,10 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.IOException;
+import java.io.Reader;
 import java.net.HttpURLConnection;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Utility functions to handle OpenWeatherMap JSON data.
@@ -60,6 +67,48 @@ public final class OpenWeatherJsonUtils {
 
     private static final String OWM_MESSAGE_CODE = "cod";
 
+    /*
+     * The 5 day / 3 hour forecast lays each period out differently: its start time is "dt" (in
+     * seconds), its temperatures, pressure and humidity are in a child object called "main", and
+     * its wind is in a child object called "wind".
+     */
+    private static final String OWM_DATE_TIME = "dt";
+    private static final String OWM_MAIN = "main";
+    private static final String OWM_PERIOD_MAX = "temp_max";
+    private static final String OWM_PERIOD_MIN = "temp_min";
+    private static final String OWM_WIND = "wind";
+
+    /*
+     * The streaming parser records which fields of a day it has seen in a bit mask, rather than
+     * in boxed values that start out null. That keeps every value a primitive all the way into
+     * the ForecastBatch.
+     */
+    private static final int SEEN_PRESSURE = 1;
+    private static final int SEEN_HUMIDITY = 1 << 1;
+    private static final int SEEN_WIND_SPEED = 1 << 2;
+    private static final int SEEN_WIND_DIRECTION = 1 << 3;
+    private static final int SEEN_MAX = 1 << 4;
+    private static final int SEEN_MIN = 1 << 5;
+    private static final int SEEN_WEATHER_ID = 1 << 6;
+    private static final int SEEN_ALL_DAY_FIELDS = (1 << 7) - 1;
+    private static final int SEEN_DATE_TIME = 1 << 7;
+    private static final int SEEN_ALL_PERIOD_FIELDS = SEEN_ALL_DAY_FIELDS | SEEN_DATE_TIME;
+
+    /**
+     * Receives a forecast a few days at a time as it is read. See
+     * {@link #readForecastFromJson(Context, Reader, int, ForecastConsumer)}.
+     */
+    public interface ForecastConsumer {
+
+        /**
+         * Called with each batch of days, in order.
+         *
+         * @param days The next days of the forecast, which now belong to the consumer
+         * @throws IOException If the days can't be taken, which stops the parser
+         */
+        void onForecastDays(ForecastBatch days) throws IOException;
+    }
+
     /**
      * This method parses JSON from a web response and returns an array of Strings
      * describing the weather over various days from the forecast.
@@ -181,4 +230,454 @@ public final class OpenWeatherJsonUtils {
 
         return weatherContentValues;
     }
-}
\ No newline at end of file
+
+    /**
+     * Streaming counterpart of {@link #getWeatherContentValuesFromJson(Context, String)}. Rather
+     * than building a JSONObject tree for the whole response, this reads the forecast token by
+     * token straight from {@code forecastJsonReader}, so the payload is never held in memory as a
+     * String. It produces exactly the same ContentValues as the String version.
+     * <p>
+     * The sync itself uses {@link #getForecastBatchFromJson(Context, Reader)}; this is kept for
+     * code that wants ContentValues.
+     *
+     * @param context            Used to store the location details of the forecast
+     * @param forecastJsonReader Reader over the JSON response from the server
+     *
+     * @return Array of ContentValues for each day of the forecast
+     *
+     * @throws OpenWeatherErrorException If the server reported an error code instead of a
+     *                                   forecast
+     * @throws IOException               If the JSON cannot be read or required fields are missing
+     */
+    public static ContentValues[] getWeatherContentValuesFromJson(Context context,
+                                                                  Reader forecastJsonReader)
+            throws IOException {
+        return getForecastBatchFromJson(context, forecastJsonReader).toContentValues();
+    }
+
+    /**
+     * Reads the forecast token by token straight from {@code forecastJsonReader} into a
+     * {@link ForecastBatch}. Each day's values go from the JSON into the batch's primitive
+     * columns without being boxed on the way.
+     *
+     * @param context            Used to store the location details of the forecast
+     * @param forecastJsonReader Reader over the JSON response from the server
+     *
+     * @return The forecast, one day per element, starting today
+     *
+     * @throws OpenWeatherErrorException If the server reported an error code instead of a
+     *                                   forecast
+     * @throws IOException               If the JSON cannot be read or required fields are missing
+     */
+    public static ForecastBatch getForecastBatchFromJson(Context context,
+                                                         Reader forecastJsonReader)
+            throws IOException {
+        return readForecast(context, forecastJsonReader, false, 0, null, null);
+    }
+
+    /**
+     * Reads an hourly (or 3-hourly) forecast, in the layout of OpenWeatherMap's 5 day / 3 hour
+     * forecast, into a {@link ForecastBatch}. Unlike the daily forecast, each period carries its
+     * own start time, which becomes the element's date: see
+     * {@link com.example.android.sunshine.data.WeatherContract.HourlyEntry#COLUMN_TIME}.
+     *
+     * @param context            Used to store the location details of the forecast
+     * @param forecastJsonReader Reader over the JSON response from the server
+     *
+     * @return The forecast, one period per element, in the order the server sent them
+     *
+     * @throws OpenWeatherErrorException If the server reported an error code instead of a
+     *                                   forecast
+     * @throws IOException               If the JSON cannot be read or required fields are missing
+     */
+    public static ForecastBatch getHourlyForecastBatchFromJson(Context context,
+                                                               Reader forecastJsonReader)
+            throws IOException {
+        return readForecast(context, forecastJsonReader, true, 0, null, null);
+    }
+
+    /**
+     * Like {@link #getForecastBatchFromJson(Context, Reader)}, except that the days are handed to
+     * {@code consumer} in batches of {@code chunkDays} while the rest of the forecast is still
+     * being read, rather than all at once at the end. This lets the days be stored while the
+     * response is still arriving.
+     * <p>
+     * The response can only be checked once all of it has been read, so the days handed over are
+     * not to be trusted until this method returns normally. If it throws, the consumer must
+     * throw away everything it has been given.
+     *
+     * @param context            Used to store the location details of the forecast
+     * @param forecastJsonReader Reader over the JSON response from the server
+     * @param chunkDays          How many days to hand over at a time. The last batch may be
+     *                           smaller.
+     * @param consumer           Receives each batch. It becomes the owner of the batch.
+     *
+     * @throws OpenWeatherErrorException If the server reported an error code instead of a
+     *                                   forecast
+     * @throws IOException               If the JSON cannot be read, required fields are
+     *                                   missing, or the consumer fails
+     */
+    public static void readForecastFromJson(Context context,
+                                            Reader forecastJsonReader,
+                                            int chunkDays,
+                                            ForecastConsumer consumer) throws IOException {
+        if (chunkDays < 1) {
+            throw new IllegalArgumentException("chunkDays must be at least 1");
+        }
+        readForecast(context, forecastJsonReader, false, chunkDays, consumer, null);
+    }
+
+    /**
+     * Reads one location's daily forecast, as {@link #getForecastBatchFromJson(Context, Reader)}
+     * does, but hands back its coordinates rather than storing them as the user's location. This
+     * is for code that reads many locations at once, such as {@link ForecastBundleParser}, and
+     * has no side effects, so it can run on several threads at a time.
+     *
+     * @param forecastJsonReader Reader over one location's forecast
+     * @param coordinates        Receives the latitude and longitude of the location, in that
+     *                           order
+     * @return The forecast, one day per element, starting today
+     * @throws OpenWeatherErrorException If the server reported an error code instead of a
+     *                                   forecast
+     * @throws IOException               If the JSON cannot be read or required fields are missing
+     */
+    public static ForecastBatch getForecastBatchForLocation(Reader forecastJsonReader,
+                                                            double[] coordinates)
+            throws IOException {
+        return readForecast(null, forecastJsonReader, false, 0, null, coordinates);
+    }
+
+    /**
+     * Does the work of {@link #getForecastBatchFromJson(Context, Reader)},
+     * {@link #getHourlyForecastBatchFromJson(Context, Reader)} and
+     * {@link #readForecastFromJson(Context, Reader, int, ForecastConsumer)}.
+     *
+     * @param hourly      Whether the list holds hourly periods rather than days
+     * @param consumer    Receives the days {@code chunkDays} at a time, or null to collect the
+     *                    whole forecast into the batch that is returned
+     * @param coordinates Receives the location's latitude and longitude, or null to store them in
+     *                    {@link SunshinePreferences} through {@code context}
+     * @return The whole forecast if {@code consumer} is null, otherwise an empty batch
+     */
+    private static ForecastBatch readForecast(Context context,
+                                              Reader forecastJsonReader,
+                                              boolean hourly,
+                                              int chunkDays,
+                                              ForecastConsumer consumer,
+                                              double[] coordinates) throws IOException {
+
+        JsonReader reader = new JsonReader(forecastJsonReader);
+
+        int errorCode = HttpURLConnection.HTTP_OK;
+        boolean hasCoordinates = false;
+        double cityLatitude = 0;
+        double cityLongitude = 0;
+        boolean hasList = false;
+        ForecastBatch forecast = consumer == null
+                ? new ForecastBatch()
+                : new ForecastBatch(chunkDays);
+
+        long normalizedUtcStartDay = SunshineDateUtils.getNormalizedUtcDateForToday();
+
+        /*
+         * The server makes no promises about the order of the top level fields, so we remember
+         * what we've seen and only decide what to do with it once the whole object has been read.
+         */
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_MESSAGE_CODE.equals(name)) {
+                errorCode = reader.nextInt();
+            } else if (OWM_CITY.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    if (OWM_COORD.equals(reader.nextName())) {
+                        double[] cityCoordinates = readCoordinates(reader);
+                        cityLatitude = cityCoordinates[0];
+                        cityLongitude = cityCoordinates[1];
+                        hasCoordinates = true;
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (OWM_LIST.equals(name)) {
+                hasList = true;
+                int day = 0;
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    if (hourly) {
+                        readPeriodForecast(reader, forecast);
+                    } else {
+                        /*
+                         * As with the String version, we ignore the datetime values embedded in
+                         * the JSON and assume that the values are returned in-order by day.
+                         */
+                        long dateTimeMillis = normalizedUtcStartDay
+                                + SunshineDateUtils.DAY_IN_MILLIS * day++;
+                        readDayForecast(reader, dateTimeMillis, forecast);
+                    }
+
+                    if (consumer != null && forecast.size() == chunkDays) {
+                        consumer.onForecastDays(forecast);
+                        forecast = new ForecastBatch(chunkDays);
+                    }
+                }
+                reader.endArray();
+
+                if (consumer != null && !forecast.isEmpty()) {
+                    consumer.onForecastDays(forecast);
+                    forecast = new ForecastBatch(chunkDays);
+                }
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        /*
+         * Is there an error? Unlike the String version, we report which one, since an invalid
+         * location and a server that is down call for very different handling.
+         */
+        if (errorCode != HttpURLConnection.HTTP_OK) {
+            throw new OpenWeatherErrorException(errorCode);
+        }
+
+        if (!hasList) {
+            throw new MalformedJsonException("No value for " + OWM_LIST);
+        }
+        if (!hasCoordinates) {
+            throw new MalformedJsonException("No value for " + OWM_COORD);
+        }
+
+        if (coordinates != null) {
+            coordinates[0] = cityLatitude;
+            coordinates[1] = cityLongitude;
+        } else {
+            SunshinePreferences.setLocationDetails(context, cityLatitude, cityLongitude);
+        }
+
+        return forecast;
+    }
+
+    /**
+     * Reads a "coord" object.
+     *
+     * @param reader Positioned at the start of the "coord" object
+     * @return The latitude and longitude, in that order
+     * @throws IOException If the JSON cannot be read or a coordinate is missing
+     */
+    private static double[] readCoordinates(JsonReader reader) throws IOException {
+        double latitude = 0;
+        double longitude = 0;
+        boolean hasLatitude = false;
+        boolean hasLongitude = false;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_LATITUDE.equals(name)) {
+                latitude = reader.nextDouble();
+                hasLatitude = true;
+            } else if (OWM_LONGITUDE.equals(name)) {
+                longitude = reader.nextDouble();
+                hasLongitude = true;
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (!hasLatitude || !hasLongitude) {
+            throw new MalformedJsonException("Incomplete " + OWM_COORD);
+        }
+        return new double[]{latitude, longitude};
+    }
+
+    /**
+     * Reads one element of the "list" array and adds it to the end of {@code forecast}, with the
+     * same values the String version of the parser would produce for it.
+     *
+     * @param reader         Positioned at the start of a day's forecast object
+     * @param dateTimeMillis The normalized date to store this forecast under
+     * @param forecast       The batch to add the day to
+     * @throws IOException If the JSON cannot be read or a required field is missing
+     */
+    private static void readDayForecast(JsonReader reader, long dateTimeMillis,
+                                        ForecastBatch forecast) throws IOException {
+
+        double pressure = 0;
+        int humidity = 0;
+        double windSpeed = 0;
+        double windDirection = 0;
+        double high = 0;
+        double low = 0;
+        int weatherId = 0;
+        int seen = 0;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_PRESSURE.equals(name)) {
+                pressure = reader.nextDouble();
+                seen |= SEEN_PRESSURE;
+            } else if (OWM_HUMIDITY.equals(name)) {
+                /* JSONObject.getInt truncates fractional values, so we do the same */
+                humidity = (int) reader.nextDouble();
+                seen |= SEEN_HUMIDITY;
+            } else if (OWM_WINDSPEED.equals(name)) {
+                windSpeed = reader.nextDouble();
+                seen |= SEEN_WIND_SPEED;
+            } else if (OWM_WIND_DIRECTION.equals(name)) {
+                windDirection = reader.nextDouble();
+                seen |= SEEN_WIND_DIRECTION;
+            } else if (OWM_WEATHER.equals(name)) {
+                weatherId = readWeatherId(reader);
+                seen |= SEEN_WEATHER_ID;
+            } else if (OWM_TEMPERATURE.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String temperatureName = reader.nextName();
+                    if (OWM_MAX.equals(temperatureName)) {
+                        high = reader.nextDouble();
+                        seen |= SEEN_MAX;
+                    } else if (OWM_MIN.equals(temperatureName)) {
+                        low = reader.nextDouble();
+                        seen |= SEEN_MIN;
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (seen != SEEN_ALL_DAY_FIELDS) {
+            throw new MalformedJsonException("Incomplete forecast for " + dateTimeMillis);
+        }
+
+        forecast.add(dateTimeMillis, weatherId, low, high, humidity, pressure, windSpeed,
+                windDirection);
+    }
+
+    /**
+     * Reads one element of the "list" array of an hourly forecast and adds it to the end of
+     * {@code forecast}, dated with the time its period begins.
+     *
+     * @param reader   Positioned at the start of a period's forecast object
+     * @param forecast The batch to add the period to
+     * @throws IOException If the JSON cannot be read or a required field is missing
+     */
+    private static void readPeriodForecast(JsonReader reader, ForecastBatch forecast)
+            throws IOException {
+
+        long dateTimeMillis = 0;
+        double pressure = 0;
+        int humidity = 0;
+        double windSpeed = 0;
+        double windDirection = 0;
+        double high = 0;
+        double low = 0;
+        int weatherId = 0;
+        int seen = 0;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_DATE_TIME.equals(name)) {
+                dateTimeMillis = TimeUnit.SECONDS.toMillis(reader.nextLong());
+                seen |= SEEN_DATE_TIME;
+            } else if (OWM_MAIN.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String mainName = reader.nextName();
+                    if (OWM_PERIOD_MAX.equals(mainName)) {
+                        high = reader.nextDouble();
+                        seen |= SEEN_MAX;
+                    } else if (OWM_PERIOD_MIN.equals(mainName)) {
+                        low = reader.nextDouble();
+                        seen |= SEEN_MIN;
+                    } else if (OWM_PRESSURE.equals(mainName)) {
+                        pressure = reader.nextDouble();
+                        seen |= SEEN_PRESSURE;
+                    } else if (OWM_HUMIDITY.equals(mainName)) {
+                        humidity = (int) reader.nextDouble();
+                        seen |= SEEN_HUMIDITY;
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (OWM_WIND.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String windName = reader.nextName();
+                    if (OWM_WINDSPEED.equals(windName)) {
+                        windSpeed = reader.nextDouble();
+                        seen |= SEEN_WIND_SPEED;
+                    } else if (OWM_WIND_DIRECTION.equals(windName)) {
+                        windDirection = reader.nextDouble();
+                        seen |= SEEN_WIND_DIRECTION;
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (OWM_WEATHER.equals(name)) {
+                weatherId = readWeatherId(reader);
+                seen |= SEEN_WEATHER_ID;
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (seen != SEEN_ALL_PERIOD_FIELDS) {
+            throw new MalformedJsonException("Incomplete forecast for period "
+                    + forecast.size());
+        }
+
+        forecast.add(dateTimeMillis, weatherId, low, high, humidity, pressure, windSpeed,
+                windDirection);
+    }
+
+    /**
+     * Reads the "weather" array, which is 1 element long, and returns that element's weather
+     * code. Any further elements are skipped.
+     *
+     * @param reader Positioned at the start of the "weather" array
+     * @return The weather code of the first element
+     * @throws IOException If the JSON cannot be read or the array is empty
+     */
+    private static int readWeatherId(JsonReader reader) throws IOException {
+        int weatherId = 0;
+        boolean hasWeatherId = false;
+
+        reader.beginArray();
+        while (reader.hasNext()) {
+            if (hasWeatherId || reader.peek() != JsonToken.BEGIN_OBJECT) {
+                reader.skipValue();
+                continue;
+            }
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (OWM_WEATHER_ID.equals(reader.nextName())) {
+                    weatherId = (int) reader.nextDouble();
+                    hasWeatherId = true;
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        }
+        reader.endArray();
+
+        if (!hasWeatherId) {
+            throw new MalformedJsonException("No value for " + OWM_WEATHER_ID);
+        }
+        return weatherId;
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import java.util.Locale;
+
+/**
+ * How long each phase of a single HTTP request took, in milliseconds. A connection that was
+ * reused from the keep-alive pool shows up as a connect time of (nearly) zero.
+ * <p>
+ * HttpURLConnection resolves the host name inside connect, so the DNS lookup is part of the
+ * connect time rather than a phase of its own.
+ */
+public final class RequestTiming {
+
+    private final long mConnectMillis;
+    private final long mFirstByteMillis;
+    private final long mBodyMillis;
+
+    public RequestTiming(long connectMillis, long firstByteMillis, long bodyMillis) {
+        mConnectMillis = connectMillis;
+        mFirstByteMillis = firstByteMillis;
+        mBodyMillis = bodyMillis;
+    }
+
+    /**
+     * @return Time spent opening the connection, including the DNS lookup and the TLS handshake
+     */
+    public long getConnectMillis() {
+        return mConnectMillis;
+    }
+
+    /**
+     * @return Time from sending the request until the response headers arrived
+     */
+    public long getFirstByteMillis() {
+        return mFirstByteMillis;
+    }
+
+    /**
+     * @return Time spent reading and parsing the response body
+     */
+    public long getBodyMillis() {
+        return mBodyMillis;
+    }
+
+    /**
+     * @return The sum of every phase
+     */
+    public long getTotalMillis() {
+        return mConnectMillis + mFirstByteMillis + mBodyMillis;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "connect %d ms, ttfb %d ms, body %d ms",
+                mConnectMillis, mFirstByteMillis, mBodyMillis);
+    }
+}
@@ -32,6 +32,9 @@ public final class SunshineDateUtils {
     /* Milliseconds in a day */
     public static final long DAY_IN_MILLIS = TimeUnit.DAYS.toMillis(1);
 
+    /* Milliseconds in an hour */
+    public static final long HOUR_IN_MILLIS = TimeUnit.HOURS.toMillis(1);
+
     /**
      * This method returns the number of milliseconds (UTC time) for today's date at midnight in
      * the local time zone. For example, if you live in California and the day is September 20th,
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.benchmarks;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.res.Resources;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * A Context for running the app's utilities on a plain JVM. Its resources are the app's own
+ * strings and booleans, which the build extracts from the resource XML, and its preferences are
+ * kept in memory.
+ */
+public final class BenchmarkContext extends Context {
+
+    private static final String PACKAGE_NAME = "com.example.android.sunshine";
+
+    /* Written by the generateAndroidResources task in build.gradle */
+    private static final String RESOURCES_FILE = "/android-resources.properties";
+
+    private static Resources sResources;
+
+    private final Map<String, MemorySharedPreferences> mPreferences = new HashMap<>();
+
+    @Override
+    public Context getApplicationContext() {
+        return this;
+    }
+
+    @Override
+    public String getPackageName() {
+        return PACKAGE_NAME;
+    }
+
+    @Override
+    public Resources getResources() {
+        return loadResources();
+    }
+
+    @Override
+    public synchronized SharedPreferences getSharedPreferences(String name, int mode) {
+        MemorySharedPreferences preferences = mPreferences.get(name);
+        if (preferences == null) {
+            preferences = new MemorySharedPreferences();
+            mPreferences.put(name, preferences);
+        }
+        return preferences;
+    }
+
+    /**
+     * Matches the values extracted from the resource XML up with the IDs in the generated R
+     * class, the same way aapt would have.
+     */
+    private static synchronized Resources loadResources() {
+        if (sResources != null) {
+            return sResources;
+        }
+
+        Properties values = new Properties();
+        InputStream in = BenchmarkContext.class.getResourceAsStream(RESOURCES_FILE);
+        if (in == null) {
+            throw new IllegalStateException(RESOURCES_FILE + " is missing from the classpath");
+        }
+        try {
+            try {
+                values.load(in);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not read " + RESOURCES_FILE, e);
+        }
+
+        Map<Integer, String> strings = new HashMap<>();
+        for (Map.Entry<String, Integer> id : getIds("string").entrySet()) {
+            strings.put(id.getValue(), values.getProperty("string." + id.getKey()));
+        }
+        Map<Integer, Boolean> booleans = new HashMap<>();
+        for (Map.Entry<String, Integer> id : getIds("bool").entrySet()) {
+            booleans.put(id.getValue(),
+                    Boolean.valueOf(values.getProperty("bool." + id.getKey())));
+        }
+
+        sResources = new Resources(strings, booleans);
+        return sResources;
+    }
+
+    private static Map<String, Integer> getIds(String type) {
+        Map<String, Integer> ids = new HashMap<>();
+        try {
+            Class<?> idClass = Class.forName(PACKAGE_NAME + ".R$" + type);
+            for (Field field : idClass.getFields()) {
+                ids.put(field.getName(), field.getInt(null));
+            }
+        } catch (ClassNotFoundException | IllegalAccessException e) {
+            throw new IllegalStateException("Could not read R." + type, e);
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.benchmarks;
+
+import android.content.Context;
+
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times {@link SunshineDateUtils} over a whole forecast's worth of dates: normalizing the raw
+ * timestamps the parser and the database deal in, and building the strings the forecast list
+ * and the detail screen show.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class DateUtilsBenchmark {
+
+    /* Two weeks (what the app shows) and a year */
+    @Param({"14", "365"})
+    public int days;
+
+    private Context mContext;
+    private long[] mTimestamps;
+    private long[] mNormalizedDates;
+
+    @Setup
+    public void setUp() {
+        mContext = new BenchmarkContext();
+
+        Random random = new Random(days);
+        long today = SunshineDateUtils.getNormalizedUtcDateForToday();
+        mTimestamps = new long[days];
+        mNormalizedDates = new long[days];
+        for (int day = 0; day < days; day++) {
+            mNormalizedDates[day] = today + day * SunshineDateUtils.DAY_IN_MILLIS;
+            mTimestamps[day] = mNormalizedDates[day]
+                    + (long) (random.nextDouble() * SunshineDateUtils.DAY_IN_MILLIS);
+        }
+    }
+
+    @Benchmark
+    public long normalizeDate() {
+        long checksum = 0;
+        for (long timestamp : mTimestamps) {
+            checksum += SunshineDateUtils.normalizeDate(timestamp);
+        }
+        return checksum;
+    }
+
+    @Benchmark
+    public void friendlyDateString(Blackhole blackhole) {
+        for (long date : mNormalizedDates) {
+            blackhole.consume(SunshineDateUtils.getFriendlyDateString(mContext, date, false));
+        }
+    }
+
+    @Benchmark
+    public void friendlyDateStringFull(Blackhole blackhole) {
+        for (long date : mNormalizedDates) {
+            blackhole.consume(SunshineDateUtils.getFriendlyDateString(mContext, date, true));
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.benchmarks;
+
+import android.content.ContentValues;
+import android.content.Context;
+
+import com.example.android.sunshine.data.ForecastBatch;
+import com.example.android.sunshine.utilities.OpenWeatherJsonUtils;
+import com.example.android.sunshine.weatherserver.SyntheticForecast;
+
+import org.json.JSONException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parses a forecast with each of the parsers in {@link OpenWeatherJsonUtils}: the JSONObject
+ * (DOM) parser, the JsonReader (pull) parser producing ContentValues, and the pull parser
+ * producing the {@link ForecastBatch} the sync uses. Sample time mode reports percentiles as
+ * well as the mean.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class ForecastParserBenchmark {
+
+    /* Two weeks (what the app asks for), a year, and a large multi-location payload */
+    @Param({"14", "365", "5000"})
+    public int days;
+
+    private Context mContext;
+    private String mJson;
+
+    @Setup
+    public void setUp() {
+        mContext = new BenchmarkContext();
+        mJson = SyntheticForecast.createJson(days, days);
+    }
+
+    @Benchmark
+    public ContentValues[] domParser() throws JSONException {
+        return OpenWeatherJsonUtils.getWeatherContentValuesFromJson(mContext, mJson);
+    }
+
+    @Benchmark
+    public ContentValues[] pullParser() throws IOException {
+        return OpenWeatherJsonUtils.getWeatherContentValuesFromJson(mContext,
+                new StringReader(mJson));
+    }
+
+    @Benchmark
+    public ForecastBatch pullParserToBatch() throws IOException {
+        return OpenWeatherJsonUtils.getForecastBatchFromJson(mContext, new StringReader(mJson));
+    }
+}
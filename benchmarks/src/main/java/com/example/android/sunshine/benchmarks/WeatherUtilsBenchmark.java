@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.benchmarks;
+
+import android.content.Context;
+import android.preference.PreferenceManager;
+
+import com.example.android.sunshine.R;
+import com.example.android.sunshine.utilities.SunshineWeatherUtils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times the {@link SunshineWeatherUtils} formatting a forecast list does for every day: the
+ * temperatures, in either unit system, and the description of the weather condition.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class WeatherUtilsBenchmark {
+
+    /* Every condition code OpenWeatherMap documents, so each branch of the lookup is taken */
+    private static final int[] CONDITION_CODES = {
+            200, 201, 202, 210, 211, 212, 221, 230, 231, 232,
+            300, 301, 302, 310, 311, 312, 313, 314, 321,
+            500, 501, 502, 503, 504, 511, 520, 521, 522, 531,
+            600, 601, 602, 611, 612, 615, 616, 620, 621, 622,
+            701, 711, 721, 731, 741, 751, 761, 762, 771, 781,
+            800, 801, 802, 803, 804,
+            900, 901, 902, 903, 904, 905, 906,
+            951, 952, 953, 954, 955, 956, 957, 958, 959, 960, 961, 962,
+    };
+
+    /* Two weeks (what the app shows) and a year */
+    @Param({"14", "365"})
+    public int days;
+
+    @Param({"metric", "imperial"})
+    public String units;
+
+    private Context mContext;
+    private double[] mTemperatures;
+    private int[] mWeatherIds;
+
+    @Setup
+    public void setUp() {
+        mContext = new BenchmarkContext();
+        PreferenceManager.getDefaultSharedPreferences(mContext).edit()
+                .putString(mContext.getString(R.string.pref_units_key), units)
+                .apply();
+
+        Random random = new Random(days);
+        mTemperatures = new double[days];
+        mWeatherIds = new int[days];
+        for (int day = 0; day < days; day++) {
+            mTemperatures[day] = -20 + random.nextDouble() * 60;
+            mWeatherIds[day] = CONDITION_CODES[random.nextInt(CONDITION_CODES.length)];
+        }
+    }
+
+    @Benchmark
+    public void formatTemperature(Blackhole blackhole) {
+        for (double temperature : mTemperatures) {
+            blackhole.consume(SunshineWeatherUtils.formatTemperature(mContext, temperature));
+        }
+    }
+
+    @Benchmark
+    public void stringForWeatherCondition(Blackhole blackhole) {
+        for (int weatherId : mWeatherIds) {
+            blackhole.consume(
+                    SunshineWeatherUtils.getStringForWeatherCondition(mContext, weatherId));
+        }
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.content.res;
+
+import java.util.Map;
+
+/**
+ * The parts of android.content.res.Resources the app's utilities use, looked up in tables built
+ * from the app's resource XML.
+ */
+public class Resources {
+
+    public static class NotFoundException extends RuntimeException {
+        public NotFoundException(String name) {
+            super(name);
+        }
+    }
+
+    private final Map<Integer, String> mStrings;
+    private final Map<Integer, Boolean> mBooleans;
+
+    public Resources(Map<Integer, String> strings, Map<Integer, Boolean> booleans) {
+        mStrings = strings;
+        mBooleans = booleans;
+    }
+
+    public String getString(int id) {
+        String value = mStrings.get(id);
+        if (value == null) {
+            throw new NotFoundException("String resource ID #0x" + Integer.toHexString(id));
+        }
+        return value;
+    }
+
+    public String getString(int id, Object... formatArgs) {
+        return String.format(getString(id), formatArgs);
+    }
+
+    public boolean getBoolean(int id) {
+        Boolean value = mBooleans.get(id);
+        if (value == null) {
+            throw new NotFoundException("Boolean resource ID #0x" + Integer.toHexString(id));
+        }
+        return value;
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.net;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+
+/**
+ * Enough of android.net.Uri to build the app's content URIs.
+ */
+public final class Uri {
+
+    private final String mUriString;
+
+    private Uri(String uriString) {
+        mUriString = uriString;
+    }
+
+    public static Uri parse(String uriString) {
+        return new Uri(uriString);
+    }
+
+    public static String encode(String s) {
+        try {
+            return URLEncoder.encode(s, "UTF-8").replace("+", "%20");
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    public Builder buildUpon() {
+        return new Builder(mUriString);
+    }
+
+    public String getLastPathSegment() {
+        String path = mUriString;
+        int end = path.endsWith("/") ? path.length() - 1 : path.length();
+        return path.substring(path.lastIndexOf('/', end - 1) + 1, end);
+    }
+
+    @Override
+    public boolean equals(Object object) {
+        return object instanceof Uri && mUriString.equals(((Uri) object).mUriString);
+    }
+
+    @Override
+    public int hashCode() {
+        return mUriString.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return mUriString;
+    }
+
+    public static final class Builder {
+        private final StringBuilder mUri;
+
+        Builder(String uriString) {
+            mUri = new StringBuilder(uriString);
+        }
+
+        public Builder appendPath(String newSegment) {
+            if (mUri.length() == 0 || mUri.charAt(mUri.length() - 1) != '/') {
+                mUri.append('/');
+            }
+            mUri.append(encode(newSegment));
+            return this;
+        }
+
+        public Uri build() {
+            return new Uri(mUri.toString());
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.text.format;
+
+import android.content.Context;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * The constants of android.text.format.DateUtils, and a formatDateTime that handles the flags
+ * the app uses with SimpleDateFormat. Like Android, which keeps its ICU formatters around, the
+ * formatters are cached, so a benchmark measures the app's work rather than building a
+ * formatter on every call.
+ */
+public final class DateUtils {
+
+    public static final long SECOND_IN_MILLIS = 1000;
+    public static final long MINUTE_IN_MILLIS = SECOND_IN_MILLIS * 60;
+    public static final long HOUR_IN_MILLIS = MINUTE_IN_MILLIS * 60;
+    public static final long DAY_IN_MILLIS = HOUR_IN_MILLIS * 24;
+    public static final long WEEK_IN_MILLIS = DAY_IN_MILLIS * 7;
+
+    public static final int FORMAT_SHOW_TIME = 0x00001;
+    public static final int FORMAT_SHOW_WEEKDAY = 0x00002;
+    public static final int FORMAT_SHOW_YEAR = 0x00004;
+    public static final int FORMAT_NO_YEAR = 0x00008;
+    public static final int FORMAT_SHOW_DATE = 0x00010;
+    public static final int FORMAT_UTC = 0x02000;
+    public static final int FORMAT_ABBREV_WEEKDAY = 0x08000;
+    public static final int FORMAT_ABBREV_MONTH = 0x10000;
+    public static final int FORMAT_ABBREV_ALL = 0x80000;
+
+    private static final ThreadLocal<Map<Integer, SimpleDateFormat>> sFormats =
+            new ThreadLocal<Map<Integer, SimpleDateFormat>>() {
+                @Override
+                protected Map<Integer, SimpleDateFormat> initialValue() {
+                    return new HashMap<>();
+                }
+            };
+
+    private DateUtils() {
+    }
+
+    public static String formatDateTime(Context context, long millis, int flags) {
+        Map<Integer, SimpleDateFormat> formats = sFormats.get();
+        SimpleDateFormat format = formats.get(flags);
+        if (format == null) {
+            format = new SimpleDateFormat(getPattern(flags), Locale.getDefault());
+            if ((flags & FORMAT_UTC) != 0) {
+                format.setTimeZone(TimeZone.getTimeZone("UTC"));
+            }
+            formats.put(flags, format);
+        }
+        return format.format(new Date(millis));
+    }
+
+    private static String getPattern(int flags) {
+        boolean abbreviateWeekday = (flags & (FORMAT_ABBREV_WEEKDAY | FORMAT_ABBREV_ALL)) != 0;
+        boolean abbreviateMonth = (flags & (FORMAT_ABBREV_MONTH | FORMAT_ABBREV_ALL)) != 0;
+
+        StringBuilder pattern = new StringBuilder();
+        if ((flags & FORMAT_SHOW_WEEKDAY) != 0) {
+            pattern.append(abbreviateWeekday ? "EEE" : "EEEE");
+        }
+        if ((flags & FORMAT_SHOW_DATE) != 0) {
+            if (pattern.length() > 0) {
+                pattern.append(", ");
+            }
+            pattern.append(abbreviateMonth ? "MMM d" : "MMMM d");
+            if ((flags & FORMAT_SHOW_YEAR) != 0 && (flags & FORMAT_NO_YEAR) == 0) {
+                pattern.append(", yyyy");
+            }
+        }
+        if ((flags & FORMAT_SHOW_TIME) != 0) {
+            if (pattern.length() > 0) {
+                pattern.append(", ");
+            }
+            pattern.append("h:mm a");
+        }
+        return pattern.toString();
+    }
+}
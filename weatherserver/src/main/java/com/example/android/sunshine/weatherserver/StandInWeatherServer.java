@@ -0,0 +1,780 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.weatherserver;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.URLDecoder;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * An in-process HTTP/1.1 server that speaks the same contract as the staticweather server, so the
+ * real network path of the app can be exercised offline and with repeatable results.
+ * <p>
+ * Requests to any path are answered with a synthetic forecast built by {@link SyntheticForecast}.
+ * The "cnt" query parameter sets the number of days, and "q" or "lat"/"lon" pick the location:
+ * different locations get different (but repeatable) weather. On top of that, the server can
+ * <ul>
+ * <li>wait before answering, to simulate round trip latency ({@link #setLatencyMillis})</li>
+ * <li>cap its upload speed, to simulate a slow link ({@link #setBandwidthBytesPerSecond})</li>
+ * <li>answer with HTTP errors, always or for the next few requests ({@link #setErrorResponseCode},
+ * {@link #failNextRequests})</li>
+ * <li>answer 200 with an error "cod" in the JSON, like OpenWeatherMap
+ * ({@link #setForecastErrorCode})</li>
+ * <li>compress its responses with gzip or deflate when the client asks for it
+ * ({@link #setCompression})</li>
+ * <li>send ETag and Last-Modified validators and answer conditional requests with 304 Not
+ * Modified until the forecast is changed with {@link #updateForecast()}
+ * ({@link #setValidatorsEnabled})</li>
+ * </ul>
+ * Connections are kept alive between requests unless the client asks otherwise, like a real
+ * server would, so connection reuse can be measured too.
+ * <p>
+ * Run {@link #main(String[])} to start one on its own, from the command line.
+ */
+public class StandInWeatherServer {
+
+    /**
+     * How responses are compressed for the clients that accept it.
+     */
+    public enum Compression {
+        NONE(null),
+        GZIP("gzip"),
+        /* zlib wrapped, as the HTTP spec says "deflate" should be */
+        DEFLATE("deflate"),
+        /* A bare deflate stream labelled "deflate", which plenty of real servers send instead */
+        RAW_DEFLATE("deflate");
+
+        final String mContentEncoding;
+
+        Compression(String contentEncoding) {
+            mContentEncoding = contentEncoding;
+        }
+    }
+
+    /* The path the app requests forecasts from */
+    public static final String FORECAST_PATH = "/staticweather";
+
+    private static final int DEFAULT_DAYS = 14;
+    private static final int MAX_DAYS = 100000;
+
+    /* Responses are written in chunks of this size, which is also the granularity of throttling */
+    private static final int WRITE_CHUNK_SIZE = 1024;
+
+    /* How long an idle kept-alive connection is held open */
+    private static final int IDLE_TIMEOUT_MILLIS = (int) TimeUnit.SECONDS.toMillis(30);
+
+    private static final String CHARSET_HEADERS = "ISO-8859-1";
+
+    private ServerSocket mServerSocket;
+    private Thread mAcceptThread;
+    private ExecutorService mConnectionExecutor;
+
+    private volatile long mLatencyMillis;
+    private volatile long mBandwidthBytesPerSecond;
+    private volatile Compression mCompression = Compression.GZIP;
+    private volatile boolean mValidatorsEnabled = true;
+    private volatile int mErrorResponseCode;
+    private volatile int mForecastErrorCode;
+    private volatile long mSeed = 42;
+
+    private final AtomicInteger mFailuresRemaining = new AtomicInteger();
+    private volatile int mFailureResponseCode;
+
+    /* Bumped by updateForecast, and part of every ETag */
+    private final AtomicInteger mForecastVersion = new AtomicInteger();
+    /* Whole seconds, since that's all the HTTP date format can carry */
+    private volatile long mLastModifiedMillis = truncateToSeconds(System.currentTimeMillis());
+
+    private final AtomicInteger mRequestCount = new AtomicInteger();
+    private final AtomicInteger mNotModifiedCount = new AtomicInteger();
+    private final AtomicInteger mConnectionCount = new AtomicInteger();
+    private final AtomicLong mBytesSent = new AtomicLong();
+    private volatile Map<String, String> mLastRequestHeaders = Collections.emptyMap();
+
+    /**
+     * Starts the server on the loopback interface, on any free port.
+     *
+     * @return This server
+     * @throws IOException If the server socket can't be opened
+     */
+    public StandInWeatherServer start() throws IOException {
+        return start(InetAddress.getByName("127.0.0.1"), 0);
+    }
+
+    /**
+     * Starts the server.
+     *
+     * @param address The address to listen on
+     * @param port    The port to listen on, or 0 for any free port
+     * @return This server
+     * @throws IOException If the server socket can't be opened
+     */
+    public synchronized StandInWeatherServer start(InetAddress address, int port)
+            throws IOException {
+        if (mServerSocket != null) {
+            throw new IllegalStateException("Already started");
+        }
+
+        mServerSocket = new ServerSocket();
+        mServerSocket.setReuseAddress(true);
+        mServerSocket.bind(new InetSocketAddress(address, port), 50);
+
+        mConnectionExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable,
+                        "StandInWeatherServer connection #" + mCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        mAcceptThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                acceptConnections();
+            }
+        }, "StandInWeatherServer");
+        mAcceptThread.setDaemon(true);
+        mAcceptThread.start();
+        return this;
+    }
+
+    /**
+     * Stops accepting connections and closes the ones that are open.
+     */
+    public void shutdown() {
+        ServerSocket serverSocket;
+        synchronized (this) {
+            serverSocket = mServerSocket;
+        }
+        if (serverSocket == null) {
+            return;
+        }
+
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            /* We're shutting down anyway */
+        }
+        mConnectionExecutor.shutdownNow();
+        try {
+            mAcceptThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return The port the server is listening on
+     */
+    public int getPort() {
+        return mServerSocket.getLocalPort();
+    }
+
+    /**
+     * @return The base URL to request forecasts from, for use in place of the app's
+     * FORECAST_BASE_URL
+     */
+    public String getBaseUrl() {
+        String host = mServerSocket.getInetAddress().getHostAddress();
+        if (mServerSocket.getInetAddress().isAnyLocalAddress()) {
+            host = "127.0.0.1";
+        }
+        return "http://" + host + ":" + getPort() + FORECAST_PATH;
+    }
+
+    /**
+     * @param latencyMillis How long to wait before answering each request
+     */
+    public void setLatencyMillis(long latencyMillis) {
+        mLatencyMillis = latencyMillis;
+    }
+
+    /**
+     * @param bytesPerSecond The most bytes per second to send on each connection, or 0 for no
+     *                       limit
+     */
+    public void setBandwidthBytesPerSecond(long bytesPerSecond) {
+        mBandwidthBytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * @param gzipEnabled Whether to gzip responses for clients that accept it
+     */
+    public void setGzipEnabled(boolean gzipEnabled) {
+        setCompression(gzipEnabled ? Compression.GZIP : Compression.NONE);
+    }
+
+    /**
+     * @param compression How to compress responses for clients that accept it
+     */
+    public void setCompression(Compression compression) {
+        mCompression = compression;
+    }
+
+    /**
+     * @param validatorsEnabled Whether to send ETag and Last-Modified, and honour conditional
+     *                          requests
+     */
+    public void setValidatorsEnabled(boolean validatorsEnabled) {
+        mValidatorsEnabled = validatorsEnabled;
+    }
+
+    /**
+     * @param responseCode HTTP status to answer every request with, or 0 to serve forecasts
+     */
+    public void setErrorResponseCode(int responseCode) {
+        mErrorResponseCode = responseCode;
+    }
+
+    /**
+     * @param errorCode "cod" to answer every request with in a 200 response, or 0 to serve
+     *                  forecasts
+     */
+    public void setForecastErrorCode(int errorCode) {
+        mForecastErrorCode = errorCode;
+    }
+
+    /**
+     * Answers the next {@code count} requests with an HTTP error, then goes back to normal.
+     *
+     * @param count        Number of requests to fail
+     * @param responseCode The HTTP status to fail them with
+     */
+    public void failNextRequests(int count, int responseCode) {
+        mFailureResponseCode = responseCode;
+        mFailuresRemaining.set(count);
+    }
+
+    /**
+     * @param seed Seed for the synthetic weather. Changing it changes every forecast.
+     */
+    public void setSeed(long seed) {
+        mSeed = seed;
+    }
+
+    /**
+     * Simulates the server publishing a new forecast: the weather changes, and so do the ETag
+     * and Last-Modified date, so conditional requests get a full response again.
+     */
+    public void updateForecast() {
+        mForecastVersion.incrementAndGet();
+        /* Make sure the new date is later than the old one, even at one second resolution */
+        long now = truncateToSeconds(System.currentTimeMillis());
+        mLastModifiedMillis = Math.max(now, mLastModifiedMillis + 1000);
+    }
+
+    /**
+     * Builds the forecast this server currently answers a request for the location with, so
+     * tests can compare what the app parsed against it.
+     *
+     * @param location The "q" query parameter of the request
+     * @param numDays  The "cnt" query parameter of the request
+     * @return The JSON body of the response, before any compression
+     */
+    public String getForecastJson(String location, int numDays) {
+        return SyntheticForecast.createJson(numDays,
+                createSeed(location, mForecastVersion.get()));
+    }
+
+    /**
+     * @return The number of requests answered, whatever the answer was
+     */
+    public int getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    /**
+     * @return The number of requests answered with 304 Not Modified
+     */
+    public int getNotModifiedCount() {
+        return mNotModifiedCount.get();
+    }
+
+    /**
+     * @return The number of connections accepted. Fewer connections than requests means
+     * connections are being reused.
+     */
+    public int getConnectionCount() {
+        return mConnectionCount.get();
+    }
+
+    /**
+     * @return The number of bytes sent, headers included
+     */
+    public long getBytesSent() {
+        return mBytesSent.get();
+    }
+
+    /**
+     * @return The headers of the most recent request, keyed by lower case header name
+     */
+    public Map<String, String> getLastRequestHeaders() {
+        return mLastRequestHeaders;
+    }
+
+    private void acceptConnections() {
+        while (!mServerSocket.isClosed()) {
+            final Socket socket;
+            try {
+                socket = mServerSocket.accept();
+            } catch (IOException e) {
+                /* Thrown when the server socket is closed in shutdown() */
+                continue;
+            }
+
+            mConnectionCount.incrementAndGet();
+            try {
+                mConnectionExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        serveConnection(socket);
+                    }
+                });
+            } catch (RuntimeException e) {
+                /* Rejected because we're shutting down */
+                closeQuietly(socket);
+            }
+        }
+    }
+
+    private void serveConnection(Socket socket) {
+        try {
+            socket.setSoTimeout(IDLE_TIMEOUT_MILLIS);
+            socket.setTcpNoDelay(true);
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+
+            boolean keepAlive = true;
+            while (keepAlive && !Thread.currentThread().isInterrupted()) {
+                keepAlive = serveRequest(in, out);
+            }
+        } catch (InterruptedIOException | SocketException e) {
+            /* Idle too long, shut down, or the client went away */
+        } catch (IOException e) {
+            System.err.println("StandInWeatherServer: " + e);
+        } finally {
+            closeQuietly(socket);
+        }
+    }
+
+    /**
+     * Reads one request from the connection and answers it.
+     *
+     * @return true if the connection should be kept open for another request
+     */
+    private boolean serveRequest(InputStream in, OutputStream out) throws IOException {
+        String requestLine = readLine(in);
+        if (requestLine == null || requestLine.isEmpty()) {
+            return false;
+        }
+
+        Map<String, String> headers = new HashMap<>();
+        String line;
+        while ((line = readLine(in)) != null && !line.isEmpty()) {
+            int colon = line.indexOf(':');
+            if (colon > 0) {
+                headers.put(line.substring(0, colon).trim().toLowerCase(Locale.US),
+                        line.substring(colon + 1).trim());
+            }
+        }
+
+        mRequestCount.incrementAndGet();
+        mLastRequestHeaders = headers;
+
+        String[] parts = requestLine.split(" ");
+        String target = parts.length > 1 ? parts[1] : "/";
+        boolean keepAlive = !"close".equalsIgnoreCase(headers.get("connection"))
+                && !requestLine.endsWith("HTTP/1.0");
+
+        sleep(mLatencyMillis);
+
+        if (takeFailure()) {
+            sendError(out, mFailureResponseCode, keepAlive);
+            return keepAlive;
+        }
+
+        int errorResponseCode = mErrorResponseCode;
+        if (errorResponseCode != 0) {
+            sendError(out, errorResponseCode, keepAlive);
+            return keepAlive;
+        }
+
+        Map<String, String> query = parseQuery(target);
+        int numDays = parseDays(query.get("cnt"));
+        String location = query.containsKey("q")
+                ? query.get("q")
+                : query.get("lat") + "," + query.get("lon");
+
+        int forecastErrorCode = mForecastErrorCode;
+        if (forecastErrorCode != 0) {
+            byte[] body = SyntheticForecast.createErrorJson(forecastErrorCode).getBytes("UTF-8");
+            sendResponse(out, 200, "OK", new HashMap<String, String>(), body, headers, keepAlive);
+            return keepAlive;
+        }
+
+        int version = mForecastVersion.get();
+        long lastModifiedMillis = mLastModifiedMillis;
+        Map<String, String> responseHeaders = new HashMap<>();
+
+        if (mValidatorsEnabled) {
+            String eTag = "\"" + Integer.toHexString(location.hashCode()) + "-" + numDays
+                    + "-" + Long.toHexString(mSeed) + "-" + version + "\"";
+            String lastModified = formatHttpDate(lastModifiedMillis);
+            responseHeaders.put("ETag", eTag);
+            responseHeaders.put("Last-Modified", lastModified);
+
+            if (isNotModified(headers, eTag, lastModifiedMillis)) {
+                mNotModifiedCount.incrementAndGet();
+                sendResponse(out, 304, "Not Modified", responseHeaders, null, headers, keepAlive);
+                return keepAlive;
+            }
+        }
+
+        long seed = createSeed(location, version);
+        String json;
+        if (query.containsKey("lat") && query.containsKey("lon")) {
+            json = SyntheticForecast.createJson(numDays, seed,
+                    parseDouble(query.get("lat"), SyntheticForecast.CITY_LATITUDE),
+                    parseDouble(query.get("lon"), SyntheticForecast.CITY_LONGITUDE));
+        } else {
+            json = SyntheticForecast.createJson(numDays, seed);
+        }
+
+        responseHeaders.put("Content-Type", "application/json; charset=utf-8");
+        sendResponse(out, 200, "OK", responseHeaders, json.getBytes("UTF-8"), headers, keepAlive);
+        return keepAlive;
+    }
+
+    /**
+     * @return The seed of the synthetic weather for the location at the given forecast version
+     */
+    private long createSeed(String location, int version) {
+        return mSeed * 31 + location.hashCode() * 17L + version;
+    }
+
+    /**
+     * @return true if this request is one of those {@link #failNextRequests} asked to fail
+     */
+    private boolean takeFailure() {
+        while (true) {
+            int remaining = mFailuresRemaining.get();
+            if (remaining <= 0) {
+                return false;
+            }
+            if (mFailuresRemaining.compareAndSet(remaining, remaining - 1)) {
+                return true;
+            }
+        }
+    }
+
+    private boolean isNotModified(Map<String, String> requestHeaders, String eTag,
+                                  long lastModifiedMillis) {
+        String ifNoneMatch = requestHeaders.get("if-none-match");
+        if (ifNoneMatch != null) {
+            /* If-None-Match takes precedence over If-Modified-Since when both are sent */
+            return ifNoneMatch.equals("*") || ifNoneMatch.contains(eTag);
+        }
+
+        String ifModifiedSince = requestHeaders.get("if-modified-since");
+        if (ifModifiedSince != null) {
+            try {
+                return parseHttpDate(ifModifiedSince) >= lastModifiedMillis;
+            } catch (ParseException e) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    private void sendError(OutputStream out, int responseCode, boolean keepAlive)
+            throws IOException {
+        byte[] body = SyntheticForecast.createErrorJson(responseCode).getBytes("UTF-8");
+        Map<String, String> responseHeaders = new HashMap<>();
+        responseHeaders.put("Content-Type", "application/json; charset=utf-8");
+        sendResponse(out, responseCode, "Stand-in Error", responseHeaders, body,
+                Collections.<String, String>emptyMap(), keepAlive);
+    }
+
+    private void sendResponse(OutputStream out, int responseCode, String reason,
+                              Map<String, String> responseHeaders, byte[] body,
+                              Map<String, String> requestHeaders, boolean keepAlive)
+            throws IOException {
+        if (body == null) {
+            body = new byte[0];
+        }
+
+        Compression compression = mCompression;
+        String acceptEncoding = requestHeaders.get("accept-encoding");
+        if (compression != Compression.NONE && body.length > 0 && acceptEncoding != null
+                && acceptEncoding.contains(compression.mContentEncoding)) {
+            body = compress(body, compression);
+            responseHeaders.put("Content-Encoding", compression.mContentEncoding);
+        }
+
+        StringBuilder head = new StringBuilder();
+        head.append("HTTP/1.1 ").append(responseCode).append(' ').append(reason).append("\r\n");
+        for (Map.Entry<String, String> header : responseHeaders.entrySet()) {
+            head.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+        }
+        head.append("Date: ").append(formatHttpDate(System.currentTimeMillis())).append("\r\n");
+        head.append("Content-Length: ").append(body.length).append("\r\n");
+        head.append("Connection: ").append(keepAlive ? "keep-alive" : "close").append("\r\n");
+        head.append("\r\n");
+
+        ByteArrayOutputStream response = new ByteArrayOutputStream(head.length() + body.length);
+        response.write(head.toString().getBytes(CHARSET_HEADERS));
+        response.write(body);
+        writeThrottled(out, response.toByteArray());
+    }
+
+    /**
+     * Writes the bytes in chunks, pausing between them to stay within the bandwidth cap.
+     */
+    private void writeThrottled(OutputStream out, byte[] bytes) throws IOException {
+        long bytesPerSecond = mBandwidthBytesPerSecond;
+        long start = System.nanoTime();
+
+        for (int offset = 0; offset < bytes.length; offset += WRITE_CHUNK_SIZE) {
+            int count = Math.min(WRITE_CHUNK_SIZE, bytes.length - offset);
+            out.write(bytes, offset, count);
+            mBytesSent.addAndGet(count);
+
+            if (bytesPerSecond > 0) {
+                out.flush();
+                long dueNanos = TimeUnit.SECONDS.toNanos(offset + count) / bytesPerSecond;
+                long aheadNanos = dueNanos - (System.nanoTime() - start);
+                if (aheadNanos > 0) {
+                    sleep(TimeUnit.NANOSECONDS.toMillis(aheadNanos));
+                }
+            }
+        }
+        out.flush();
+    }
+
+    private static byte[] compress(byte[] bytes, Compression compression) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(bytes.length / 4 + 64);
+        if (compression == Compression.GZIP) {
+            GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+            gzip.write(bytes);
+            gzip.close();
+        } else {
+            Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION,
+                    compression == Compression.RAW_DEFLATE);
+            DeflaterOutputStream deflate = new DeflaterOutputStream(compressed, deflater);
+            deflate.write(bytes);
+            deflate.close();
+            deflater.end();
+        }
+        return compressed.toByteArray();
+    }
+
+    /**
+     * Reads a CRLF (or LF) terminated line of ISO-8859-1 text.
+     *
+     * @return The line without its terminator, or null at the end of the stream
+     */
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) != -1) {
+            if (c == '\n') {
+                int length = line.length();
+                if (length > 0 && line.charAt(length - 1) == '\r') {
+                    line.setLength(length - 1);
+                }
+                return line.toString();
+            }
+            line.append((char) c);
+        }
+        return line.length() > 0 ? line.toString() : null;
+    }
+
+    private static Map<String, String> parseQuery(String target) throws IOException {
+        Map<String, String> query = new HashMap<>();
+        int questionMark = target.indexOf('?');
+        if (questionMark < 0) {
+            return query;
+        }
+
+        for (String pair : target.substring(questionMark + 1).split("&")) {
+            if (pair.isEmpty()) {
+                continue;
+            }
+            int equals = pair.indexOf('=');
+            String name = equals < 0 ? pair : pair.substring(0, equals);
+            String value = equals < 0 ? "" : pair.substring(equals + 1);
+            query.put(URLDecoder.decode(name, "UTF-8"), URLDecoder.decode(value, "UTF-8"));
+        }
+        return query;
+    }
+
+    private static int parseDays(String cnt) {
+        if (cnt == null) {
+            return DEFAULT_DAYS;
+        }
+        try {
+            return Math.max(0, Math.min(MAX_DAYS, Integer.parseInt(cnt)));
+        } catch (NumberFormatException e) {
+            return DEFAULT_DAYS;
+        }
+    }
+
+    private static double parseDouble(String value, double fallback) {
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException | NullPointerException e) {
+            return fallback;
+        }
+    }
+
+    private static SimpleDateFormat createHttpDateFormat() {
+        /* SimpleDateFormat isn't thread safe, so every caller gets its own */
+        SimpleDateFormat format =
+                new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return format;
+    }
+
+    private static String formatHttpDate(long millis) {
+        return createHttpDateFormat().format(new Date(millis));
+    }
+
+    private static long parseHttpDate(String date) throws ParseException {
+        return createHttpDateFormat().parse(date).getTime();
+    }
+
+    private static long truncateToSeconds(long millis) {
+        return millis - millis % 1000;
+    }
+
+    private static void sleep(long millis) throws InterruptedIOException {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted");
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            /* Nothing more we can do */
+        }
+    }
+
+    /**
+     * Runs the server from the command line until it is killed. Options:
+     * <pre>
+     *   --host ADDRESS      Address to listen on (default 0.0.0.0)
+     *   --port PORT         Port to listen on (default 8080)
+     *   --latency MILLIS    Delay before each response
+     *   --bandwidth BYTES   Upload cap in bytes per second
+     *   --error CODE        Answer every request with this HTTP status
+     *   --cod CODE          Answer every request with this error "cod" in the JSON
+     *   --seed SEED         Seed for the synthetic weather
+     *   --no-gzip           Never compress responses
+     *   --no-validators     Don't send ETag and Last-Modified
+     * </pre>
+     *
+     * @param args Command line options
+     * @throws IOException If the server can't be started
+     */
+    public static void main(String[] args) throws IOException {
+        StandInWeatherServer server = new StandInWeatherServer();
+        String host = "0.0.0.0";
+        int port = 8080;
+
+        for (int i = 0; i < args.length; i++) {
+            String option = args[i];
+            switch (option) {
+                case "--host":
+                    host = args[++i];
+                    break;
+                case "--port":
+                    port = Integer.parseInt(args[++i]);
+                    break;
+                case "--latency":
+                    server.setLatencyMillis(Long.parseLong(args[++i]));
+                    break;
+                case "--bandwidth":
+                    server.setBandwidthBytesPerSecond(Long.parseLong(args[++i]));
+                    break;
+                case "--error":
+                    server.setErrorResponseCode(Integer.parseInt(args[++i]));
+                    break;
+                case "--cod":
+                    server.setForecastErrorCode(Integer.parseInt(args[++i]));
+                    break;
+                case "--seed":
+                    server.setSeed(Long.parseLong(args[++i]));
+                    break;
+                case "--no-gzip":
+                    server.setGzipEnabled(false);
+                    break;
+                case "--no-validators":
+                    server.setValidatorsEnabled(false);
+                    break;
+                default:
+                    System.err.println("Unknown option: " + option);
+                    System.exit(2);
+            }
+        }
+
+        server.start(InetAddress.getByName(host), port);
+        System.out.println("Stand-in weather server listening on " + server.getBaseUrl());
+
+        try {
+            server.mAcceptThread.join();
+        } catch (InterruptedException e) {
+            server.shutdown();
+        }
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.weatherserver;
+
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Builds synthetic forecast payloads in the same shape as the responses from the staticweather
+ * server, so the network and parsing code can be exercised with any number of days.
+ */
+public final class SyntheticForecast {
+
+    /* Mountain View, which is also what the staticweather server returns */
+    public static final double CITY_LATITUDE = 37.4192;
+    public static final double CITY_LONGITUDE = -122.0574;
+
+    private static final int[] WEATHER_IDS = {200, 300, 500, 711, 800, 801, 900, 962};
+
+    private SyntheticForecast() {
+    }
+
+    /**
+     * Creates a successful forecast response for Mountain View containing {@code numDays} days of
+     * weather. The same {@code seed} always produces the same payload.
+     *
+     * @param numDays Number of elements in the "list" array
+     * @param seed    Seed for the random weather values
+     * @return JSON forecast response
+     */
+    public static String createJson(int numDays, long seed) {
+        return createJson(numDays, seed, CITY_LATITUDE, CITY_LONGITUDE);
+    }
+
+    /**
+     * Creates a successful forecast response containing {@code numDays} days of weather for the
+     * given coordinates. The same arguments always produce the same payload.
+     *
+     * @param numDays   Number of elements in the "list" array
+     * @param seed      Seed for the random weather values
+     * @param latitude  Latitude reported in "city.coord"
+     * @param longitude Longitude reported in "city.coord"
+     * @return JSON forecast response
+     */
+    public static String createJson(int numDays, long seed, double latitude, double longitude) {
+        Random random = new Random(seed);
+        /* Each day serializes to a little under 300 characters */
+        StringBuilder json = new StringBuilder(512 + numDays * 300);
+
+        json.append("{\"city\":{\"id\":5375480,\"name\":\"Mountain View\",\"coord\":{")
+                .append("\"lon\":").append(longitude)
+                .append(",\"lat\":").append(latitude)
+                .append("},\"country\":\"US\",\"population\":0},")
+                .append("\"cod\":\"200\",\"message\":0.0,\"cnt\":").append(numDays)
+                .append(",\"list\":[");
+
+        long dt = 1475280000L;
+        for (int i = 0; i < numDays; i++) {
+            if (i > 0) json.append(',');
+            double max = 10 + random.nextInt(2500) / 100.0;
+            double min = max - random.nextInt(1000) / 100.0;
+            int weatherId = WEATHER_IDS[random.nextInt(WEATHER_IDS.length)];
+
+            json.append("{\"dt\":").append(dt + i * 86400L)
+                    .append(",\"temp\":{\"day\":").append(format(max - 1))
+                    .append(",\"min\":").append(format(min))
+                    .append(",\"max\":").append(format(max))
+                    .append(",\"night\":").append(format(min + 1))
+                    .append(",\"eve\":").append(format(max - 2))
+                    .append(",\"morn\":").append(format(min + 2))
+                    .append("},\"pressure\":").append(format(990 + random.nextInt(4000) / 100.0))
+                    .append(",\"humidity\":").append(random.nextInt(100))
+                    .append(",\"weather\":[{\"id\":").append(weatherId)
+                    .append(",\"main\":\"Clear\",\"description\":\"sky is clear\",\"icon\":\"01d\"}]")
+                    .append(",\"speed\":").append(format(random.nextInt(1500) / 100.0))
+                    .append(",\"deg\":").append(random.nextInt(360))
+                    .append(",\"clouds\":").append(random.nextInt(100))
+                    .append('}');
+        }
+
+        json.append("]}");
+        return json.toString();
+    }
+
+    /**
+     * Creates a bundle of daily forecasts for {@code numLocations} different locations, each
+     * with {@code numDays} days, in the form ForecastBundleParser reads:
+     * {"cod":"200","cnt":n,"forecasts":[...]}. The locations are spread out on a small grid
+     * around Mountain View. The same arguments always produce the same payload.
+     *
+     * @param numLocations Number of forecasts in the bundle
+     * @param numDays      Number of days in each forecast
+     * @param seed         Seed for the random weather values
+     * @return JSON bundle
+     */
+    public static String createBundleJson(int numLocations, int numDays, long seed) {
+        StringBuilder json = new StringBuilder(64 + numLocations * (512 + numDays * 300));
+        json.append("{\"cod\":\"200\",\"cnt\":").append(numLocations)
+                .append(",\"forecasts\":[");
+        for (int i = 0; i < numLocations; i++) {
+            if (i > 0) json.append(',');
+            json.append(createJson(numDays, seed + i,
+                    getBundleLatitude(i), getBundleLongitude(i)));
+        }
+        json.append("]}");
+        return json.toString();
+    }
+
+    /**
+     * @param index Position of a location in a bundle from {@link #createBundleJson}
+     * @return The latitude of that location
+     */
+    public static double getBundleLatitude(int index) {
+        return CITY_LATITUDE + (index / 10) * 0.1;
+    }
+
+    /**
+     * @param index Position of a location in a bundle from {@link #createBundleJson}
+     * @return The longitude of that location
+     */
+    public static double getBundleLongitude(int index) {
+        return CITY_LONGITUDE + (index % 10) * 0.1;
+    }
+
+    /**
+     * Creates a successful hourly forecast response for Mountain View, in the layout of
+     * OpenWeatherMap's 5 day / 3 hour forecast, containing {@code numPeriods} consecutive periods
+     * of {@code periodHours} hours each. The same arguments always produce the same payload.
+     *
+     * @param numPeriods  Number of elements in the "list" array
+     * @param periodHours Length of each period, for instance 1 or 3
+     * @param seed        Seed for the random weather values
+     * @return JSON forecast response
+     */
+    public static String createHourlyJson(int numPeriods, int periodHours, long seed) {
+        Random random = new Random(seed);
+        /* Each period serializes to a little under 300 characters */
+        StringBuilder json = new StringBuilder(512 + numPeriods * 300);
+
+        json.append("{\"cod\":\"200\",\"message\":0.0,\"cnt\":").append(numPeriods)
+                .append(",\"list\":[");
+
+        long dt = 1475280000L;
+        for (int i = 0; i < numPeriods; i++) {
+            if (i > 0) json.append(',');
+            double temp = 10 + random.nextInt(2500) / 100.0;
+            int weatherId = WEATHER_IDS[random.nextInt(WEATHER_IDS.length)];
+
+            json.append("{\"dt\":").append(dt + i * periodHours * 3600L)
+                    .append(",\"main\":{\"temp\":").append(format(temp))
+                    .append(",\"temp_min\":").append(format(temp - random.nextInt(200) / 100.0))
+                    .append(",\"temp_max\":").append(format(temp + random.nextInt(200) / 100.0))
+                    .append(",\"pressure\":").append(format(990 + random.nextInt(4000) / 100.0))
+                    .append(",\"humidity\":").append(random.nextInt(100))
+                    .append("},\"weather\":[{\"id\":").append(weatherId)
+                    .append(",\"main\":\"Clear\",\"description\":\"clear sky\",\"icon\":\"01d\"}]")
+                    .append(",\"clouds\":{\"all\":").append(random.nextInt(100))
+                    .append("},\"wind\":{\"speed\":").append(format(random.nextInt(1500) / 100.0))
+                    .append(",\"deg\":").append(random.nextInt(360))
+                    .append("}}");
+        }
+
+        json.append("],\"city\":{\"id\":5375480,\"name\":\"Mountain View\",\"coord\":{")
+                .append("\"lat\":").append(CITY_LATITUDE)
+                .append(",\"lon\":").append(CITY_LONGITUDE)
+                .append("},\"country\":\"US\"}}");
+        return json.toString();
+    }
+
+    /**
+     * Creates the body the staticweather server sends along with an error code, for example when
+     * the location can't be found.
+     *
+     * @param errorCode The "cod" to report
+     * @return JSON error response
+     */
+    public static String createErrorJson(int errorCode) {
+        return "{\"cod\":\"" + errorCode + "\",\"message\":\"Stand-in error " + errorCode + "\"}";
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.US, "%.2f", value);
+    }
+}